@@ -22,6 +22,8 @@ import edu.stanford.math.plex4.homology.chain_basis.SimplexPair;
 import edu.stanford.math.plex4.homology.chain_basis.SimplexPairComparator;
 import edu.stanford.math.plex4.homology.interfaces.AbstractPersistenceAlgorithm;
 import edu.stanford.math.plex4.homology.interfaces.AbstractPersistenceBasisAlgorithm;
+import edu.stanford.math.plex4.homology.nonautogen.IntArrayPersistentHomology;
+import edu.stanford.math.plex4.homology.nonautogen.IntPersistentCohomology;
 import edu.stanford.math.plex4.interop.Plex3PersistenceAlgorithm;
 import edu.stanford.math.primitivelib.algebraic.impl.ModularIntField;
 import edu.stanford.math.primitivelib.algebraic.impl.RationalField;
@@ -56,6 +58,18 @@ public class PersistenceAlgorithmInterface {
 		return new ObjectAbsoluteHomology<Fraction, Simplex>(fractionField, SimplexComparator.getInstance(), 0, maxDimension);
 	}
 	
+	public static AbstractPersistenceBasisAlgorithm<Simplex, IntSparseFormalSum<Simplex>> getIntSimplicialArrayAbsoluteHomology(int maxDimension) {
+		return new IntArrayPersistentHomology<Simplex>(intField, SimplexComparator.getInstance(), 0, maxDimension);
+	}
+	
+	public static AbstractPersistenceBasisAlgorithm<Simplex, IntSparseFormalSum<Simplex>> getIntSimplicialTwistAbsoluteHomology(int maxDimension) {
+		return new IntArrayPersistentHomology<Simplex>(intField, SimplexComparator.getInstance(), 0, maxDimension, true);
+	}
+	
+	public static AbstractPersistenceAlgorithm<Simplex> getIntSimplicialCohomology(int maxDimension) {
+		return new IntPersistentCohomology<Simplex>(intField, 0, maxDimension);
+	}
+	
 	public static AbstractPersistenceAlgorithm<Simplex> getBooleanSimplicialClassicalHomology(int maxDimension) {
 		return new BooleanClassicalHomology<Simplex>(SimplexComparator.getInstance(), 0, maxDimension);
 	}
@@ -88,6 +102,9 @@ public class PersistenceAlgorithmInterface {
 		list.add(getRationalSimplicialAbsoluteHomology(maxDimension));
 		list.add(getBooleanSimplicialClassicalHomology(maxDimension));
 		list.add(getIntSimplicialClassicalHomology(maxDimension));
+		list.add(getIntSimplicialArrayAbsoluteHomology(maxDimension));
+		list.add(getIntSimplicialTwistAbsoluteHomology(maxDimension));
+		list.add(getIntSimplicialCohomology(maxDimension));
 		
 		return list;
 	}
@@ -114,6 +131,18 @@ public class PersistenceAlgorithmInterface {
 		return new ObjectAbsoluteHomology<Fraction, Cell>(fractionField, CellComparator.getInstance(), 0, maxDimension);
 	}
 	
+	public static AbstractPersistenceBasisAlgorithm<Cell, IntSparseFormalSum<Cell>> getIntCellularArrayAbsoluteHomology(int maxDimension) {
+		return new IntArrayPersistentHomology<Cell>(intField, CellComparator.getInstance(), 0, maxDimension);
+	}
+	
+	public static AbstractPersistenceBasisAlgorithm<Cell, IntSparseFormalSum<Cell>> getIntCellularTwistAbsoluteHomology(int maxDimension) {
+		return new IntArrayPersistentHomology<Cell>(intField, CellComparator.getInstance(), 0, maxDimension, true);
+	}
+	
+	public static AbstractPersistenceAlgorithm<Cell> getIntCellularCohomology(int maxDimension) {
+		return new IntPersistentCohomology<Cell>(intField, 0, maxDimension);
+	}
+	
 	public static AbstractPersistenceAlgorithm<Cell> getBooleanCellularClassicalHomology(int maxDimension) {
 		return new BooleanClassicalHomology<Cell>(CellComparator.getInstance(), 0, maxDimension);
 	}
@@ -146,6 +175,9 @@ public class PersistenceAlgorithmInterface {
 		list.add(getRationalCellularAbsoluteHomology(maxDimension));
 		list.add(getBooleanCellularClassicalHomology(maxDimension));
 		list.add(getIntCellularClassicalHomology(maxDimension));
+		list.add(getIntCellularArrayAbsoluteHomology(maxDimension));
+		list.add(getIntCellularTwistAbsoluteHomology(maxDimension));
+		list.add(getIntCellularCohomology(maxDimension));
 		
 		return list;
 	}
@@ -9,6 +9,7 @@ import edu.stanford.math.plex4.autogen.homology.BooleanClassicalHomology;
 import edu.stanford.math.plex4.autogen.homology.IntAbsoluteHomology;
 import edu.stanford.math.plex4.autogen.homology.ObjectAbsoluteHomology;
 import edu.stanford.math.plex4.autogen.homology.ObjectPersistenceAlgorithm;
+import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
 import edu.stanford.math.plex4.homology.barcodes.Interval;
 import edu.stanford.math.plex4.homology.barcodes.PersistenceInvariantDescriptor;
 import edu.stanford.math.plex4.homology.chain_basis.Cell;
@@ -17,7 +18,11 @@ import edu.stanford.math.plex4.homology.chain_basis.Simplex;
 import edu.stanford.math.plex4.homology.chain_basis.SimplexComparator;
 import edu.stanford.math.plex4.homology.chain_basis.SimplexPair;
 import edu.stanford.math.plex4.homology.chain_basis.SimplexPairComparator;
+import edu.stanford.math.plex4.homology.filtration.IncreasingLinearConverter;
 import edu.stanford.math.plex4.homology.interfaces.AbstractPersistenceAlgorithm;
+import edu.stanford.math.plex4.homology.nonautogen.IntArrayPersistentHomology;
+import edu.stanford.math.plex4.homology.nonautogen.IntImplicitRipsCohomology;
+import edu.stanford.math.plex4.homology.nonautogen.IntPersistentCohomology;
 import edu.stanford.math.plex4.io.BarcodeWriter;
 import edu.stanford.math.plex4.metric.impl.EuclideanMetricSpace;
 import edu.stanford.math.plex4.metric.interfaces.AbstractIntMetricSpace;
@@ -30,6 +35,7 @@ import edu.stanford.math.plex4.metric.utility.MetricUtility;
 import edu.stanford.math.plex4.streams.derived.HomStream;
 import edu.stanford.math.plex4.streams.impl.ExplicitCellStream;
 import edu.stanford.math.plex4.streams.impl.ExplicitSimplexStream;
+import edu.stanford.math.plex4.streams.impl.FlexibleVietorisRipsStream;
 import edu.stanford.math.plex4.streams.impl.LazyWitnessStream;
 import edu.stanford.math.plex4.streams.impl.VietorisRipsStream;
 import edu.stanford.math.plex4.streams.impl.WitnessStream;
@@ -161,6 +167,39 @@ public class Plex4 {
 		return FilteredStreamInterface.createPlex4VietorisRipsStream(metricSpace, maxDimension, maxFiltrationValue, DEFAULT_NUM_DIVISIONS);
 	}
 	
+	/**
+	 * This function computes the persistence barcodes of the Vietoris-Rips complex of a point
+	 * cloud over Z/2Z. The result is the same as computing the barcodes of the stream returned by 
+	 * createVietorisRipsStream, but the complex is never constructed: its simplices are 
+	 * enumerated from the neighborhood graph as they are needed. Intervals are computed in
+	 * dimensions less than maxDimension.
+	 * 
+	 * @param points the points in the data set 
+	 * @param maxDimension the maximum simplicial dimension in the complex
+	 * @param maxFiltrationValue the maximum filtration value
+	 * @param numDivisions the number of divisions to use in the filtration
+	 * @return the persistence barcodes of the Vietoris-Rips complex
+	 */
+	public static BarcodeCollection<Double> computeVietorisRipsBarcodes(double[][] points, int maxDimension, double maxFiltrationValue, int numDivisions) {
+		return computeVietorisRipsBarcodes(new EuclideanMetricSpace(points), maxDimension, maxFiltrationValue, numDivisions);
+	}
+	
+	/**
+	 * This function computes the persistence barcodes of the Vietoris-Rips complex of a metric
+	 * space over Z/2Z, without constructing the complex.
+	 * 
+	 * @param <T>
+	 * @param metricSpace the metric space
+	 * @param maxDimension the maximum simplicial dimension in the complex
+	 * @param maxFiltrationValue the maximum filtration value
+	 * @param numDivisions the number of divisions to use in the filtration
+	 * @return the persistence barcodes of the Vietoris-Rips complex
+	 */
+	public static <T> BarcodeCollection<Double> computeVietorisRipsBarcodes(AbstractSearchableMetricSpace<T> metricSpace, int maxDimension, double maxFiltrationValue, int numDivisions) {
+		IntImplicitRipsCohomology algorithm = new IntImplicitRipsCohomology(ModularIntField.getInstance(2), maxDimension);
+		return algorithm.computeIntervals(FlexibleVietorisRipsStream.constructNeighborhoodGraph(metricSpace, maxFiltrationValue), new IncreasingLinearConverter(numDivisions, maxFiltrationValue));
+	}
+	
 	/**
 	 * This function creates a Vietoris-Rips complex given a point cloud.
 	 * 
@@ -378,6 +417,35 @@ public class Plex4 {
 		return new IntAbsoluteHomology<Simplex>(ModularIntField.getInstance(prime), SimplexComparator.getInstance(), 0, maxDimension);
 	}
 	
+	/**
+	 * This function returns a simplicial persistence algorithm over the finite field Z/pZ which
+	 * uses the array-based reduction. If useClearing is true, the boundary matrix is reduced from
+	 * the highest dimension down, and columns which are known to reduce to zero are skipped. This
+	 * is typically much faster for Vietoris-Rips complexes.
+	 * 
+	 * @param maxDimension the maximum dimension the algorithm should compute homology for 
+	 * @param prime the order of the underlying finite field
+	 * @param useClearing true to use the clearing (twist) optimization
+	 * @return a simplicial homology algorithm over Z/pZ
+	 */
+	public static AbstractPersistenceAlgorithm<Simplex> getModularSimplicialAlgorithm(int maxDimension, int prime, boolean useClearing) {
+		return new IntArrayPersistentHomology<Simplex>(ModularIntField.getInstance(prime), SimplexComparator.getInstance(), 0, maxDimension, useClearing);
+	}
+	
+	/**
+	 * This function returns a simplicial persistent cohomology algorithm over the finite field Z/pZ.
+	 * It produces the same barcodes as the homology algorithms, but processes the filtration in a
+	 * single pass, and is typically the fastest choice for computing the low dimensional barcodes
+	 * of Vietoris-Rips complexes.
+	 * 
+	 * @param maxDimension the maximum dimension the algorithm should compute cohomology for 
+	 * @param prime the order of the underlying finite field
+	 * @return a simplicial cohomology algorithm over Z/pZ
+	 */
+	public static AbstractPersistenceAlgorithm<Simplex> getModularSimplicialCohomologyAlgorithm(int maxDimension, int prime) {
+		return new IntPersistentCohomology<Simplex>(ModularIntField.getInstance(prime), 0, maxDimension);
+	}
+	
 	/**
 	 * This function returns a simplicial persistence algorithm over the the rational numbers.
 	 * 
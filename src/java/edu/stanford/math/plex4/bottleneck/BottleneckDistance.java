@@ -1,5 +1,8 @@
 package edu.stanford.math.plex4.bottleneck;
 
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TIntArrayList;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -63,43 +66,273 @@ public class BottleneckDistance {
 		return result;
 	}
 	
+	/**
+	 * This function computes the bottleneck distance between two persistence diagrams,
+	 * where each interval may also be matched to the diagonal.
+	 * 
+	 * Intervals with different types of infinite end points are infinitely far apart, so
+	 * the intervals of each type are matched separately. Intervals which are infinite at
+	 * exactly one end are matched in sorted order. The finite intervals are matched by
+	 * a binary search over the candidate distances, where each step tests for a perfect
+	 * matching with the Hopcroft-Karp algorithm. Point pairs are found with a grid over
+	 * each diagram, so that the full bipartite graph is never built.
+	 * 
+	 * @param A the first persistence diagram
+	 * @param B the second persistence diagram
+	 * @return the bottleneck distance between A and B
+	 */
 	public static double computeBottleneckDistance(List<Interval<Double>> A, List<Interval<Double>> B) {
+		return computeBottleneckDistance(new Diagram(A), new Diagram(B), Infinity.Double.getPositiveInfinity());
+	}
+	
+	/**
+	 * This function computes the bottleneck distance between two preprocessed persistence
+	 * diagrams, but gives up as soon as the distance is known to exceed the cutoff.
+	 * 
+	 * @param A the first persistence diagram
+	 * @param B the second persistence diagram
+	 * @param cutoff the largest distance of interest
+	 * @return the bottleneck distance between A and B if it is at most the cutoff, and infinity otherwise
+	 */
+	static double computeBottleneckDistance(Diagram A, Diagram B, double cutoff) {
+		if (A.numDoublyInfinite + B.numDoublyInfinite > 0) {
+			return Infinity.Double.getPositiveInfinity();
+		}
 		
-		int a = A.size();
-		int b = B.size();
+		double bottleneckDistance = computeSortedDistance(A.rightInfiniteStarts, B.rightInfiniteStarts);
+		bottleneckDistance = Math.max(bottleneckDistance, computeSortedDistance(A.leftInfiniteEnds, B.leftInfiniteEnds));
+		if (bottleneckDistance > cutoff) {
+			return Infinity.Double.getPositiveInfinity();
+		}
 		
-		int n = a + b;
+		FiniteMatching matching = new FiniteMatching(A, B, cutoff);
+		return Math.max(bottleneckDistance, matching.computeDistance());
+	}
+	
+	/**
+	 * This class splits a persistence diagram by the types of its intervals, and holds the
+	 * data which the matching algorithms need for each diagram. An instance can be shared
+	 * by several computations, also from several threads.
+	 */
+	static class Diagram {
+		final double[] finiteStarts;
+		final double[] finiteEnds;
+		final double[] diagonalDistances;
+		final DiagramPointGrid grid;
+		
+		/**
+		 * The end points of the half-infinite intervals, in sorted order
+		 */
+		final double[] rightInfiniteStarts;
+		final double[] leftInfiniteEnds;
 		
-		WeightedBipartiteGraph graph = new WeightedBipartiteGraph(n);
+		final int numDoublyInfinite;
+		
+		Diagram(List<Interval<Double>> intervals) {
+			TDoubleArrayList finiteStarts = new TDoubleArrayList();
+			TDoubleArrayList finiteEnds = new TDoubleArrayList();
+			TDoubleArrayList rightInfiniteStarts = new TDoubleArrayList();
+			TDoubleArrayList leftInfiniteEnds = new TDoubleArrayList();
+			int numDoublyInfinite = 0;
+			
+			for (Interval<Double> interval: intervals) {
+				if (interval.isLeftInfinite() && interval.isRightInfinite()) {
+					numDoublyInfinite++;
+				} else if (interval.isLeftInfinite()) {
+					leftInfiniteEnds.add(interval.getEnd());
+				} else if (interval.isRightInfinite()) {
+					rightInfiniteStarts.add(interval.getStart());
+				} else {
+					finiteStarts.add(interval.getStart());
+					finiteEnds.add(interval.getEnd());
+				}
+			}
+			
+			this.finiteStarts = finiteStarts.toNativeArray();
+			this.finiteEnds = finiteEnds.toNativeArray();
+			this.rightInfiniteStarts = rightInfiniteStarts.toNativeArray();
+			this.leftInfiniteEnds = leftInfiniteEnds.toNativeArray();
+			this.numDoublyInfinite = numDoublyInfinite;
+			
+			Arrays.sort(this.rightInfiniteStarts);
+			Arrays.sort(this.leftInfiniteEnds);
+			
+			this.diagonalDistances = new double[this.finiteStarts.length];
+			for (int i = 0; i < this.finiteStarts.length; i++) {
+				this.diagonalDistances[i] = 0.5 * Math.abs(this.finiteEnds[i] - this.finiteStarts[i]);
+			}
+			this.grid = new DiagramPointGrid(this.finiteStarts, this.finiteEnds);
+		}
+	}
+	
+	/**
+	 * This function computes the bottleneck distance between two sorted sets of numbers
+	 * which may not be matched to the diagonal. In this case matching in sorted order is
+	 * optimal.
+	 */
+	private static double computeSortedDistance(double[] a, double[] b) {
+		if (a.length != b.length) {
+			return Infinity.Double.getPositiveInfinity();
+		}
 		
 		double distance = 0;
+		for (int i = 0; i < a.length; i++) {
+			distance = Math.max(distance, Math.abs(a[i] - b[i]));
+		}
 		
-		for (int i = 0; i < a; i++) {
-			for (int j = 0; j < b; j++) {
-				distance = BottleneckDistance.distance(A.get(i), B.get(j));
-				graph.addEdge(i, j, distance);
+		return distance;
+	}
+	
+	/**
+	 * <p>This class computes the bottleneck distance between the finite parts of two
+	 * persistence diagrams.</p>
+	 * 
+	 * <p>At a threshold t, call a point heavy if its distance to the diagonal exceeds t.
+	 * Light points can be matched to the diagonal, and the diagonal copies of the matched
+	 * points can be matched among each other. Thus a perfect matching of the usual
+	 * bipartite graph exists exactly if some matching of point pairs within distance t
+	 * covers all heavy points. By the Mendelsohn-Dulmage theorem this is the case if
+	 * there is one matching covering the heavy points of A and one covering the heavy
+	 * points of B, and each of these is a maximum matching problem of the size of the
+	 * heavy points.</p>
+	 * 
+	 * <p>A pair of points within distance t of each other which are both light is never
+	 * needed. Hence the answer is 0, a distance to the diagonal, or the distance of a
+	 * pair which is smaller than the larger distance to the diagonal of the two points.
+	 * Given a cutoff, only the candidates up to the cutoff are generated, after checking
+	 * that the cutoff itself is feasible.</p>
+	 */
+	private static class FiniteMatching {
+		private final double[] startsA, endsA, diagonalDistancesA;
+		private final double[] startsB, endsB, diagonalDistancesB;
+		private final DiagramPointGrid gridA, gridB;
+		private final double cutoff;
+		private final TIntArrayList neighbors = new TIntArrayList();
+		
+		FiniteMatching(Diagram A, Diagram B, double cutoff) {
+			this.startsA = A.finiteStarts;
+			this.endsA = A.finiteEnds;
+			this.startsB = B.finiteStarts;
+			this.endsB = B.finiteEnds;
+			this.diagonalDistancesA = A.diagonalDistances;
+			this.diagonalDistancesB = B.diagonalDistances;
+			this.gridA = A.grid;
+			this.gridB = B.grid;
+			this.cutoff = cutoff;
+		}
+		
+		/**
+		 * @return the distance, or infinity if it exceeds the cutoff
+		 */
+		double computeDistance() {
+			if (this.cutoff < Infinity.Double.getPositiveInfinity() && !this.isFeasible(this.cutoff)) {
+				return Infinity.Double.getPositiveInfinity();
+			}
+			
+			double[] candidates = this.computeCandidates();
+			
+			// the largest candidate is the largest distance to the diagonal, for which
+			// every point is light, or it is at least the distance since the cutoff is
+			// feasible
+			int minimumValidIndex = candidates.length - 1;
+			int maximumInvalidIndex = -1;
+			while (minimumValidIndex > maximumInvalidIndex + 1) {
+				int currentIndex = (maximumInvalidIndex + minimumValidIndex) >>> 1;
+				if (this.isFeasible(candidates[currentIndex])) {
+					minimumValidIndex = currentIndex;
+				} else {
+					maximumInvalidIndex = currentIndex;
+				}
 			}
+			
+			return candidates[minimumValidIndex];
 		}
 		
-		for (int i = 0; i < a; i++) {
-			distance = BottleneckDistance.distanceToDiagonal(A.get(i));
-			graph.addEdge(i, b + i, distance);
+		/**
+		 * This function returns the sorted distinct values up to the cutoff which the
+		 * distance can take.
+		 */
+		private double[] computeCandidates() {
+			TDoubleArrayList candidates = new TDoubleArrayList();
+			candidates.add(0);
+			this.addDiagonalDistances(this.diagonalDistancesA, candidates);
+			this.addDiagonalDistances(this.diagonalDistancesB, candidates);
+			addPairDistances(this.startsA, this.endsA, this.diagonalDistancesA, this.startsB, this.endsB, this.gridB, candidates);
+			addPairDistances(this.startsB, this.endsB, this.diagonalDistancesB, this.startsA, this.endsA, this.gridA, candidates);
+			
+			candidates.sort();
+			int size = 0;
+			for (int i = 0; i < candidates.size(); i++) {
+				if (size == 0 || candidates.getQuick(i) != candidates.getQuick(size - 1)) {
+					candidates.setQuick(size++, candidates.getQuick(i));
+				}
+			}
+			return candidates.toNativeArray(0, size);
 		}
 		
-		for (int j = 0; j < b; j++) {
-			distance = BottleneckDistance.distanceToDiagonal(B.get(j));
-			graph.addEdge(a + j, j, distance);
+		private void addDiagonalDistances(double[] diagonalDistances, TDoubleArrayList candidates) {
+			for (int i = 0; i < diagonalDistances.length; i++) {
+				if (diagonalDistances[i] <= this.cutoff) {
+					candidates.add(diagonalDistances[i]);
+				}
+			}
 		}
 		
-		for (int i = 0; i < a; i++) {
-			for (int j = 0; j < b; j++) {
-				graph.addEdge(a + j, b + i, 0);
+		/**
+		 * This function adds the distances from each point p to the points within a
+		 * distance smaller than the distance from p to the diagonal, up to the cutoff.
+		 */
+		private void addPairDistances(double[] starts, double[] ends, double[] diagonalDistances, double[] otherStarts, double[] otherEnds, DiagramPointGrid otherGrid, TDoubleArrayList candidates) {
+			for (int i = 0; i < starts.length; i++) {
+				this.neighbors.resetQuick();
+				double radius = Math.min(diagonalDistances[i], this.cutoff);
+				otherGrid.query(starts[i], ends[i], radius, this.neighbors);
+				for (int k = 0; k < this.neighbors.size(); k++) {
+					int j = this.neighbors.getQuick(k);
+					double distance = BottleneckDistance.distance(starts[i], ends[i], otherStarts[j], otherEnds[j]);
+					if (distance < diagonalDistances[i] && distance <= this.cutoff) {
+						candidates.add(distance);
+					}
+				}
 			}
 		}
 		
-		double bottleneckDistance = graph.computePerfectMatchingThreshold();
+		private boolean isFeasible(double threshold) {
+			return this.coversHeavyPoints(threshold, this.startsA, this.endsA, this.diagonalDistancesA, this.startsB.length, this.gridB)
+				&& this.coversHeavyPoints(threshold, this.startsB, this.endsB, this.diagonalDistancesB, this.startsA.length, this.gridA);
+		}
 		
-		return bottleneckDistance;
+		/**
+		 * This function tests whether the heavy points of one diagram can be matched to
+		 * points of the other diagram within the threshold distance.
+		 */
+		private boolean coversHeavyPoints(double threshold, double[] starts, double[] ends, double[] diagonalDistances, int numOther, DiagramPointGrid otherGrid) {
+			int numHeavy = 0;
+			for (int i = 0; i < starts.length; i++) {
+				if (diagonalDistances[i] > threshold) {
+					numHeavy++;
+				}
+			}
+			if (numHeavy > numOther) {
+				return false;
+			}
+			
+			int[] offsets = new int[numHeavy + 1];
+			this.neighbors.resetQuick();
+			int u = 0;
+			for (int i = 0; i < starts.length; i++) {
+				if (diagonalDistances[i] > threshold) {
+					otherGrid.query(starts[i], ends[i], threshold, this.neighbors);
+					if (this.neighbors.size() == offsets[u]) {
+						return false;
+					}
+					offsets[++u] = this.neighbors.size();
+				}
+			}
+			
+			HopcroftKarp matching = new HopcroftKarp(numHeavy, numOther, offsets, this.neighbors.toNativeArray());
+			return (matching.computeMaximumMatching() == numHeavy);
+		}
 	}
 	
 	static double distanceToDiagonal(Interval<Double> A) {
@@ -111,7 +344,7 @@ public class BottleneckDistance {
 	}
 	
 	static double distance(Interval<Double> A, Interval<Double> B) {
-		if (!A.isLeftInfinite() && !B.isRightInfinite() && !A.isRightInfinite() && !B.isRightInfinite()) {
+		if (!A.isLeftInfinite() && !B.isLeftInfinite() && !A.isRightInfinite() && !B.isRightInfinite()) {
 			double startDifference = Math.abs(A.getStart() - B.getStart());
 			double endDifference = Math.abs(A.getEnd() - B.getEnd());
 			return Math.max(startDifference, endDifference);
@@ -127,4 +360,8 @@ public class BottleneckDistance {
 		
 		return Infinity.Double.getPositiveInfinity();
 	}
+	
+	static double distance(double startA, double endA, double startB, double endB) {
+		return Math.max(Math.abs(startA - startB), Math.abs(endA - endB));
+	}
 }
@@ -0,0 +1,124 @@
+package edu.stanford.math.plex4.bottleneck;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
+import edu.stanford.math.plex4.homology.barcodes.Interval;
+import edu.stanford.math.primitivelib.utility.Infinity;
+
+/**
+ * <p>This class computes the matrix of bottleneck distances between all pairs of a list of
+ * persistence diagrams, such as the barcodes of the subsets of a bootstrap.</p>
+ *
+ * <p>Each diagram is preprocessed once, and the preprocessed diagrams are shared by all
+ * pairs. The pairs are evaluated in parallel by a fixed number of threads, one row of the
+ * upper triangle at a time. A pair whose distance exceeds the cutoff is abandoned as soon
+ * as this is known, and its entry is set to infinity.</p>
+ */
+public class BottleneckDistanceMatrix {
+
+	/**
+	 * This function computes the bottleneck distances between the intervals at a given
+	 * dimension of all pairs of barcode collections, using one thread per processor.
+	 *
+	 * @param barcodes the list of barcode collections
+	 * @param dimension the dimension of the intervals to compare
+	 * @return the symmetric matrix of bottleneck distances
+	 */
+	public static double[][] computeDistanceMatrix(List<BarcodeCollection<Double>> barcodes, int dimension) {
+		return computeDistanceMatrix(barcodes, dimension, Infinity.Double.getPositiveInfinity(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * This function computes the bottleneck distances between the intervals at a given
+	 * dimension of all pairs of barcode collections.
+	 *
+	 * @param barcodes the list of barcode collections
+	 * @param dimension the dimension of the intervals to compare
+	 * @param cutoff the largest distance of interest
+	 * @param numThreads the number of threads to use
+	 * @return the symmetric matrix of bottleneck distances, where distances larger than the cutoff are infinite
+	 */
+	public static double[][] computeDistanceMatrix(List<BarcodeCollection<Double>> barcodes, int dimension, double cutoff, int numThreads) {
+		List<List<Interval<Double>>> diagrams = new ArrayList<List<Interval<Double>>>();
+		for (BarcodeCollection<Double> collection: barcodes) {
+			diagrams.add(collection.getIntervalsAtDimension(dimension));
+		}
+		return computeDiagramDistanceMatrix(diagrams, cutoff, numThreads);
+	}
+
+	/**
+	 * This function computes the bottleneck distances between all pairs of persistence
+	 * diagrams.
+	 *
+	 * @param diagrams the list of persistence diagrams
+	 * @param cutoff the largest distance of interest
+	 * @param numThreads the number of threads to use
+	 * @return the symmetric matrix of bottleneck distances, where distances larger than the cutoff are infinite
+	 */
+	public static double[][] computeDiagramDistanceMatrix(List<List<Interval<Double>>> diagrams, final double cutoff, int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("The number of threads must be positive");
+		}
+
+		final int n = diagrams.size();
+		final BottleneckDistance.Diagram[] preprocessedDiagrams = new BottleneckDistance.Diagram[n];
+		for (int i = 0; i < n; i++) {
+			preprocessedDiagrams[i] = new BottleneckDistance.Diagram(diagrams.get(i));
+		}
+
+		final double[][] distances = new double[n][n];
+
+		if (numThreads == 1) {
+			for (int i = 0; i < n; i++) {
+				computeRow(preprocessedDiagrams, i, cutoff, distances);
+			}
+			return distances;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Void>> rows = new ArrayList<Future<Void>>();
+			for (int i = 0; i < n; i++) {
+				final int row = i;
+				rows.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						computeRow(preprocessedDiagrams, row, cutoff, distances);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> row: rows) {
+				row.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return distances;
+	}
+
+	/**
+	 * This function computes the entries of a row in the upper triangle, and mirrors them
+	 * to the lower triangle. Different rows write to disjoint entries.
+	 */
+	private static void computeRow(BottleneckDistance.Diagram[] diagrams, int i, double cutoff, double[][] distances) {
+		for (int j = i + 1; j < diagrams.length; j++) {
+			double distance = BottleneckDistance.computeBottleneckDistance(diagrams[i], diagrams[j], cutoff);
+			distances[i][j] = distance;
+			distances[j][i] = distance;
+		}
+	}
+}
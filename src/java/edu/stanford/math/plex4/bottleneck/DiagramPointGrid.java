@@ -0,0 +1,178 @@
+package edu.stanford.math.plex4.bottleneck;
+
+import gnu.trove.TIntArrayList;
+
+/**
+ * This class implements a uniform grid over the points of a persistence diagram. It
+ * supports queries for all points within a given L-infinity distance of a query point,
+ * which only visit the grid cells that intersect the query box, and for the points in
+ * rings of cells around a query point.
+ */
+class DiagramPointGrid {
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	private final int numColumns;
+	private final int numRows;
+
+	/**
+	 * The points of cell c are stored at the positions cellOffsets[c] to
+	 * cellOffsets[c + 1] - 1 of the arrays below.
+	 */
+	private final int[] cellOffsets;
+	private final int[] ids;
+	private final double[] xs;
+	private final double[] ys;
+
+	DiagramPointGrid(double[] x, double[] y) {
+		int n = x.length;
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[i]);
+			maxX = Math.max(maxX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+
+		// use about one point per cell along the larger side
+		int side = Math.max(1, (int) Math.ceil(Math.sqrt(n)));
+		double span = Math.max(maxX - minX, maxY - minY);
+		if (n == 0 || !(span > 0) || Double.isInfinite(span)) {
+			this.minX = 0;
+			this.minY = 0;
+			this.cellSize = Double.POSITIVE_INFINITY;
+			this.numColumns = 1;
+			this.numRows = 1;
+		} else {
+			this.minX = minX;
+			this.minY = minY;
+			this.cellSize = span / side;
+			this.numColumns = Math.min(side, (int) ((maxX - minX) / this.cellSize) + 1);
+			this.numRows = Math.min(side, (int) ((maxY - minY) / this.cellSize) + 1);
+		}
+
+		int[] cells = new int[n];
+		this.cellOffsets = new int[this.numColumns * this.numRows + 1];
+		for (int i = 0; i < n; i++) {
+			cells[i] = this.getRow(y[i]) * this.numColumns + this.getColumn(x[i]);
+			this.cellOffsets[cells[i] + 1]++;
+		}
+		for (int c = 0; c < this.numColumns * this.numRows; c++) {
+			this.cellOffsets[c + 1] += this.cellOffsets[c];
+		}
+
+		this.ids = new int[n];
+		this.xs = new double[n];
+		this.ys = new double[n];
+		int[] positions = this.cellOffsets.clone();
+		for (int i = 0; i < n; i++) {
+			int position = positions[cells[i]]++;
+			this.ids[position] = i;
+			this.xs[position] = x[i];
+			this.ys[position] = y[i];
+		}
+	}
+
+	/**
+	 * This function appends the indices of all points whose L-infinity distance to the
+	 * point (x, y) is at most the given radius to the result list.
+	 *
+	 * @param x the first coordinate of the query point
+	 * @param y the second coordinate of the query point
+	 * @param radius the maximum distance
+	 * @param result the list to append the indices to
+	 */
+	void query(double x, double y, double radius, TIntArrayList result) {
+		// the cell ranges are widened by one to be safe against rounding
+		int firstColumn = Math.max(0, this.getColumn(x - radius) - 1);
+		int lastColumn = Math.min(this.numColumns - 1, this.getColumn(x + radius) + 1);
+		int firstRow = Math.max(0, this.getRow(y - radius) - 1);
+		int lastRow = Math.min(this.numRows - 1, this.getRow(y + radius) + 1);
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			int start = this.cellOffsets[row * this.numColumns + firstColumn];
+			int end = this.cellOffsets[row * this.numColumns + lastColumn + 1];
+			for (int position = start; position < end; position++) {
+				if (BottleneckDistance.distance(x, y, this.xs[position], this.ys[position]) <= radius) {
+					result.add(this.ids[position]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * This function appends the indices of all points in the grid cells whose row and
+	 * column differ by at most ring from the cell of the query point, with equality in at
+	 * least one of the two. Every such point has an L-infinity distance of at least
+	 * (ring - 1) times the cell size from the query point, so that a nearest neighbor
+	 * search can visit the rings in increasing order and stop early.
+	 *
+	 * @param x the first coordinate of the query point
+	 * @param y the second coordinate of the query point
+	 * @param ring the ring of cells to visit
+	 * @param result the list to append the indices to
+	 * @return false if the ring does not intersect the grid, in which case neither does
+	 * any larger ring
+	 */
+	boolean queryRing(double x, double y, int ring, TIntArrayList result) {
+		int column = this.getColumn(x);
+		int row = this.getRow(y);
+		int firstColumn = Math.max(0, column - ring);
+		int lastColumn = Math.min(this.numColumns - 1, column + ring);
+		int firstRow = Math.max(0, row - ring);
+		int lastRow = Math.min(this.numRows - 1, row + ring);
+
+		if (ring > 0 && column - ring < 0 && column + ring >= this.numColumns && row - ring < 0 && row + ring >= this.numRows) {
+			return false;
+		}
+
+		for (int r = firstRow; r <= lastRow; r++) {
+			if (r == row - ring || r == row + ring) {
+				this.addCells(r, firstColumn, lastColumn, result);
+			} else {
+				if (column - ring >= 0) {
+					this.addCells(r, column - ring, column - ring, result);
+				}
+				if (column + ring < this.numColumns) {
+					this.addCells(r, column + ring, column + ring, result);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the side length of a grid cell
+	 */
+	double getCellSize() {
+		return this.cellSize;
+	}
+
+	private void addCells(int row, int firstColumn, int lastColumn, TIntArrayList result) {
+		int start = this.cellOffsets[row * this.numColumns + firstColumn];
+		int end = this.cellOffsets[row * this.numColumns + lastColumn + 1];
+		for (int position = start; position < end; position++) {
+			result.add(this.ids[position]);
+		}
+	}
+
+	private int getColumn(double x) {
+		return clamp((x - this.minX) / this.cellSize, this.numColumns);
+	}
+
+	private int getRow(double y) {
+		return clamp((y - this.minY) / this.cellSize, this.numRows);
+	}
+
+	private static int clamp(double value, int size) {
+		if (!(value >= 0)) {
+			return 0;
+		}
+		if (value >= size - 1) {
+			return size - 1;
+		}
+		return (int) value;
+	}
+}
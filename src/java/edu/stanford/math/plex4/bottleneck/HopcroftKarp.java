@@ -0,0 +1,142 @@
+package edu.stanford.math.plex4.bottleneck;
+
+import java.util.Arrays;
+
+/**
+ * This class computes a maximum cardinality matching in a bipartite graph using the
+ * Hopcroft-Karp algorithm. The graph is given in compressed form: the neighbors of the
+ * left vertex u are the right vertices targets[offsets[u]] to targets[offsets[u + 1] - 1].
+ */
+class HopcroftKarp {
+	private static final int FREE = -1;
+	private static final int UNREACHED = Integer.MAX_VALUE;
+
+	private final int numLeft;
+	private final int[] offsets;
+	private final int[] targets;
+
+	private final int[] leftMates;
+	private final int[] rightMates;
+	private final int[] layers;
+	private final int[] edgePositions;
+	private final int[] queue;
+
+	HopcroftKarp(int numLeft, int numRight, int[] offsets, int[] targets) {
+		this.numLeft = numLeft;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.leftMates = new int[numLeft];
+		this.rightMates = new int[numRight];
+		this.layers = new int[numLeft];
+		this.edgePositions = new int[numLeft];
+		this.queue = new int[numLeft];
+	}
+
+	/**
+	 * This function computes a maximum matching.
+	 *
+	 * @return the number of edges in the matching
+	 */
+	int computeMaximumMatching() {
+		Arrays.fill(this.leftMates, FREE);
+		Arrays.fill(this.rightMates, FREE);
+
+		// start from a greedy matching
+		int size = 0;
+		for (int u = 0; u < this.numLeft; u++) {
+			for (int e = this.offsets[u]; e < this.offsets[u + 1]; e++) {
+				int v = this.targets[e];
+				if (this.rightMates[v] == FREE) {
+					this.leftMates[u] = v;
+					this.rightMates[v] = u;
+					size++;
+					break;
+				}
+			}
+		}
+
+		while (size < this.numLeft && this.computeLayers()) {
+			System.arraycopy(this.offsets, 0, this.edgePositions, 0, this.numLeft);
+			for (int u = 0; u < this.numLeft; u++) {
+				if (this.leftMates[u] == FREE && this.augment(u)) {
+					size++;
+				}
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * This function assigns a breadth first search layer to each left vertex, starting
+	 * from the free ones and alternating between non-matching and matching edges. It
+	 * returns true if an augmenting path exists.
+	 */
+	private boolean computeLayers() {
+		int head = 0, tail = 0;
+		for (int u = 0; u < this.numLeft; u++) {
+			if (this.leftMates[u] == FREE) {
+				this.layers[u] = 0;
+				this.queue[tail++] = u;
+			} else {
+				this.layers[u] = UNREACHED;
+			}
+		}
+
+		boolean found = false;
+		while (head < tail) {
+			int u = this.queue[head++];
+			for (int e = this.offsets[u]; e < this.offsets[u + 1]; e++) {
+				int w = this.rightMates[this.targets[e]];
+				if (w == FREE) {
+					found = true;
+				} else if (this.layers[w] == UNREACHED) {
+					this.layers[w] = this.layers[u] + 1;
+					this.queue[tail++] = w;
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * This function searches for an augmenting path from the free left vertex root along
+	 * increasing layers, and flips the path if one is found. The search is iterative, the
+	 * queue array serving as the stack of left vertices on the current path.
+	 */
+	private boolean augment(int root) {
+		int[] stack = this.queue;
+		int top = 0;
+		stack[top++] = root;
+
+		while (top > 0) {
+			int u = stack[top - 1];
+			if (this.edgePositions[u] == this.offsets[u + 1]) {
+				// dead end
+				this.layers[u] = UNREACHED;
+				top--;
+				continue;
+			}
+
+			int w = this.rightMates[this.targets[this.edgePositions[u]]];
+			if (w == FREE) {
+				for (int k = top - 1; k >= 0; k--) {
+					int x = stack[k];
+					int v = this.targets[this.edgePositions[x]];
+					this.leftMates[x] = v;
+					this.rightMates[v] = x;
+				}
+				return true;
+			}
+
+			if (this.layers[w] != UNREACHED && this.layers[w] == this.layers[u] + 1) {
+				stack[top++] = w;
+			} else {
+				this.edgePositions[u]++;
+			}
+		}
+
+		return false;
+	}
+}
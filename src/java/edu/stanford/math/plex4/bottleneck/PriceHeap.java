@@ -0,0 +1,104 @@
+package edu.stanford.math.plex4.bottleneck;
+
+/**
+ * This class implements an indexed min-heap over a range of the items of an auction,
+ * ordered by their prices. Since prices in an auction only increase, only the sift down
+ * operation is needed.
+ */
+class PriceHeap {
+	private final double[] prices;
+	private final int offset;
+	private final int size;
+	private final int[] heap;
+	private final int[] positions;
+
+	/**
+	 * This constructor initializes the heap with the items offset to offset + size - 1,
+	 * which must all have the same price.
+	 *
+	 * @param prices the prices of all items
+	 * @param offset the first item of the heap
+	 * @param size the number of items in the heap
+	 */
+	PriceHeap(double[] prices, int offset, int size) {
+		this.prices = prices;
+		this.offset = offset;
+		this.size = size;
+		this.heap = new int[size];
+		this.positions = new int[size];
+		for (int i = 0; i < size; i++) {
+			this.heap[i] = i;
+			this.positions[i] = i;
+		}
+	}
+
+	boolean isEmpty() {
+		return (this.size == 0);
+	}
+
+	/**
+	 * @return the item with the smallest price
+	 */
+	int getMinimumItem() {
+		return this.offset + this.heap[0];
+	}
+
+	/**
+	 * @return the smallest price of an item in the heap, or infinity if it is empty
+	 */
+	double getMinimumPrice() {
+		if (this.size == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return this.getPrice(0);
+	}
+
+	/**
+	 * @return the smallest price of an item other than the minimum item, or infinity if
+	 * there is no such item
+	 */
+	double getSecondMinimumPrice() {
+		double price = Double.POSITIVE_INFINITY;
+		if (this.size > 1) {
+			price = this.getPrice(1);
+		}
+		if (this.size > 2) {
+			price = Math.min(price, this.getPrice(2));
+		}
+		return price;
+	}
+
+	/**
+	 * This function restores the heap order after the price of the given item was increased.
+	 *
+	 * @param item the item whose price was increased
+	 */
+	void update(int item) {
+		int position = this.positions[item - this.offset];
+		int element = this.heap[position];
+		double price = this.prices[this.offset + element];
+
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= this.size) {
+				break;
+			}
+			if (child + 1 < this.size && this.getPrice(child + 1) < this.getPrice(child)) {
+				child++;
+			}
+			if (this.getPrice(child) >= price) {
+				break;
+			}
+			this.heap[position] = this.heap[child];
+			this.positions[this.heap[position]] = position;
+			position = child;
+		}
+
+		this.heap[position] = element;
+		this.positions[element] = position;
+	}
+
+	private double getPrice(int position) {
+		return this.prices[this.offset + this.heap[position]];
+	}
+}
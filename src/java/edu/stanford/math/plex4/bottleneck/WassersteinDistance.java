@@ -0,0 +1,337 @@
+package edu.stanford.math.plex4.bottleneck;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.math.plex4.homology.barcodes.Interval;
+import edu.stanford.math.primitivelib.utility.Infinity;
+
+/**
+ * <p>This class computes Wasserstein distances between persistence diagrams. The
+ * Wasserstein-p distance is the p-th root of the minimum over all matchings of the sum of
+ * the p-th powers of the L-infinity distances of matched points, where each point may
+ * also be matched to the diagonal.</p>
+ *
+ * <p>The diagrams are typically preprocessed with {@link BottleneckDistance#truncate} and
+ * {@link BottleneckDistance#filterLargest} before calling this class.</p>
+ */
+public class WassersteinDistance {
+
+	/**
+	 * The default relative error of the computed distance.
+	 */
+	public static final double DEFAULT_RELATIVE_ERROR = 0.01;
+
+	/**
+	 * The factor by which epsilon is reduced in each scaling phase of the auction.
+	 */
+	private static final double EPSILON_SCALING_FACTOR = 5;
+
+	/**
+	 * This function computes the Wasserstein-p distance between two persistence diagrams
+	 * up to the default relative error.
+	 *
+	 * @param A the first persistence diagram
+	 * @param B the second persistence diagram
+	 * @param p the exponent, which must be at least 1
+	 * @return the Wasserstein-p distance between A and B
+	 */
+	public static double computeWassersteinDistance(List<Interval<Double>> A, List<Interval<Double>> B, double p) {
+		return computeWassersteinDistance(A, B, p, DEFAULT_RELATIVE_ERROR);
+	}
+
+	/**
+	 * This function computes the Wasserstein-p distance between two persistence diagrams.
+	 *
+	 * Intervals with different types of infinite end points are infinitely far apart, so
+	 * the intervals of each type are matched separately. Intervals which are infinite at
+	 * exactly one end are matched in sorted order, which is optimal for p at least 1. The
+	 * finite intervals are matched with an auction algorithm, which stops as soon as the
+	 * relative error bound is certified.
+	 *
+	 * @param A the first persistence diagram
+	 * @param B the second persistence diagram
+	 * @param p the exponent, which must be at least 1
+	 * @param relativeError the relative error of the result, which must be positive
+	 * @return a value between the Wasserstein-p distance d between A and B and (1 + relativeError) * d
+	 */
+	public static double computeWassersteinDistance(List<Interval<Double>> A, List<Interval<Double>> B, double p, double relativeError) {
+		if (!(p >= 1) || Double.isInfinite(p)) {
+			throw new IllegalArgumentException("The exponent must be finite and at least 1");
+		}
+		if (!(relativeError > 0)) {
+			throw new IllegalArgumentException("The relative error must be positive");
+		}
+
+		BottleneckDistance.Diagram diagramA = new BottleneckDistance.Diagram(A);
+		BottleneckDistance.Diagram diagramB = new BottleneckDistance.Diagram(B);
+
+		if (diagramA.numDoublyInfinite + diagramB.numDoublyInfinite > 0) {
+			return Infinity.Double.getPositiveInfinity();
+		}
+
+		double cost = computeSortedCost(diagramA.rightInfiniteStarts, diagramB.rightInfiniteStarts, p);
+		cost += computeSortedCost(diagramA.leftInfiniteEnds, diagramB.leftInfiniteEnds, p);
+		if (cost >= Infinity.Double.getPositiveInfinity()) {
+			return Infinity.Double.getPositiveInfinity();
+		}
+
+		AuctionMatching matching = new AuctionMatching(diagramA, diagramB, p);
+		cost += matching.computeCost(Math.pow(1 + relativeError, p));
+
+		return Math.pow(cost, 1 / p);
+	}
+
+	/**
+	 * This function computes the sum of the p-th powers of the differences of two sorted
+	 * sets of numbers which may not be matched to the diagonal. For a convex cost, matching
+	 * in sorted order is optimal.
+	 */
+	private static double computeSortedCost(double[] a, double[] b, double p) {
+		if (a.length != b.length) {
+			return Infinity.Double.getPositiveInfinity();
+		}
+
+		double cost = 0;
+		for (int i = 0; i < a.length; i++) {
+			cost += Math.pow(Math.abs(a[i] - b[i]), p);
+		}
+
+		return cost;
+	}
+
+	/**
+	 * <p>This class computes an approximately optimal matching between the finite parts of
+	 * two persistence diagrams with a Gauss-Seidel auction algorithm with epsilon scaling.</p>
+	 *
+	 * <p>The diagonal is handled by the usual reduction: the bidders are the points of A
+	 * together with the projections of the points of B to the diagonal, and the items are
+	 * the points of B together with the projections of the points of A. A point can only be
+	 * matched to its own projection, while any two projections can be matched at no cost.
+	 * Since all projections are equivalent for a projection bidder, the best two of them
+	 * are read off a heap of their prices. A point of A searches the points of B in rings of
+	 * cells of a grid around it, and stops as soon as the remaining points cannot beat the
+	 * second best value found so far.</p>
+	 *
+	 * <p>Prices only increase, so at the end of a phase with a given epsilon every bidder is
+	 * within epsilon of its best item, and the cost of the assignment exceeds the optimum
+	 * by at most epsilon times the number of bidders. The scaling stops once this certifies
+	 * the requested relative error.</p>
+	 */
+	private static class AuctionMatching {
+		private static final int UNASSIGNED = -1;
+
+		private final double p;
+		private final int numA, numB, size;
+		private final double[] startsA, endsA, diagonalCostsA;
+		private final double[] startsB, endsB, diagonalCostsB;
+		private final DiagramPointGrid gridB;
+		private final TIntArrayList neighbors = new TIntArrayList();
+
+		/*
+		 * Bidders 0 to numA - 1 are the points of A, and bidder numA + j is the projection
+		 * of the point j of B. Items 0 to numB - 1 are the points of B, and item numB + i is
+		 * the projection of the point i of A.
+		 */
+		private final double[] prices;
+		private final int[] bidderItems;
+		private final int[] itemBidders;
+		private final int[] unassigned;
+
+		private final PriceHeap pointHeap;
+		private final PriceHeap projectionHeap;
+
+		AuctionMatching(BottleneckDistance.Diagram A, BottleneckDistance.Diagram B, double p) {
+			this.p = p;
+			this.startsA = A.finiteStarts;
+			this.endsA = A.finiteEnds;
+			this.startsB = B.finiteStarts;
+			this.endsB = B.finiteEnds;
+			this.numA = this.startsA.length;
+			this.numB = this.startsB.length;
+			this.size = this.numA + this.numB;
+			this.diagonalCostsA = this.computeDiagonalCosts(A.diagonalDistances);
+			this.diagonalCostsB = this.computeDiagonalCosts(B.diagonalDistances);
+			this.gridB = B.grid;
+
+			this.prices = new double[this.size];
+			this.bidderItems = new int[this.size];
+			this.itemBidders = new int[this.size];
+			this.unassigned = new int[this.size];
+			this.pointHeap = new PriceHeap(this.prices, 0, this.numB);
+			this.projectionHeap = new PriceHeap(this.prices, this.numB, this.numA);
+		}
+
+		/**
+		 * This function computes the cost of a matching whose cost is at most the given
+		 * factor times the optimal cost.
+		 */
+		double computeCost(double costFactor) {
+			double maximumCost = 0;
+			for (int i = 0; i < this.numA; i++) {
+				maximumCost = Math.max(maximumCost, this.diagonalCostsA[i]);
+			}
+			for (int j = 0; j < this.numB; j++) {
+				maximumCost = Math.max(maximumCost, this.diagonalCostsB[j]);
+			}
+			if (maximumCost == 0) {
+				return 0;
+			}
+
+			// below this, epsilon is lost in the rounding of the costs
+			double minimumEpsilon = maximumCost * 1e-14 / this.size;
+			double epsilon = maximumCost / 4;
+
+			while (true) {
+				this.runAuction(epsilon);
+
+				double cost = this.computeAssignmentCost();
+				double lowerBound = cost - this.size * epsilon;
+				if (cost <= costFactor * lowerBound || cost == 0 || epsilon < minimumEpsilon) {
+					return cost;
+				}
+
+				epsilon /= EPSILON_SCALING_FACTOR;
+			}
+		}
+
+		/**
+		 * This function runs one phase of the auction. The assignment is cleared but the
+		 * prices are kept from the previous phase.
+		 */
+		private void runAuction(double epsilon) {
+			Arrays.fill(this.bidderItems, UNASSIGNED);
+			Arrays.fill(this.itemBidders, UNASSIGNED);
+
+			int numUnassigned = this.size;
+			for (int b = 0; b < this.size; b++) {
+				this.unassigned[b] = this.size - 1 - b;
+			}
+
+			while (numUnassigned > 0) {
+				int bidder = this.unassigned[--numUnassigned];
+				int previousBidder = this.bid(bidder, epsilon);
+				if (previousBidder != UNASSIGNED) {
+					this.unassigned[numUnassigned++] = previousBidder;
+				}
+			}
+		}
+
+		/**
+		 * This function lets a bidder bid for its best item.
+		 *
+		 * @return the bidder which previously held the item, or UNASSIGNED
+		 */
+		private int bid(int bidder, double epsilon) {
+			int bestItem;
+			double bestValue, secondValue;
+
+			if (bidder < this.numA) {
+				// the own projection is a candidate, and the points of B are visited in rings
+				// of grid cells around the point until the distance of the next ring plus the
+				// smallest price of a point of B exceeds the second best value
+				bestItem = this.numB + bidder;
+				bestValue = this.diagonalCostsA[bidder] + this.prices[bestItem];
+				secondValue = Double.POSITIVE_INFINITY;
+
+				double minimumPrice = this.pointHeap.getMinimumPrice();
+				for (int ring = 0; ; ring++) {
+					if (ring > 1 && this.power((ring - 1) * this.gridB.getCellSize()) + minimumPrice >= secondValue) {
+						break;
+					}
+					this.neighbors.resetQuick();
+					if (!this.gridB.queryRing(this.startsA[bidder], this.endsA[bidder], ring, this.neighbors)) {
+						break;
+					}
+					for (int k = 0; k < this.neighbors.size(); k++) {
+						int item = this.neighbors.getQuick(k);
+						double value = this.computePairCost(bidder, item) + this.prices[item];
+						if (value < bestValue) {
+							secondValue = bestValue;
+							bestValue = value;
+							bestItem = item;
+						} else if (value < secondValue) {
+							secondValue = value;
+						}
+					}
+				}
+				if (Double.isInfinite(secondValue)) {
+					// every other item has a larger value than the projection
+					secondValue = bestValue;
+				}
+			} else {
+				// the candidates are the own point of B and the cheapest two projections
+				int j = bidder - this.numA;
+				bestItem = j;
+				bestValue = this.diagonalCostsB[j] + this.prices[j];
+				secondValue = Double.POSITIVE_INFINITY;
+
+				if (!this.projectionHeap.isEmpty()) {
+					int firstItem = this.projectionHeap.getMinimumItem();
+					double firstValue = this.prices[firstItem];
+					if (firstValue < bestValue) {
+						secondValue = Math.min(bestValue, this.projectionHeap.getSecondMinimumPrice());
+						bestValue = firstValue;
+						bestItem = firstItem;
+					} else {
+						secondValue = firstValue;
+					}
+				}
+				if (Double.isInfinite(secondValue)) {
+					secondValue = bestValue;
+				}
+			}
+
+			this.prices[bestItem] += secondValue - bestValue + epsilon;
+			if (bestItem < this.numB) {
+				this.pointHeap.update(bestItem);
+			} else {
+				this.projectionHeap.update(bestItem);
+			}
+
+			int previousBidder = this.itemBidders[bestItem];
+			if (previousBidder != UNASSIGNED) {
+				this.bidderItems[previousBidder] = UNASSIGNED;
+			}
+			this.itemBidders[bestItem] = bidder;
+			this.bidderItems[bidder] = bestItem;
+
+			return previousBidder;
+		}
+
+		private double computeAssignmentCost() {
+			double cost = 0;
+			for (int bidder = 0; bidder < this.size; bidder++) {
+				int item = this.bidderItems[bidder];
+				if (bidder < this.numA) {
+					if (item < this.numB) {
+						cost += this.computePairCost(bidder, item);
+					} else {
+						cost += this.diagonalCostsA[bidder];
+					}
+				} else if (item < this.numB) {
+					cost += this.diagonalCostsB[item];
+				}
+			}
+			return cost;
+		}
+
+		private double computePairCost(int i, int j) {
+			return this.power(BottleneckDistance.distance(this.startsA[i], this.endsA[i], this.startsB[j], this.endsB[j]));
+		}
+
+		private double[] computeDiagonalCosts(double[] diagonalDistances) {
+			double[] costs = new double[diagonalDistances.length];
+			for (int i = 0; i < diagonalDistances.length; i++) {
+				costs[i] = this.power(diagonalDistances[i]);
+			}
+			return costs;
+		}
+
+		private double power(double distance) {
+			return (this.p == 1) ? distance : Math.pow(distance, this.p);
+		}
+	}
+}
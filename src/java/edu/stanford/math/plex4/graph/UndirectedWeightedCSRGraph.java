@@ -0,0 +1,319 @@
+package edu.stanford.math.plex4.graph;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.stanford.math.plex4.utility.ExceptionUtility;
+import edu.stanford.math.primitivelib.autogen.pair.IntIntPair;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+
+/**
+ * <p>This class implements an immutable undirected weighted graph in compressed sparse
+ * row form. The neighbors of all vertices are stored in a single array, where the
+ * neighbors of vertex v occupy the positions offsets[v] to offsets[v + 1] - 1 in
+ * increasing order, and the weights of the corresponding edges are stored in a parallel
+ * array. Since the neighbors are sorted, the lower neighbors of v form a prefix of its
+ * range, and the weight of an edge is found by binary search.</p>
+ *
+ * <p>The lower neighbors can be read without allocating memory through the functions
+ * getLowerDegree, getLowerNeighbor and getLowerWeight. This is meant for the expansion
+ * of flag complexes, which visits the lower neighborhood of every vertex.</p>
+ *
+ * <p>Loops are ignored. If an edge is given several times, its last weight is used.
+ * The graph cannot be modified after it has been constructed.</p>
+ */
+public class UndirectedWeightedCSRGraph implements AbstractWeightedUndirectedGraph {
+	private static final long serialVersionUID = 2894416270950173329L;
+
+	private final int numVertices;
+
+	/**
+	 * The neighbors of vertex v are neighbors[offsets[v]] to neighbors[offsets[v + 1] - 1],
+	 * of which the first lowerDegrees[v] are smaller than v.
+	 */
+	private final int[] offsets;
+	private final int[] lowerDegrees;
+	private final int[] neighbors;
+	private final double[] weights;
+
+	/**
+	 * This constructor initializes the graph from a list of edges, using two stable
+	 * counting sorts.
+	 *
+	 * @param numVertices the number of vertices of the graph
+	 * @param edges the edges of the graph
+	 */
+	public UndirectedWeightedCSRGraph(int numVertices, WeightedEdgeList edges) {
+		ExceptionUtility.verifyNonNegative(numVertices);
+		this.numVertices = numVertices;
+
+		// every edge (i, j) gives the entries 2k: i -> j and 2k + 1: j -> i
+		int numEntries = 2 * edges.size();
+		int[] sources = new int[numEntries];
+		int[] targets = new int[numEntries];
+		for (int k = 0; k < edges.size(); k++) {
+			int i = edges.getFirstVertex(k);
+			int j = edges.getSecondVertex(k);
+			ExceptionUtility.verifyIndex(numVertices, i);
+			ExceptionUtility.verifyIndex(numVertices, j);
+			sources[2 * k] = i;
+			targets[2 * k] = j;
+			sources[2 * k + 1] = j;
+			targets[2 * k + 1] = i;
+		}
+
+		// sort the entries by target, and then stably by source, so that each row is sorted
+		// and equal entries remain in the order of the list
+		int[] byTarget = countingSort(null, targets, numEntries, numVertices);
+		int[] bySource = countingSort(byTarget, sources, numEntries, numVertices);
+
+		this.offsets = new int[numVertices + 1];
+		this.lowerDegrees = new int[numVertices];
+		int[] neighbors = new int[numEntries];
+		double[] weights = new double[numEntries];
+		int size = 0;
+		int position = 0;
+		for (int v = 0; v < numVertices; v++) {
+			this.offsets[v] = size;
+			for (; position < numEntries && sources[bySource[position]] == v; position++) {
+				int entry = bySource[position];
+				int u = targets[entry];
+				if (u == v) {
+					continue;
+				}
+				if (size > this.offsets[v] && neighbors[size - 1] == u) {
+					// a repeated edge replaces the weight of the earlier one
+					weights[size - 1] = edges.getWeight(entry >>> 1);
+					continue;
+				}
+				if (u < v) {
+					this.lowerDegrees[v]++;
+				}
+				neighbors[size] = u;
+				weights[size] = edges.getWeight(entry >>> 1);
+				size++;
+			}
+		}
+		this.offsets[numVertices] = size;
+
+		this.neighbors = (size == numEntries) ? neighbors : Arrays.copyOf(neighbors, size);
+		this.weights = (size == numEntries) ? weights : Arrays.copyOf(weights, size);
+	}
+
+	/**
+	 * This function returns a permutation of the entries which sorts them stably by key,
+	 * starting from the given order.
+	 *
+	 * @param order the initial order of the entries, or null for the identity
+	 * @param keys the keys of the entries, in the range 0 to numKeys - 1
+	 * @param numEntries the number of entries
+	 * @param numKeys the number of keys
+	 * @return the sorted order of the entries
+	 */
+	private static int[] countingSort(int[] order, int[] keys, int numEntries, int numKeys) {
+		int[] starts = new int[numKeys + 1];
+		for (int e = 0; e < numEntries; e++) {
+			starts[keys[e] + 1]++;
+		}
+		for (int key = 0; key < numKeys; key++) {
+			starts[key + 1] += starts[key];
+		}
+
+		int[] result = new int[numEntries];
+		for (int p = 0; p < numEntries; p++) {
+			int e = (order == null) ? p : order[p];
+			result[starts[keys[e]]++] = e;
+		}
+		return result;
+	}
+
+	/**
+	 * This function creates a compressed copy of a weighted graph.
+	 *
+	 * @param graph the graph to copy
+	 * @return a compressed graph with the same edges and weights
+	 */
+	public static UndirectedWeightedCSRGraph copyOf(AbstractWeightedUndirectedGraph graph) {
+		if (graph instanceof UndirectedWeightedCSRGraph) {
+			return (UndirectedWeightedCSRGraph) graph;
+		}
+
+		int n = graph.getNumVertices();
+		WeightedEdgeList edges = new WeightedEdgeList();
+		for (int v = 0; v < n; v++) {
+			TIntIterator iterator = graph.getLowerNeighbors(v).iterator();
+			while (iterator.hasNext()) {
+				int u = iterator.next();
+				edges.add(u, v, graph.getWeight(u, v));
+			}
+		}
+		return new UndirectedWeightedCSRGraph(n, edges);
+	}
+
+	/**
+	 * This function returns the position of the edge (i, j) in the neighbor array, or -1
+	 * if there is no such edge.
+	 */
+	private int indexOf(int i, int j) {
+		ExceptionUtility.verifyIndex(this.numVertices, i);
+		ExceptionUtility.verifyIndex(this.numVertices, j);
+		int position = Arrays.binarySearch(this.neighbors, this.offsets[i], this.offsets[i + 1], j);
+		return (position < 0) ? -1 : position;
+	}
+
+	public double getWeight(int i, int j) {
+		int position = this.indexOf(i, j);
+		return (position < 0) ? 0 : this.weights[position];
+	}
+
+	public boolean containsEdge(int i, int j) {
+		return (this.indexOf(i, j) >= 0);
+	}
+
+	public int getNumVertices() {
+		return this.numVertices;
+	}
+
+	public int getNumEdges() {
+		return this.neighbors.length / 2;
+	}
+
+	/**
+	 * This function returns the number of neighbors of vertex v which are smaller than v.
+	 *
+	 * @param v the vertex to query
+	 * @return the number of lower neighbors of v
+	 */
+	public int getLowerDegree(int v) {
+		return this.lowerDegrees[v];
+	}
+
+	/**
+	 * This function returns a lower neighbor of a vertex. The lower neighbors are
+	 * numbered in increasing order.
+	 *
+	 * @param v the vertex to query
+	 * @param k the index of the lower neighbor, less than getLowerDegree(v)
+	 * @return the k-th smallest neighbor of v
+	 */
+	public int getLowerNeighbor(int v, int k) {
+		return this.neighbors[this.offsets[v] + k];
+	}
+
+	/**
+	 * This function returns the weight of the edge joining a vertex to one of its lower
+	 * neighbors.
+	 *
+	 * @param v the vertex to query
+	 * @param k the index of the lower neighbor, less than getLowerDegree(v)
+	 * @return the weight of the edge joining v to its k-th smallest neighbor
+	 */
+	public double getLowerWeight(int v, int k) {
+		return this.weights[this.offsets[v] + k];
+	}
+
+	/**
+	 * This function returns a neighbor of a vertex. The neighbors are numbered in
+	 * increasing order, so that the first getLowerDegree(v) of them are the lower
+	 * neighbors.
+	 *
+	 * @param v the vertex to query
+	 * @param k the index of the neighbor, less than getDegree(v)
+	 * @return the k-th smallest neighbor of v
+	 */
+	public int getNeighbor(int v, int k) {
+		return this.neighbors[this.offsets[v] + k];
+	}
+
+	/**
+	 * This function returns the weight of the edge joining a vertex to one of its
+	 * neighbors.
+	 *
+	 * @param v the vertex to query
+	 * @param k the index of the neighbor, less than getDegree(v)
+	 * @return the weight of the edge joining v to its k-th smallest neighbor
+	 */
+	public double getNeighborWeight(int v, int k) {
+		return this.weights[this.offsets[v] + k];
+	}
+
+	public TIntHashSet getLowerNeighbors(int i) {
+		ExceptionUtility.verifyIndex(this.numVertices, i);
+		TIntHashSet result = new TIntHashSet();
+		for (int k = 0; k < this.lowerDegrees[i]; k++) {
+			result.add(this.neighbors[this.offsets[i] + k]);
+		}
+		return result;
+	}
+
+	public int getDegree(int v) {
+		return this.offsets[v + 1] - this.offsets[v];
+	}
+
+	public int[] getNeighbors(int v) {
+		return Arrays.copyOfRange(this.neighbors, this.offsets[v], this.offsets[v + 1]);
+	}
+
+	public int[] getDegreeSequence() {
+		int[] sequence = new int[this.numVertices];
+		for (int v = 0; v < this.numVertices; v++) {
+			sequence[v] = this.getDegree(v);
+		}
+		return sequence;
+	}
+
+	/**
+	 * This function is not supported, since the graph is immutable.
+	 */
+	public void addEdge(int i, int j, double weight) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * This function is not supported, since the graph is immutable.
+	 */
+	public void addEdge(int i, int j) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * This function is not supported, since the graph is immutable.
+	 */
+	public void removeEdge(int i, int j) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * This function returns an iterator over the edges of the graph. Each edge (i, j) is
+	 * returned once, with i < j, in increasing order of j and then of i.
+	 *
+	 * @return an iterator over the edges
+	 */
+	public Iterator<IntIntPair> iterator() {
+		return new Iterator<IntIntPair>() {
+			private int vertex = 0;
+			private int k = 0;
+
+			public boolean hasNext() {
+				while (this.vertex < numVertices && this.k >= lowerDegrees[this.vertex]) {
+					this.vertex++;
+					this.k = 0;
+				}
+				return this.vertex < numVertices;
+			}
+
+			public IntIntPair next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return new IntIntPair(getLowerNeighbor(this.vertex, this.k++), this.vertex);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,234 @@
+package edu.stanford.math.plex4.graph;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class stores a list of weighted undirected edges in primitive arrays. It is meant
+ * for building large graphs, such as the 1-skeleton of a Vietoris-Rips complex, without
+ * creating an object or a hash map entry per edge.
+ */
+public class WeightedEdgeList {
+	private int[] firstVertices;
+	private int[] secondVertices;
+	private double[] weights;
+	private int size = 0;
+
+	/**
+	 * This constructor initializes an empty edge list.
+	 */
+	public WeightedEdgeList() {
+		this(16);
+	}
+
+	/**
+	 * This constructor initializes an empty edge list with a given capacity.
+	 *
+	 * @param capacity the initial capacity
+	 */
+	public WeightedEdgeList(int capacity) {
+		capacity = Math.max(1, capacity);
+		this.firstVertices = new int[capacity];
+		this.secondVertices = new int[capacity];
+		this.weights = new double[capacity];
+	}
+
+	/**
+	 * This function appends an edge to the list.
+	 *
+	 * @param i the first vertex of the edge
+	 * @param j the second vertex of the edge
+	 * @param weight the weight of the edge
+	 */
+	public void add(int i, int j, double weight) {
+		if (this.size == this.weights.length) {
+			this.ensureCapacity(2 * this.size);
+		}
+		this.firstVertices[this.size] = i;
+		this.secondVertices[this.size] = j;
+		this.weights[this.size] = weight;
+		this.size++;
+	}
+
+	/**
+	 * This function appends all edges of another list to this one.
+	 *
+	 * @param other the list to append
+	 */
+	public void addAll(WeightedEdgeList other) {
+		this.ensureCapacity(this.size + other.size);
+		System.arraycopy(other.firstVertices, 0, this.firstVertices, this.size, other.size);
+		System.arraycopy(other.secondVertices, 0, this.secondVertices, this.size, other.size);
+		System.arraycopy(other.weights, 0, this.weights, this.size, other.size);
+		this.size += other.size;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > this.weights.length) {
+			capacity = Math.max(capacity, 2 * this.weights.length);
+			this.firstVertices = Arrays.copyOf(this.firstVertices, capacity);
+			this.secondVertices = Arrays.copyOf(this.secondVertices, capacity);
+			this.weights = Arrays.copyOf(this.weights, capacity);
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getFirstVertex(int index) {
+		return this.firstVertices[index];
+	}
+
+	public int getSecondVertex(int index) {
+		return this.secondVertices[index];
+	}
+
+	public double getWeight(int index) {
+		return this.weights[index];
+	}
+
+	/**
+	 * This function sorts the edges by increasing weight. Edges of equal weight are
+	 * ordered by their first and then by their second vertex, so that the result does
+	 * not depend on the original order.
+	 */
+	public void sortByWeight() {
+		int[] permutation = new int[this.size];
+		for (int k = 0; k < this.size; k++) {
+			permutation[k] = k;
+		}
+		this.mergeSort(permutation, new int[this.size], 0, this.size);
+
+		int[] firstVertices = new int[this.size];
+		int[] secondVertices = new int[this.size];
+		double[] weights = new double[this.size];
+		for (int k = 0; k < this.size; k++) {
+			firstVertices[k] = this.firstVertices[permutation[k]];
+			secondVertices[k] = this.secondVertices[permutation[k]];
+			weights[k] = this.weights[permutation[k]];
+		}
+		this.firstVertices = firstVertices;
+		this.secondVertices = secondVertices;
+		this.weights = weights;
+	}
+
+	private void mergeSort(int[] permutation, int[] buffer, int start, int end) {
+		if (end - start < 2) {
+			return;
+		}
+		int middle = (start + end) >>> 1;
+		this.mergeSort(permutation, buffer, start, middle);
+		this.mergeSort(permutation, buffer, middle, end);
+		if (compare(this, permutation[middle - 1], this, permutation[middle]) <= 0) {
+			return;
+		}
+
+		System.arraycopy(permutation, start, buffer, start, end - start);
+		int i = start, j = middle;
+		for (int k = start; k < end; k++) {
+			if (j >= end || (i < middle && compare(this, buffer[i], this, buffer[j]) <= 0)) {
+				permutation[k] = buffer[i++];
+			} else {
+				permutation[k] = buffer[j++];
+			}
+		}
+	}
+
+	private static int compare(WeightedEdgeList a, int i, WeightedEdgeList b, int j) {
+		if (a.weights[i] != b.weights[j]) {
+			return (a.weights[i] < b.weights[j]) ? -1 : 1;
+		}
+		if (a.firstVertices[i] != b.firstVertices[j]) {
+			return (a.firstVertices[i] < b.firstVertices[j]) ? -1 : 1;
+		}
+		if (a.secondVertices[i] != b.secondVertices[j]) {
+			return (a.secondVertices[i] < b.secondVertices[j]) ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * This function merges several edge lists which are sorted by weight into a single
+	 * sorted list.
+	 *
+	 * @param lists the sorted lists to merge
+	 * @return a new list containing all edges in sorted order
+	 */
+	public static WeightedEdgeList mergeSorted(List<WeightedEdgeList> lists) {
+		int totalSize = 0;
+		for (WeightedEdgeList list: lists) {
+			totalSize += list.size;
+		}
+		WeightedEdgeList result = new WeightedEdgeList(totalSize);
+
+		// a binary heap of the lists with remaining edges, ordered by their next edge
+		WeightedEdgeList[] heap = new WeightedEdgeList[lists.size()];
+		int[] positions = new int[lists.size()];
+		int heapSize = 0;
+		for (WeightedEdgeList list: lists) {
+			if (list.size > 0) {
+				heap[heapSize++] = list;
+			}
+		}
+		for (int k = heapSize / 2 - 1; k >= 0; k--) {
+			siftDown(heap, positions, heapSize, k);
+		}
+
+		while (heapSize > 0) {
+			WeightedEdgeList list = heap[0];
+			int position = positions[0]++;
+			result.add(list.firstVertices[position], list.secondVertices[position], list.weights[position]);
+			if (positions[0] == list.size) {
+				heapSize--;
+				heap[0] = heap[heapSize];
+				positions[0] = positions[heapSize];
+			}
+			siftDown(heap, positions, heapSize, 0);
+		}
+
+		return result;
+	}
+
+	private static void siftDown(WeightedEdgeList[] heap, int[] positions, int heapSize, int k) {
+		while (2 * k + 1 < heapSize) {
+			int child = 2 * k + 1;
+			if (child + 1 < heapSize && compare(heap[child + 1], positions[child + 1], heap[child], positions[child]) < 0) {
+				child++;
+			}
+			if (compare(heap[k], positions[k], heap[child], positions[child]) <= 0) {
+				return;
+			}
+			WeightedEdgeList list = heap[k];
+			heap[k] = heap[child];
+			heap[child] = list;
+			int position = positions[k];
+			positions[k] = positions[child];
+			positions[child] = position;
+			k = child;
+		}
+	}
+
+	/**
+	 * This function adds the edges to a graph.
+	 *
+	 * @param graph the graph to add the edges to
+	 */
+	public void addTo(AbstractWeightedUndirectedGraph graph) {
+		for (int k = 0; k < this.size; k++) {
+			graph.addEdge(this.firstVertices[k], this.secondVertices[k], this.weights[k]);
+		}
+	}
+
+	/**
+	 * This function creates a graph containing the edges of the list.
+	 *
+	 * @param numVertices the number of vertices of the graph
+	 * @return a new graph containing the edges
+	 */
+	public UndirectedWeightedListGraph toGraph(int numVertices) {
+		UndirectedWeightedListGraph graph = new UndirectedWeightedListGraph(numVertices);
+		this.addTo(graph);
+		return graph;
+	}
+}
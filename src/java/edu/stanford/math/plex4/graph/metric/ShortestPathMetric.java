@@ -4,28 +4,65 @@
 package edu.stanford.math.plex4.graph.metric;
 
 import edu.stanford.math.plex4.graph.AbstractUndirectedGraph;
-import edu.stanford.math.plex4.graph.utility.GraphUtility;
-import edu.stanford.math.plex4.metric.impl.ExplicitMetricSpace;
 import edu.stanford.math.plex4.metric.interfaces.AbstractIntMetricSpace;
+import edu.stanford.math.primitivelib.utility.Infinity;
 
 /**
  * This class produces a metric space that is defined by the shortest-path distance
  * between vertices in a graph. It implements the GraphMetricFactory interface, meaning
  * that it produces a metric space, but is not a metric space.
  * 
+ * The distances are computed lazily by one search per vertex, see ShortestPathMetricSpace.
+ * 
  * @author Andrew Tausz
  *
  */
 public class ShortestPathMetric implements GraphMetricFactory {
-	private static final ShortestPathMetric instance = new ShortestPathMetric();
-	private ShortestPathMetric(){}
+	private static final ShortestPathMetric instance = new ShortestPathMetric(false, Infinity.Double.getPositiveInfinity());
+	private static final ShortestPathMetric weightedInstance = new ShortestPathMetric(true, Infinity.Double.getPositiveInfinity());
+	
+	private final boolean weighted;
+	private final double maxDistance;
+	
+	private ShortestPathMetric(boolean weighted, double maxDistance) {
+		this.weighted = weighted;
+		this.maxDistance = maxDistance;
+	}
 	
+	/**
+	 * This function returns a factory for the metric which counts the edges on the
+	 * shortest paths.
+	 * 
+	 * @return the unweighted shortest path metric
+	 */
 	public static ShortestPathMetric getInstance() {
 		return instance;
 	}
 	
+	/**
+	 * This function returns a factory for the metric which sums the weights of the edges
+	 * on the shortest paths. It can only be applied to weighted graphs.
+	 * 
+	 * @return the weighted shortest path metric
+	 */
+	public static ShortestPathMetric getWeightedInstance() {
+		return weightedInstance;
+	}
+	
+	/**
+	 * This function returns a factory for a metric which only computes the distances up
+	 * to a maximum, and reports larger distances as infinite.
+	 * 
+	 * @param weighted true to sum the weights of the edges, and false to count the edges
+	 * @param maxDistance the largest distance to compute
+	 * @return the truncated shortest path metric
+	 */
+	public static ShortestPathMetric getTruncatedInstance(boolean weighted, double maxDistance) {
+		return new ShortestPathMetric(weighted, maxDistance);
+	}
+	
 	public AbstractIntMetricSpace createMetricSpace(AbstractUndirectedGraph graph) {
-		return new ExplicitMetricSpace(GraphUtility.computeShortestPaths(graph));
+		return new ShortestPathMetricSpace(graph, this.weighted, this.maxDistance, ShortestPathMetricSpace.DEFAULT_CACHE_SIZE);
 	}
 
 }
@@ -0,0 +1,525 @@
+package edu.stanford.math.plex4.graph.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.stanford.math.plex4.graph.AbstractUndirectedGraph;
+import edu.stanford.math.plex4.graph.AbstractWeightedUndirectedGraph;
+import edu.stanford.math.plex4.graph.UndirectedWeightedCSRGraph;
+import edu.stanford.math.plex4.graph.WeightedEdgeList;
+import edu.stanford.math.plex4.metric.impl.TruncatedPriorityQueue;
+import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
+import edu.stanford.math.plex4.utility.ExceptionUtility;
+import edu.stanford.math.primitivelib.utility.Infinity;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+
+/**
+ * <p>This class implements the metric space given by the shortest path distances between
+ * the vertices of a graph. The distances are either the numbers of edges on the paths,
+ * which are computed by breadth first search, or the sums of the weights of the edges,
+ * which are computed by Dijkstra's algorithm.</p>
+ *
+ * <p>The distances from a vertex are computed by a single search when they are first
+ * needed, and are kept in a cache which holds a bounded number of rows, so that the
+ * memory used is O(n * cacheSize) rather than O(n^2). In truncated mode, the searches stop
+ * at a maximum distance, such as the largest filtration value of a Vietoris-Rips complex,
+ * and only the vertices within this distance are stored. All larger distances are
+ * reported as infinite.</p>
+ *
+ * <p>The neighborhood graph of the metric space can be computed with several threads by
+ * getNeighborhoodEdges, which runs one search per vertex without using the cache.</p>
+ */
+public class ShortestPathMetricSpace implements AbstractSearchableMetricSpace<Integer> {
+	/**
+	 * The default number of rows of the distance matrix which are kept in memory.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+
+	private final UndirectedWeightedCSRGraph graph;
+	private final boolean weighted;
+	private final double maxDistance;
+	private final boolean truncated;
+
+	/**
+	 * The cache of rows, in order of last access.
+	 */
+	private final Map<Integer, Row> cache;
+
+	/**
+	 * The searchers which are not in use. At most MAX_IDLE_SEARCHERS of them are kept, so
+	 * that the space does not hold O(n) memory for every thread which has queried it.
+	 */
+	private static final int MAX_IDLE_SEARCHERS = 4;
+	private final List<Searcher> idleSearchers = new ArrayList<Searcher>();
+
+	/**
+	 * This constructor initializes the metric space with the numbers of edges on the
+	 * shortest paths of a graph.
+	 *
+	 * @param graph the graph
+	 */
+	public ShortestPathMetricSpace(AbstractUndirectedGraph graph) {
+		this(graph, false, Infinity.Double.getPositiveInfinity(), DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * This constructor initializes the metric space.
+	 *
+	 * @param graph the graph, which must be an AbstractWeightedUndirectedGraph with
+	 * non-negative weights if weighted is true
+	 * @param weighted true to sum the weights of the edges, and false to count the edges
+	 * @param maxDistance the largest distance to compute, or infinity to compute all distances
+	 * @param cacheSize the maximum number of rows to keep in memory
+	 */
+	public ShortestPathMetricSpace(AbstractUndirectedGraph graph, boolean weighted, double maxDistance, int cacheSize) {
+		ExceptionUtility.verifyNonNull(graph);
+		ExceptionUtility.verifyNonNegative(maxDistance);
+		ExceptionUtility.verifyPositive(cacheSize);
+		if (weighted && !(graph instanceof AbstractWeightedUndirectedGraph)) {
+			throw new IllegalArgumentException("A weighted shortest path metric requires a weighted graph");
+		}
+
+		this.weighted = weighted;
+		this.maxDistance = maxDistance;
+		this.truncated = (maxDistance < Infinity.Double.getPositiveInfinity());
+		this.graph = compress(graph, weighted);
+
+		final int capacity = cacheSize;
+		this.cache = new LinkedHashMap<Integer, Row>(16, 0.75f, true) {
+			private static final long serialVersionUID = -1766436452924867211L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Row> eldest) {
+				return this.size() > capacity;
+			}
+		};
+	}
+
+	private static UndirectedWeightedCSRGraph compress(AbstractUndirectedGraph graph, boolean weighted) {
+		int n = graph.getNumVertices();
+		WeightedEdgeList edges = new WeightedEdgeList();
+		for (int v = 0; v < n; v++) {
+			TIntIterator iterator = graph.getLowerNeighbors(v).iterator();
+			while (iterator.hasNext()) {
+				int u = iterator.next();
+				double weight = 1;
+				if (weighted) {
+					weight = ((AbstractWeightedUndirectedGraph) graph).getWeight(u, v);
+					if (!(weight >= 0)) {
+						throw new IllegalArgumentException("The edge weights must be non-negative");
+					}
+				}
+				edges.add(u, v, weight);
+			}
+		}
+		return new UndirectedWeightedCSRGraph(n, edges);
+	}
+
+	/**
+	 * This function returns the row of distances from a vertex, from the cache if possible.
+	 */
+	private Row getRow(int source) {
+		synchronized (this.cache) {
+			Row row = this.cache.get(source);
+			if (row != null) {
+				return row;
+			}
+		}
+
+		Searcher searcher = this.acquireSearcher();
+		Row row = searcher.computeRow(source);
+		this.releaseSearcher(searcher);
+		synchronized (this.cache) {
+			this.cache.put(source, row);
+		}
+		return row;
+	}
+
+	private Searcher acquireSearcher() {
+		synchronized (this.idleSearchers) {
+			if (!this.idleSearchers.isEmpty()) {
+				return this.idleSearchers.remove(this.idleSearchers.size() - 1);
+			}
+		}
+		return new Searcher();
+	}
+
+	private void releaseSearcher(Searcher searcher) {
+		synchronized (this.idleSearchers) {
+			if (this.idleSearchers.size() < MAX_IDLE_SEARCHERS) {
+				this.idleSearchers.add(searcher);
+			}
+		}
+	}
+
+	private Row getCachedRow(int source) {
+		synchronized (this.cache) {
+			return this.cache.get(source);
+		}
+	}
+
+	public double distance(int i, int j) {
+		if (i == j) {
+			return 0;
+		}
+
+		// the metric is symmetric, so that either row will do
+		Row row = this.getCachedRow(j);
+		if (row != null) {
+			return row.get(i);
+		}
+		return this.getRow(i).get(j);
+	}
+
+	public double distance(Integer a, Integer b) {
+		return this.distance(a.intValue(), b.intValue());
+	}
+
+	public int size() {
+		return this.graph.getNumVertices();
+	}
+
+	public Integer getPoint(int index) {
+		return index;
+	}
+
+	public Integer[] getPoints() {
+		Integer[] result = new Integer[this.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * This function returns the set of vertices within a given distance of the query
+	 * vertex. In truncated mode, only vertices within the maximum distance are found.
+	 */
+	public TIntHashSet getClosedNeighborhood(Integer queryPoint, double epsilon) {
+		TIntHashSet result = new TIntHashSet();
+		Row row = this.getRow(queryPoint);
+		for (int k = 0; k < row.size(); k++) {
+			if (row.getDistance(k) <= epsilon) {
+				result.add(row.getIndex(k));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * This function returns the set of vertices at a distance less than epsilon from the
+	 * query vertex. In truncated mode, only vertices within the maximum distance are found.
+	 */
+	public TIntHashSet getOpenNeighborhood(Integer queryPoint, double epsilon) {
+		TIntHashSet result = new TIntHashSet();
+		Row row = this.getRow(queryPoint);
+		for (int k = 0; k < row.size(); k++) {
+			if (row.getDistance(k) < epsilon) {
+				result.add(row.getIndex(k));
+			}
+		}
+		return result;
+	}
+
+	public TIntHashSet getKNearestNeighbors(Integer queryPoint, int k) {
+		TruncatedPriorityQueue<Integer> queue = new TruncatedPriorityQueue<Integer>(k);
+		Row row = this.getRow(queryPoint);
+		for (int p = 0; p < row.size(); p++) {
+			if (row.getIndex(p) != queryPoint.intValue()) {
+				queue.insert(row.getIndex(p), row.getDistance(p));
+			}
+		}
+
+		TIntHashSet result = new TIntHashSet();
+		for (Integer index: queue.getIndices()) {
+			result.add(index);
+		}
+		return result;
+	}
+
+	public int getNearestPointIndex(Integer queryPoint) {
+		double minDistance = Infinity.Double.getPositiveInfinity();
+		int minIndex = -1;
+		Row row = this.getRow(queryPoint);
+		for (int p = 0; p < row.size(); p++) {
+			if (row.getIndex(p) != queryPoint.intValue() && row.getDistance(p) < minDistance) {
+				minDistance = row.getDistance(p);
+				minIndex = row.getIndex(p);
+			}
+		}
+		return minIndex;
+	}
+
+	/**
+	 * This function computes the pairs of vertices within a given distance, which are the
+	 * edges of the neighborhood graph of the metric space. The searches from the vertices
+	 * are split into blocks which are processed by several threads, and each search stops
+	 * at the given distance. The cache is not used.
+	 *
+	 * @param maxDistance the maximum distance, which is limited to the maximum distance of
+	 * the metric space in truncated mode
+	 * @param numThreads the number of threads to use
+	 * @return the list of pairs i < j with their distances, sorted by distance
+	 */
+	public WeightedEdgeList getNeighborhoodEdges(double maxDistance, int numThreads) {
+		ExceptionUtility.verifyPositive(numThreads);
+		final int n = this.size();
+		final double limit = Math.min(maxDistance, this.maxDistance);
+
+		List<WeightedEdgeList> lists = new ArrayList<WeightedEdgeList>();
+		if (numThreads == 1) {
+			lists.add(this.computeNeighborhoodEdges(0, n, limit));
+			return WeightedEdgeList.mergeSorted(lists);
+		}
+
+		int blockSize = Math.max(1, n / (8 * numThreads));
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<WeightedEdgeList>> blocks = new ArrayList<Future<WeightedEdgeList>>();
+			for (int start = 0; start < n; start += blockSize) {
+				final int blockStart = start;
+				final int blockEnd = Math.min(n, start + blockSize);
+				blocks.add(executor.submit(new Callable<WeightedEdgeList>() {
+					public WeightedEdgeList call() {
+						return computeNeighborhoodEdges(blockStart, blockEnd, limit);
+					}
+				}));
+			}
+
+			for (Future<WeightedEdgeList> block: blocks) {
+				lists.add(block.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return WeightedEdgeList.mergeSorted(lists);
+	}
+
+	private WeightedEdgeList computeNeighborhoodEdges(int start, int end, double limit) {
+		Searcher searcher = new Searcher();
+		WeightedEdgeList edges = new WeightedEdgeList();
+		for (int i = start; i < end; i++) {
+			searcher.search(i, limit);
+			for (int k = 0; k < searcher.numReached; k++) {
+				int j = searcher.reached[k];
+				if (j > i) {
+					edges.add(i, j, searcher.distances[j]);
+				}
+			}
+		}
+		edges.sortByWeight();
+		return edges;
+	}
+
+	/**
+	 * This class stores the distances from a vertex. In truncated mode, the row is sparse
+	 * and only holds the vertices within the maximum distance in increasing order.
+	 * Otherwise it holds the distances to all vertices.
+	 */
+	private static class Row {
+		private final int[] indices;
+		private final double[] distances;
+
+		Row(int[] indices, double[] distances) {
+			this.indices = indices;
+			this.distances = distances;
+		}
+
+		int size() {
+			return this.distances.length;
+		}
+
+		int getIndex(int k) {
+			return (this.indices == null) ? k : this.indices[k];
+		}
+
+		double getDistance(int k) {
+			return this.distances[k];
+		}
+
+		double get(int j) {
+			if (this.indices == null) {
+				return this.distances[j];
+			}
+			int k = Arrays.binarySearch(this.indices, j);
+			return (k < 0) ? Infinity.Double.getPositiveInfinity() : this.distances[k];
+		}
+	}
+
+	/**
+	 * This class performs single source searches. It keeps its arrays between searches,
+	 * and only resets the entries reached by the previous search, so that a truncated
+	 * search costs time proportional to the size of the neighborhood it explores. An
+	 * instance of this class is not thread-safe.
+	 */
+	private class Searcher {
+		private final double[] distances;
+
+		/**
+		 * The vertices reached by the last search, in the order in which they were reached.
+		 * For a breadth first search, this is also the queue.
+		 */
+		private final int[] reached;
+		private int numReached = 0;
+
+		/**
+		 * A binary min-heap of vertices with tentative distances, which may contain
+		 * outdated entries. It is only used by Dijkstra's algorithm.
+		 */
+		private int[] heapVertices = new int[16];
+		private double[] heapDistances = new double[16];
+		private int heapSize = 0;
+
+		Searcher() {
+			int n = graph.getNumVertices();
+			this.distances = new double[n];
+			Arrays.fill(this.distances, Double.POSITIVE_INFINITY);
+			this.reached = new int[n];
+		}
+
+		/**
+		 * This function computes the distances from the source to all vertices within the
+		 * given limit. Afterwards, reached[0, ..., numReached - 1] are these vertices, and
+		 * distances holds their distances.
+		 */
+		void search(int source, double limit) {
+			for (int k = 0; k < this.numReached; k++) {
+				this.distances[this.reached[k]] = Double.POSITIVE_INFINITY;
+			}
+			this.numReached = 0;
+
+			this.distances[source] = 0;
+			this.reached[this.numReached++] = source;
+
+			if (weighted) {
+				this.dijkstra(source, limit);
+			} else {
+				this.breadthFirstSearch(limit);
+			}
+		}
+
+		private void breadthFirstSearch(double limit) {
+			for (int head = 0; head < this.numReached; head++) {
+				int v = this.reached[head];
+				double distance = this.distances[v] + 1;
+				if (distance > limit) {
+					return;
+				}
+				int degree = graph.getDegree(v);
+				for (int k = 0; k < degree; k++) {
+					int u = graph.getNeighbor(v, k);
+					if (this.distances[u] == Double.POSITIVE_INFINITY) {
+						this.distances[u] = distance;
+						this.reached[this.numReached++] = u;
+					}
+				}
+			}
+		}
+
+		private void dijkstra(int source, double limit) {
+			this.heapSize = 0;
+			this.push(source, 0);
+			while (this.heapSize > 0) {
+				int v = this.heapVertices[0];
+				double distance = this.heapDistances[0];
+				this.pop();
+				if (distance > this.distances[v]) {
+					continue;
+				}
+
+				int degree = graph.getDegree(v);
+				for (int k = 0; k < degree; k++) {
+					int u = graph.getNeighbor(v, k);
+					double candidate = distance + graph.getNeighborWeight(v, k);
+					if (candidate < this.distances[u] && candidate <= limit) {
+						if (this.distances[u] == Double.POSITIVE_INFINITY) {
+							this.reached[this.numReached++] = u;
+						}
+						this.distances[u] = candidate;
+						this.push(u, candidate);
+					}
+				}
+			}
+		}
+
+		private void push(int vertex, double distance) {
+			if (this.heapSize == this.heapVertices.length) {
+				this.heapVertices = Arrays.copyOf(this.heapVertices, 2 * this.heapSize);
+				this.heapDistances = Arrays.copyOf(this.heapDistances, 2 * this.heapSize);
+			}
+			int position = this.heapSize++;
+			while (position > 0) {
+				int parent = (position - 1) >>> 1;
+				if (this.heapDistances[parent] <= distance) {
+					break;
+				}
+				this.heapVertices[position] = this.heapVertices[parent];
+				this.heapDistances[position] = this.heapDistances[parent];
+				position = parent;
+			}
+			this.heapVertices[position] = vertex;
+			this.heapDistances[position] = distance;
+		}
+
+		private void pop() {
+			this.heapSize--;
+			int vertex = this.heapVertices[this.heapSize];
+			double distance = this.heapDistances[this.heapSize];
+			int position = 0;
+			while (2 * position + 1 < this.heapSize) {
+				int child = 2 * position + 1;
+				if (child + 1 < this.heapSize && this.heapDistances[child + 1] < this.heapDistances[child]) {
+					child++;
+				}
+				if (distance <= this.heapDistances[child]) {
+					break;
+				}
+				this.heapVertices[position] = this.heapVertices[child];
+				this.heapDistances[position] = this.heapDistances[child];
+				position = child;
+			}
+			this.heapVertices[position] = vertex;
+			this.heapDistances[position] = distance;
+		}
+
+		/**
+		 * This function computes the row of distances from the source.
+		 */
+		Row computeRow(int source) {
+			this.search(source, maxDistance);
+
+			if (!truncated) {
+				double[] row = new double[this.distances.length];
+				Arrays.fill(row, Infinity.Double.getPositiveInfinity());
+				for (int k = 0; k < this.numReached; k++) {
+					row[this.reached[k]] = this.distances[this.reached[k]];
+				}
+				return new Row(null, row);
+			}
+
+			int[] indices = Arrays.copyOf(this.reached, this.numReached);
+			Arrays.sort(indices);
+			double[] row = new double[indices.length];
+			for (int k = 0; k < indices.length; k++) {
+				row[k] = this.distances[indices[k]];
+			}
+			return new Row(indices, row);
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package edu.stanford.math.plex4.homology.chain_basis;
+
+import java.util.Arrays;
+
+import edu.stanford.math.plex4.homology.utility.HomologyUtility;
+import edu.stanford.math.primitivelib.utility.CRC;
+
+/**
+ * <p>This class implements a compact representation of a simplex. Rather than
+ * storing an array of vertices, it packs the vertices into two long values,
+ * similar to the Packed4Simplex class of the original plex library. This reduces
+ * the memory footprint of a simplex from roughly 56 bytes (for a 3-simplex stored
+ * in a Simplex object along with its vertex array) to 32 bytes, which makes it
+ * possible to hold very large complexes in memory.</p>
+ *
+ * <p>Each long holds 3 vertices of 21 bits each, so that a PackedSimplex can have
+ * dimension at most MAX_DIMENSION = 5, and vertex indices in the range
+ * [0, MAX_VERTEX_INDEX]. Each vertex is stored with an offset of 1, so that an
+ * empty slot is zero. The vertices are stored in increasing order starting with
+ * the most significant slot of the first long, which means that comparing the
+ * packed values of two simplices of the same dimension gives the lexicographical
+ * order of their vertices.</p>
+ *
+ * <p>Like the Simplex class, this class is immutable and implements value
+ * semantics. The ordering PackedSimplexComparator is the same as the ordering
+ * defined by SimplexComparator on the corresponding Simplex objects.</p>
+ */
+public class PackedSimplex implements PrimitiveBasisElement {
+	/**
+	 * The maximum dimension of a simplex that can be represented by this class.
+	 */
+	public static final int MAX_DIMENSION = 5;
+
+	/**
+	 * The largest vertex index that can be represented by this class.
+	 */
+	public static final int MAX_VERTEX_INDEX = (1 << 21) - 2;
+
+	private static final int SLOT_BITS = 21;
+	private static final int SLOTS_PER_WORD = 3;
+	private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+
+	/**
+	 * The first three vertices of the simplex.
+	 */
+	private final long bits0;
+
+	/**
+	 * The remaining vertices of the simplex.
+	 */
+	private final long bits1;
+
+	/**
+	 * Stored cache of the hash code to prevent recomputing it.
+	 */
+	private final int cachedHashCode;
+
+	/**
+	 * This constructor initializes the simplex from a supplied array
+	 * of integers. The array does not need to be sorted.
+	 *
+	 * @param vertices the vertices of the simplex
+	 */
+	public PackedSimplex(final int[] vertices) {
+		if (vertices.length == 0 || vertices.length > MAX_DIMENSION + 1) {
+			throw new IllegalArgumentException("A PackedSimplex must have between 1 and " + (MAX_DIMENSION + 1) + " vertices.");
+		}
+
+		int[] sortedVertices = vertices;
+		for (int i = 1; i < vertices.length; i++) {
+			if (vertices[i - 1] > vertices[i]) {
+				sortedVertices = vertices.clone();
+				Arrays.sort(sortedVertices);
+				break;
+			}
+		}
+
+		long bits0 = 0;
+		long bits1 = 0;
+		for (int i = 0; i < sortedVertices.length; i++) {
+			int vertex = sortedVertices[i];
+			if (vertex < 0 || vertex > MAX_VERTEX_INDEX) {
+				throw new IllegalArgumentException("Vertex index out of range: " + vertex);
+			}
+			if (i < SLOTS_PER_WORD) {
+				bits0 |= ((long) vertex + 1) << getShift(i);
+			} else {
+				bits1 |= ((long) vertex + 1) << getShift(i);
+			}
+		}
+
+		this.bits0 = bits0;
+		this.bits1 = bits1;
+		this.cachedHashCode = CRC.hash32(bits1, CRC.hash32(bits0, 0));
+	}
+
+	public static PackedSimplex makeSimplex(int... args) {
+		return new PackedSimplex(args);
+	}
+
+	/**
+	 * This function returns the bit offset of the slot which holds the i-th vertex.
+	 */
+	private static int getShift(int i) {
+		return SLOT_BITS * (SLOTS_PER_WORD - 1 - (i % SLOTS_PER_WORD));
+	}
+
+	/**
+	 * This function returns the number of occupied slots in a word.
+	 */
+	private static int getNumOccupiedSlots(long word) {
+		if (word == 0) {
+			return 0;
+		}
+		int count = SLOTS_PER_WORD;
+		while (((word >>> getShift(count - 1)) & SLOT_MASK) == 0) {
+			count--;
+		}
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.homology.chain_basis.PrimitiveBasisElement#getDimension()
+	 */
+	public int getDimension() {
+		if (this.bits1 != 0) {
+			return SLOTS_PER_WORD + getNumOccupiedSlots(this.bits1) - 1;
+		}
+		return getNumOccupiedSlots(this.bits0) - 1;
+	}
+
+	/**
+	 * This function returns the i-th vertex of the simplex, where the vertices
+	 * are sorted in increasing order.
+	 *
+	 * @param i the position of the vertex
+	 * @return the i-th vertex
+	 */
+	public int getVertex(int i) {
+		long word = (i < SLOTS_PER_WORD ? this.bits0 : this.bits1);
+		return (int) ((word >>> getShift(i)) & SLOT_MASK) - 1;
+	}
+
+	/**
+	 * This function returns a newly allocated array containing the vertices of the
+	 * simplex in increasing order.
+	 *
+	 * @return an array containing the vertices of the simplex
+	 */
+	public int[] getVertices() {
+		int[] vertices = new int[this.getDimension() + 1];
+		for (int i = 0; i < vertices.length; i++) {
+			vertices[i] = this.getVertex(i);
+		}
+		return vertices;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.homology.chain_basis.PrimitiveBasisElement#getBoundaryArray()
+	 */
+	public PackedSimplex[] getBoundaryArray() {
+		int[] vertices = this.getVertices();
+
+		// if this a point, return an empty array
+		if (vertices.length == 1) {
+			return new PackedSimplex[0];
+		}
+
+		PackedSimplex[] boundaryArray = new PackedSimplex[vertices.length];
+		for (int i = 0; i < vertices.length; i++) {
+			boundaryArray[i] = new PackedSimplex(HomologyUtility.removeIndex(vertices, i));
+		}
+		return boundaryArray;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.homology.chain_basis.PrimitiveBasisElement#getBoundaryCoefficients()
+	 */
+	public int[] getBoundaryCoefficients() {
+		int numVertices = this.getDimension() + 1;
+		if (numVertices == 1) {
+			return HomologyUtility.getDefaultBoundaryCoefficients(0);
+		}
+		return HomologyUtility.getDefaultBoundaryCoefficients(numVertices);
+	}
+
+	/**
+	 * This function compares the packed representations of two simplices of the
+	 * same dimension. This is equivalent to comparing their vertices in
+	 * lexicographical order.
+	 *
+	 * @param other the simplex to compare to
+	 * @return a negative integer, zero, or a positive integer if this simplex is less than,
+	 * equal to, or greater than the other one
+	 */
+	int comparePackedBits(PackedSimplex other) {
+		// the highest bit of each word is never set, so the signed comparison is correct
+		if (this.bits0 != other.bits0) {
+			return (this.bits0 < other.bits0 ? -1 : 1);
+		}
+		if (this.bits1 != other.bits1) {
+			return (this.bits1 < other.bits1 ? -1 : 1);
+		}
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof PackedSimplex)) {
+			return false;
+		}
+		PackedSimplex o = (PackedSimplex) obj;
+		return (this.bits0 == o.bits0 && this.bits1 == o.bits1);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	public int hashCode() {
+		return this.cachedHashCode;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append('[');
+		int numVertices = this.getDimension() + 1;
+		for (int i = 0; i < numVertices; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(this.getVertex(i));
+		}
+		builder.append(']');
+		return builder.toString();
+	}
+}
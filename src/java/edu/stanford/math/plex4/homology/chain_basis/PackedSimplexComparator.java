@@ -0,0 +1,48 @@
+package edu.stanford.math.plex4.homology.chain_basis;
+
+import java.util.Comparator;
+
+/**
+ * This class defines the standard ordering on the PackedSimplex class. As with
+ * the SimplexComparator class, the simplices are ordered first by dimension, and
+ * simplices of the same dimension are compared by their vertices in lexicographical
+ * order. The comparison is performed directly on the packed representations, without
+ * decoding the vertices.
+ *
+ * This class implements the singleton design pattern. Thus it cannot
+ * be instantiated. Instead the user must call the static getInstance()
+ * function in order to get the actual instance for use.
+ */
+public class PackedSimplexComparator implements Comparator<PackedSimplex> {
+
+	/**
+	 * This is the single instantiation of the class.
+	 */
+	private static final PackedSimplexComparator instance = new PackedSimplexComparator();
+
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private PackedSimplexComparator() {}
+
+	/**
+	 * This static function returns the one instance of the class.
+	 *
+	 * @return the instance of the class
+	 */
+	public static PackedSimplexComparator getInstance() {
+		return instance;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+	 */
+	public int compare(PackedSimplex o1, PackedSimplex o2) {
+		int dimension1 = o1.getDimension();
+		int dimension2 = o2.getDimension();
+		if (dimension1 != dimension2) {
+			return (dimension1 - dimension2);
+		}
+		return o1.comparePackedBits(o2);
+	}
+}
@@ -1,6 +1,10 @@
 package edu.stanford.math.plex4.homology.nonautogen;
 
-@Deprecated
+/**
+ * This class implements a disjoint set (union-find) structure on the integers 0, ..., size - 1,
+ * using path compression and union by rank. It is used by the persistent cohomology algorithm
+ * to track connected components and to merge equal annotations.
+ */
 public class DisjointSetSystem {
 	int capacity = 16;
 	int size = 0;
@@ -51,6 +55,12 @@ public class DisjointSetSystem {
 			this.capacity = newCapacity;
 		}
 		
+		// new elements start out as singletons
+		for (int i = this.size; i < newSize; i++) {
+			this.parents[i] = i;
+			this.ranks[i] = 0;
+		}
+		
 		this.size = newSize;
 	}
 	
@@ -0,0 +1,436 @@
+package edu.stanford.math.plex4.homology.nonautogen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import edu.stanford.math.plex4.autogen.homology.IntPersistenceAlgorithm;
+import edu.stanford.math.plex4.homology.barcodes.AnnotatedBarcodeCollection;
+import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
+import edu.stanford.math.plex4.streams.interfaces.AbstractFilteredStream;
+import edu.stanford.math.primitivelib.autogen.algebraic.IntAbstractField;
+import edu.stanford.math.primitivelib.autogen.formal_sum.IntSparseFormalSum;
+import gnu.trove.TObjectIntHashMap;
+
+/**
+ * <p>This class implements the pHcol algorithm for absolute persistent homology using an
+ * array-based representation of the boundary matrix. It produces the same barcodes (and
+ * generators) as IntAbsoluteHomology, but avoids the object-keyed hash maps used there.</p>
+ *
+ * <p>Before the reduction, each basis element is assigned an integer index given by its
+ * position in the filtration order. The columns of R and V are then stored as sorted int
+ * arrays of row indices with parallel coefficient arrays, and the low map is replaced by
+ * a dense array which maps a row index to the column that has it as its pivot. The matrix
+ * V is only computed when generators are requested.</p>
+ *
+ * <p>The algorithm optionally uses the clearing (or twist) optimization described in
+ * "Persistent Homology Computation with a Twist" by Chen and Kerber. In this mode the
+ * dimensions are processed from high to low. If a basis element is the low entry of a
+ * reduced column in the next higher dimension, then its own column must reduce to zero,
+ * so it is cleared without performing any column operations.</p>
+ *
+ * @param <U> the underlying basis type
+ */
+public class IntArrayPersistentHomology<U> extends IntPersistenceAlgorithm<U> {
+	/**
+	 * The column used for cleared entries of R and V.
+	 */
+	private static final int[] EMPTY_COLUMN = new int[0];
+
+	/**
+	 * This indicates whether the clearing (twist) optimization is used.
+	 */
+	private final boolean useClearing;
+
+	/**
+	 * This constructor initializes the object with a field and a comparator on the basis type.
+	 *
+	 * @param field a field structure on the type int
+	 * @param basisComparator a comparator on the basis type U
+	 * @param minDimension the minimum dimension to compute
+	 * @param maxDimension the maximum dimension to compute
+	 */
+	public IntArrayPersistentHomology(IntAbstractField field, Comparator<U> basisComparator, int minDimension, int maxDimension) {
+		this(field, basisComparator, minDimension, maxDimension, false);
+	}
+
+	/**
+	 * This constructor initializes the object with a field and a comparator on the basis type.
+	 *
+	 * @param field a field structure on the type int
+	 * @param basisComparator a comparator on the basis type U
+	 * @param minDimension the minimum dimension to compute
+	 * @param maxDimension the maximum dimension to compute
+	 * @param useClearing true if the columns should be reduced from the highest dimension down, 
+	 * skipping the columns which are known to reduce to zero
+	 */
+	public IntArrayPersistentHomology(IntAbstractField field, Comparator<U> basisComparator, int minDimension, int maxDimension, boolean useClearing) {
+		super(field, basisComparator, minDimension, maxDimension);
+		this.useClearing = useClearing;
+	}
+
+	/**
+	 * This function returns whether the clearing (twist) optimization is used.
+	 *
+	 * @return true if clearing is used
+	 */
+	public boolean usesClearing() {
+		return this.useClearing;
+	}
+
+	@Override
+	protected AnnotatedBarcodeCollection<Integer, IntSparseFormalSum<U>> computeAnnotatedIntervalsImpl(AbstractFilteredStream<U> stream) {
+		BoundaryMatrix<U> matrix = new BoundaryMatrix<U>(stream, this.filteredComparator, this.minDimension, this.maxDimension);
+		this.reduce(stream, matrix, true);
+		return this.getAnnotatedIntervals(matrix);
+	}
+
+	@Override
+	protected BarcodeCollection<Integer> computeIntervalsImpl(AbstractFilteredStream<U> stream) {
+		BoundaryMatrix<U> matrix = new BoundaryMatrix<U>(stream, this.filteredComparator, this.minDimension, this.maxDimension);
+		this.reduce(stream, matrix, false);
+		return this.getIntervals(matrix);
+	}
+
+	/**
+	 * This function performs the column reduction R = D * V. In the standard mode the columns
+	 * are processed in the order in which the stream provides them. In clearing mode they are
+	 * processed by decreasing dimension, and a column whose basis element already appears as
+	 * the low entry of a column in the next dimension is set to zero without being reduced.
+	 *
+	 * @param stream the filtered chain complex
+	 * @param matrix the indexed boundary matrix which receives the reduced columns
+	 * @param computeV true if the matrix V should be computed
+	 */
+	private void reduce(AbstractFilteredStream<U> stream, BoundaryMatrix<U> matrix, boolean computeV) {
+		IntColumnBuffer R_j = new IntColumnBuffer(this.field);
+		IntColumnBuffer V_j = new IntColumnBuffer(this.field);
+
+		if (computeV) {
+			matrix.V_rows = new int[matrix.size][];
+			matrix.V_coefficients = new int[matrix.size][];
+		}
+
+		if (!this.useClearing) {
+			for (int k = 0; k < matrix.columnOrder.length; k++) {
+				this.reduceColumn(stream, matrix, matrix.columnOrder[k], R_j, V_j, computeV);
+			}
+			return;
+		}
+
+		int[] twistOrder = matrix.getTwistOrder(this.minDimension, this.maxDimension);
+		for (int k = 0; k < twistOrder.length; k++) {
+			int j = twistOrder[k];
+			if (matrix.pivotOf[j] >= 0) {
+				// j is the low entry of a column in the next dimension, so its column reduces to zero
+				matrix.R_rows[j] = EMPTY_COLUMN;
+				matrix.R_coefficients[j] = EMPTY_COLUMN;
+				if (computeV) {
+					matrix.V_rows[j] = EMPTY_COLUMN;
+					matrix.V_coefficients[j] = EMPTY_COLUMN;
+				}
+				continue;
+			}
+			this.reduceColumn(stream, matrix, j, R_j, V_j, computeV);
+		}
+	}
+
+	/**
+	 * This function reduces the column with index j against the columns that have already been
+	 * reduced, and stores the result in the matrix.
+	 *
+	 * @param stream the filtered chain complex
+	 * @param matrix the indexed boundary matrix which receives the reduced columns
+	 * @param j the index of the column to reduce
+	 * @param R_j working buffer for the column of R
+	 * @param V_j working buffer for the column of V
+	 * @param computeV true if the matrix V should be computed
+	 */
+	private void reduceColumn(AbstractFilteredStream<U> stream, BoundaryMatrix<U> matrix, int j, IntColumnBuffer R_j, IntColumnBuffer V_j, boolean computeV) {
+		matrix.loadBoundary(stream, j, R_j);
+		if (computeV) {
+			V_j.setSingleton(j, this.field.getOne());
+		}
+
+		int low = R_j.getLowRow();
+		while (low >= 0 && matrix.pivotOf[low] >= 0) {
+			int i = matrix.pivotOf[low];
+			int[] R_i_rows = matrix.R_rows[i];
+			int[] R_i_coefficients = matrix.R_coefficients[i];
+			int c = this.field.divide(R_j.getLowCoefficient(), R_i_coefficients[R_i_coefficients.length - 1]);
+			int negative_c = this.field.negate(c);
+			R_j.accumulate(R_i_rows, R_i_coefficients, negative_c);
+			if (computeV) {
+				V_j.accumulate(matrix.V_rows[i], matrix.V_coefficients[i], negative_c);
+			}
+			low = R_j.getLowRow();
+		}
+
+		matrix.R_rows[j] = R_j.toRowArray();
+		matrix.R_coefficients[j] = R_j.toCoefficientArray();
+		if (computeV) {
+			matrix.V_rows[j] = V_j.toRowArray();
+			matrix.V_coefficients[j] = V_j.toCoefficientArray();
+		}
+
+		if (low >= 0) {
+			matrix.pivotOf[low] = j;
+		}
+	}
+
+	private BarcodeCollection<Integer> getIntervals(BoundaryMatrix<U> matrix) {
+		BarcodeCollection<Integer> barcodeCollection = new BarcodeCollection<Integer>();
+		boolean[] births = new boolean[matrix.size];
+
+		for (int k = 0; k < matrix.columnOrder.length; k++) {
+			int j = matrix.columnOrder[k];
+			int[] R_j = matrix.R_rows[j];
+			int dimension = matrix.dimensions[j];
+			if (R_j.length == 0) {
+				if (dimension <= this.maxDimension && dimension >= this.minDimension) {
+					births[j] = true;
+				}
+			} else {
+				// column j kills its low entry
+				int low = R_j[R_j.length - 1];
+				births[low] = false;
+				int start = matrix.filtrationIndices[low];
+				int end = matrix.filtrationIndices[j];
+				if (end > start) {
+					dimension = matrix.dimensions[low];
+					if (dimension < this.maxDimension && dimension >= this.minDimension) {
+						barcodeCollection.addInterval(dimension, start, end);
+					}
+				}
+			}
+		}
+
+		// the elements in birth are the ones that are never killed
+		// these correspond to semi-infinite intervals
+		for (int i = 0; i < matrix.size; i++) {
+			if (births[i]) {
+				int dimension = matrix.dimensions[i];
+				if (dimension < this.maxDimension && dimension >= this.minDimension) {
+					barcodeCollection.addRightInfiniteInterval(dimension, matrix.filtrationIndices[i]);
+				}
+			}
+		}
+
+		return barcodeCollection;
+	}
+
+	private AnnotatedBarcodeCollection<Integer, IntSparseFormalSum<U>> getAnnotatedIntervals(BoundaryMatrix<U> matrix) {
+		AnnotatedBarcodeCollection<Integer, IntSparseFormalSum<U>> barcodeCollection = new AnnotatedBarcodeCollection<Integer, IntSparseFormalSum<U>>();
+		boolean[] births = new boolean[matrix.size];
+
+		for (int k = 0; k < matrix.columnOrder.length; k++) {
+			int j = matrix.columnOrder[k];
+			int[] R_j = matrix.R_rows[j];
+			int dimension = matrix.dimensions[j];
+			if (R_j.length == 0) {
+				if (dimension <= this.maxDimension && dimension >= this.minDimension) {
+					births[j] = true;
+				}
+			} else {
+				// column j kills its low entry
+				int low = R_j[R_j.length - 1];
+				births[low] = false;
+				int start = matrix.filtrationIndices[low];
+				int end = matrix.filtrationIndices[j];
+				if (end > start) {
+					dimension = matrix.dimensions[low];
+					if (dimension < this.maxDimension && dimension >= this.minDimension) {
+						barcodeCollection.addInterval(dimension, start, end, matrix.toChain(matrix.R_rows[j], matrix.R_coefficients[j]));
+					}
+				}
+			}
+		}
+
+		// the elements in birth are the ones that are never killed
+		// these correspond to semi-infinite intervals
+		for (int i = 0; i < matrix.size; i++) {
+			if (births[i]) {
+				int dimension = matrix.dimensions[i];
+				if (dimension < this.maxDimension && dimension >= this.minDimension) {
+					barcodeCollection.addRightInfiniteInterval(dimension, matrix.filtrationIndices[i], matrix.toChain(matrix.V_rows[i], matrix.V_coefficients[i]));
+				}
+			}
+		}
+
+		return barcodeCollection;
+	}
+
+	/**
+	 * This class holds the indexed representation of a filtered chain complex together with the
+	 * columns of the reduced matrices. The index of a basis element is its position in the
+	 * filtration order, so that the low entry of a column is simply its largest row index.
+	 *
+	 * @param <U> the underlying basis type
+	 */
+	static class BoundaryMatrix<U> {
+		/**
+		 * The basis elements, in increasing filtration order.
+		 */
+		final List<U> elements;
+
+		/**
+		 * This maps a basis element to its index.
+		 */
+		final TObjectIntHashMap<U> indices;
+
+		/**
+		 * The number of indexed basis elements.
+		 */
+		final int size;
+
+		/**
+		 * The dimension and filtration index of each indexed basis element.
+		 */
+		final int[] dimensions;
+		final int[] filtrationIndices;
+
+		/**
+		 * The indices of the columns to reduce, in the order provided by the stream.
+		 */
+		final int[] columnOrder;
+
+		/**
+		 * This maps a row index to the column which has it as its low entry, or -1 if there is none.
+		 */
+		final int[] pivotOf;
+
+		/**
+		 * The columns of the reduced matrix R.
+		 */
+		final int[][] R_rows;
+		final int[][] R_coefficients;
+
+		/**
+		 * The columns of V, or null if they are not computed.
+		 */
+		int[][] V_rows = null;
+		int[][] V_coefficients = null;
+
+		/**
+		 * Scratch space for reading in boundaries.
+		 */
+		private int[] boundaryRows = new int[16];
+
+		/**
+		 * This constructor indexes the elements of the stream with dimensions between
+		 * minDimension - 1 and maxDimension + 1. The columns are the elements with dimensions
+		 * in the range [minDimension, maxDimension + 1].
+		 *
+		 * @param stream the filtered chain complex
+		 * @param filteredComparator the comparator defining the filtration order
+		 * @param minDimension the minimum dimension to compute
+		 * @param maxDimension the maximum dimension to compute
+		 */
+		BoundaryMatrix(AbstractFilteredStream<U> stream, Comparator<U> filteredComparator, int minDimension, int maxDimension) {
+			List<U> streamOrder = new ArrayList<U>();
+			for (U element : stream) {
+				int dimension = stream.getDimension(element);
+				if (dimension >= minDimension - 1 && dimension <= maxDimension + 1) {
+					streamOrder.add(element);
+				}
+			}
+
+			// streams provide their elements in filtration order, so this sort is typically linear
+			this.elements = new ArrayList<U>(streamOrder);
+			Collections.sort(this.elements, filteredComparator);
+
+			this.size = this.elements.size();
+			this.indices = new TObjectIntHashMap<U>(this.size);
+			this.dimensions = new int[this.size];
+			this.filtrationIndices = new int[this.size];
+			int numColumns = 0;
+			for (int i = 0; i < this.size; i++) {
+				U element = this.elements.get(i);
+				this.indices.put(element, i);
+				this.dimensions[i] = stream.getDimension(element);
+				this.filtrationIndices[i] = stream.getFiltrationIndex(element);
+				if (this.dimensions[i] >= minDimension) {
+					numColumns++;
+				}
+			}
+
+			this.columnOrder = new int[numColumns];
+			int k = 0;
+			for (U element : streamOrder) {
+				int index = this.indices.get(element);
+				if (this.dimensions[index] >= minDimension) {
+					this.columnOrder[k++] = index;
+				}
+			}
+
+			this.pivotOf = new int[this.size];
+			for (int i = 0; i < this.size; i++) {
+				this.pivotOf[i] = -1;
+			}
+			this.R_rows = new int[this.size][];
+			this.R_coefficients = new int[this.size][];
+		}
+
+		/**
+		 * This function returns the column indices sorted by decreasing dimension, and by
+		 * increasing filtration order within each dimension.
+		 *
+		 * @param minDimension the minimum dimension to compute
+		 * @param maxDimension the maximum dimension to compute
+		 * @return the column indices in the order used by the clearing optimization
+		 */
+		int[] getTwistOrder(int minDimension, int maxDimension) {
+			int numDimensions = maxDimension - minDimension + 2;
+			int[] offsets = new int[numDimensions + 1];
+			for (int k = 0; k < this.columnOrder.length; k++) {
+				offsets[maxDimension + 1 - this.dimensions[this.columnOrder[k]] + 1]++;
+			}
+			for (int d = 0; d < numDimensions; d++) {
+				offsets[d + 1] += offsets[d];
+			}
+			int[] order = new int[this.columnOrder.length];
+			for (int i = 0; i < this.size; i++) {
+				if (this.dimensions[i] >= minDimension) {
+					order[offsets[maxDimension + 1 - this.dimensions[i]]++] = i;
+				}
+			}
+			return order;
+		}
+
+		/**
+		 * This function loads the boundary of the basis element with index j into the given buffer.
+		 *
+		 * @param stream the filtered chain complex
+		 * @param j the index of the basis element
+		 * @param buffer the buffer to store the boundary in
+		 */
+		void loadBoundary(AbstractFilteredStream<U> stream, int j, IntColumnBuffer buffer) {
+			U element = this.elements.get(j);
+			U[] boundary = stream.getBoundary(element);
+			int[] coefficients = stream.getBoundaryCoefficients(element);
+			if (this.boundaryRows.length < boundary.length) {
+				this.boundaryRows = new int[boundary.length];
+			}
+			for (int i = 0; i < boundary.length; i++) {
+				this.boundaryRows[i] = this.indices.get(boundary[i]);
+			}
+			buffer.loadUnsorted(this.boundaryRows, coefficients, boundary.length);
+		}
+
+		/**
+		 * This function converts a column in array form into a formal sum of basis elements.
+		 *
+		 * @param rows the row indices of the column
+		 * @param coefficients the coefficients of the column
+		 * @return the column as a formal sum
+		 */
+		IntSparseFormalSum<U> toChain(int[] rows, int[] coefficients) {
+			IntSparseFormalSum<U> chain = new IntSparseFormalSum<U>();
+			for (int i = 0; i < rows.length; i++) {
+				chain.put(coefficients[i], this.elements.get(rows[i]));
+			}
+			return chain;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package edu.stanford.math.plex4.homology.nonautogen;
+
+import edu.stanford.math.primitivelib.autogen.algebraic.IntAbstractField;
+
+/**
+ * This class implements a reusable working column for the array-based matrix reduction
+ * algorithms. A column is stored as a pair of parallel arrays containing the row indices
+ * (in strictly increasing order) and the corresponding non-zero coefficients. Thus the
+ * low entry of a column is always its last entry.
+ *
+ * <p>The buffer owns two pairs of arrays which are swapped after each accumulation, so that
+ * repeated column additions do not allocate any memory once the buffers have grown to the
+ * required size.</p>
+ */
+class IntColumnBuffer {
+	/**
+	 * The field over which the arithmetic is performed.
+	 */
+	private final IntAbstractField field;
+
+	/**
+	 * The row indices of the current column, in increasing order.
+	 */
+	private int[] rows = new int[16];
+
+	/**
+	 * The coefficients of the current column.
+	 */
+	private int[] coefficients = new int[16];
+
+	/**
+	 * Scratch arrays which receive the result of a merge.
+	 */
+	private int[] scratchRows = new int[16];
+	private int[] scratchCoefficients = new int[16];
+
+	/**
+	 * The number of non-zero entries in the current column.
+	 */
+	private int size = 0;
+
+	/**
+	 * This constructor initializes the buffer with a field.
+	 *
+	 * @param field the field over which to perform the arithmetic
+	 */
+	IntColumnBuffer(IntAbstractField field) {
+		this.field = field;
+	}
+
+	/**
+	 * This function sets the column to be zero.
+	 */
+	void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * This function sets the column to contain the single entry with the given row and coefficient.
+	 *
+	 * @param row the row index of the entry
+	 * @param coefficient the coefficient of the entry
+	 */
+	void setSingleton(int row, int coefficient) {
+		this.size = 0;
+		if (!this.field.isZero(coefficient)) {
+			this.rows[0] = row;
+			this.coefficients[0] = coefficient;
+			this.size = 1;
+		}
+	}
+
+	/**
+	 * This function loads an unsorted collection of entries into the buffer. The entries are
+	 * sorted by row, entries with equal rows are combined, and zero coefficients are dropped.
+	 * As with the free module classes, the coefficients of single entries are stored as given.
+	 *
+	 * @param entryRows the row indices of the entries
+	 * @param entryCoefficients the (integer) coefficients of the entries
+	 * @param length the number of entries to read
+	 */
+	void loadUnsorted(int[] entryRows, int[] entryCoefficients, int length) {
+		this.ensureCapacity(length);
+
+		// insertion sort - boundaries are typically very short
+		int n = 0;
+		for (int k = 0; k < length; k++) {
+			int row = entryRows[k];
+			int coefficient = entryCoefficients[k];
+			int position = n;
+			while (position > 0 && this.rows[position - 1] > row) {
+				position--;
+			}
+			if (position > 0 && this.rows[position - 1] == row) {
+				this.coefficients[position - 1] = this.field.add(this.coefficients[position - 1], coefficient);
+				continue;
+			}
+			for (int m = n; m > position; m--) {
+				this.rows[m] = this.rows[m - 1];
+				this.coefficients[m] = this.coefficients[m - 1];
+			}
+			this.rows[position] = row;
+			this.coefficients[position] = coefficient;
+			n++;
+		}
+
+		// remove zeros
+		this.size = 0;
+		for (int k = 0; k < n; k++) {
+			if (!this.field.isZero(this.coefficients[k])) {
+				this.rows[this.size] = this.rows[k];
+				this.coefficients[this.size] = this.coefficients[k];
+				this.size++;
+			}
+		}
+	}
+
+	/**
+	 * This function performs the operation this = this + q * other, where other is a column
+	 * given by sorted parallel arrays.
+	 *
+	 * @param otherRows the row indices of the other column in increasing order
+	 * @param otherCoefficients the coefficients of the other column
+	 * @param q the multiplier
+	 */
+	void accumulate(int[] otherRows, int[] otherCoefficients, int q) {
+		int otherSize = otherRows.length;
+		int required = this.size + otherSize;
+		if (this.scratchRows.length < required) {
+			int capacity = Math.max(required, 2 * this.scratchRows.length);
+			this.scratchRows = new int[capacity];
+			this.scratchCoefficients = new int[capacity];
+		}
+
+		int i = 0, j = 0, k = 0;
+		while (i < this.size && j < otherSize) {
+			int a = this.rows[i];
+			int b = otherRows[j];
+			if (a < b) {
+				this.scratchRows[k] = a;
+				this.scratchCoefficients[k] = this.coefficients[i];
+				k++;
+				i++;
+			} else if (a > b) {
+				this.scratchRows[k] = b;
+				this.scratchCoefficients[k] = this.field.multiply(q, otherCoefficients[j]);
+				k++;
+				j++;
+			} else {
+				int value = this.field.add(this.coefficients[i], this.field.multiply(q, otherCoefficients[j]));
+				if (!this.field.isZero(value)) {
+					this.scratchRows[k] = a;
+					this.scratchCoefficients[k] = value;
+					k++;
+				}
+				i++;
+				j++;
+			}
+		}
+		while (i < this.size) {
+			this.scratchRows[k] = this.rows[i];
+			this.scratchCoefficients[k] = this.coefficients[i];
+			k++;
+			i++;
+		}
+		while (j < otherSize) {
+			this.scratchRows[k] = otherRows[j];
+			this.scratchCoefficients[k] = this.field.multiply(q, otherCoefficients[j]);
+			k++;
+			j++;
+		}
+
+		int[] temp = this.rows;
+		this.rows = this.scratchRows;
+		this.scratchRows = temp;
+		temp = this.coefficients;
+		this.coefficients = this.scratchCoefficients;
+		this.scratchCoefficients = temp;
+		this.size = k;
+	}
+
+	/**
+	 * @return true if the column is zero
+	 */
+	boolean isEmpty() {
+		return (this.size == 0);
+	}
+
+	/**
+	 * @return the number of non-zero entries in the column
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * This function returns the largest row index with a non-zero coefficient, or
+	 * -1 if the column is zero.
+	 *
+	 * @return the low row index
+	 */
+	int getLowRow() {
+		return (this.size == 0 ? -1 : this.rows[this.size - 1]);
+	}
+
+	/**
+	 * @return the coefficient of the low entry
+	 */
+	int getLowCoefficient() {
+		return this.coefficients[this.size - 1];
+	}
+
+	/**
+	 * @return a trimmed copy of the row indices
+	 */
+	int[] toRowArray() {
+		int[] result = new int[this.size];
+		System.arraycopy(this.rows, 0, result, 0, this.size);
+		return result;
+	}
+
+	/**
+	 * @return a trimmed copy of the coefficients
+	 */
+	int[] toCoefficientArray() {
+		int[] result = new int[this.size];
+		System.arraycopy(this.coefficients, 0, result, 0, this.size);
+		return result;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (this.rows.length < capacity) {
+			int newCapacity = Math.max(capacity, 2 * this.rows.length);
+			this.rows = new int[newCapacity];
+			this.coefficients = new int[newCapacity];
+		}
+	}
+}
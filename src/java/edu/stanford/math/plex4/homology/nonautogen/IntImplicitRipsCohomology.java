@@ -0,0 +1,837 @@
+package edu.stanford.math.plex4.homology.nonautogen;
+
+import java.util.Arrays;
+
+import edu.stanford.math.plex4.graph.UndirectedWeightedListGraph;
+import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
+import edu.stanford.math.plex4.homology.filtration.FiltrationConverter;
+import edu.stanford.math.primitivelib.autogen.algebraic.IntAbstractField;
+import gnu.trove.TLongIntHashMap;
+
+/**
+ * <p>This class computes the persistent homology of the flag complex (such as the Vietoris-Rips
+ * complex) defined by a weighted neighborhood graph, without constructing the filtered complex.
+ * It produces the same barcodes as running a persistence algorithm with the given maximum
+ * dimension on the corresponding FlagComplexStream. The filtration index of a simplex is the
+ * largest filtration index of its edges, as given by the FiltrationConverter.</p>
+ *
+ * <p>Each simplex is represented by a single long, namely its index in the combinatorial
+ * number system: the simplex with vertices v_0 &lt; ... &lt; v_k has index
+ * C(v_0, 1) + C(v_1, 2) + ... + C(v_k, k + 1). The cofacets and facets of a simplex are
+ * computed from this index and the neighborhood graph when they are needed. The algorithm
+ * computes persistent cohomology one dimension at a time, using the clearing optimization, and
+ * only stores the reduction matrix. Dimension 0 is computed with a union-find structure.</p>
+ *
+ * <p>Pairs of simplices (s, t) where t is the first cofacet of s and s is the last facet of t,
+ * and where s and t have the same filtration index, are called apparent pairs. Such pairs give
+ * zero length intervals, and are never stored: they are recognized locally when needed. This
+ * is the approach taken by Ripser, described in "Ripser: efficient computation of
+ * Vietoris-Rips persistence barcodes" by Ulrich Bauer.</p>
+ */
+public class IntImplicitRipsCohomology {
+	/**
+	 * This is the field over which we perform the arithmetic computations.
+	 */
+	protected final IntAbstractField field;
+
+	/**
+	 * The maximum dimension of the complex. Intervals are computed in dimensions strictly
+	 * less than this.
+	 */
+	protected final int maxDimension;
+
+	/**
+	 * This constructor initializes the object with a field and a maximum dimension.
+	 *
+	 * @param field a field structure on the type int
+	 * @param maxDimension the maximum dimension of the complex
+	 */
+	public IntImplicitRipsCohomology(IntAbstractField field, int maxDimension) {
+		this.field = field;
+		this.maxDimension = maxDimension;
+	}
+
+	/**
+	 * This function returns the field over which the cohomology is computed.
+	 *
+	 * @return the field over type int
+	 */
+	public IntAbstractField getField() {
+		return this.field;
+	}
+
+	/**
+	 * This function computes the persistence index intervals of the flag complex of the given
+	 * neighborhood graph.
+	 *
+	 * @param graph the weighted neighborhood graph
+	 * @param converter the FiltrationConverter which converts the edge weights to filtration indices
+	 * @return the persistence intervals in terms of filtration indices
+	 */
+	public BarcodeCollection<Integer> computeIndexIntervals(UndirectedWeightedListGraph graph, FiltrationConverter converter) {
+		return new RipsComputation(graph, converter).compute();
+	}
+
+	/**
+	 * This function computes the persistence intervals of the flag complex of the given
+	 * neighborhood graph.
+	 *
+	 * @param graph the weighted neighborhood graph
+	 * @param converter the FiltrationConverter which converts the edge weights to filtration indices
+	 * @return the persistence intervals in terms of filtration values
+	 */
+	public BarcodeCollection<Double> computeIntervals(UndirectedWeightedListGraph graph, FiltrationConverter converter) {
+		BarcodeCollection<Integer> integerIntervals = this.computeIndexIntervals(graph, converter);
+		return (BarcodeCollection<Double>) converter.transform(integerIntervals);
+	}
+
+	/**
+	 * This class holds the state of a single computation.
+	 */
+	private class RipsComputation {
+		private final int numVertices;
+		private final int vertexFiltrationIndex;
+
+		/**
+		 * The neighbors of each vertex in increasing order, and the filtration indices of
+		 * the corresponding edges.
+		 */
+		private final int[][] neighbors;
+		private final int[][] neighborFiltrationIndices;
+
+		/**
+		 * binomials[v][k] = C(v, k) for k up to maxDimension + 1.
+		 */
+		private final long[][] binomials;
+
+		private final BarcodeCollection<Integer> collection = new BarcodeCollection<Integer>();
+		private final int one;
+		private final int minusOne;
+
+		/*
+		 * Scratch space for the vertices of simplices.
+		 */
+		private final int[] columnVertices;
+		private final int[] entryVertices;
+		private final int[] pivotVertices;
+		private final int[] cofacetVertices;
+		private final int[] facetVertices;
+
+		/*
+		 * The result of the apparent pair queries.
+		 */
+		private long resultIndex;
+		private int resultFiltrationIndex;
+		private int resultCoefficient;
+
+		RipsComputation(UndirectedWeightedListGraph graph, FiltrationConverter converter) {
+			this.numVertices = graph.getNumVertices();
+			this.vertexFiltrationIndex = converter.getFiltrationIndex(converter.getInitialFiltrationValue());
+			this.one = field.getOne();
+			this.minusOne = field.negate(this.one);
+
+			int[] degrees = new int[this.numVertices];
+			int[][] lowerNeighbors = new int[this.numVertices][];
+			for (int y = 0; y < this.numVertices; y++) {
+				lowerNeighbors[y] = graph.getLowerNeighbors(y).toArray();
+				for (int x : lowerNeighbors[y]) {
+					if (x != y) {
+						degrees[x]++;
+						degrees[y]++;
+					}
+				}
+			}
+
+			// each neighbor is packed with its filtration index so that both can be sorted together
+			long[][] packed = new long[this.numVertices][];
+			for (int v = 0; v < this.numVertices; v++) {
+				packed[v] = new long[degrees[v]];
+				degrees[v] = 0;
+			}
+			for (int y = 0; y < this.numVertices; y++) {
+				for (int x : lowerNeighbors[y]) {
+					if (x != y) {
+						long filtrationIndex = converter.getFiltrationIndex(graph.getWeight(x, y));
+						packed[x][degrees[x]++] = ((long) y << 32) | filtrationIndex;
+						packed[y][degrees[y]++] = ((long) x << 32) | filtrationIndex;
+					}
+				}
+				lowerNeighbors[y] = null;
+			}
+
+			this.neighbors = new int[this.numVertices][];
+			this.neighborFiltrationIndices = new int[this.numVertices][];
+			for (int v = 0; v < this.numVertices; v++) {
+				Arrays.sort(packed[v]);
+				this.neighbors[v] = new int[packed[v].length];
+				this.neighborFiltrationIndices[v] = new int[packed[v].length];
+				for (int i = 0; i < packed[v].length; i++) {
+					this.neighbors[v][i] = (int) (packed[v][i] >>> 32);
+					this.neighborFiltrationIndices[v][i] = (int) packed[v][i];
+				}
+				packed[v] = null;
+			}
+
+			this.binomials = computeBinomials(this.numVertices, maxDimension + 1);
+
+			this.columnVertices = new int[maxDimension + 2];
+			this.entryVertices = new int[maxDimension + 2];
+			this.pivotVertices = new int[maxDimension + 2];
+			this.cofacetVertices = new int[maxDimension + 2];
+			this.facetVertices = new int[maxDimension + 2];
+		}
+
+		BarcodeCollection<Integer> compute() {
+			if (maxDimension < 1) {
+				return this.collection;
+			}
+
+			SimplexList edges = new SimplexList();
+			this.enumerateSimplices(1, edges, null);
+			edges.sort();
+			SimplexList columns = this.computeComponents(edges);
+			edges = null;
+
+			for (int dimension = 1; dimension < maxDimension; dimension++) {
+				TLongIntHashMap pivots = this.computeCohomology(columns, dimension);
+
+				if (dimension + 1 < maxDimension) {
+					columns = new SimplexList();
+					this.enumerateSimplices(dimension + 1, columns, pivots);
+					columns.sort();
+				}
+			}
+
+			return this.collection;
+		}
+
+		/**
+		 * This function computes the 0-dimensional intervals by processing the edges in order,
+		 * and returns the edges which do not join two components and are not part of an
+		 * apparent pair. These are the columns for the computation in dimension 1.
+		 *
+		 * @param edges the edges of the complex in filtration order
+		 * @return the columns to reduce in dimension 1
+		 */
+		private SimplexList computeComponents(SimplexList edges) {
+			DisjointSetSystem components = new DisjointSetSystem(this.numVertices);
+
+			SimplexList columns = new SimplexList();
+			for (int k = 0; k < edges.size; k++) {
+				this.getVertices(edges.indices[k], 1, this.columnVertices);
+				int u = components.find(this.columnVertices[0]);
+				int v = components.find(this.columnVertices[1]);
+				if (u != v) {
+					// all vertices have the same filtration index, so it does not matter which component dies
+					this.addInterval(0, this.vertexFiltrationIndex, edges.filtrationIndices[k]);
+					components.union(u, v);
+				} else if (maxDimension > 1 && !this.hasApparentCofacet(this.columnVertices, 1, edges.filtrationIndices[k])) {
+					columns.add(edges.indices[k], edges.filtrationIndices[k]);
+				}
+			}
+
+			for (int v = 0; v < this.numVertices; v++) {
+				if (components.find(v) == v) {
+					this.collection.addRightInfiniteInterval(0, this.vertexFiltrationIndex);
+				}
+			}
+
+			return columns;
+		}
+
+		/**
+		 * This function reduces the coboundary matrix in the given dimension. The columns are
+		 * processed in reverse filtration order, and the pivot of a column is its first cofacet
+		 * in filtration order.
+		 *
+		 * @param columns the simplices to reduce in filtration order
+		 * @param dimension the dimension of the simplices
+		 * @return the map from the pivots to the columns which have them as their pivots
+		 */
+		private TLongIntHashMap computeCohomology(SimplexList columns, int dimension) {
+			TLongIntHashMap pivots = new TLongIntHashMap();
+			int[] pivotCoefficients = new int[columns.size];
+
+			// the columns of the reduction matrix, or null if a column was not reduced
+			long[][] V_indices = new long[columns.size][];
+			int[][] V_filtrationIndices = new int[columns.size][];
+			int[][] V_coefficients = new int[columns.size][];
+
+			EntryHeap coboundary = new EntryHeap();
+			EntryHeap reduction = new EntryHeap();
+
+			for (int k = columns.size - 1; k >= 0; k--) {
+				long index = columns.indices[k];
+				int filtrationIndex = columns.filtrationIndices[k];
+
+				coboundary.clear();
+				reduction.clear();
+				boolean reduced = false;
+				this.addSimplex(index, filtrationIndex, this.one, dimension, coboundary, reduction);
+
+				while (true) {
+					if (!coboundary.popPivot(field)) {
+						this.collection.addRightInfiniteInterval(dimension, filtrationIndex);
+						break;
+					}
+
+					long pivot = coboundary.pivotIndex;
+					int pivotFiltrationIndex = coboundary.pivotFiltrationIndex;
+					int pivotCoefficient = coboundary.pivotCoefficient;
+
+					if (pivots.containsKey(pivot)) {
+						// add a multiple of the column which has the same pivot
+						int j = pivots.get(pivot);
+						int q = field.negate(field.divide(pivotCoefficient, pivotCoefficients[j]));
+						coboundary.push(pivot, pivotFiltrationIndex, pivotCoefficient);
+						if (V_indices[j] == null) {
+							this.addSimplex(columns.indices[j], columns.filtrationIndices[j], q, dimension, coboundary, reduction);
+						} else {
+							for (int i = 0; i < V_indices[j].length; i++) {
+								this.addSimplex(V_indices[j][i], V_filtrationIndices[j][i], field.multiply(q, V_coefficients[j][i]), dimension, coboundary, reduction);
+							}
+						}
+						reduced = true;
+						continue;
+					}
+
+					this.getVertices(pivot, dimension + 1, this.pivotVertices);
+					if (this.hasApparentFacet(this.pivotVertices, dimension + 1, pivotFiltrationIndex)) {
+						// add a multiple of the coboundary of the apparent facet of the pivot
+						int q = field.negate(field.divide(pivotCoefficient, this.resultCoefficient));
+						coboundary.push(pivot, pivotFiltrationIndex, pivotCoefficient);
+						this.addSimplex(this.resultIndex, this.resultFiltrationIndex, q, dimension, coboundary, reduction);
+						reduced = true;
+						continue;
+					}
+
+					pivots.put(pivot, k);
+					pivotCoefficients[k] = pivotCoefficient;
+					if (reduced) {
+						EntryList column = reduction.drain(field);
+						V_indices[k] = column.indices;
+						V_filtrationIndices[k] = column.filtrationIndices;
+						V_coefficients[k] = column.coefficients;
+					}
+					this.addInterval(dimension, filtrationIndex, pivotFiltrationIndex);
+					break;
+				}
+			}
+
+			return pivots;
+		}
+
+		/**
+		 * This function adds coefficient * s to the reduction column, and coefficient * d(s) to
+		 * the working coboundary.
+		 */
+		private void addSimplex(long index, int filtrationIndex, int coefficient, int dimension, EntryHeap coboundary, EntryHeap reduction) {
+			reduction.push(index, filtrationIndex, coefficient);
+			this.getVertices(index, dimension, this.entryVertices);
+			int anchor = this.getAnchor(this.entryVertices, dimension);
+			int[] anchorNeighbors = this.neighbors[anchor];
+			for (int p = 0; p < anchorNeighbors.length; p++) {
+				int w = anchorNeighbors[p];
+				int cofacetFiltrationIndex = this.getCofacetFiltrationIndex(this.entryVertices, dimension, filtrationIndex, anchor, p);
+				if (cofacetFiltrationIndex < 0) {
+					continue;
+				}
+				int position = this.getInsertionPosition(this.entryVertices, dimension, w);
+				long cofacetIndex = this.getCofacetIndex(this.entryVertices, dimension, w, position);
+				int sign = ((position & 1) == 0 ? this.one : this.minusOne);
+				coboundary.push(cofacetIndex, cofacetFiltrationIndex, field.multiply(coefficient, sign));
+			}
+		}
+
+		/**
+		 * This function determines whether the simplex with the given vertices is the first
+		 * element of an apparent pair. The cofacets are enumerated in increasing index order,
+		 * so the first cofacet with the same filtration index is the first cofacet in
+		 * filtration order.
+		 *
+		 * @param vertices the vertices of the simplex, in increasing order
+		 * @param dimension the dimension of the simplex
+		 * @param filtrationIndex the filtration index of the simplex
+		 * @return true if the simplex has an apparent cofacet
+		 */
+		private boolean hasApparentCofacet(int[] vertices, int dimension, int filtrationIndex) {
+			int anchor = this.getAnchor(vertices, dimension);
+			int[] anchorNeighbors = this.neighbors[anchor];
+			for (int p = 0; p < anchorNeighbors.length; p++) {
+				if (this.getCofacetFiltrationIndex(vertices, dimension, filtrationIndex, anchor, p) != filtrationIndex) {
+					continue;
+				}
+
+				// the simplex must be the last facet of its first cofacet
+				int w = anchorNeighbors[p];
+				int position = this.getInsertionPosition(vertices, dimension, w);
+				System.arraycopy(vertices, 0, this.cofacetVertices, 0, position);
+				this.cofacetVertices[position] = w;
+				System.arraycopy(vertices, position, this.cofacetVertices, position + 1, dimension + 1 - position);
+				for (int i = 0; i < position; i++) {
+					if (this.getFacetFiltrationIndex(this.cofacetVertices, dimension + 1, i) == filtrationIndex) {
+						return false;
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * This function determines whether the simplex with the given vertices is the second
+		 * element of an apparent pair. If so, the index, filtration index and coboundary
+		 * coefficient of the facet are stored in the result fields. The facets are enumerated
+		 * in decreasing index order, so the first facet with the same filtration index is the
+		 * last facet in filtration order.
+		 *
+		 * @param vertices the vertices of the simplex, in increasing order
+		 * @param dimension the dimension of the simplex
+		 * @param filtrationIndex the filtration index of the simplex
+		 * @return true if the simplex has an apparent facet
+		 */
+		private boolean hasApparentFacet(int[] vertices, int dimension, int filtrationIndex) {
+			for (int i = 0; i <= dimension; i++) {
+				if (this.getFacetFiltrationIndex(vertices, dimension, i) != filtrationIndex) {
+					continue;
+				}
+
+				// the simplex must be the first cofacet of its last facet
+				System.arraycopy(vertices, 0, this.facetVertices, 0, i);
+				System.arraycopy(vertices, i + 1, this.facetVertices, i, dimension - i);
+				int anchor = this.getAnchor(this.facetVertices, dimension - 1);
+				int[] anchorNeighbors = this.neighbors[anchor];
+				for (int p = 0; p < anchorNeighbors.length; p++) {
+					if (this.getCofacetFiltrationIndex(this.facetVertices, dimension - 1, filtrationIndex, anchor, p) != filtrationIndex) {
+						continue;
+					}
+					if (anchorNeighbors[p] != vertices[i]) {
+						return false;
+					}
+					this.resultIndex = this.getIndex(this.facetVertices, dimension - 1);
+					this.resultFiltrationIndex = filtrationIndex;
+					this.resultCoefficient = ((i & 1) == 0 ? this.one : this.minusOne);
+					return true;
+				}
+				return false;
+			}
+			return false;
+		}
+
+		/**
+		 * This function enumerates the simplices of the given dimension, by extending cliques
+		 * with common neighbors of larger index. The simplices which are known to be paired in
+		 * the previous dimension, and the first elements of apparent pairs, are skipped.
+		 *
+		 * @param dimension the dimension of the simplices to enumerate
+		 * @param list the list which receives the simplices
+		 * @param pivots the pivots of the computation in the previous dimension, or null if all
+		 * simplices should be listed
+		 */
+		private void enumerateSimplices(int dimension, SimplexList list, TLongIntHashMap pivots) {
+			int[] vertices = new int[dimension + 1];
+			int[][] candidates = new int[dimension + 1][];
+			int[][] candidateFiltrationIndices = new int[dimension + 1][];
+			for (int v = 0; v < this.numVertices; v++) {
+				// the neighbors of v with larger index
+				int start = -Arrays.binarySearch(this.neighbors[v], v) - 1;
+				int length = this.neighbors[v].length - start;
+				candidates[1] = ensureCapacity(candidates[1], length);
+				candidateFiltrationIndices[1] = ensureCapacity(candidateFiltrationIndices[1], length);
+				System.arraycopy(this.neighbors[v], start, candidates[1], 0, length);
+				System.arraycopy(this.neighborFiltrationIndices[v], start, candidateFiltrationIndices[1], 0, length);
+				vertices[0] = v;
+				this.extendClique(vertices, 1, length, Integer.MIN_VALUE, candidates, candidateFiltrationIndices, dimension, list, pivots);
+			}
+		}
+
+		private void extendClique(int[] vertices, int level, int numCandidates, int filtrationIndex, int[][] candidates, int[][] candidateFiltrationIndices, int dimension, SimplexList list, TLongIntHashMap pivots) {
+			int[] current = candidates[level];
+			int[] currentFiltrationIndices = candidateFiltrationIndices[level];
+			for (int i = 0; i < numCandidates; i++) {
+				int w = current[i];
+				int newFiltrationIndex = Math.max(filtrationIndex, currentFiltrationIndices[i]);
+				vertices[level] = w;
+
+				if (level == dimension) {
+					long index = this.getIndex(vertices, dimension);
+					if (pivots != null) {
+						// skip the simplices paired with a simplex of lower dimension, and the apparent pairs
+						if (pivots.containsKey(index) || this.hasApparentFacet(vertices, dimension, newFiltrationIndex)
+								|| this.hasApparentCofacet(vertices, dimension, newFiltrationIndex)) {
+							continue;
+						}
+					}
+					list.add(index, newFiltrationIndex);
+					continue;
+				}
+
+				// intersect the remaining candidates with the neighbors of w
+				int[] wNeighbors = this.neighbors[w];
+				int[] wFiltrationIndices = this.neighborFiltrationIndices[w];
+				int capacity = Math.min(numCandidates - i - 1, wNeighbors.length);
+				candidates[level + 1] = ensureCapacity(candidates[level + 1], capacity);
+				candidateFiltrationIndices[level + 1] = ensureCapacity(candidateFiltrationIndices[level + 1], capacity);
+				int[] next = candidates[level + 1];
+				int[] nextFiltrationIndices = candidateFiltrationIndices[level + 1];
+				int a = i + 1, b = 0, size = 0;
+				while (a < numCandidates && b < wNeighbors.length) {
+					if (current[a] < wNeighbors[b]) {
+						a++;
+					} else if (current[a] > wNeighbors[b]) {
+						b++;
+					} else {
+						next[size] = current[a];
+						nextFiltrationIndices[size] = Math.max(currentFiltrationIndices[a], wFiltrationIndices[b]);
+						size++;
+						a++;
+						b++;
+					}
+				}
+				this.extendClique(vertices, level + 1, size, newFiltrationIndex, candidates, candidateFiltrationIndices, dimension, list, pivots);
+			}
+		}
+
+		/*
+		 * Utility functions on simplices.
+		 */
+
+		/**
+		 * @return the vertex of the simplex with the fewest neighbors
+		 */
+		private int getAnchor(int[] vertices, int dimension) {
+			int anchor = vertices[0];
+			for (int i = 1; i <= dimension; i++) {
+				if (this.neighbors[vertices[i]].length < this.neighbors[anchor].length) {
+					anchor = vertices[i];
+				}
+			}
+			return anchor;
+		}
+
+		/**
+		 * This function returns the filtration index of the cofacet obtained by adding the p-th
+		 * neighbor of the anchor vertex to the simplex, or -1 if this is not a simplex.
+		 */
+		private int getCofacetFiltrationIndex(int[] vertices, int dimension, int filtrationIndex, int anchor, int p) {
+			int w = this.neighbors[anchor][p];
+			int result = Math.max(filtrationIndex, this.neighborFiltrationIndices[anchor][p]);
+			for (int i = 0; i <= dimension; i++) {
+				if (vertices[i] == anchor) {
+					continue;
+				}
+				int edgeFiltrationIndex = this.getEdgeFiltrationIndex(vertices[i], w);
+				if (edgeFiltrationIndex < 0) {
+					return -1;
+				}
+				result = Math.max(result, edgeFiltrationIndex);
+			}
+			return result;
+		}
+
+		/**
+		 * This function returns the filtration index of the facet obtained by removing the i-th
+		 * vertex of the simplex.
+		 */
+		private int getFacetFiltrationIndex(int[] vertices, int dimension, int i) {
+			int result = Integer.MIN_VALUE;
+			for (int a = 0; a <= dimension; a++) {
+				if (a == i) {
+					continue;
+				}
+				for (int b = a + 1; b <= dimension; b++) {
+					if (b == i) {
+						continue;
+					}
+					result = Math.max(result, this.getEdgeFiltrationIndex(vertices[a], vertices[b]));
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * @return the filtration index of the edge [u, v], or -1 if it is not in the graph
+		 */
+		private int getEdgeFiltrationIndex(int u, int v) {
+			int position = Arrays.binarySearch(this.neighbors[u], v);
+			return (position < 0 ? -1 : this.neighborFiltrationIndices[u][position]);
+		}
+
+		/**
+		 * @return the number of vertices of the simplex which are less than w
+		 */
+		private int getInsertionPosition(int[] vertices, int dimension, int w) {
+			int position = 0;
+			while (position <= dimension && vertices[position] < w) {
+				position++;
+			}
+			return position;
+		}
+
+		private long getIndex(int[] vertices, int dimension) {
+			long index = 0;
+			for (int k = 0; k <= dimension; k++) {
+				index += this.binomials[vertices[k]][k + 1];
+			}
+			return index;
+		}
+
+		private long getCofacetIndex(int[] vertices, int dimension, int w, int position) {
+			long index = this.binomials[w][position + 1];
+			for (int k = 0; k < position; k++) {
+				index += this.binomials[vertices[k]][k + 1];
+			}
+			for (int k = position; k <= dimension; k++) {
+				index += this.binomials[vertices[k]][k + 2];
+			}
+			return index;
+		}
+
+		/**
+		 * This function decodes the vertices of a simplex from its index, in increasing order.
+		 */
+		private void getVertices(long index, int dimension, int[] vertices) {
+			int upper = this.numVertices;
+			for (int k = dimension + 1; k >= 1; k--) {
+				// find the largest v < upper with C(v, k) <= index
+				int low = k - 1;
+				int high = upper - 1;
+				while (low < high) {
+					int middle = (low + high + 1) >>> 1;
+					if (this.binomials[middle][k] <= index) {
+						low = middle;
+					} else {
+						high = middle - 1;
+					}
+				}
+				vertices[k - 1] = low;
+				index -= this.binomials[low][k];
+				upper = low;
+			}
+		}
+
+		private void addInterval(int dimension, int start, int end) {
+			if (end > start) {
+				this.collection.addInterval(dimension, start, end);
+			}
+		}
+	}
+
+	/**
+	 * This function computes the table of binomial coefficients C(v, k) for 0 &lt;= v &lt;= n
+	 * and 0 &lt;= k &lt;= maxK, checking that the indices of the simplices fit in a long.
+	 */
+	private static long[][] computeBinomials(int n, int maxK) {
+		long[][] binomials = new long[n + 1][maxK + 1];
+		for (int v = 0; v <= n; v++) {
+			binomials[v][0] = 1;
+			for (int k = 1; k <= maxK && k <= v; k++) {
+				binomials[v][k] = binomials[v - 1][k - 1] + binomials[v - 1][k];
+				if (binomials[v][k] < 0) {
+					throw new IllegalArgumentException("Too many vertices to index the simplices of dimension " + (maxK - 1));
+				}
+			}
+		}
+		return binomials;
+	}
+
+	private static int[] ensureCapacity(int[] array, int capacity) {
+		if (array != null && array.length >= capacity) {
+			return array;
+		}
+		return new int[Math.max(capacity, (array == null ? 16 : 2 * array.length))];
+	}
+
+	/**
+	 * This class stores a list of simplices with their filtration indices.
+	 */
+	private static class SimplexList {
+		long[] indices = new long[16];
+		int[] filtrationIndices = new int[16];
+		int size = 0;
+
+		void add(long index, int filtrationIndex) {
+			if (this.size == this.indices.length) {
+				this.indices = Arrays.copyOf(this.indices, 2 * this.size);
+				this.filtrationIndices = Arrays.copyOf(this.filtrationIndices, 2 * this.size);
+			}
+			this.indices[this.size] = index;
+			this.filtrationIndices[this.size] = filtrationIndex;
+			this.size++;
+		}
+
+		/**
+		 * This function sorts the simplices by filtration index, and then by index, using a
+		 * counting sort on the filtration indices.
+		 */
+		void sort() {
+			int maxFiltrationIndex = 0;
+			for (int k = 0; k < this.size; k++) {
+				maxFiltrationIndex = Math.max(maxFiltrationIndex, this.filtrationIndices[k]);
+			}
+			int[] offsets = new int[maxFiltrationIndex + 2];
+			for (int k = 0; k < this.size; k++) {
+				offsets[this.filtrationIndices[k] + 1]++;
+			}
+			for (int f = 0; f <= maxFiltrationIndex; f++) {
+				offsets[f + 1] += offsets[f];
+			}
+			long[] sorted = new long[this.size];
+			for (int k = 0; k < this.size; k++) {
+				sorted[offsets[this.filtrationIndices[k]]++] = this.indices[k];
+			}
+			int start = 0;
+			for (int f = 0; f <= maxFiltrationIndex; f++) {
+				Arrays.sort(sorted, start, offsets[f]);
+				for (int k = start; k < offsets[f]; k++) {
+					this.filtrationIndices[k] = f;
+				}
+				start = offsets[f];
+			}
+			this.indices = sorted;
+		}
+	}
+
+	/**
+	 * This class stores a sparse column as parallel arrays.
+	 */
+	private static class EntryList {
+		final long[] indices;
+		final int[] filtrationIndices;
+		final int[] coefficients;
+
+		EntryList(long[] indices, int[] filtrationIndices, int[] coefficients) {
+			this.indices = indices;
+			this.filtrationIndices = filtrationIndices;
+			this.coefficients = coefficients;
+		}
+	}
+
+	/**
+	 * This class implements a binary heap of column entries ordered by filtration index and
+	 * then by index. Entries with the same index are combined lazily when the pivot is
+	 * extracted.
+	 */
+	private static class EntryHeap {
+		private long[] indices = new long[64];
+		private int[] filtrationIndices = new int[64];
+		private int[] coefficients = new int[64];
+		private int size = 0;
+
+		/*
+		 * The entry found by popPivot.
+		 */
+		long pivotIndex;
+		int pivotFiltrationIndex;
+		int pivotCoefficient;
+
+		void clear() {
+			this.size = 0;
+		}
+
+		void push(long index, int filtrationIndex, int coefficient) {
+			if (this.size == this.indices.length) {
+				this.indices = Arrays.copyOf(this.indices, 2 * this.size);
+				this.filtrationIndices = Arrays.copyOf(this.filtrationIndices, 2 * this.size);
+				this.coefficients = Arrays.copyOf(this.coefficients, 2 * this.size);
+			}
+			int position = this.size++;
+			while (position > 0) {
+				int parent = (position - 1) >>> 1;
+				if (!this.isLess(index, filtrationIndex, parent)) {
+					break;
+				}
+				this.set(position, this.indices[parent], this.filtrationIndices[parent], this.coefficients[parent]);
+				position = parent;
+			}
+			this.set(position, index, filtrationIndex, coefficient);
+		}
+
+		/**
+		 * This function removes the smallest entry with a non-zero total coefficient, and
+		 * stores it in the pivot fields.
+		 *
+		 * @param field the field used to combine the coefficients
+		 * @return false if the column is zero
+		 */
+		boolean popPivot(IntAbstractField field) {
+			while (this.size > 0) {
+				long index = this.indices[0];
+				int filtrationIndex = this.filtrationIndices[0];
+				int coefficient = this.coefficients[0];
+				this.pop();
+				while (this.size > 0 && this.indices[0] == index) {
+					coefficient = field.add(coefficient, this.coefficients[0]);
+					this.pop();
+				}
+				if (!field.isZero(coefficient)) {
+					this.pivotIndex = index;
+					this.pivotFiltrationIndex = filtrationIndex;
+					this.pivotCoefficient = coefficient;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * This function removes all of the entries, and returns the combined non-zero entries.
+		 *
+		 * @param field the field used to combine the coefficients
+		 * @return the entries in increasing order
+		 */
+		EntryList drain(IntAbstractField field) {
+			long[] resultIndices = new long[this.size];
+			int[] resultFiltrationIndices = new int[this.size];
+			int[] resultCoefficients = new int[this.size];
+			int count = 0;
+			while (this.popPivot(field)) {
+				resultIndices[count] = this.pivotIndex;
+				resultFiltrationIndices[count] = this.pivotFiltrationIndex;
+				resultCoefficients[count] = this.pivotCoefficient;
+				count++;
+			}
+			return new EntryList(Arrays.copyOf(resultIndices, count), Arrays.copyOf(resultFiltrationIndices, count), Arrays.copyOf(resultCoefficients, count));
+		}
+
+		private void pop() {
+			this.size--;
+			long index = this.indices[this.size];
+			int filtrationIndex = this.filtrationIndices[this.size];
+			int coefficient = this.coefficients[this.size];
+			int position = 0;
+			while (true) {
+				int child = 2 * position + 1;
+				if (child >= this.size) {
+					break;
+				}
+				if (child + 1 < this.size && this.isLess(this.indices[child + 1], this.filtrationIndices[child + 1], child)) {
+					child++;
+				}
+				if (!this.isLess(this.indices[child], this.filtrationIndices[child], index, filtrationIndex)) {
+					break;
+				}
+				this.set(position, this.indices[child], this.filtrationIndices[child], this.coefficients[child]);
+				position = child;
+			}
+			this.set(position, index, filtrationIndex, coefficient);
+		}
+
+		private boolean isLess(long index, int filtrationIndex, int position) {
+			return this.isLess(index, filtrationIndex, this.indices[position], this.filtrationIndices[position]);
+		}
+
+		private boolean isLess(long index1, int filtrationIndex1, long index2, int filtrationIndex2) {
+			if (filtrationIndex1 != filtrationIndex2) {
+				return (filtrationIndex1 < filtrationIndex2);
+			}
+			return (index1 < index2);
+		}
+
+		private void set(int position, long index, int filtrationIndex, int coefficient) {
+			this.indices[position] = index;
+			this.filtrationIndices[position] = filtrationIndex;
+			this.coefficients[position] = coefficient;
+		}
+	}
+}
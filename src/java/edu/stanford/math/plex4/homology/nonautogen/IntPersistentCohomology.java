@@ -0,0 +1,474 @@
+package edu.stanford.math.plex4.homology.nonautogen;
+
+import java.util.Arrays;
+
+import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
+import edu.stanford.math.plex4.homology.interfaces.AbstractPersistenceAlgorithm;
+import edu.stanford.math.plex4.streams.interfaces.AbstractFilteredStream;
+import edu.stanford.math.primitivelib.autogen.algebraic.IntAbstractField;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TObjectIntHashMap;
+
+/**
+ * <p>This class implements the streaming persistent cohomology algorithm over a field of
+ * type int. Since the persistence barcodes of homology and cohomology coincide over a field,
+ * it produces the same barcodes as the homology algorithms. The basis elements are processed
+ * once, in the order provided by the stream.</p>
+ *
+ * <p>Rather than storing the live cocycles explicitly, the algorithm stores for each basis
+ * element its annotation: the vector of values of the live cocycles on it. The pairing of a
+ * cocycle with the boundary of a new element is then obtained by summing the annotations of its
+ * faces, instead of scanning every cocycle as in PersistentCohomologyPrototype. Only positive
+ * elements have non-zero annotations. Elements with equal annotations share a single row, and
+ * the rows are merged with a DisjointSetSystem as they become equal. For each cocycle the
+ * algorithm keeps the set of rows in which it is non-zero, so that the update performed when a
+ * cocycle dies only touches the affected rows.</p>
+ *
+ * <p>In dimension 0 the annotations are not needed: the live 0-cocycles are the indicator
+ * functions of the connected components. Thus vertices and edges are processed with a
+ * union-find structure alone, using the elder rule to decide which component dies.</p>
+ *
+ * <p>The algorithm is described in "Dualities in persistent (co)homology" by de Silva,
+ * Morozov and Vejdemo-Johansson, and the compressed annotation matrix in "The Compressed
+ * Annotation Matrix: an Efficient Data Structure for Computing Persistent Cohomology" by
+ * Boissonnat, Dey and Maria.</p>
+ *
+ * @param <U> the underlying basis type
+ */
+public class IntPersistentCohomology<U> extends AbstractPersistenceAlgorithm<U> {
+	/**
+	 * This is the field over which we perform the arithmetic computations.
+	 */
+	protected final IntAbstractField field;
+
+	/**
+	 * This stores the minimum dimension for which to compute (co)homology.
+	 */
+	protected int minDimension = 0;
+
+	/**
+	 * This stores the maximum dimension for which to compute (co)homology.
+	 */
+	protected int maxDimension = 2;
+
+	/**
+	 * This constructor initializes the object with a field.
+	 *
+	 * @param field a field structure on the type int
+	 * @param minDimension the minimum dimension to compute
+	 * @param maxDimension the maximum dimension to compute
+	 */
+	public IntPersistentCohomology(IntAbstractField field, int minDimension, int maxDimension) {
+		this.field = field;
+		this.minDimension = minDimension;
+		this.maxDimension = maxDimension;
+	}
+
+	/**
+	 * This function returns the field over which the cohomology is computed.
+	 *
+	 * @return the field over type int
+	 */
+	public IntAbstractField getField() {
+		return this.field;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.homology.interfaces.AbstractPersistenceAlgorithm#computeIndexIntervals(edu.stanford.math.plex4.streams.interfaces.AbstractFilteredStream)
+	 */
+	@Override
+	public BarcodeCollection<Integer> computeIndexIntervals(AbstractFilteredStream<U> stream) {
+		return new CohomologyComputation(stream).compute();
+	}
+
+	/**
+	 * This class holds the state of a single cohomology computation.
+	 */
+	private class CohomologyComputation {
+		private final AbstractFilteredStream<U> stream;
+		private final BarcodeCollection<Integer> collection = new BarcodeCollection<Integer>();
+
+		/*
+		 * Dimension 0: the vertices and their connected components.
+		 */
+		private final TObjectIntHashMap<U> vertexIds = new TObjectIntHashMap<U>();
+		private final DisjointSetSystem components = new DisjointSetSystem(0);
+		private int numVertices = 0;
+		private int[] vertexBirths = new int[16];
+
+		/**
+		 * This maps the root of a component to its oldest vertex.
+		 */
+		private int[] oldestVertex = new int[16];
+
+		/*
+		 * The compressed annotations.
+		 */
+		private final TObjectIntHashMap<U> rowIds = new TObjectIntHashMap<U>();
+		private final DisjointSetSystem rowSets = new DisjointSetSystem(0);
+		private final TObjectIntHashMap<AnnotationRow> rowIndex = new TObjectIntHashMap<AnnotationRow>();
+		private int numRows = 0;
+
+		/**
+		 * The annotation held by each root in rowSets, or null if it is zero.
+		 */
+		private AnnotationRow[] rows = new AnnotationRow[16];
+
+		/*
+		 * The cocycles. The column of a cocycle is the set of rows in which it is non-zero,
+		 * and is null once the cocycle has died.
+		 */
+		private int numCocycles = 0;
+		private int[] cocycleBirths = new int[16];
+		private int[] cocycleDimensions = new int[16];
+		private TIntHashSet[] columns = new TIntHashSet[16];
+
+		/*
+		 * Scratch space for evaluating the live cocycles on a boundary.
+		 */
+		private int[] accumulator = new int[16];
+		private int[] stamps = new int[16];
+		private int stamp = 0;
+		private int[] support = new int[16];
+		private int supportSize = 0;
+
+		/*
+		 * Scratch space for updating a row.
+		 */
+		private int[] rowCocycles = new int[16];
+		private int[] rowCoefficients = new int[16];
+
+		CohomologyComputation(AbstractFilteredStream<U> stream) {
+			this.stream = stream;
+		}
+
+		BarcodeCollection<Integer> compute() {
+			for (U sigma : this.stream) {
+				int dimension = this.stream.getDimension(sigma);
+
+				/*
+				 * Elements of dimension maxDimension + 1 can only kill cocycles of dimension
+				 * maxDimension, which are not reported, so they need not be processed. The
+				 * elements below minDimension are processed, since otherwise the negative
+				 * elements of dimension minDimension could not be identified, and only the
+				 * reported intervals are restricted.
+				 */
+				if (dimension > maxDimension) {
+					continue;
+				}
+
+				if (dimension == 0) {
+					this.addVertex(sigma);
+				} else if (dimension == 1) {
+					this.addEdge(sigma);
+				} else {
+					this.addElement(sigma, dimension);
+				}
+			}
+
+			// the surviving components and cocycles correspond to semi-infinite intervals
+			if (minDimension <= 0 && maxDimension > 0) {
+				for (int v = 0; v < this.numVertices; v++) {
+					if (this.components.find(v) == v) {
+						this.collection.addRightInfiniteInterval(0, this.vertexBirths[this.oldestVertex[v]]);
+					}
+				}
+			}
+
+			for (int i = 0; i < this.numCocycles; i++) {
+				if (this.columns[i] != null && this.cocycleDimensions[i] >= minDimension) {
+					this.collection.addRightInfiniteInterval(this.cocycleDimensions[i], this.cocycleBirths[i]);
+				}
+			}
+
+			return this.collection;
+		}
+
+		private void addVertex(U vertex) {
+			int v = this.numVertices++;
+			this.components.grow(this.numVertices);
+			this.vertexBirths = ensureCapacity(this.vertexBirths, this.numVertices);
+			this.oldestVertex = ensureCapacity(this.oldestVertex, this.numVertices);
+			this.vertexIds.put(vertex, v);
+			this.vertexBirths[v] = this.stream.getFiltrationIndex(vertex);
+			this.oldestVertex[v] = v;
+		}
+
+		/**
+		 * This function processes an edge, which either joins two components or creates a new
+		 * 1-cocycle. The boundary of an edge is assumed to be of the form v - u.
+		 *
+		 * @param edge the edge to add
+		 */
+		private void addEdge(U edge) {
+			U[] boundary = this.stream.getBoundary(edge);
+			if (boundary.length == 2 && !boundary[0].equals(boundary[1])) {
+				int u = this.components.find(this.vertexIds.get(boundary[0]));
+				int v = this.components.find(this.vertexIds.get(boundary[1]));
+				if (u != v) {
+					// the younger component dies
+					int elder = Math.min(this.oldestVertex[u], this.oldestVertex[v]);
+					int younger = Math.max(this.oldestVertex[u], this.oldestVertex[v]);
+					this.addFiniteInterval(0, this.vertexBirths[younger], this.stream.getFiltrationIndex(edge));
+					this.components.union(u, v);
+					this.oldestVertex[this.components.find(u)] = elder;
+					return;
+				}
+			}
+
+			if (1 < maxDimension) {
+				this.createCocycle(edge, 1);
+			}
+		}
+
+		/**
+		 * This function processes a basis element in a dimension which is not handled by the
+		 * union-find structure.
+		 *
+		 * @param sigma the basis element to add
+		 * @param dimension the dimension of sigma
+		 */
+		private void addElement(U sigma, int dimension) {
+			this.evaluateCoboundaries(sigma);
+
+			if (this.supportSize == 0) {
+				if (dimension < maxDimension) {
+					this.createCocycle(sigma, dimension);
+				}
+				return;
+			}
+
+			// the youngest cocycle which is non-zero on the boundary of sigma dies
+			Arrays.sort(this.support, 0, this.supportSize);
+			int j = this.support[this.supportSize - 1];
+			int c_j = this.accumulator[j];
+			this.addFiniteInterval(this.cocycleDimensions[j], this.cocycleBirths[j], this.stream.getFiltrationIndex(sigma));
+
+			// replace each other cocycle i in the support with alpha_i - (c_i / c_j) * alpha_j
+			this.supportSize--;
+			for (int k = 0; k < this.supportSize; k++) {
+				int i = this.support[k];
+				this.accumulator[i] = field.negate(field.divide(this.accumulator[i], c_j));
+			}
+
+			int[] affectedRows = this.columns[j].toArray();
+			this.columns[j] = null;
+			for (int r : affectedRows) {
+				this.eliminate(r, j);
+			}
+		}
+
+		/**
+		 * This function computes the values of the live cocycles on the boundary of sigma. The
+		 * cocycles with non-zero values are stored in support, and their values in accumulator.
+		 *
+		 * @param sigma the basis element
+		 */
+		private void evaluateCoboundaries(U sigma) {
+			U[] boundary = this.stream.getBoundary(sigma);
+			int[] boundaryCoefficients = this.stream.getBoundaryCoefficients(sigma);
+
+			this.stamp++;
+			this.supportSize = 0;
+			for (int f = 0; f < boundary.length; f++) {
+				if (!this.rowIds.containsKey(boundary[f])) {
+					continue;
+				}
+				AnnotationRow row = this.rows[this.rowSets.find(this.rowIds.get(boundary[f]))];
+				if (row == null) {
+					continue;
+				}
+				for (int k = 0; k < row.cocycles.length; k++) {
+					int i = row.cocycles[k];
+					int value = field.multiply(boundaryCoefficients[f], row.coefficients[k]);
+					if (this.stamps[i] != this.stamp) {
+						this.stamps[i] = this.stamp;
+						this.accumulator[i] = value;
+						this.support[this.supportSize++] = i;
+					} else {
+						this.accumulator[i] = field.add(this.accumulator[i], value);
+					}
+				}
+			}
+
+			// remove the cocycles whose values cancelled
+			int size = 0;
+			for (int k = 0; k < this.supportSize; k++) {
+				if (!field.isZero(this.accumulator[this.support[k]])) {
+					this.support[size++] = this.support[k];
+				}
+			}
+			this.supportSize = size;
+		}
+
+		/**
+		 * This function creates a new cocycle which is born at sigma. Its annotation is the unit
+		 * vector of the new cocycle, since all of the existing cocycles vanish on sigma.
+		 *
+		 * @param sigma the basis element
+		 * @param dimension the dimension of sigma
+		 */
+		private void createCocycle(U sigma, int dimension) {
+			int c = this.numCocycles++;
+			this.cocycleBirths = ensureCapacity(this.cocycleBirths, this.numCocycles);
+			this.cocycleDimensions = ensureCapacity(this.cocycleDimensions, this.numCocycles);
+			this.accumulator = ensureCapacity(this.accumulator, this.numCocycles);
+			this.stamps = ensureCapacity(this.stamps, this.numCocycles);
+			this.support = ensureCapacity(this.support, this.numCocycles);
+			if (this.columns.length < this.numCocycles) {
+				this.columns = Arrays.copyOf(this.columns, 2 * this.numCocycles);
+			}
+			this.cocycleBirths[c] = this.stream.getFiltrationIndex(sigma);
+			this.cocycleDimensions[c] = dimension;
+			this.columns[c] = new TIntHashSet();
+
+			int r = this.numRows++;
+			this.rowSets.grow(this.numRows);
+			if (this.rows.length < this.numRows) {
+				this.rows = Arrays.copyOf(this.rows, 2 * this.numRows);
+			}
+			AnnotationRow row = new AnnotationRow(new int[]{c}, new int[]{field.getOne()}, 1);
+			this.rows[r] = row;
+			this.rowIndex.put(row, r);
+			this.columns[c].add(r);
+			this.rowIds.put(sigma, r);
+		}
+
+		/**
+		 * This function removes the dead cocycle j from the row r. The entry of j is replaced by
+		 * the corresponding multiples of the cocycles in the support, whose multipliers are
+		 * stored in accumulator.
+		 *
+		 * @param r the root of the row
+		 * @param j the dead cocycle
+		 */
+		private void eliminate(int r, int j) {
+			AnnotationRow row = this.rows[r];
+			int x = row.coefficients[Arrays.binarySearch(row.cocycles, j)];
+
+			int required = row.cocycles.length + this.supportSize;
+			this.rowCocycles = ensureCapacity(this.rowCocycles, required);
+			this.rowCoefficients = ensureCapacity(this.rowCoefficients, required);
+
+			int a = 0, b = 0, size = 0;
+			while (a < row.cocycles.length || b < this.supportSize) {
+				int i_a = (a < row.cocycles.length ? row.cocycles[a] : Integer.MAX_VALUE);
+				int i_b = (b < this.supportSize ? this.support[b] : Integer.MAX_VALUE);
+				int i, value;
+				if (i_a < i_b) {
+					i = i_a;
+					value = row.coefficients[a++];
+				} else if (i_a > i_b) {
+					i = i_b;
+					value = field.multiply(this.accumulator[i_b], x);
+					b++;
+				} else {
+					i = i_a;
+					value = field.add(row.coefficients[a++], field.multiply(this.accumulator[i_b], x));
+					b++;
+				}
+				if (i != j && !field.isZero(value)) {
+					this.rowCocycles[size] = i;
+					this.rowCoefficients[size] = value;
+					size++;
+				}
+			}
+
+			this.replaceRow(r, size);
+		}
+
+		/**
+		 * This function replaces the annotation of the row r with the one stored in the scratch
+		 * arrays. If another row already has this annotation, the two rows are merged.
+		 *
+		 * @param r the root of the row
+		 * @param size the number of entries in the new annotation
+		 */
+		private void replaceRow(int r, int size) {
+			AnnotationRow oldRow = this.rows[r];
+			this.rowIndex.remove(oldRow);
+			for (int i : oldRow.cocycles) {
+				if (this.columns[i] != null) {
+					this.columns[i].remove(r);
+				}
+			}
+
+			if (size == 0) {
+				this.rows[r] = null;
+				return;
+			}
+
+			AnnotationRow newRow = new AnnotationRow(this.rowCocycles, this.rowCoefficients, size);
+			if (this.rowIndex.containsKey(newRow)) {
+				int other = this.rowIndex.get(newRow);
+				AnnotationRow existing = this.rows[other];
+				this.rowSets.union(r, other);
+				int root = this.rowSets.find(r);
+				this.rows[r] = null;
+				this.rows[other] = null;
+				this.rows[root] = existing;
+				if (root != other) {
+					for (int i : existing.cocycles) {
+						this.columns[i].remove(other);
+						this.columns[i].add(root);
+					}
+					this.rowIndex.put(existing, root);
+				}
+			} else {
+				this.rows[r] = newRow;
+				for (int i : newRow.cocycles) {
+					this.columns[i].add(r);
+				}
+				this.rowIndex.put(newRow, r);
+			}
+		}
+
+		private void addFiniteInterval(int dimension, int start, int end) {
+			if (end > start && dimension < maxDimension && dimension >= minDimension) {
+				this.collection.addInterval(dimension, start, end);
+			}
+		}
+	}
+
+	/**
+	 * This class stores an annotation as a sparse vector, with the cocycle indices in
+	 * increasing order. Two rows are equal if they have the same entries.
+	 */
+	private static final class AnnotationRow {
+		final int[] cocycles;
+		final int[] coefficients;
+		private final int hashCode;
+
+		AnnotationRow(int[] cocycles, int[] coefficients, int size) {
+			this.cocycles = Arrays.copyOf(cocycles, size);
+			this.coefficients = Arrays.copyOf(coefficients, size);
+			this.hashCode = 31 * Arrays.hashCode(this.cocycles) + Arrays.hashCode(this.coefficients);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof AnnotationRow)) {
+				return false;
+			}
+			AnnotationRow other = (AnnotationRow) obj;
+			return (this.hashCode == other.hashCode
+					&& Arrays.equals(this.cocycles, other.cocycles)
+					&& Arrays.equals(this.coefficients, other.coefficients));
+		}
+	}
+
+	private static int[] ensureCapacity(int[] array, int capacity) {
+		if (array.length >= capacity) {
+			return array;
+		}
+		return Arrays.copyOf(array, Math.max(capacity, 2 * array.length));
+	}
+}
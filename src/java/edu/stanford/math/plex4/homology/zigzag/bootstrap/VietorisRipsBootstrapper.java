@@ -58,12 +58,23 @@ public class VietorisRipsBootstrapper {
 		return this.indexSelections.get(index);
 	}
 
+	/**
+	 * This function computes the zigzag barcodes of the sequence
+	 * X_0 -> X_0 u X_1 <- X_1 -> X_1 u X_2 <- ... of Vietoris-Rips complexes,
+	 * where X_j is the complex on the j-th subset. The complex on X_j is the
+	 * subcomplex of the complex on a union which is spanned by the vertices of
+	 * X_j, and it has the same filtration indices. Thus only the complex on
+	 * each union is constructed, and the homology of X_j is computed from its
+	 * simplices in the same pass.
+	 * 
+	 * @return the zigzag barcodes, where the index j denotes the subset X_j
+	 */
 	public BarcodeCollection<Integer> performBootstrap() {
 		int[] i_indices = this.indexSelections.get(0);
-		VietorisRipsStream<double[]> X_stream = new VietorisRipsStream<double[]>(new EuclideanMetricSpace(ArrayUtility.getSubset(points, i_indices)), maxDistance, maxDimension + 1, i_indices);
-		X_stream.finalizeStream();
 
-		VietorisRipsStream<double[]> Y_stream;
+		boolean[] X_vertices = new boolean[this.points.length];
+		boolean[] Y_vertices = new boolean[this.points.length];
+		setVertices(X_vertices, i_indices, true);
 
 		IntervalTracker<Integer, Integer, IntSparseFormalSum<Simplex>> result = null;
 
@@ -72,39 +83,39 @@ public class VietorisRipsBootstrapper {
 		SimpleHomologyBasisTracker<Simplex> YTracker = null;
 
 		for (int j = 1; j < this.indexSelections.size(); j++) {
-			if (XTracker == null) {
-				XTracker = new SimpleHomologyBasisTracker<Simplex>(intField, SimplexComparator.getInstance(), 0, this.maxDimension);
-				for (Simplex x: X_stream) {
-					XTracker.add(x, X_stream.getFiltrationIndex(x));
-				}
-
-				System.out.println("Barcodes for X_" + (j - 1));
-				AnnotatedBarcodeCollection<Integer, IntSparseFormalSum<Simplex>> XBarcodes = XTracker.getAnnotatedBarcodes();
-				System.out.println(XBarcodes.toString());
-			}
-
 			int[] j_indices = this.indexSelections.get(j);
-			Y_stream = new VietorisRipsStream<double[]>(new EuclideanMetricSpace(ArrayUtility.getSubset(points, j_indices)), maxDistance, maxDimension + 1, j_indices);
-			Y_stream.finalizeStream();
-
-			YTracker = new SimpleHomologyBasisTracker<Simplex>(intField, SimplexComparator.getInstance(), 0, this.maxDimension);
-			for (Simplex y: Y_stream) {
-				YTracker.add(y, Y_stream.getFiltrationIndex(y));
-			}
-
-			
+			setVertices(Y_vertices, j_indices, true);
 
 			int[] ij_indices = ArrayUtility.union(i_indices, j_indices);
 
 			VietorisRipsStream<double[]> Z_stream = new VietorisRipsStream<double[]>(new EuclideanMetricSpace(ArrayUtility.getSubset(points, ij_indices)), maxDistance, maxDimension + 1, ij_indices);
 			Z_stream.finalizeStream();
 
+			// the first subset is only contained in the first union
+			boolean computeX = (XTracker == null);
+			if (computeX) {
+				XTracker = new SimpleHomologyBasisTracker<Simplex>(intField, SimplexComparator.getInstance(), 0, this.maxDimension);
+			}
+			YTracker = new SimpleHomologyBasisTracker<Simplex>(intField, SimplexComparator.getInstance(), 0, this.maxDimension);
 			ZTracker = new SimpleHomologyBasisTracker<Simplex>(intField, SimplexComparator.getInstance(), 0, this.maxDimension);
+
 			for (Simplex z: Z_stream) {
-				ZTracker.add(z, Z_stream.getFiltrationIndex(z));
+				int filtrationIndex = Z_stream.getFiltrationIndex(z);
+				if (computeX && containsVertices(X_vertices, z)) {
+					XTracker.add(z, filtrationIndex);
+				}
+				if (containsVertices(Y_vertices, z)) {
+					YTracker.add(z, filtrationIndex);
+				}
+				ZTracker.add(z, filtrationIndex);
+			}
+
+			if (computeX) {
+				System.out.println("Barcodes for X_" + (j - 1));
+				AnnotatedBarcodeCollection<Integer, IntSparseFormalSum<Simplex>> XBarcodes = XTracker.getAnnotatedBarcodes();
+				System.out.println(XBarcodes.toString());
 			}
 
-			
 			System.out.println("Barcodes for X_" + (j-1) + "," + (j));
 			AnnotatedBarcodeCollection<Integer, IntSparseFormalSum<Simplex>> ZBarcodes = ZTracker.getAnnotatedBarcodes();
 			System.out.println(ZBarcodes.toString());
@@ -122,7 +133,11 @@ public class VietorisRipsBootstrapper {
 			
 			result = InducedHomologyMappingUtility.include(XTracker, ZTracker, YTracker, result, chainModule, (j - 1), j);
 			
-			X_stream = Y_stream;
+			setVertices(X_vertices, i_indices, false);
+			boolean[] temp = X_vertices;
+			X_vertices = Y_vertices;
+			Y_vertices = temp;
+
 			XTracker = YTracker;
 			i_indices = j_indices;
 		}
@@ -131,4 +146,19 @@ public class VietorisRipsBootstrapper {
 
 		return BarcodeCollection.forgetGeneratorType(result.getAnnotatedBarcodes().filterByMaxDimension(maxDimension));
 	}
+
+	private static void setVertices(boolean[] vertices, int[] indices, boolean value) {
+		for (int index: indices) {
+			vertices[index] = value;
+		}
+	}
+
+	private static boolean containsVertices(boolean[] vertices, Simplex simplex) {
+		for (int vertex: simplex.getVertices()) {
+			if (!vertices[vertex]) {
+				return false;
+			}
+		}
+		return true;
+	}
 }
@@ -0,0 +1,164 @@
+package edu.stanford.math.plex4.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
+import edu.stanford.math.plex4.homology.barcodes.Interval;
+
+/**
+ * This class reads and writes barcodes in the binary format described in the
+ * BinaryBlockWriter class. Both filtration value barcodes (the ObjectReader and
+ * ObjectWriter functions) and filtration index barcodes are supported. Each interval
+ * is stored as its dimension, a byte of flags for the closedness and infiniteness of
+ * its end points, and its finite end points. Generator annotations are not stored.
+ */
+public class BarcodeBinaryReaderWriter implements ObjectReader<BarcodeCollection<Double>>, ObjectWriter<BarcodeCollection<Double>> {
+	private static final BarcodeBinaryReaderWriter instance = new BarcodeBinaryReaderWriter();
+
+	private static final int LEFT_CLOSED = 1;
+	private static final int RIGHT_CLOSED = 2;
+	private static final int LEFT_INFINITE = 4;
+	private static final int RIGHT_INFINITE = 8;
+
+	private BarcodeBinaryReaderWriter() {}
+
+	public static BarcodeBinaryReaderWriter getInstance() {
+		return instance;
+	}
+
+	public String getExtension() {
+		return "p4b";
+	}
+
+	public BarcodeCollection<Double> importFromFile(String path) throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(path));
+		try {
+			BinaryBlockReader reader = new BinaryBlockReader(input, BinaryBlockWriter.TYPE_VALUE_BARCODES);
+			BarcodeCollection<Double> barcodes = new BarcodeCollection<Double>();
+			while (reader.nextRecord()) {
+				int dimension = reader.readVarInt();
+				int flags = reader.readByte();
+				Double start = ((flags & LEFT_INFINITE) != 0 ? null : reader.readDouble());
+				Double end = ((flags & RIGHT_INFINITE) != 0 ? null : reader.readDouble());
+				barcodes.addInterval(dimension, makeInterval(start, end, flags));
+			}
+			return barcodes;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * This function reads filtration index barcodes which were written with the
+	 * writeIndexBarcodesToFile function.
+	 *
+	 * @param path the file to read
+	 * @return the barcodes in the file
+	 * @throws IOException
+	 */
+	public BarcodeCollection<Integer> importIndexBarcodesFromFile(String path) throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(path));
+		try {
+			BinaryBlockReader reader = new BinaryBlockReader(input, BinaryBlockWriter.TYPE_INDEX_BARCODES);
+			BarcodeCollection<Integer> barcodes = new BarcodeCollection<Integer>();
+			while (reader.nextRecord()) {
+				int dimension = reader.readVarInt();
+				int flags = reader.readByte();
+				Integer start = ((flags & LEFT_INFINITE) != 0 ? null : reader.readSignedVarInt());
+				Integer end = ((flags & RIGHT_INFINITE) != 0 ? null : reader.readSignedVarInt());
+				barcodes.addInterval(dimension, makeInterval(start, end, flags));
+			}
+			return barcodes;
+		} finally {
+			input.close();
+		}
+	}
+
+	public void writeToFile(BarcodeCollection<Double> object, String path) throws IOException {
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(path, false));
+		try {
+			BinaryBlockWriter writer = new BinaryBlockWriter(output, BinaryBlockWriter.TYPE_VALUE_BARCODES, getNumIntervals(object));
+			for (Integer dimension: object.getDimensions()) {
+				for (Interval<Double> interval: object.getIntervalsAtDimension(dimension)) {
+					writer.writeVarInt(dimension);
+					writer.writeByte(getFlags(interval));
+					if (!interval.isLeftInfinite()) {
+						writer.writeDouble(interval.getStart());
+					}
+					if (!interval.isRightInfinite()) {
+						writer.writeDouble(interval.getEnd());
+					}
+					writer.endRecord();
+				}
+			}
+			writer.finish();
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * This function writes filtration index barcodes to the given file.
+	 *
+	 * @param object the barcodes to write
+	 * @param path the file to write to
+	 * @throws IOException
+	 */
+	public void writeIndexBarcodesToFile(BarcodeCollection<Integer> object, String path) throws IOException {
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(path, false));
+		try {
+			BinaryBlockWriter writer = new BinaryBlockWriter(output, BinaryBlockWriter.TYPE_INDEX_BARCODES, getNumIntervals(object));
+			for (Integer dimension: object.getDimensions()) {
+				for (Interval<Integer> interval: object.getIntervalsAtDimension(dimension)) {
+					writer.writeVarInt(dimension);
+					writer.writeByte(getFlags(interval));
+					if (!interval.isLeftInfinite()) {
+						writer.writeSignedVarInt(interval.getStart());
+					}
+					if (!interval.isRightInfinite()) {
+						writer.writeSignedVarInt(interval.getEnd());
+					}
+					writer.endRecord();
+				}
+			}
+			writer.finish();
+		} finally {
+			output.close();
+		}
+	}
+
+	private static <T extends Comparable<T>> long getNumIntervals(BarcodeCollection<T> barcodes) {
+		long count = 0;
+		for (Integer dimension: barcodes.getDimensions()) {
+			count += barcodes.getIntervalsAtDimension(dimension).size();
+		}
+		return count;
+	}
+
+	private static int getFlags(Interval<?> interval) {
+		int flags = 0;
+		if (interval.isLeftClosed()) {
+			flags |= LEFT_CLOSED;
+		}
+		if (interval.isRightClosed()) {
+			flags |= RIGHT_CLOSED;
+		}
+		if (interval.isLeftInfinite()) {
+			flags |= LEFT_INFINITE;
+		}
+		if (interval.isRightInfinite()) {
+			flags |= RIGHT_INFINITE;
+		}
+		return flags;
+	}
+
+	private static <T extends Comparable<T>> Interval<T> makeInterval(T start, T end, int flags) {
+		return Interval.makeInterval(start, end, (flags & LEFT_CLOSED) != 0, (flags & RIGHT_CLOSED) != 0, (flags & LEFT_INFINITE) != 0, (flags & RIGHT_INFINITE) != 0);
+	}
+}
@@ -0,0 +1,157 @@
+package edu.stanford.math.plex4.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * This class reads the binary format written by the BinaryBlockWriter class. It reads
+ * one block at a time and verifies its checksum before any of its records are decoded.
+ */
+class BinaryBlockReader {
+	private final DataInputStream input;
+	private final long numRecords;
+	private byte[] buffer = new byte[2 * BinaryBlockWriter.BLOCK_SIZE];
+	private int length = 0;
+	private int position = 0;
+
+	/**
+	 * The offset in the file of the first byte of the current payload, and of the next
+	 * block.
+	 */
+	private long blockOffset = 0;
+	private long nextBlockOffset = 0;
+
+	private final CRC32 crc = new CRC32();
+	private boolean isBlockStart = false;
+	private boolean isFinished = false;
+
+	BinaryBlockReader(InputStream input, int expectedType) throws IOException {
+		this.input = new DataInputStream(input);
+		if (this.input.readInt() != BinaryBlockWriter.MAGIC) {
+			throw new IOException("Not a plex binary file.");
+		}
+		int version = this.input.readInt();
+		if (version != BinaryBlockWriter.VERSION) {
+			throw new IOException("Unsupported format version: " + version);
+		}
+		int type = this.input.readInt();
+		if (type != expectedType) {
+			throw new IOException("Unexpected content type: " + type);
+		}
+		this.numRecords = this.input.readLong();
+		this.nextBlockOffset = 20;
+	}
+
+	/**
+	 * This function returns the number of records stored in the header.
+	 */
+	long getNumRecords() {
+		return this.numRecords;
+	}
+
+	/**
+	 * This function positions the reader at the next record. It returns false if there
+	 * are no more records.
+	 */
+	boolean nextRecord() throws IOException {
+		this.isBlockStart = false;
+		if (this.position < this.length) {
+			return true;
+		}
+		if (this.isFinished) {
+			return false;
+		}
+
+		int blockLength;
+		int checksum;
+		try {
+			blockLength = this.input.readInt();
+			if (blockLength == 0) {
+				this.isFinished = true;
+				return false;
+			}
+			if (blockLength < 0 || blockLength > BinaryBlockWriter.MAX_BLOCK_SIZE) {
+				throw new IOException("Corrupt block length: " + blockLength);
+			}
+			checksum = this.input.readInt();
+			if (blockLength > this.buffer.length) {
+				this.buffer = new byte[blockLength];
+			}
+			this.input.readFully(this.buffer, 0, blockLength);
+		} catch (EOFException e) {
+			throw new IOException("Unexpected end of file.");
+		}
+		this.crc.reset();
+		this.crc.update(this.buffer, 0, blockLength);
+		if ((int) this.crc.getValue() != checksum) {
+			throw new IOException("Checksum mismatch.");
+		}
+
+		this.blockOffset = this.nextBlockOffset + 8;
+		this.nextBlockOffset = this.blockOffset + blockLength;
+		this.length = blockLength;
+		this.position = 0;
+		this.isBlockStart = true;
+		return true;
+	}
+
+	/**
+	 * This function returns true if the current record is the first one of its block.
+	 */
+	boolean isBlockStart() {
+		return this.isBlockStart;
+	}
+
+	/**
+	 * This function returns the offset in the file of the next byte to be read.
+	 */
+	long getOffset() {
+		return this.blockOffset + this.position;
+	}
+
+	/**
+	 * This function returns the number of bytes left in the current block.
+	 */
+	int getRemaining() {
+		return this.length - this.position;
+	}
+
+	int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = this.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt variable length integer.");
+	}
+
+	int readSignedVarInt() throws IOException {
+		int value = this.readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	int readByte() throws IOException {
+		if (this.position >= this.length) {
+			throw new IOException("Record exceeds block.");
+		}
+		return this.buffer[this.position++] & 0xFF;
+	}
+
+	double readDouble() throws IOException {
+		long bits = 0;
+		for (int i = 0; i < 8; i++) {
+			bits = (bits << 8) | this.readByte();
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	void close() throws IOException {
+		this.input.close();
+	}
+}
@@ -0,0 +1,127 @@
+package edu.stanford.math.plex4.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * <p>This class writes the versioned binary format shared by the binary readers and
+ * writers in this package. A file consists of a header, a sequence of blocks and an
+ * empty terminating block. The header contains a magic number, the format version, the
+ * type of the content and the number of records. Each block contains the length of
+ * its payload, a CRC-32 checksum of the payload and the payload itself.</p>
+ *
+ * <p>The payload is a sequence of records made of variable length integers, so that
+ * small values take a single byte. Records never span two blocks, which allows the
+ * writers to delta-encode values relative to the previous record of the same block.</p>
+ */
+class BinaryBlockWriter {
+	static final int MAGIC = 0x504C5842;
+	static final int VERSION = 2;
+
+	static final int TYPE_SIMPLEX_STREAM = 1;
+	static final int TYPE_INDEX_BARCODES = 2;
+	static final int TYPE_VALUE_BARCODES = 3;
+
+	/**
+	 * A block is written once its payload reaches this size.
+	 */
+	static final int BLOCK_SIZE = 1 << 16;
+
+	/**
+	 * No block is larger than this size. Since records never span two blocks, this also
+	 * bounds the size of a single record.
+	 */
+	static final int MAX_BLOCK_SIZE = 1 << 24;
+
+	private final DataOutputStream output;
+	private byte[] buffer = new byte[2 * BLOCK_SIZE];
+	private int length = 0;
+	private final CRC32 crc = new CRC32();
+
+	BinaryBlockWriter(OutputStream output, int type, long numRecords) throws IOException {
+		this.output = new DataOutputStream(output);
+		this.output.writeInt(MAGIC);
+		this.output.writeInt(VERSION);
+		this.output.writeInt(type);
+		this.output.writeLong(numRecords);
+	}
+
+	/**
+	 * This function writes a non-negative integer using 7 bits per byte.
+	 */
+	void writeVarInt(int value) throws IOException {
+		this.ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			this.buffer[this.length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.length++] = (byte) value;
+	}
+
+	/**
+	 * This function writes an integer using the zig-zag encoding, so that values of small
+	 * magnitude are short regardless of their sign.
+	 */
+	void writeSignedVarInt(int value) throws IOException {
+		this.writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	void writeByte(int value) throws IOException {
+		this.ensureCapacity(1);
+		this.buffer[this.length++] = (byte) value;
+	}
+
+	void writeDouble(double value) throws IOException {
+		this.ensureCapacity(8);
+		long bits = Double.doubleToLongBits(value);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			this.buffer[this.length++] = (byte) (bits >>> shift);
+		}
+	}
+
+	/**
+	 * This function must be called after each record. It returns true if the current
+	 * block was written, in which case the next record starts a new block.
+	 */
+	boolean endRecord() throws IOException {
+		if (this.length >= BLOCK_SIZE) {
+			this.writeBlock();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * This function writes the remaining records and the terminating block. It does not
+	 * close the underlying stream.
+	 */
+	void finish() throws IOException {
+		this.writeBlock();
+		this.output.writeInt(0);
+		this.output.flush();
+	}
+
+	private void writeBlock() throws IOException {
+		if (this.length == 0) {
+			return;
+		}
+		this.output.writeInt(this.length);
+		this.crc.reset();
+		this.crc.update(this.buffer, 0, this.length);
+		this.output.writeInt((int) this.crc.getValue());
+		this.output.write(this.buffer, 0, this.length);
+		this.length = 0;
+	}
+
+	private void ensureCapacity(int numBytes) throws IOException {
+		if (this.length + numBytes > this.buffer.length) {
+			if (this.length + numBytes > MAX_BLOCK_SIZE) {
+				throw new IOException("Record exceeds the maximum block size of " + MAX_BLOCK_SIZE + " bytes.");
+			}
+			this.buffer = Arrays.copyOf(this.buffer, Math.min(MAX_BLOCK_SIZE, 2 * this.buffer.length));
+		}
+	}
+}
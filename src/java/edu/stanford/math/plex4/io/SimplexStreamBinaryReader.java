@@ -0,0 +1,150 @@
+package edu.stanford.math.plex4.io;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.streams.storage_structures.ColumnarStorageStructure;
+import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure;
+
+/**
+ * <p>This class reads a simplex stream written by SimplexStreamBinaryReaderWriter one
+ * simplex at a time, without holding the stream in memory. The simplices are read in
+ * the order in which they were written, which is the order of the original stream.</p>
+ *
+ * <p>Each record contains the filtration index (as the difference from the previous
+ * record in the same block), the number of vertices, the first vertex and the gaps
+ * between consecutive vertices.</p>
+ */
+public class SimplexStreamBinaryReader {
+	private final BinaryBlockReader reader;
+	private int filtrationIndex = 0;
+	private int[] vertices = null;
+
+	/**
+	 * This array contains a vertex array of length i + 1 at index i, so that the arrays
+	 * can be reused.
+	 */
+	private int[][] vertexArrays = new int[0][];
+
+	/**
+	 * This constructor opens the file at the given path.
+	 *
+	 * @param path the file to read
+	 * @throws IOException if the file cannot be opened or has an invalid header
+	 */
+	public SimplexStreamBinaryReader(String path) throws IOException {
+		this(new BufferedInputStream(new FileInputStream(path)));
+	}
+
+	/**
+	 * This constructor reads from the given input stream.
+	 *
+	 * @param input the stream to read from
+	 * @throws IOException if the header is invalid
+	 */
+	public SimplexStreamBinaryReader(InputStream input) throws IOException {
+		this.reader = new BinaryBlockReader(input, BinaryBlockWriter.TYPE_SIMPLEX_STREAM);
+	}
+
+	/**
+	 * This function returns the number of simplices in the file.
+	 *
+	 * @return the number of simplices
+	 */
+	public long getSize() {
+		return this.reader.getNumRecords();
+	}
+
+	/**
+	 * This function reads the next simplex.
+	 *
+	 * @return true if a simplex was read, and false at the end of the file
+	 * @throws IOException if the file is corrupt
+	 */
+	public boolean next() throws IOException {
+		if (!this.reader.nextRecord()) {
+			this.vertices = null;
+			return false;
+		}
+		if (this.reader.isBlockStart()) {
+			this.filtrationIndex = 0;
+		}
+
+		this.filtrationIndex += this.reader.readSignedVarInt();
+		long offset = this.reader.getOffset();
+		int numVertices = this.reader.readVarInt();
+		// every vertex takes at least one byte
+		if (numVertices < 1 || numVertices > this.reader.getRemaining()) {
+			throw new IOException("Corrupt number of vertices " + numVertices + " at offset " + offset + ".");
+		}
+		if (numVertices > this.vertexArrays.length) {
+			int[][] newArrays = new int[numVertices][];
+			System.arraycopy(this.vertexArrays, 0, newArrays, 0, this.vertexArrays.length);
+			for (int i = this.vertexArrays.length; i < numVertices; i++) {
+				newArrays[i] = new int[i + 1];
+			}
+			this.vertexArrays = newArrays;
+		}
+
+		this.vertices = this.vertexArrays[numVertices - 1];
+		this.vertices[0] = this.reader.readSignedVarInt();
+		for (int i = 1; i < numVertices; i++) {
+			this.vertices[i] = this.vertices[i - 1] + this.reader.readVarInt() + 1;
+		}
+		return true;
+	}
+
+	/**
+	 * This function returns the vertices of the current simplex in increasing order. The
+	 * returned array is reused, and is only valid until the next call to next().
+	 *
+	 * @return the vertices of the current simplex
+	 */
+	public int[] getVertices() {
+		return this.vertices;
+	}
+
+	/**
+	 * This function returns the filtration index of the current simplex.
+	 *
+	 * @return the filtration index of the current simplex
+	 */
+	public int getFiltrationIndex() {
+		return this.filtrationIndex;
+	}
+
+	/**
+	 * This function reads all of the remaining simplices into the given storage structure.
+	 * A ColumnarStorageStructure receives the vertices directly, so that no Simplex
+	 * objects are created.
+	 *
+	 * @param storageStructure the storage structure to add the simplices to
+	 * @throws IOException if the file is corrupt
+	 */
+	public void readInto(StreamStorageStructure<Simplex> storageStructure) throws IOException {
+		ColumnarStorageStructure columnarStorage = null;
+		if (storageStructure instanceof ColumnarStorageStructure) {
+			columnarStorage = (ColumnarStorageStructure) storageStructure;
+		}
+
+		while (this.next()) {
+			if (columnarStorage != null) {
+				columnarStorage.addSimplex(this.vertices, this.filtrationIndex);
+			} else {
+				storageStructure.addElement(new Simplex(this.vertices), this.filtrationIndex);
+			}
+		}
+	}
+
+	/**
+	 * This function closes the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.reader.close();
+	}
+}
@@ -0,0 +1,91 @@
+package edu.stanford.math.plex4.io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.streams.impl.ExplicitSimplexStream;
+import edu.stanford.math.plex4.streams.interfaces.AbstractFilteredStream;
+import edu.stanford.math.plex4.streams.storage_structures.ColumnarStorageStructure;
+import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure;
+
+/**
+ * This class reads and writes simplex streams in a compact binary format. The vertices
+ * and filtration indices are delta-encoded as variable length integers, and the data is
+ * split into blocks which are protected by CRC checksums (see BinaryBlockWriter). The
+ * imported streams are stored in a ColumnarStorageStructure. For reading a stream
+ * incrementally, or into a different storage structure, see SimplexStreamBinaryReader.
+ */
+public class SimplexStreamBinaryReaderWriter implements ObjectReader<AbstractFilteredStream<Simplex>>, ObjectWriter<AbstractFilteredStream<Simplex>> {
+	private static final SimplexStreamBinaryReaderWriter instance = new SimplexStreamBinaryReaderWriter();
+
+	private SimplexStreamBinaryReaderWriter() {}
+
+	public static SimplexStreamBinaryReaderWriter getInstance() {
+		return instance;
+	}
+
+	public String getExtension() {
+		return "p4s";
+	}
+
+	public AbstractFilteredStream<Simplex> importFromFile(String path) throws IOException {
+		return this.importFromFile(path, new ColumnarStorageStructure());
+	}
+
+	/**
+	 * This function reads the stream in the given file into the supplied storage structure.
+	 *
+	 * @param path the file to read
+	 * @param storageStructure the storage structure which will hold the stream
+	 * @return a stream backed by the storage structure
+	 * @throws IOException
+	 */
+	public ExplicitSimplexStream importFromFile(String path, StreamStorageStructure<Simplex> storageStructure) throws IOException {
+		SimplexStreamBinaryReader reader = new SimplexStreamBinaryReader(path);
+		try {
+			reader.readInto(storageStructure);
+		} finally {
+			reader.close();
+		}
+		return new ExplicitSimplexStream(storageStructure);
+	}
+
+	public void writeToFile(AbstractFilteredStream<Simplex> object, String path) throws IOException {
+		OutputStream output = new BufferedOutputStream(new FileOutputStream(path, false));
+		try {
+			this.write(object, output);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * This function writes the stream to the given output stream, which is not closed.
+	 *
+	 * @param object the stream to write
+	 * @param output the output stream
+	 * @throws IOException
+	 */
+	public void write(AbstractFilteredStream<Simplex> object, OutputStream output) throws IOException {
+		BinaryBlockWriter writer = new BinaryBlockWriter(output, BinaryBlockWriter.TYPE_SIMPLEX_STREAM, object.getSize());
+		int previousFiltrationIndex = 0;
+		for (Simplex simplex: object) {
+			int filtrationIndex = object.getFiltrationIndex(simplex);
+			int[] vertices = simplex.getVertices();
+
+			writer.writeSignedVarInt(filtrationIndex - previousFiltrationIndex);
+			writer.writeVarInt(vertices.length);
+			writer.writeSignedVarInt(vertices[0]);
+			for (int i = 1; i < vertices.length; i++) {
+				writer.writeVarInt(vertices[i] - vertices[i - 1] - 1);
+			}
+
+			// each block starts with an absolute filtration index
+			previousFiltrationIndex = (writer.endRecord() ? 0 : filtrationIndex);
+		}
+		writer.finish();
+	}
+}
@@ -22,6 +22,13 @@ public class KDEuclideanMetricSpace extends ObjectSearchableFiniteMetricSpace<do
 		this.dimension = dataPoints[0].length;
 	}
 	
+	/**
+	 * @return the KD-tree over the points
+	 */
+	public KDTree getKDTree() {
+		return this.tree;
+	}
+	
 	public double[][] getPoints() {
 		return this.elements;
 	}
@@ -5,8 +5,10 @@ package edu.stanford.math.plex4.kd;
  * within a KD-tree.
  * 
  * @author Andrew Tausz
- *
+ * @deprecated KDTree no longer uses linked nodes. It stores the tree in flat
+ * arrays ordered by the points, so this class is not used by the library.
  */
+@Deprecated
 public class KDNode {
 	private final int index;
 	private KDNode left;
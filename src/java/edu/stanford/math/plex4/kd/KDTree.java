@@ -1,43 +1,61 @@
 package edu.stanford.math.plex4.kd;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import edu.stanford.math.plex4.graph.WeightedEdgeList;
 import edu.stanford.math.plex4.utility.ExceptionUtility;
-import edu.stanford.math.primitivelib.autogen.array.DoubleArrayMath;
-import edu.stanford.math.primitivelib.autogen.array.IntArrayGeneration;
-import edu.stanford.math.primitivelib.autogen.array.IntArrayUtility;
-import edu.stanford.math.primitivelib.autogen.pair.ObjectObjectPair;
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntHashSet;
 
 /**
- * This class implements the functionality of a KD-tree. It is 
- * designed for the efficient searching of Euclidean spaces.
- * 
+ * <p>This class implements the functionality of a KD-tree. It is
+ * designed for the efficient searching of Euclidean spaces.</p>
+ *
+ * <p>The tree is stored in flat arrays. The points are kept in a permutation of their
+ * indices, and each node covers a contiguous range of the permutation. The nodes are
+ * numbered implicitly as in a binary heap: the children of node k are 2k + 1 and 2k + 2.
+ * A node is split at the median of its widest coordinate, which is found by selection
+ * in linear time, and ranges of at most LEAF_SIZE points are leaves which are scanned
+ * linearly. The coordinates are copied in the order of the permutation, so that the
+ * points of a leaf are adjacent in memory.</p>
+ *
  * @author Andrew Tausz
  *
  */
 public class KDTree {
+	private static final int LEAF_SIZE = 16;
+
 	private final int size;
 	private final int dimension;
-	private KDNode root;
-	private static Random random = new Random();
-	
-	/**
-	 * There are two options for constructing the KD-tree. One is
-	 * to partition by medians, and the other is to partition randomly.
-	 * Partitioning by medians produces a more balanced tree, but is
-	 * more expensive to construct.
-	 */
-	private boolean useMedian = true;
-	
+
 	/**
 	 * Points are stored as rows in the dataPoints array
 	 */
 	private final double[][] dataPoints;
 
+	/**
+	 * The permutation of the point indices, and the coordinates of the points in this order.
+	 */
+	private final int[] order;
+	private final double[] coordinates;
+
+	/**
+	 * The node k covers the positions nodeStarts[k] to nodeEnds[k] - 1 of the permutation.
+	 * Its bounding box has the corners lowerBounds[k * dimension + a] and
+	 * upperBounds[k * dimension + a]. An unused slot of the implicit layout is marked by
+	 * an empty range.
+	 */
+	private final int[] nodeStarts;
+	private final int[] nodeEnds;
+	private final double[] lowerBounds;
+	private final double[] upperBounds;
+
 	/**
 	 * Constructor for initializing the KD-tree with a set of points.
 	 * @param dataPoints
@@ -48,190 +66,245 @@ public class KDTree {
 		this.dataPoints = dataPoints;
 		this.size = dataPoints.length;
 		this.dimension = dataPoints[0].length;
-		
+
+		this.order = new int[this.size];
+		for (int i = 0; i < this.size; i++) {
+			this.order[i] = i;
+		}
+
+		int numNodes = computeNumNodes(0, this.size);
+		this.nodeStarts = new int[numNodes];
+		this.nodeEnds = new int[numNodes];
+		this.lowerBounds = new double[numNodes * this.dimension];
+		this.upperBounds = new double[numNodes * this.dimension];
+
 		// construct KD tree
-		this.root = this.construct(IntArrayUtility.toList(IntArrayGeneration.range(0, this.size)), 0);
+		this.construct(0, 0, this.size);
+
+		this.coordinates = new double[this.size * this.dimension];
+		for (int position = 0; position < this.size; position++) {
+			System.arraycopy(dataPoints[this.order[position]], 0, this.coordinates, position * this.dimension, this.dimension);
+		}
 	}
-	
+
 	/**
-	 * This function recursively constructs the tree by partitioning the
-	 * Euclidean space axis-by-axis.
-	 * 
-	 * @param points the list of points to partition
-	 * @param depth the current depth of the iteration
-	 * @return a KDNode for the current subtree
+	 * This function returns the size of the implicit node layout of a subtree.
+	 *
+	 * @param node the root of the subtree
+	 * @param count the number of points in the subtree
+	 * @return one more than the largest node index in the subtree
 	 */
-	private KDNode construct(List<Integer> points, int depth) {
-		int axis = depth % this.dimension;
-		
-		if (points.isEmpty()) {
-			return null;
+	private static int computeNumNodes(int node, int count) {
+		if (count <= LEAF_SIZE) {
+			return node + 1;
 		}
-		if (points.size() == 1) {
-			return new KDNode(points.get(0), axis);
+		int leftCount = count >>> 1;
+		return Math.max(computeNumNodes(2 * node + 1, leftCount), computeNumNodes(2 * node + 2, count - leftCount));
+	}
+
+	/**
+	 * This function recursively constructs the tree by splitting the
+	 * widest axis of the bounding box at the median.
+	 *
+	 * @param node the index of the node to construct
+	 * @param start the first position of the range of the node
+	 * @param end one more than the last position of the range of the node
+	 */
+	private void construct(int node, int start, int end) {
+		this.nodeStarts[node] = start;
+		this.nodeEnds[node] = end;
+
+		// compute the bounding box and its widest axis
+		int offset = node * this.dimension;
+		int axis = 0;
+		for (int a = 0; a < this.dimension; a++) {
+			double lower = Double.POSITIVE_INFINITY;
+			double upper = Double.NEGATIVE_INFINITY;
+			for (int position = start; position < end; position++) {
+				double value = this.dataPoints[this.order[position]][a];
+				lower = Math.min(lower, value);
+				upper = Math.max(upper, value);
+			}
+			this.lowerBounds[offset + a] = lower;
+			this.upperBounds[offset + a] = upper;
+			if (upper - lower > this.upperBounds[offset + axis] - this.lowerBounds[offset + axis]) {
+				axis = a;
+			}
 		}
-		
-		int splitIndex = 0;
-		if (this.useMedian) {
-			splitIndex = this.getMedianSplitIndex(points, axis);
-		} else {
-			splitIndex = this.getRandomSplitIndex(points);
+
+		if (end - start <= LEAF_SIZE) {
+			return;
 		}
-		
-		ObjectObjectPair<List<Integer>, List<Integer>> pointListPair = this.splitPoints(points, axis, splitIndex);
-		
-		points = null;
-		
-		KDNode kdNode = new KDNode(splitIndex, axis);
-		
-		
-		kdNode.setLeft(this.construct(pointListPair.getFirst(), depth + 1));
-		kdNode.setRight(this.construct(pointListPair.getSecond(), depth + 1));
-		
-		return kdNode;
+
+		int middle = start + ((end - start) >>> 1);
+		this.select(start, end, middle, axis);
+
+		this.construct(2 * node + 1, start, middle);
+		this.construct(2 * node + 2, middle, end);
 	}
-	
+
 	/**
-	 * This function simply returns a random element within the list of indices.
-	 * 
-	 * @param pointIndices the list to select from
-	 * @return a random element from the list
+	 * This function rearranges the positions start to end - 1 of the permutation so that
+	 * position k holds the point with the k-th smallest coordinate along the axis, with
+	 * no larger coordinates before it and no smaller ones after it.
 	 */
-	private int getRandomSplitIndex(List<Integer> pointIndices) {
-		return pointIndices.get(random.nextInt(pointIndices.size()));
+	private void select(int start, int end, int k, int axis) {
+		int left = start;
+		int right = end - 1;
+		while (left < right) {
+			double pivot = this.dataPoints[this.order[(left + right) >>> 1]][axis];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (this.dataPoints[this.order[i]][axis] < pivot) {
+					i++;
+				}
+				while (this.dataPoints[this.order[j]][axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int index = this.order[i];
+					this.order[i] = this.order[j];
+					this.order[j] = index;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private boolean isLeaf(int node) {
+		return (2 * node + 1 >= this.nodeStarts.length || this.nodeEnds[2 * node + 1] == 0);
 	}
-	
+
 	/**
-	 * This function selects the index that is the median of the values when sorted 
-	 * by the specified axis.
-	 * 
-	 * @param pointIndices
-	 * @param axis the axis to find the median along
-	 * @return the index of the median
+	 * This function returns the squared distance from the query point to the bounding box
+	 * of a node.
 	 */
-	private int getMedianSplitIndex(List<Integer> pointIndices, final int axis) {
-		Comparator<Integer> comparator = getAxisComparator(axis);
-		java.util.Collections.sort(pointIndices, comparator);
-		return pointIndices.get((pointIndices.size() + 1) / 2);
+	private double squaredBoxDistance(int node, double[] queryPoint) {
+		int offset = node * this.dimension;
+		double squaredDistance = 0;
+		for (int a = 0; a < this.dimension; a++) {
+			double difference = 0;
+			if (queryPoint[a] < this.lowerBounds[offset + a]) {
+				difference = this.lowerBounds[offset + a] - queryPoint[a];
+			} else if (queryPoint[a] > this.upperBounds[offset + a]) {
+				difference = queryPoint[a] - this.upperBounds[offset + a];
+			}
+			squaredDistance += difference * difference;
+		}
+		return squaredDistance;
 	}
-	
+
 	/**
-	 * This function splits the points into two groups - those that are less than the one at the split index,
-	 * and those that are greater than or equal.
-	 * 
-	 * @param pointIndices the list of points to divide
-	 * @param axis the axis to compare along
-	 * @param splitIndex the index to split on
-	 * @return a GenericPair containing the two lists described above
+	 * This function returns the squared distance between the bounding boxes of two nodes.
 	 */
-	private ObjectObjectPair<List<Integer>, List<Integer>> splitPoints(List<Integer> pointIndices, final int axis, int splitIndex) {
-		Comparator<Integer> comparator = getAxisComparator(axis);
-		List<Integer> lessThan = new ArrayList<Integer>();
-		List<Integer> greaterThanOrEqual = new ArrayList<Integer>();
-		
-		for (Integer index: pointIndices) {
-			if (comparator.compare(index, splitIndex) < 0) {
-				lessThan.add(index);
-			} else {
-				greaterThanOrEqual.add(index);
-			}
+	private double squaredBoxDistance(int a, int b) {
+		int offsetA = a * this.dimension;
+		int offsetB = b * this.dimension;
+		double squaredDistance = 0;
+		for (int axis = 0; axis < this.dimension; axis++) {
+			double difference = Math.max(0, Math.max(this.lowerBounds[offsetA + axis] - this.upperBounds[offsetB + axis], this.lowerBounds[offsetB + axis] - this.upperBounds[offsetA + axis]));
+			squaredDistance += difference * difference;
 		}
-		
-		return new ObjectObjectPair<List<Integer>, List<Integer>>(lessThan, greaterThanOrEqual);
+		return squaredDistance;
 	}
-	
+
 	/**
-	 * This function returns a comparator used for ordering the points by their locations along
-	 * a particular axis.
-	 * 
-	 * @param axis the axis to order by
-	 * @return a comparator which compares points by a particular coordinate
+	 * This function returns the squared distance between the points at two positions of
+	 * the permutation.
 	 */
-	private Comparator<Integer> getAxisComparator(final int axis) {
-		return new Comparator<Integer>() {
-
-			public int compare(Integer o1, Integer o2) {
-				if (dataPoints[o1][axis] < dataPoints[o2][axis]) {
-					return -1;
-				} else if (dataPoints[o1][axis] > dataPoints[o2][axis]) {
-					return 1;
-				} else {
-					return 0;
-				}
-			}
-		};
+	private double squaredDistance(int p, int q) {
+		int offsetP = p * this.dimension;
+		int offsetQ = q * this.dimension;
+		double squaredDistance = 0;
+		for (int a = 0; a < this.dimension; a++) {
+			double difference = this.coordinates[offsetP + a] - this.coordinates[offsetQ + a];
+			squaredDistance += difference * difference;
+		}
+		return squaredDistance;
+	}
+
+	/**
+	 * This function returns the squared distance from the query point to the point at a
+	 * position of the permutation. The terms are summed in the same order as in
+	 * DoubleArrayMath.squaredDistance, so that the result is identical.
+	 */
+	private double squaredDistance(double[] queryPoint, int position) {
+		int offset = position * this.dimension;
+		double squaredDistance = 0;
+		for (int a = 0; a < this.dimension; a++) {
+			double difference = queryPoint[a] - this.coordinates[offset + a];
+			squaredDistance += difference * difference;
+		}
+		return squaredDistance;
 	}
-	
+
 	/**
 	 * This function returns the index of the nearest neighbor to the query point.
-	 * 
+	 *
 	 * @param queryPoint the point to find the closest point to
 	 * @return the index of the nearest point to the query point
 	 */
 	public int nearestNeighborSearch(double[] queryPoint) {
-		return nearestNeighborSearch(this.root, queryPoint, this.root.getIndex(), 0);
+		int[] best = new int[] {0};
+		double[] bestSquaredDistance = new double[] {Double.POSITIVE_INFINITY};
+		this.nearestNeighborSearch(0, queryPoint, best, bestSquaredDistance);
+		return this.order[best[0]];
 	}
 
 	/**
-	 * This function performs the nearest neighborhood search recursively.
-	 * It is an internal helper function.
-	 * 
+	 * This function performs the nearest neighborhood search recursively, visiting the
+	 * child whose box is closer first.
+	 *
 	 * @param node the node to search in
 	 * @param queryPoint the reference point
-	 * @param bestIndex the best point so far
-	 * @param depth the recursion depth
-	 * @return the index of the nearest point to the query point
+	 * @param best holds the position of the best point so far
+	 * @param bestSquaredDistance holds the squared distance of the best point so far
 	 */
-	private int nearestNeighborSearch(KDNode node, double[] queryPoint, int bestIndex, int depth) {
-		if (node == null) {
-			return bestIndex;
-		}
-		double[] bestPoint = this.dataPoints[bestIndex];
-
-		// get the current axis
-		int axis = node.getSplitAxis();
-		// get the current point
-		int currentIndex = node.getIndex();
-		double[] currentPoint = this.dataPoints[currentIndex];
-
-		// Calculate whether current node is the best so far
-		double currentSquaredDistance = DoubleArrayMath.squaredDistance(queryPoint, currentPoint);
-		double bestSquaredDistance = DoubleArrayMath.squaredDistance(queryPoint, bestPoint);
-		if (currentSquaredDistance < bestSquaredDistance) {
-			bestPoint = currentPoint;
-			bestIndex = currentIndex;
+	private void nearestNeighborSearch(int node, double[] queryPoint, int[] best, double[] bestSquaredDistance) {
+		if (this.isLeaf(node)) {
+			for (int position = this.nodeStarts[node]; position < this.nodeEnds[node]; position++) {
+				double squaredDistance = this.squaredDistance(queryPoint, position);
+				if (squaredDistance < bestSquaredDistance[0]) {
+					bestSquaredDistance[0] = squaredDistance;
+					best[0] = position;
+				}
+			}
+			return;
 		}
 
-		// determine which side of the hyperplane the query point is in
-		// if side > 0 then the query point is on the "right" side of the hyperplane
-		double axisDifference = queryPoint[axis] - currentPoint[axis];
-		// the near child is the node for the half space containing the query point
-		KDNode nearChild = null;
-		// the far child is the node for the half space not containing the query point
-		KDNode farChild = null;
-		if (axisDifference > 0) {
-			nearChild = node.getRight();
-			farChild = node.getLeft();
-		} else {
-			nearChild = node.getLeft();
-			farChild = node.getRight();
+		int left = 2 * node + 1;
+		int right = 2 * node + 2;
+		double leftDistance = this.squaredBoxDistance(left, queryPoint);
+		double rightDistance = this.squaredBoxDistance(right, queryPoint);
+		if (rightDistance < leftDistance) {
+			int child = left;
+			left = right;
+			right = child;
+			double distance = leftDistance;
+			leftDistance = rightDistance;
+			rightDistance = distance;
 		}
 
-		// search the current half-space (the half-space containing the query point)
-		bestIndex = nearestNeighborSearch(nearChild, queryPoint, bestIndex, depth + 1);
-
-		// test to see if we need to search other half-space
-		double separatingPlaneDistance = DoubleArrayMath.squaredDistance(queryPoint[axis], currentPoint[axis]);
-		if (bestSquaredDistance > separatingPlaneDistance) {
-			bestIndex = nearestNeighborSearch(farChild, queryPoint, bestIndex, depth + 1);
+		if (leftDistance < bestSquaredDistance[0]) {
+			this.nearestNeighborSearch(left, queryPoint, best, bestSquaredDistance);
+		}
+		if (rightDistance < bestSquaredDistance[0]) {
+			this.nearestNeighborSearch(right, queryPoint, best, bestSquaredDistance);
 		}
-
-		return bestIndex;		
 	}
 
 	/**
 	 * This function finds all points within an open or closed neighborhood of the query point.
-	 * 
+	 *
 	 * @param queryPoint the center of the ball to query
 	 * @param epsilon the radius of the ball
 	 * @param openNeighborhood true if the neighborhood is open and false otherwise
@@ -239,68 +312,173 @@ public class KDTree {
 	 */
 	public TIntHashSet epsilonNeighborhoodSearch(double[] queryPoint, double epsilon, boolean openNeighborhood) {
 		TIntHashSet neighborhood = new TIntHashSet();
-		epsilonNeighborhoodSearch(this.root, queryPoint, neighborhood, 0, epsilon * epsilon, openNeighborhood);
+		this.epsilonNeighborhoodSearch(0, queryPoint, neighborhood, epsilon * epsilon, openNeighborhood);
 		return neighborhood;
 	}
 
 	/**
 	 * This is a helper function which performs the recursive search for the neighborhood search.
-	 * 
+	 *
 	 * @param node the current KD-tree node
 	 * @param queryPoint the reference point
 	 * @param neighborhood the current set of points found
-	 * @param depth the recursion depth
 	 * @param epsilonSquared the square of the radius of the ball
 	 * @param openNeighborhood true if the neighborhood is open and false otherwise
 	 */
-	private void epsilonNeighborhoodSearch(KDNode node, double[] queryPoint, TIntHashSet neighborhood, int depth, double epsilonSquared, boolean openNeighborhood) {		
-		if (node == null) {
+	private void epsilonNeighborhoodSearch(int node, double[] queryPoint, TIntHashSet neighborhood, double epsilonSquared, boolean openNeighborhood) {
+		double boxDistance = this.squaredBoxDistance(node, queryPoint);
+		if (boxDistance > epsilonSquared || (openNeighborhood && boxDistance == epsilonSquared)) {
 			return;
 		}
 
-		// get the current axis
-		int axis = node.getSplitAxis();
-		// get the current point
-		int currentIndex = node.getIndex();
-		double[] currentPoint = this.dataPoints[currentIndex];
-
-		// calculate whether the current node belongs in the epsilon-neighborhood
-		// of the query point
-		double currentSquaredDistance = DoubleArrayMath.squaredDistance(queryPoint, currentPoint);
-		if (currentSquaredDistance < epsilonSquared) {
-			neighborhood.add(currentIndex);
+		if (this.isLeaf(node)) {
+			for (int position = this.nodeStarts[node]; position < this.nodeEnds[node]; position++) {
+				double squaredDistance = this.squaredDistance(queryPoint, position);
+				if (squaredDistance < epsilonSquared || (!openNeighborhood && squaredDistance == epsilonSquared)) {
+					neighborhood.add(this.order[position]);
+				}
+			}
+			return;
 		}
 
-		// determine which side of the hyperplane the query point is in
-		// if side > 0 then the query point is on the "right" side of the hyperplane
-		double axisDifference = queryPoint[axis] - currentPoint[axis];
-		double squaredAxisDistance = axisDifference * axisDifference;
-		// the near child is the node for the half space containing the query point
-		KDNode nearChild = null;
-		// the far child is the node for the half space not containing the query point
-		KDNode farChild = null;
-		if (axisDifference > 0) {
-			nearChild = node.getRight();
-			farChild = node.getLeft();
-		} else {
-			nearChild = node.getLeft();
-			farChild = node.getRight();
+		this.epsilonNeighborhoodSearch(2 * node + 1, queryPoint, neighborhood, epsilonSquared, openNeighborhood);
+		this.epsilonNeighborhoodSearch(2 * node + 2, queryPoint, neighborhood, epsilonSquared, openNeighborhood);
+	}
+
+	/**
+	 * This function finds all pairs of distinct points at distance at most epsilon, and
+	 * appends them to an edge list weighted by their distance. Each pair is reported once,
+	 * with the smaller index first. The pairs are found by a dual-tree traversal, which
+	 * prunes pairs of nodes whose bounding boxes are farther apart than epsilon.
+	 *
+	 * @param epsilon the maximum distance
+	 * @param edges the list to append the edges to
+	 */
+	public void epsilonNeighborPairSearch(double epsilon, WeightedEdgeList edges) {
+		this.join(0, 0, epsilon * epsilon, edges);
+	}
+
+	/**
+	 * This function finds all pairs of distinct points at distance at most epsilon using
+	 * several threads. The dual-tree traversal is split into the pairs of nodes at a fixed
+	 * depth, each of these is joined into its own edge list which is then sorted, and the
+	 * sorted lists are merged.
+	 *
+	 * @param epsilon the maximum distance
+	 * @param numThreads the number of threads to use
+	 * @return the list of edges, sorted by weight
+	 */
+	public WeightedEdgeList epsilonNeighborPairSearch(double epsilon, int numThreads) {
+		ExceptionUtility.verifyPositive(numThreads);
+		final double epsilonSquared = epsilon * epsilon;
+
+		// the nodes at the splitting depth, or leaves above it, in the order of the permutation
+		TIntArrayList frontier = new TIntArrayList();
+		int depth = 0;
+		while ((1 << depth) < 8 * numThreads && depth < 30) {
+			depth++;
 		}
+		this.collectFrontier(0, depth, frontier);
 
-		// determine whether the epsilon-neighborhood intersects the far half-space
-		if (openNeighborhood) {
-			if (epsilonSquared > squaredAxisDistance) {
-				// yes there is overlap - so search far half-space
-				epsilonNeighborhoodSearch(farChild, queryPoint, neighborhood, depth + 1, epsilonSquared, openNeighborhood);
+		TIntArrayList tasks = new TIntArrayList();
+		for (int i = 0; i < frontier.size(); i++) {
+			for (int j = i; j < frontier.size(); j++) {
+				int a = frontier.get(i);
+				int b = frontier.get(j);
+				if (a == b || this.squaredBoxDistance(a, b) <= epsilonSquared) {
+					tasks.add(a);
+					tasks.add(b);
+				}
 			}
-		} else {
-			if (epsilonSquared >= squaredAxisDistance) {
-				// yes there is overlap - so search far half-space
-				epsilonNeighborhoodSearch(farChild, queryPoint, neighborhood, depth + 1, epsilonSquared, openNeighborhood);
+		}
+
+		List<WeightedEdgeList> lists = new ArrayList<WeightedEdgeList>();
+		if (numThreads == 1) {
+			for (int t = 0; t < tasks.size(); t += 2) {
+				lists.add(this.joinAndSort(tasks.get(t), tasks.get(t + 1), epsilonSquared));
 			}
+			return WeightedEdgeList.mergeSorted(lists);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<WeightedEdgeList>> futures = new ArrayList<Future<WeightedEdgeList>>();
+			for (int t = 0; t < tasks.size(); t += 2) {
+				final int a = tasks.get(t);
+				final int b = tasks.get(t + 1);
+				futures.add(executor.submit(new Callable<WeightedEdgeList>() {
+					public WeightedEdgeList call() {
+						return joinAndSort(a, b, epsilonSquared);
+					}
+				}));
+			}
+
+			for (Future<WeightedEdgeList> future: futures) {
+				lists.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return WeightedEdgeList.mergeSorted(lists);
+	}
+
+	private void collectFrontier(int node, int depth, TIntArrayList frontier) {
+		if (depth == 0 || this.isLeaf(node)) {
+			frontier.add(node);
+			return;
 		}
+		this.collectFrontier(2 * node + 1, depth - 1, frontier);
+		this.collectFrontier(2 * node + 2, depth - 1, frontier);
+	}
+
+	private WeightedEdgeList joinAndSort(int a, int b, double epsilonSquared) {
+		WeightedEdgeList edges = new WeightedEdgeList();
+		this.join(a, b, epsilonSquared, edges);
+		edges.sortByWeight();
+		return edges;
+	}
 
-		// search the near half-space for more neighborhood members
-		epsilonNeighborhoodSearch(nearChild, queryPoint, neighborhood, depth + 1, epsilonSquared, openNeighborhood);
+	/**
+	 * This function reports the close pairs with one point in each of two nodes. The
+	 * nodes are either equal, or their ranges are disjoint, so that no pair is reported
+	 * twice.
+	 */
+	private void join(int a, int b, double epsilonSquared, WeightedEdgeList edges) {
+		if (a != b && this.squaredBoxDistance(a, b) > epsilonSquared) {
+			return;
+		}
+
+		boolean leafA = this.isLeaf(a);
+		boolean leafB = this.isLeaf(b);
+
+		if (leafA && leafB) {
+			for (int p = this.nodeStarts[a]; p < this.nodeEnds[a]; p++) {
+				int q = (a == b) ? p + 1 : this.nodeStarts[b];
+				for (; q < this.nodeEnds[b]; q++) {
+					double squaredDistance = this.squaredDistance(p, q);
+					if (squaredDistance <= epsilonSquared) {
+						int i = this.order[p];
+						int j = this.order[q];
+						edges.add(Math.min(i, j), Math.max(i, j), Math.sqrt(squaredDistance));
+					}
+				}
+			}
+		} else if (a == b) {
+			this.join(2 * a + 1, 2 * a + 1, epsilonSquared, edges);
+			this.join(2 * a + 1, 2 * a + 2, epsilonSquared, edges);
+			this.join(2 * a + 2, 2 * a + 2, epsilonSquared, edges);
+		} else if (leafB || (!leafA && this.nodeEnds[a] - this.nodeStarts[a] >= this.nodeEnds[b] - this.nodeStarts[b])) {
+			this.join(2 * a + 1, b, epsilonSquared, edges);
+			this.join(2 * a + 2, b, epsilonSquared, edges);
+		} else {
+			this.join(a, 2 * b + 1, epsilonSquared, edges);
+			this.join(a, 2 * b + 2, epsilonSquared, edges);
+		}
 	}
 }
@@ -1,13 +1,12 @@
 package edu.stanford.math.plex4.metric.impl;
 
-import java.util.List;
-
 import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
 import gnu.trove.TIntHashSet;
 
 /**
  * This class implements the AbstractSearchableMetricSpace interface over type T. It stores the
- * elements of the metric space as an array.  
+ * elements of the metric space as an array. The queries are answered with a vantage point
+ * tree, which only uses the metric and is built on the first query.
  * 
  * @author Andrew Tausz
  *
@@ -20,6 +19,12 @@ public abstract class ObjectSearchableFiniteMetricSpace<T> implements AbstractSe
 	 */
 	protected final T[] elements;
 	
+	/**
+	 * This is the search index over the elements. It is built lazily, since the distance
+	 * function of a subclass may not be usable before its constructor has finished.
+	 */
+	private volatile VantagePointTree<T> tree = null;
+	
 	/**
 	 * This constructor initializes the class with an array of elements.
 	 * 
@@ -29,75 +34,48 @@ public abstract class ObjectSearchableFiniteMetricSpace<T> implements AbstractSe
 		this.elements = array;
 	}
 	
-	public TIntHashSet getKNearestNeighbors(T queryPoint, int k) {
-		TruncatedPriorityQueue<Integer> tpq = new TruncatedPriorityQueue<Integer>(k);
-		
-		for (int i = 0; i < elements.length; i++) {
-			T element = elements[i];
-			if (element.equals(queryPoint)) {
-				continue;
+	/**
+	 * This function returns the search index, building it if necessary.
+	 * 
+	 * @return the vantage point tree over the elements
+	 */
+	protected VantagePointTree<T> getTree() {
+		VantagePointTree<T> tree = this.tree;
+		if (tree == null) {
+			synchronized (this) {
+				tree = this.tree;
+				if (tree == null) {
+					tree = new VantagePointTree<T>(this.elements, this);
+					this.tree = tree;
+				}
 			}
-			
-			double distance = this.distance(queryPoint, element);
-			tpq.insert(i, distance);
-		}
-		
-		TIntHashSet result = new TIntHashSet();
-		
-		List<Integer> indices = tpq.getIndices();
-		for (Integer index: indices) {
-			result.add(index);
 		}
-		
-		return result;
+		return tree;
+	}
+	
+	public TIntHashSet getKNearestNeighbors(T queryPoint, int k) {
+		return new TIntHashSet(this.getTree().nearestNeighborSearch(queryPoint, k, true));
 	}
 
 	public int getNearestPointIndex(T queryPoint) {
-		double minimumDistance = Double.MAX_VALUE;
-		double currentDistance = 0;
-		int nearestIndex = 0;
-		int n = this.elements.length;
-		
-		for (int i = 0; i < n; i++) {
-			currentDistance = this.distance(queryPoint, this.elements[i]);
-			if (currentDistance < minimumDistance) {
-				minimumDistance = currentDistance;
-				nearestIndex = i;
-			}
+		int[] nearest = this.getTree().nearestNeighborSearch(queryPoint, 1, false);
+		if (nearest.length == 0) {
+			return 0;
 		}
 		
-		return nearestIndex;
+		return nearest[0];
 	}
 
 	public TIntHashSet getOpenNeighborhood(T queryPoint, double epsilon) {
-		TIntHashSet neighborhood = new TIntHashSet();
 		if (epsilon == 0) {
-			return neighborhood;
+			return new TIntHashSet();
 		}
 		
-		int n = this.elements.length;
-		
-		for (int i = 0; i < n; i++) {
-			if (this.distance(queryPoint, this.elements[i]) < epsilon) {
-				neighborhood.add(i);
-			}	
-		}
-
-		return neighborhood;
+		return this.getTree().rangeSearch(queryPoint, epsilon, true);
 	}
 
 	public TIntHashSet getClosedNeighborhood(T queryPoint, double epsilon) {
-		TIntHashSet neighborhood = new TIntHashSet();
-		
-		int n = this.elements.length;
-		
-		for (int i = 0; i < n; i++) {
-			if (this.distance(queryPoint, this.elements[i]) <= epsilon) {
-				neighborhood.add(i);
-			}	
-		}
-
-		return neighborhood;
+		return this.getTree().rangeSearch(queryPoint, epsilon, false);
 	}
 	
 	public abstract double distance(T a, T b);
@@ -0,0 +1,295 @@
+package edu.stanford.math.plex4.metric.impl;
+
+import edu.stanford.math.plex4.metric.interfaces.AbstractObjectMetric;
+import gnu.trove.TIntHashSet;
+
+/**
+ * <p>This class implements a vantage point tree over an array of points of a general
+ * metric space. It supports range and nearest neighbor queries which only use the metric,
+ * and prune subtrees with the triangle inequality.</p>
+ *
+ * <p>The tree is stored implicitly in a permutation of the point indices. A node covers a
+ * range of the permutation, its first entry is the vantage point, and the remaining
+ * entries are split at their median distance to the vantage point: the first half are no
+ * farther from the vantage point than the median, and the second half are no closer.
+ * Small ranges are scanned linearly.</p>
+ *
+ * @param <T> the type of the points
+ */
+public class VantagePointTree<T> {
+	private static final int LEAF_SIZE = 8;
+
+	private final T[] points;
+	private final AbstractObjectMetric<T> metric;
+
+	/**
+	 * The permutation of the point indices which stores the tree.
+	 */
+	private final int[] order;
+
+	/**
+	 * For the node whose range starts at position i, medians[i] is the median distance
+	 * of its points to the vantage point order[i].
+	 */
+	private final double[] medians;
+
+	/**
+	 * This constructor builds the tree, using O(n log n) distance evaluations.
+	 *
+	 * @param points the points of the metric space
+	 * @param metric the metric
+	 */
+	public VantagePointTree(T[] points, AbstractObjectMetric<T> metric) {
+		this.points = points;
+		this.metric = metric;
+		this.order = new int[points.length];
+		this.medians = new double[points.length];
+		for (int i = 0; i < points.length; i++) {
+			this.order[i] = i;
+		}
+
+		double[] distances = new double[points.length];
+		this.build(0, points.length, distances);
+	}
+
+	private void build(int start, int end, double[] distances) {
+		if (end - start <= LEAF_SIZE) {
+			return;
+		}
+
+		T vantagePoint = this.points[this.order[start]];
+		for (int i = start + 1; i < end; i++) {
+			distances[i] = this.metric.distance(vantagePoint, this.points[this.order[i]]);
+		}
+
+		int middle = (start + 1 + end) >>> 1;
+		this.select(start + 1, end, middle, distances);
+		this.medians[start] = distances[middle];
+
+		this.build(start + 1, middle, distances);
+		this.build(middle, end, distances);
+	}
+
+	/**
+	 * This function rearranges the positions start to end - 1 of the permutation, along
+	 * with their distances, so that the position k holds the k-th smallest distance, with
+	 * no larger distances before it and no smaller ones after it.
+	 */
+	private void select(int start, int end, int k, double[] distances) {
+		int left = start;
+		int right = end - 1;
+		while (left < right) {
+			double pivot = distances[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (distances[i] < pivot) {
+					i++;
+				}
+				while (distances[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					this.swap(i, j, distances);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j, double[] distances) {
+		int index = this.order[i];
+		this.order[i] = this.order[j];
+		this.order[j] = index;
+		double distance = distances[i];
+		distances[i] = distances[j];
+		distances[j] = distance;
+	}
+
+	/**
+	 * This function returns the indices of the points within a given distance of the
+	 * query point.
+	 *
+	 * @param queryPoint the center of the ball
+	 * @param epsilon the radius of the ball
+	 * @param open true to only include points at a distance strictly less than epsilon
+	 * @return the indices of the points in the ball
+	 */
+	public TIntHashSet rangeSearch(T queryPoint, double epsilon, boolean open) {
+		TIntHashSet result = new TIntHashSet();
+		this.rangeSearch(0, this.points.length, queryPoint, epsilon, open, result);
+		return result;
+	}
+
+	private void rangeSearch(int start, int end, T queryPoint, double epsilon, boolean open, TIntHashSet result) {
+		if (end - start <= LEAF_SIZE) {
+			for (int i = start; i < end; i++) {
+				double distance = this.metric.distance(queryPoint, this.points[this.order[i]]);
+				if (distance < epsilon || (!open && distance == epsilon)) {
+					result.add(this.order[i]);
+				}
+			}
+			return;
+		}
+
+		double distance = this.metric.distance(queryPoint, this.points[this.order[start]]);
+		if (distance < epsilon || (!open && distance == epsilon)) {
+			result.add(this.order[start]);
+		}
+
+		int middle = (start + 1 + end) >>> 1;
+		double median = this.medians[start];
+		if (distance - epsilon <= median) {
+			this.rangeSearch(start + 1, middle, queryPoint, epsilon, open, result);
+		}
+		if (distance + epsilon >= median) {
+			this.rangeSearch(middle, end, queryPoint, epsilon, open, result);
+		}
+	}
+
+	/**
+	 * This function returns the indices of the k points nearest to the query point. Among
+	 * points at the same distance, the ones with smaller indices are preferred.
+	 *
+	 * @param queryPoint the query point
+	 * @param k the number of neighbors
+	 * @param excludeQueryPoint true to skip points which are equal to the query point
+	 * @return the indices of the k nearest neighbors, ordered by increasing distance
+	 */
+	public int[] nearestNeighborSearch(T queryPoint, int k, boolean excludeQueryPoint) {
+		NeighborHeap heap = new NeighborHeap(Math.min(k, this.points.length));
+		if (k > 0) {
+			this.nearestNeighborSearch(0, this.points.length, queryPoint, excludeQueryPoint, heap);
+		}
+		return heap.toSortedArray();
+	}
+
+	private void nearestNeighborSearch(int start, int end, T queryPoint, boolean excludeQueryPoint, NeighborHeap heap) {
+		if (end - start <= LEAF_SIZE) {
+			for (int i = start; i < end; i++) {
+				this.offer(i, queryPoint, excludeQueryPoint, heap);
+			}
+			return;
+		}
+
+		double distance = this.offer(start, queryPoint, excludeQueryPoint, heap);
+
+		// visit the more promising child first, so that the radius shrinks sooner
+		int middle = (start + 1 + end) >>> 1;
+		double median = this.medians[start];
+		if (distance <= median) {
+			if (distance - heap.getRadius() <= median) {
+				this.nearestNeighborSearch(start + 1, middle, queryPoint, excludeQueryPoint, heap);
+			}
+			if (distance + heap.getRadius() >= median) {
+				this.nearestNeighborSearch(middle, end, queryPoint, excludeQueryPoint, heap);
+			}
+		} else {
+			if (distance + heap.getRadius() >= median) {
+				this.nearestNeighborSearch(middle, end, queryPoint, excludeQueryPoint, heap);
+			}
+			if (distance - heap.getRadius() <= median) {
+				this.nearestNeighborSearch(start + 1, middle, queryPoint, excludeQueryPoint, heap);
+			}
+		}
+	}
+
+	private double offer(int position, T queryPoint, boolean excludeQueryPoint, NeighborHeap heap) {
+		T point = this.points[this.order[position]];
+		double distance = this.metric.distance(queryPoint, point);
+		if (!excludeQueryPoint || !point.equals(queryPoint)) {
+			heap.offer(this.order[position], distance);
+		}
+		return distance;
+	}
+
+	/**
+	 * This class holds the k best neighbors found so far in a max-heap, ordered by
+	 * distance and then by index.
+	 */
+	private static class NeighborHeap {
+		private final int capacity;
+		private final int[] indices;
+		private final double[] distances;
+		private int size = 0;
+
+		NeighborHeap(int capacity) {
+			this.capacity = capacity;
+			this.indices = new int[capacity];
+			this.distances = new double[capacity];
+		}
+
+		/**
+		 * @return the distance of the worst neighbor if the heap is full, and infinity otherwise
+		 */
+		double getRadius() {
+			return (this.size < this.capacity) ? Double.POSITIVE_INFINITY : this.distances[0];
+		}
+
+		void offer(int index, double distance) {
+			if (this.size < this.capacity) {
+				int position = this.size++;
+				while (position > 0) {
+					int parent = (position - 1) >>> 1;
+					if (!this.isWorse(index, distance, this.indices[parent], this.distances[parent])) {
+						break;
+					}
+					this.indices[position] = this.indices[parent];
+					this.distances[position] = this.distances[parent];
+					position = parent;
+				}
+				this.indices[position] = index;
+				this.distances[position] = distance;
+			} else if (this.capacity > 0 && this.isWorse(this.indices[0], this.distances[0], index, distance)) {
+				this.replaceTop(index, distance);
+			}
+		}
+
+		private void replaceTop(int index, double distance) {
+			int position = 0;
+			while (true) {
+				int child = 2 * position + 1;
+				if (child >= this.size) {
+					break;
+				}
+				if (child + 1 < this.size && this.isWorse(this.indices[child + 1], this.distances[child + 1], this.indices[child], this.distances[child])) {
+					child++;
+				}
+				if (!this.isWorse(this.indices[child], this.distances[child], index, distance)) {
+					break;
+				}
+				this.indices[position] = this.indices[child];
+				this.distances[position] = this.distances[child];
+				position = child;
+			}
+			this.indices[position] = index;
+			this.distances[position] = distance;
+		}
+
+		private boolean isWorse(int index1, double distance1, int index2, double distance2) {
+			return (distance1 > distance2 || (distance1 == distance2 && index1 > index2));
+		}
+
+		int[] toSortedArray() {
+			int[] result = new int[this.size];
+			while (this.size > 0) {
+				result[this.size - 1] = this.indices[0];
+				int lastIndex = this.indices[this.size - 1];
+				double lastDistance = this.distances[this.size - 1];
+				this.size--;
+				if (this.size > 0) {
+					this.replaceTop(lastIndex, lastDistance);
+				}
+			}
+			return result;
+		}
+	}
+}
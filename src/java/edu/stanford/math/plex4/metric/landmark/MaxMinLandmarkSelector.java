@@ -1,110 +1,359 @@
 package edu.stanford.math.plex4.metric.landmark;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
+import edu.stanford.math.plex4.utility.ExceptionUtility;
 import edu.stanford.math.plex4.utility.RandomUtility;
 import edu.stanford.math.primitivelib.utility.Infinity;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIterator;
 
 /**
- * This class implements sequential max-min landmark selection of points from a 
+ * <p>This class implements sequential max-min landmark selection of points from a
  * metric space. This method of landmark selection chooses points that are as
  * far spread out as possible, using the following inductive procedure:
  * Suppose that {l_0, ..., l_{i-1}} have been chosen as landmark points.
- * Define the function f(z) = min{d(z, l_0), ...., d(z, l_{i-1}} and define 
- * l_i to be l_i = arg max f(z). We start with l_0 being chosen randomly.
- * 
+ * Define the function f(z) = min{d(z, l_0), ...., d(z, l_{i-1}} and define
+ * l_i to be l_i = arg max f(z). We start with l_0 being chosen randomly.</p>
+ *
+ * <p>The values f(z) are kept in an array, which is updated with the distances to each
+ * new landmark, so that each landmark costs O(N) distance evaluations. The update can be
+ * split among several threads. Alternatively, the update can use the neighborhood
+ * queries of the metric space: the only points whose values change are those closer to
+ * the new landmark than the current maximum of f, and the maximum is kept in a heap. This
+ * is much faster when the metric space is backed by a search tree and the landmarks are
+ * numerous. Both methods select the same landmarks, where ties are broken in favor of
+ * the smallest index.</p>
+ *
  * @author Andrew Tausz
  *
  * @param <T> the type of the underlying metric space
  */
 public class MaxMinLandmarkSelector<T> extends LandmarkSelector<T> {
 
-	private int firstPoint;
-	
+	private final int firstPoint;
+	private final int numThreads;
+	private final boolean useNeighborhoodSearch;
+
 	/**
 	 * This constructor initializes the landmark selector with a finite metric space,
 	 * and a size parameter.
-	 * 
+	 *
 	 * @param metricSpace the metric space to build the landmarks set in
 	 * @param landmarkSetSize the size of the landmark set
 	 */
 	public MaxMinLandmarkSelector(AbstractSearchableMetricSpace<T> metricSpace, int landmarkSetSize) {
-		super(metricSpace, landmarkSetSize);
-		
-		int metricSpaceSize = this.metricSpace.size();
-
-		// select first point randomly
-		this.firstPoint = RandomUtility.nextUniformInt(0, metricSpaceSize - 1);
+		this(metricSpace, landmarkSetSize, RandomUtility.nextUniformInt(0, metricSpace.size() - 1));
 	}
-	
+
 	/**
 	 * This constructor initializes the landmark selector with a finite metric space,
 	 * and a size parameter.
-	 * 
+	 *
 	 * @param metricSpace the metric space to build the landmarks set in
 	 * @param landmarkSetSize the size of the landmark set
 	 * @param firstPoint the initial point to use
 	 */
 	public MaxMinLandmarkSelector(AbstractSearchableMetricSpace<T> metricSpace, int landmarkSetSize, int firstPoint) {
-		super(metricSpace, landmarkSetSize);
+		this(metricSpace, landmarkSetSize, firstPoint, 1, false);
+	}
+
+	/**
+	 * This constructor initializes the landmark selector with a finite metric space,
+	 * and a size parameter.
+	 *
+	 * @param metricSpace the metric space to build the landmarks set in
+	 * @param landmarkSetSize the size of the landmark set
+	 * @param firstPoint the initial point to use
+	 * @param numThreads the number of threads used to update the distances, which must be 1
+	 * if the metric space is not thread-safe
+	 * @param useNeighborhoodSearch true to only update the points returned by neighborhood
+	 * queries of the metric space, in which case a single thread is used
+	 */
+	public MaxMinLandmarkSelector(AbstractSearchableMetricSpace<T> metricSpace, int landmarkSetSize, int firstPoint, int numThreads, boolean useNeighborhoodSearch) {
+		super(metricSpace, computeLandmarkSet(metricSpace, landmarkSetSize, firstPoint, numThreads, useNeighborhoodSearch));
 		this.firstPoint = firstPoint;
+		this.numThreads = numThreads;
+		this.useNeighborhoodSearch = useNeighborhoodSearch;
 	}
 
 	@Override
 	protected int[] computeLandmarkSet() {
-		int[] landmarkIndices = new int[this.landmarkSetSize];
+		return computeLandmarkSet(this.metricSpace, this.landmarkSetSize, this.firstPoint, this.numThreads, this.useNeighborhoodSearch);
+	}
+
+	/**
+	 * This function computes the landmark set. It is static, so that it can be called
+	 * before the fields of the selector are initialized.
+	 */
+	private static <T> int[] computeLandmarkSet(AbstractSearchableMetricSpace<T> metricSpace, int landmarkSetSize, int firstPoint, int numThreads, boolean useNeighborhoodSearch) {
+		ExceptionUtility.verifyNonNull(metricSpace);
+		ExceptionUtility.verifyLessThanOrEqual(landmarkSetSize, metricSpace.size());
+		ExceptionUtility.verifyPositive(numThreads);
 
-		int metricSpaceSize = this.metricSpace.size();
+		if (landmarkSetSize == 0) {
+			return new int[0];
+		}
+		ExceptionUtility.verifyIndex(metricSpace.size(), firstPoint);
+		if (useNeighborhoodSearch) {
+			return new NeighborhoodSelection<T>(metricSpace, landmarkSetSize, firstPoint).select();
+		}
+		return new ScanSelection<T>(metricSpace, landmarkSetSize, firstPoint, numThreads).select();
+	}
 
-		TIntHashSet landmarkSet = new TIntHashSet();
+	/**
+	 * This class selects the landmarks by updating the value f(z) of every point for each
+	 * new landmark. The points are split into one contiguous block per thread, and the
+	 * maxima of the blocks are combined in order.
+	 */
+	private static class ScanSelection<T> {
+		private final AbstractSearchableMetricSpace<T> metricSpace;
+		private final int landmarkSetSize;
+		private final int firstPoint;
+		private final int numThreads;
 
-		landmarkSet.add(this.firstPoint);
-		landmarkIndices[0] = this.firstPoint;
+		private final double[] minDistances;
+		private final boolean[] isLandmark;
 
-		/*
-		 * Construct the landmark set inductively. Suppose that
-		 * {l_0, ..., l_{i-1}} have been chosen as landmark points.
-		 * Define the function 
-		 * f(z) = min{d(z, l_0), ...., d(z, l_{i-1}}
-		 * and define l_i to be l_i = arg max f(z)
-		 * 
+		/**
+		 * The maximum of f and its smallest argument within each block.
 		 */
-		for (int i = 1; i < this.landmarkSetSize; i++) {
-			double max_f_value = Infinity.Double.getNegativeInfinity();
-			int arg_max_f = 0;
-			for (int z_index = 0; z_index < metricSpaceSize; z_index++) {
-				if (!landmarkSet.contains(z_index)) {
-					double f_value = this.computeMinDistance(z_index, landmarkSet);
-					if (f_value > max_f_value) {
-						max_f_value = f_value;
-						arg_max_f = z_index;
+		private final double[] blockMaxima;
+		private final int[] blockArguments;
+
+		ScanSelection(AbstractSearchableMetricSpace<T> metricSpace, int landmarkSetSize, int firstPoint, int numThreads) {
+			int n = metricSpace.size();
+			this.metricSpace = metricSpace;
+			this.landmarkSetSize = landmarkSetSize;
+			this.firstPoint = firstPoint;
+			this.numThreads = Math.min(numThreads, n);
+			this.minDistances = new double[n];
+			this.isLandmark = new boolean[n];
+			this.blockMaxima = new double[this.numThreads];
+			this.blockArguments = new int[this.numThreads];
+			Arrays.fill(this.minDistances, Infinity.Double.getPositiveInfinity());
+		}
+
+		int[] select() {
+			int[] landmarkIndices = new int[this.landmarkSetSize];
+			landmarkIndices[0] = this.firstPoint;
+			this.isLandmark[this.firstPoint] = true;
+
+			if (this.numThreads == 1) {
+				for (int i = 1; i < this.landmarkSetSize; i++) {
+					this.updateBlock(0, landmarkIndices[i - 1]);
+					landmarkIndices[i] = this.blockArguments[0];
+					this.isLandmark[landmarkIndices[i]] = true;
+				}
+				return landmarkIndices;
+			}
+
+			ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+			try {
+				List<Future<Void>> blocks = new ArrayList<Future<Void>>();
+				for (int i = 1; i < this.landmarkSetSize; i++) {
+					final int landmark = landmarkIndices[i - 1];
+					blocks.clear();
+					for (int b = 0; b < this.numThreads; b++) {
+						final int block = b;
+						blocks.add(executor.submit(new Callable<Void>() {
+							public Void call() {
+								updateBlock(block, landmark);
+								return null;
+							}
+						}));
+					}
+					for (Future<Void> block: blocks) {
+						block.get();
+					}
+
+					int argument = -1;
+					double maximum = Infinity.Double.getNegativeInfinity();
+					for (int b = 0; b < this.numThreads; b++) {
+						if (this.blockArguments[b] >= 0 && (argument < 0 || this.blockMaxima[b] > maximum)) {
+							maximum = this.blockMaxima[b];
+							argument = this.blockArguments[b];
+						}
 					}
+					landmarkIndices[i] = argument;
+					this.isLandmark[argument] = true;
 				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
 			}
 
-			landmarkSet.add(arg_max_f);
-			landmarkIndices[i] = arg_max_f;
+			return landmarkIndices;
 		}
 
-		return landmarkIndices;
+		/**
+		 * This function updates the values of the points in a block with their distances
+		 * to a new landmark, and records the maximum of the block.
+		 */
+		private void updateBlock(int block, int landmark) {
+			int n = this.minDistances.length;
+			int start = (int) ((long) n * block / this.numThreads);
+			int end = (int) ((long) n * (block + 1) / this.numThreads);
+
+			double maximum = Infinity.Double.getNegativeInfinity();
+			int argument = -1;
+			for (int z = start; z < end; z++) {
+				if (this.isLandmark[z]) {
+					continue;
+				}
+				double distance = this.metricSpace.distance(z, landmark);
+				if (distance < this.minDistances[z]) {
+					this.minDistances[z] = distance;
+				}
+				if (argument < 0 || this.minDistances[z] > maximum) {
+					maximum = this.minDistances[z];
+					argument = z;
+				}
+			}
+
+			this.blockMaxima[block] = maximum;
+			this.blockArguments[block] = argument;
+		}
 	}
 
 	/**
-	 * This function computes the function f(z) = min{d(z, l_0), ...., d(z, l_{i-1}}.
-	 * 
-	 * @param queryPointIndex the index of the argument z in the above expression
-	 * @param existingLandmarkPoints the set {l_0, ..., l_{i-1}}
-	 * @return the value min{d(z, l_0), ...., d(z, l_{i-1}}
+	 * This class selects the landmarks by only updating the points within the current
+	 * maximum of f from each new landmark, which are found by a neighborhood query. The
+	 * points which are not landmarks are kept in an indexed max-heap ordered by f.
 	 */
-	private double computeMinDistance(int queryPointIndex, TIntHashSet existingLandmarkPoints) {
-		double minDistance = Infinity.Double.getPositiveInfinity();
+	private static class NeighborhoodSelection<T> {
+		private final AbstractSearchableMetricSpace<T> metricSpace;
+		private final int landmarkSetSize;
+		private final int firstPoint;
+
+		private final double[] minDistances;
+		private final int[] heap;
+		private final int[] positions;
+		private int heapSize;
 
-		for (TIntIterator iterator = existingLandmarkPoints.iterator(); iterator.hasNext(); ) {
-			minDistance = Math.min(minDistance, this.metricSpace.distance(queryPointIndex, iterator.next()));
+		NeighborhoodSelection(AbstractSearchableMetricSpace<T> metricSpace, int landmarkSetSize, int firstPoint) {
+			int n = metricSpace.size();
+			this.metricSpace = metricSpace;
+			this.landmarkSetSize = landmarkSetSize;
+			this.firstPoint = firstPoint;
+			this.minDistances = new double[n];
+			this.heap = new int[n];
+			this.positions = new int[n];
 		}
 
-		return minDistance;
-	}
+		int[] select() {
+			int n = this.minDistances.length;
+			int[] landmarkIndices = new int[this.landmarkSetSize];
+			landmarkIndices[0] = this.firstPoint;
+
+			// the first landmark determines the values of all points
+			this.heapSize = 0;
+			for (int z = 0; z < n; z++) {
+				if (z == this.firstPoint) {
+					this.positions[z] = -1;
+					continue;
+				}
+				this.minDistances[z] = this.metricSpace.distance(z, this.firstPoint);
+				this.positions[z] = this.heapSize;
+				this.heap[this.heapSize++] = z;
+			}
+			for (int k = this.heapSize / 2 - 1; k >= 0; k--) {
+				this.siftDown(k);
+			}
 
+			for (int i = 1; i < this.landmarkSetSize; i++) {
+				int landmark = this.heap[0];
+				double radius = this.minDistances[landmark];
+				this.remove(landmark);
+				landmarkIndices[i] = landmark;
+
+				if (i + 1 == this.landmarkSetSize) {
+					break;
+				}
+
+				// a point can only move closer if it is within the largest value of f, the
+				// radius is widened slightly to be safe against rounding in the search
+				double searchRadius = radius + Math.ulp(radius) * 16;
+				TIntHashSet neighborhood = this.metricSpace.getClosedNeighborhood(this.metricSpace.getPoint(landmark), searchRadius);
+				for (TIntIterator iterator = neighborhood.iterator(); iterator.hasNext(); ) {
+					int z = iterator.next();
+					if (this.positions[z] < 0) {
+						continue;
+					}
+					double distance = this.metricSpace.distance(z, landmark);
+					if (distance < this.minDistances[z]) {
+						this.minDistances[z] = distance;
+						this.siftDown(this.positions[z]);
+					}
+				}
+			}
+
+			return landmarkIndices;
+		}
+
+		/**
+		 * @return true if the point a precedes the point b in the heap
+		 */
+		private boolean precedes(int a, int b) {
+			return (this.minDistances[a] > this.minDistances[b] || (this.minDistances[a] == this.minDistances[b] && a < b));
+		}
+
+		private void remove(int z) {
+			int position = this.positions[z];
+			this.positions[z] = -1;
+			this.heapSize--;
+			if (position == this.heapSize) {
+				return;
+			}
+			this.place(this.heap[this.heapSize], position);
+			this.siftUp(position);
+			this.siftDown(this.positions[this.heap[position]]);
+		}
+
+		private void siftUp(int position) {
+			int z = this.heap[position];
+			while (position > 0) {
+				int parent = (position - 1) >>> 1;
+				if (!this.precedes(z, this.heap[parent])) {
+					break;
+				}
+				this.place(this.heap[parent], position);
+				position = parent;
+			}
+			this.place(z, position);
+		}
+
+		private void siftDown(int position) {
+			int z = this.heap[position];
+			while (2 * position + 1 < this.heapSize) {
+				int child = 2 * position + 1;
+				if (child + 1 < this.heapSize && this.precedes(this.heap[child + 1], this.heap[child])) {
+					child++;
+				}
+				if (!this.precedes(this.heap[child], z)) {
+					break;
+				}
+				this.place(this.heap[child], position);
+				position = child;
+			}
+			this.place(z, position);
+		}
+
+		private void place(int z, int position) {
+			this.heap[position] = z;
+			this.positions[z] = position;
+		}
+	}
 }
@@ -4,24 +4,38 @@
 package edu.stanford.math.plex4.streams.derived;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Set;
 
 import edu.stanford.math.plex4.homology.barcodes.Interval;
 import edu.stanford.math.plex4.homology.barcodes.PersistenceInvariantDescriptor;
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.streams.impl.FlagComplexStream;
 import edu.stanford.math.plex4.streams.interfaces.AbstractFilteredStream;
+import edu.stanford.math.plex4.streams.interfaces.PrimitiveStream;
 import edu.stanford.math.primitivelib.array.ObjectArrayUtility;
 import edu.stanford.math.primitivelib.autogen.pair.IntObjectPair;
 import edu.stanford.math.primitivelib.collections.utility.ReversedComparator;
 import gnu.trove.THashMap;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
 
 /**
  * This class implements the dual cochain complex from a given chain complex. It 
  * transforms the boundary operators into coboundary operators.
  * 
+ * By default, the coboundaries of all elements are computed and stored when the
+ * dual stream is created. Alternatively, they can be computed when they are
+ * requested. In that case, the coboundaries of a flag complex are found from its
+ * neighborhood graph, and for other streams a compact transpose of the boundary
+ * matrix is built when it is first needed. Streams backed by a storage structure
+ * are then traversed in reverse without copying their elements.
+ * 
  * @author Andrew Tausz
  *
  * @param <T>
@@ -49,21 +63,60 @@ public class DualStream<T> implements AbstractFilteredStream<T> {
 	 */
 	private final List<T> reversedElements = new ArrayList<T>();
 	
+	/**
+	 * This indicates whether the coboundaries are computed when they are requested.
+	 */
+	private final boolean computeLazily;
+	
+	/**
+	 * In lazy mode, this is the transpose of the boundary matrix of a stream which
+	 * is not a flag complex. It is built when it is first needed.
+	 */
+	private CoboundaryMatrix<T> coboundaryMatrix = null;
+	
+	/**
+	 * In lazy mode, this is the most recently computed coboundary, which is kept
+	 * since the coboundary and its coefficients are usually requested together.
+	 */
+	private volatile Coboundary<T> lastCoboundary = null;
+	
 	/**
 	 * This constructor initializes the dualized stream from the regular (forward stream).
 	 * 
 	 * @param forwardStream the forward stream
 	 */
 	public DualStream(AbstractFilteredStream<T> forwardStream) {
+		this(forwardStream, false);
+	}
+	
+	/**
+	 * This constructor initializes the dualized stream from the regular (forward stream).
+	 * If computeLazily is true, the coboundaries are computed when they are requested,
+	 * and the forward stream must be finalized before the dual stream is used.
+	 * 
+	 * @param forwardStream the forward stream
+	 * @param computeLazily true to compute the coboundaries on demand
+	 */
+	public DualStream(AbstractFilteredStream<T> forwardStream, boolean computeLazily) {
 		this.forwardStream = forwardStream;
-		this.constructCoboundaries();
+		this.computeLazily = computeLazily;
+		if (!computeLazily) {
+			this.constructCoboundaries();
+		}
 	}
 	
 	/* (non-Javadoc)
 	 * @see java.lang.Iterable#iterator()
 	 */
+	@SuppressWarnings("unchecked")
 	public Iterator<T> iterator() {
-		return this.reversedElements.iterator();
+		if (!this.computeLazily) {
+			return this.reversedElements.iterator();
+		}
+		if (this.forwardStream instanceof PrimitiveStream) {
+			return (Iterator<T>) ((PrimitiveStream) this.forwardStream).reverseIterator();
+		}
+		return this.getCoboundaryMatrix().reverseIterator();
 	}
 
 	/* (non-Javadoc)
@@ -90,6 +143,9 @@ public class DualStream<T> implements AbstractFilteredStream<T> {
 	 * @see edu.stanford.math.plex4.homology.streams.interfaces.AbstractFilteredStream#getBoundary(java.lang.Object)
 	 */
 	public T[] getBoundary(T basisElement) {
+		if (this.computeLazily) {
+			return this.getCoboundary(basisElement).elements;
+		}
 		if (this.coboundaryMap.containsKey(basisElement)) {
 			return this.coboundaryMap.get(basisElement);
 		} else {
@@ -101,6 +157,9 @@ public class DualStream<T> implements AbstractFilteredStream<T> {
 	 * @see edu.stanford.math.plex4.homology.streams.interfaces.AbstractFilteredStream#getBoundaryCoefficients(java.lang.Object)
 	 */
 	public int[] getBoundaryCoefficients(T basisElement) {
+		if (this.computeLazily) {
+			return this.getCoboundary(basisElement).coefficients;
+		}
 		if (this.coboundaryCoefficientMap.containsKey(basisElement)) {
 			return this.coboundaryCoefficientMap.get(basisElement);
 		} else {
@@ -174,6 +233,143 @@ public class DualStream<T> implements AbstractFilteredStream<T> {
 		Collections.reverse(this.reversedElements);
 	}
 
+	/**
+	 * This function computes the coboundary of an element in lazy mode.
+	 */
+	@SuppressWarnings("unchecked")
+	private Coboundary<T> getCoboundary(T basisElement) {
+		Coboundary<T> coboundary = this.lastCoboundary;
+		if (coboundary != null && coboundary.element.equals(basisElement)) {
+			return coboundary;
+		}
+		
+		if (this.forwardStream instanceof FlagComplexStream) {
+			T[] cofaces = (T[]) ((FlagComplexStream) this.forwardStream).getCoboundary((Simplex) basisElement);
+			int[] coefficients = new int[cofaces.length];
+			for (int i = 0; i < cofaces.length; i++) {
+				// find the coefficient of the element in the boundary of its coface
+				T[] boundary = this.forwardStream.getBoundary(cofaces[i]);
+				int[] boundaryCoefficients = this.forwardStream.getBoundaryCoefficients(cofaces[i]);
+				for (int j = 0; j < boundary.length; j++) {
+					if (boundary[j].equals(basisElement)) {
+						coefficients[i] = boundaryCoefficients[j];
+						break;
+					}
+				}
+			}
+			coboundary = new Coboundary<T>(basisElement, cofaces, coefficients);
+		} else {
+			coboundary = this.getCoboundaryMatrix().getCoboundary(basisElement);
+		}
+		
+		this.lastCoboundary = coboundary;
+		return coboundary;
+	}
+	
+	private synchronized CoboundaryMatrix<T> getCoboundaryMatrix() {
+		if (this.coboundaryMatrix == null) {
+			this.coboundaryMatrix = new CoboundaryMatrix<T>(this.forwardStream);
+		}
+		return this.coboundaryMatrix;
+	}
+	
+	/**
+	 * This class holds the coboundary of an element along with its coefficients.
+	 */
+	private static class Coboundary<T> {
+		private final T element;
+		private final T[] elements;
+		private final int[] coefficients;
+		
+		Coboundary(T element, T[] elements, int[] coefficients) {
+			this.element = element;
+			this.elements = elements;
+			this.coefficients = coefficients;
+		}
+	}
+	
+	/**
+	 * This class stores the transpose of the boundary matrix of a stream in compressed
+	 * sparse row form. The elements are numbered in the order of the stream, and the
+	 * cofaces of the element i are cofaces[offsets[i]] to cofaces[offsets[i + 1] - 1],
+	 * in increasing order.
+	 */
+	private static class CoboundaryMatrix<T> {
+		private final List<T> elements = new ArrayList<T>();
+		private final TObjectIntHashMap<T> indices = new TObjectIntHashMap<T>();
+		private final int[] offsets;
+		private final int[] cofaces;
+		private final int[] coefficients;
+		
+		CoboundaryMatrix(AbstractFilteredStream<T> stream) {
+			// count the cofaces of each element, whose faces precede them in the stream
+			TIntArrayList counts = new TIntArrayList();
+			for (T element: stream) {
+				this.indices.put(element, this.elements.size());
+				this.elements.add(element);
+				counts.add(0);
+				for (T face: stream.getBoundary(element)) {
+					if (this.indices.containsKey(face)) {
+						int index = this.indices.get(face);
+						counts.set(index, counts.get(index) + 1);
+					}
+				}
+			}
+			
+			this.offsets = new int[this.elements.size() + 1];
+			for (int i = 0; i < this.elements.size(); i++) {
+				this.offsets[i + 1] = this.offsets[i] + counts.get(i);
+			}
+			this.cofaces = new int[this.offsets[this.elements.size()]];
+			this.coefficients = new int[this.cofaces.length];
+			
+			int[] positions = Arrays.copyOf(this.offsets, this.elements.size());
+			for (int i = 0; i < this.elements.size(); i++) {
+				T element = this.elements.get(i);
+				T[] boundary = stream.getBoundary(element);
+				int[] boundaryCoefficients = stream.getBoundaryCoefficients(element);
+				for (int j = 0; j < boundary.length; j++) {
+					if (this.indices.containsKey(boundary[j])) {
+						int position = positions[this.indices.get(boundary[j])]++;
+						this.cofaces[position] = i;
+						this.coefficients[position] = boundaryCoefficients[j];
+					}
+				}
+			}
+		}
+		
+		Coboundary<T> getCoboundary(T element) {
+			if (!this.indices.containsKey(element)) {
+				return new Coboundary<T>(element, ObjectArrayUtility.createArray(0, element), new int[0]);
+			}
+			int index = this.indices.get(element);
+			int start = this.offsets[index];
+			int end = this.offsets[index + 1];
+			T[] cofaceArray = ObjectArrayUtility.createArray(end - start, element);
+			for (int position = start; position < end; position++) {
+				cofaceArray[position - start] = this.elements.get(this.cofaces[position]);
+			}
+			return new Coboundary<T>(element, cofaceArray, Arrays.copyOfRange(this.coefficients, start, end));
+		}
+		
+		Iterator<T> reverseIterator() {
+			final ListIterator<T> listIterator = this.elements.listIterator(this.elements.size());
+			return new Iterator<T>() {
+				public boolean hasNext() {
+					return listIterator.hasPrevious();
+				}
+
+				public T next() {
+					return listIterator.previous();
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see edu.stanford.math.plex4.homology.streams.interfaces.AbstractFilteredStream#getMaximumFiltrationIndex()
 	 */
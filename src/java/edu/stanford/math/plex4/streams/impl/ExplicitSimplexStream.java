@@ -4,6 +4,7 @@ import java.util.Comparator;
 
 import edu.stanford.math.plex4.homology.chain_basis.Simplex;
 import edu.stanford.math.plex4.homology.chain_basis.SimplexComparator;
+import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure;
 
 /**
  * This class is a wrapper for the ExplicitStream class and provides 
@@ -38,6 +39,15 @@ public class ExplicitSimplexStream extends ExplicitStream<Simplex> {
 	public ExplicitSimplexStream(double maxFiltrationValue) {
 		super(SimplexComparator.getInstance(), maxFiltrationValue);
 	}
+	
+	/**
+	 * This constructor initializes the class with the given storage structure.
+	 * 
+	 * @param storageStructure the StreamStorageStructure to use
+	 */
+	public ExplicitSimplexStream(StreamStorageStructure<Simplex> storageStructure) {
+		super(storageStructure);
+	}
 
 	/**
 	 * This function adds a new vertex to the complex with a filtration index
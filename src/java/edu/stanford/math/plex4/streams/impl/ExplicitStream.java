@@ -15,6 +15,7 @@ import edu.stanford.math.plex4.homology.filtration.FiltrationUtility;
 import edu.stanford.math.plex4.homology.filtration.IncreasingLinearConverter;
 import edu.stanford.math.plex4.streams.interfaces.AbstractFilteredStream;
 import edu.stanford.math.plex4.streams.interfaces.PrimitiveStream;
+import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure;
 import gnu.trove.TObjectDoubleHashMap;
 import gnu.trove.TObjectDoubleIterator;
 
@@ -47,6 +48,15 @@ public class ExplicitStream<T extends PrimitiveBasisElement> extends PrimitiveSt
 		this.converter = new IncreasingLinearConverter(NUM_DIVISIONS, 0, maxFiltrationValue);
 	}
 	
+	/**
+	 * Constructor which initializes the stream with the supplied storage structure.
+	 * 
+	 * @param storageStructure the StreamStorageStructure to use
+	 */
+	public ExplicitStream(StreamStorageStructure<T> storageStructure) {
+		super(storageStructure);
+	}
+	
 	/**
 	 * This constructor initializes the stream from an existing stream. It copies all
 	 * of the elements of the supplied stream to the current one.
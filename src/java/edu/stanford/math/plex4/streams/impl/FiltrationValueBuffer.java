@@ -0,0 +1,213 @@
+package edu.stanford.math.plex4.streams.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.streams.storage_structures.ColumnarStorageStructure;
+import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TIntArrayList;
+
+/**
+ * <p>This class stores simplices along with their exact filtration values, in the order
+ * in which they were produced. The vertices of all simplices are kept in a single
+ * primitive array, and the values in a parallel array of doubles.</p>
+ *
+ * <p>Once all simplices have been produced, the values are sorted once, and every
+ * simplex receives the rank of its value among the distinct values as its filtration
+ * index. Thus the filtration indices are exact, and no lookup is needed when a simplex
+ * is produced.</p>
+ */
+class FiltrationValueBuffer {
+	/**
+	 * Ranges shorter than this are sorted by insertion.
+	 */
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	/**
+	 * The vertices of simplex i are vertices[offsets[i]] to vertices[offsets[i + 1] - 1].
+	 */
+	private final TIntArrayList vertices = new TIntArrayList();
+	private final TIntArrayList offsets = new TIntArrayList();
+	private final TDoubleArrayList values = new TDoubleArrayList();
+
+	FiltrationValueBuffer() {
+		this.offsets.add(0);
+	}
+
+	int size() {
+		return this.values.size();
+	}
+
+	/**
+	 * This function adds a simplex to the buffer.
+	 *
+	 * @param sortedVertices the vertices of the simplex in increasing order
+	 * @param filtrationValue the filtration value of the simplex
+	 */
+	void add(int[] sortedVertices, double filtrationValue) {
+		this.vertices.add(sortedVertices);
+		this.offsets.add(this.vertices.size());
+		this.values.add(filtrationValue);
+	}
+
+	/**
+	 * This function adds the simplices of the buffers to a storage structure, in the
+	 * order of the buffers. The filtration index of a simplex is the rank of its value
+	 * among the distinct values of all simplices.
+	 *
+	 * @param buffers the buffers to add
+	 * @param storageStructure the storage structure which receives the simplices
+	 * @param numThreads the number of threads used to sort the values
+	 * @return the distinct filtration values in increasing order, so that the value of
+	 * filtration index i is the i-th entry
+	 */
+	static double[] addTo(List<FiltrationValueBuffer> buffers, StreamStorageStructure<Simplex> storageStructure, int numThreads) {
+		int size = 0;
+		for (FiltrationValueBuffer buffer: buffers) {
+			size += buffer.size();
+		}
+		double[] values = new double[size];
+		int position = 0;
+		for (FiltrationValueBuffer buffer: buffers) {
+			for (int i = 0; i < buffer.size(); i++) {
+				values[position++] = buffer.values.get(i);
+			}
+		}
+
+		// assign the ranks by a single pass over the sorted order
+		int[] order = sortedOrder(values, numThreads);
+		int[] filtrationIndices = new int[size];
+		TDoubleArrayList distinctValues = new TDoubleArrayList();
+		for (int i = 0; i < size; i++) {
+			double value = values[order[i]];
+			if (i == 0 || value != distinctValues.get(distinctValues.size() - 1)) {
+				distinctValues.add(value);
+			}
+			filtrationIndices[order[i]] = distinctValues.size() - 1;
+		}
+
+		ColumnarStorageStructure columnarStorage = (storageStructure instanceof ColumnarStorageStructure) ? (ColumnarStorageStructure) storageStructure : null;
+		position = 0;
+		for (FiltrationValueBuffer buffer: buffers) {
+			for (int i = 0; i < buffer.size(); i++) {
+				int[] simplexVertices = buffer.vertices.toNativeArray(buffer.offsets.get(i), buffer.offsets.get(i + 1) - buffer.offsets.get(i));
+				if (columnarStorage != null) {
+					columnarStorage.addSimplex(simplexVertices, filtrationIndices[position]);
+				} else {
+					storageStructure.addElement(new Simplex(simplexVertices), filtrationIndices[position]);
+				}
+				position++;
+			}
+		}
+
+		return distinctValues.toNativeArray();
+	}
+
+	/**
+	 * This function returns the permutation which sorts the given values. The array is
+	 * divided into numThreads parts which are sorted in parallel and then merged.
+	 *
+	 * @param values the values to sort
+	 * @param numThreads the number of threads to use
+	 * @return the indices of the values in increasing order of value
+	 */
+	static int[] sortedOrder(final double[] values, int numThreads) {
+		int n = values.length;
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		final int[] buffer = new int[n];
+
+		int partSize = (n + numThreads - 1) / Math.max(1, numThreads);
+		if (numThreads <= 1 || partSize < INSERTION_SORT_THRESHOLD) {
+			mergeSort(values, order, buffer, 0, n);
+			return order;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<?>> parts = new ArrayList<Future<?>>();
+			for (int start = 0; start < n; start += partSize) {
+				final int partStart = start;
+				final int partEnd = Math.min(n, start + partSize);
+				parts.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						mergeSort(values, order, buffer, partStart, partEnd);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> part: parts) {
+				part.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		for (int width = partSize; width < n; width *= 2) {
+			for (int start = 0; start + width < n; start += 2 * width) {
+				merge(values, order, buffer, start, start + width, Math.min(n, start + 2 * width));
+			}
+		}
+
+		return order;
+	}
+
+	/**
+	 * This function sorts order[start, ..., end - 1] by value, using the same range of the
+	 * buffer as scratch space.
+	 */
+	private static void mergeSort(double[] values, int[] order, int[] buffer, int start, int end) {
+		if (end - start < INSERTION_SORT_THRESHOLD) {
+			for (int i = start + 1; i < end; i++) {
+				int index = order[i];
+				int j = i - 1;
+				while (j >= start && values[order[j]] > values[index]) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = index;
+			}
+			return;
+		}
+
+		int middle = (start + end) >>> 1;
+		mergeSort(values, order, buffer, start, middle);
+		mergeSort(values, order, buffer, middle, end);
+		merge(values, order, buffer, start, middle, end);
+	}
+
+	/**
+	 * This function merges the sorted ranges order[start, ..., middle - 1] and
+	 * order[middle, ..., end - 1].
+	 */
+	private static void merge(double[] values, int[] order, int[] buffer, int start, int middle, int end) {
+		if (values[order[middle - 1]] <= values[order[middle]]) {
+			return;
+		}
+
+		int i = start;
+		int j = middle;
+		for (int k = start; k < end; k++) {
+			if (j >= end || (i < middle && values[order[i]] <= values[order[j]])) {
+				buffer[k] = order[i++];
+			} else {
+				buffer[k] = order[j++];
+			}
+		}
+		System.arraycopy(buffer, start, order, start, end - start);
+	}
+}
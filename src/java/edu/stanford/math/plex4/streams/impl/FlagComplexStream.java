@@ -3,18 +3,37 @@
  */
 package edu.stanford.math.plex4.streams.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.stanford.math.plex4.graph.AbstractWeightedUndirectedGraph;
+import edu.stanford.math.plex4.graph.UndirectedWeightedCSRGraph;
 import edu.stanford.math.plex4.graph.UndirectedWeightedListGraph;
 import edu.stanford.math.plex4.homology.barcodes.Interval;
 import edu.stanford.math.plex4.homology.barcodes.PersistenceInvariantDescriptor;
 import edu.stanford.math.plex4.homology.chain_basis.Simplex;
 import edu.stanford.math.plex4.homology.chain_basis.SimplexComparator;
+import edu.stanford.math.plex4.homology.filtration.ExternalConverter;
 import edu.stanford.math.plex4.homology.filtration.FiltrationConverter;
 import edu.stanford.math.plex4.homology.filtration.FiltrationUtility;
 import edu.stanford.math.plex4.homology.utility.HomologyUtility;
 import edu.stanford.math.plex4.streams.interfaces.PrimitiveStream;
+import edu.stanford.math.plex4.streams.storage_structures.ColumnarStorageStructure;
 import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure;
+import edu.stanford.math.plex4.utility.ExceptionUtility;
+import edu.stanford.math.primitivelib.autogen.pair.IntObjectPair;
+import edu.stanford.math.primitivelib.autogen.pair.IntObjectPairComparator;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIterator;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
 
 /**
  * <p>
@@ -40,6 +59,14 @@ import gnu.trove.TIntIterator;
  * implementation uses the incremental algorithm described in the above paper.
  * </p>
  * 
+ * <p>
+ * The expansion can optionally be performed by several threads (see
+ * setNumThreads). In this case the vertices are split into contiguous blocks,
+ * the cofaces of each block are collected in a separate buffer, and the
+ * buffers are added to the storage structure in vertex order. Thus the
+ * resulting stream is identical to the one produced by a single thread.
+ * </p>
+ * 
  * @author Andrew Tausz
  * 
  */
@@ -52,7 +79,7 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 	/**
 	 * Stores the neighborhood graph.
 	 */
-	protected UndirectedWeightedListGraph neighborhoodGraph = null;
+	protected AbstractWeightedUndirectedGraph neighborhoodGraph = null;
 
 	/**
 	 * This converts between filtration indices and values
@@ -61,6 +88,26 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 
 	protected int[] indices = null;
 
+	/**
+	 * The compressed neighborhood graph and the map from the vertices of the
+	 * complex to the vertices of the graph, which are used to compute
+	 * coboundaries. They are created when they are first needed.
+	 */
+	private UndirectedWeightedCSRGraph compressedGraph = null;
+	private TIntIntHashMap graphVertices = null;
+
+	/**
+	 * The number of threads used for the expansion of the higher order
+	 * simplices.
+	 */
+	protected int numThreads = 1;
+
+	/**
+	 * Whether the filtration values are stored exactly rather than being
+	 * quantized by the converter.
+	 */
+	protected boolean exactFiltrationValues = false;
+
 	/**
 	 * This constructor initializes the class.
 	 * 
@@ -104,11 +151,12 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 	 * This function implements the construction of the 1-skeleton. It must
 	 * output a list containing pairs of filtration values and 1-simplices. The
 	 * filtration value of an edge is the threshold value at which the edge
-	 * appears in the filtered sequence of simplicial complexes.
+	 * appears in the filtered sequence of simplicial complexes. Returning an
+	 * UndirectedWeightedCSRGraph avoids copying the graph before the expansion.
 	 * 
 	 * @return the 1-skeleton of the complex along with its filtration values
 	 */
-	protected abstract UndirectedWeightedListGraph constructEdges();
+	protected abstract AbstractWeightedUndirectedGraph constructEdges();
 
 	/**
 	 * This returns the neighborhood graph (equivalent to the 1-skeleton) of the
@@ -116,10 +164,104 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 	 * 
 	 * @return the neighborhood graph
 	 */
-	public UndirectedWeightedListGraph getNeighborhoodGraph() {
+	public AbstractWeightedUndirectedGraph getNeighborhoodGraph() {
 		return this.neighborhoodGraph;
 	}
 
+	/**
+	 * This function returns the cofaces of codimension one of a simplex in the
+	 * complex, in the order of the stream. Since the complex is a flag complex,
+	 * they are the simplices obtained by adding a vertex which is adjacent to
+	 * every vertex of the simplex, and they are found from the neighborhood
+	 * graph without storing the coboundaries. The stream must be finalized.
+	 * 
+	 * @param simplex
+	 *            a simplex of the complex
+	 * @return the simplices of the complex of which the given simplex is a
+	 *         facet
+	 */
+	public Simplex[] getCoboundary(Simplex simplex) {
+		if (simplex.getDimension() >= this.maxAllowableDimension || this.neighborhoodGraph == null) {
+			return new Simplex[0];
+		}
+
+		UndirectedWeightedCSRGraph graph = this.getCompressedGraph();
+		int[] vertices = simplex.getVertices();
+		int[] graphVertices = new int[vertices.length];
+		for (int i = 0; i < vertices.length; i++) {
+			graphVertices[i] = this.getGraphVertex(vertices[i]);
+			if (graphVertices[i] < 0) {
+				return new Simplex[0];
+			}
+		}
+
+		// scan the neighbors of the vertex of least degree
+		int start = graphVertices[0];
+		for (int v : graphVertices) {
+			if (graph.getDegree(v) < graph.getDegree(start)) {
+				start = v;
+			}
+		}
+
+		List<IntObjectPair<Simplex>> cofaces = new ArrayList<IntObjectPair<Simplex>>();
+		int[] cofaceVertices = Arrays.copyOf(vertices, vertices.length + 1);
+		for (int k = 0; k < graph.getDegree(start); k++) {
+			int w = graph.getNeighbor(start, k);
+			boolean adjacentToAll = true;
+			for (int v : graphVertices) {
+				// loops are not stored, so this also excludes the vertices of the simplex
+				if (v != start && !graph.containsEdge(v, w)) {
+					adjacentToAll = false;
+					break;
+				}
+			}
+			if (!adjacentToAll) {
+				continue;
+			}
+
+			cofaceVertices[vertices.length] = (this.indices != null ? this.indices[w] : w);
+			Simplex coface = new Simplex(cofaceVertices);
+			if (this.containsElement(coface)) {
+				cofaces.add(new IntObjectPair<Simplex>(this.getFiltrationIndex(coface), coface));
+			}
+		}
+		Collections.sort(cofaces, new IntObjectPairComparator<Simplex>(this.getBasisComparator()));
+
+		Simplex[] result = new Simplex[cofaces.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = cofaces.get(i).getSecond();
+		}
+		return result;
+	}
+
+	/**
+	 * This function returns the neighborhood graph in compressed form, which
+	 * is created on the first call.
+	 */
+	private synchronized UndirectedWeightedCSRGraph getCompressedGraph() {
+		if (this.compressedGraph == null) {
+			this.compressedGraph = UndirectedWeightedCSRGraph.copyOf(this.neighborhoodGraph);
+		}
+		return this.compressedGraph;
+	}
+
+	/**
+	 * This function returns the vertex of the neighborhood graph which
+	 * corresponds to a vertex of the complex, or -1 if there is none.
+	 */
+	private synchronized int getGraphVertex(int vertex) {
+		if (this.indices == null) {
+			return (vertex < this.neighborhoodGraph.getNumVertices() ? vertex : -1);
+		}
+		if (this.graphVertices == null) {
+			this.graphVertices = new TIntIntHashMap();
+			for (int i = 0; i < this.indices.length; i++) {
+				this.graphVertices.put(this.indices[i], i + 1);
+			}
+		}
+		return this.graphVertices.get(vertex) - 1;
+	}
+
 	public double getFiltrationValue(Simplex simplex) {
 		return this.converter.getFiltrationValue(this.getFiltrationIndex(simplex));
 	}
@@ -133,6 +275,56 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 		return this.converter;
 	}
 
+	/**
+	 * This function sets the number of threads used to expand the higher
+	 * order simplices. It must be called before the stream is finalized. The
+	 * default is to use a single thread.
+	 * 
+	 * @param numThreads
+	 *            the number of threads to use
+	 */
+	public void setNumThreads(int numThreads) {
+		ExceptionUtility.verifyPositive(numThreads);
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * This function returns the number of threads used to expand the higher
+	 * order simplices.
+	 * 
+	 * @return the number of threads
+	 */
+	public int getNumThreads() {
+		return this.numThreads;
+	}
+
+	/**
+	 * This function sets whether the filtration values of the simplices are
+	 * stored exactly. In this case the simplices are stored along with their
+	 * filtration values during the expansion, and the filtration index of a
+	 * simplex is the rank of its value among the distinct filtration values of
+	 * the complex. These indices are assigned by a single sort once the
+	 * expansion is complete, and the converter is then replaced by one which
+	 * maps each index to its exact value. It must be called before the stream
+	 * is finalized. The default is to quantize the values with the converter.
+	 * 
+	 * @param exactFiltrationValues
+	 *            true if the filtration values are to be stored exactly
+	 */
+	public void setExactFiltrationValues(boolean exactFiltrationValues) {
+		this.exactFiltrationValues = exactFiltrationValues;
+	}
+
+	/**
+	 * This function returns whether the filtration values of the simplices
+	 * are stored exactly.
+	 * 
+	 * @return true if the filtration values are stored exactly
+	 */
+	public boolean getExactFiltrationValues() {
+		return this.exactFiltrationValues;
+	}
+
 	/**
 	 * This function transforms the given collection of filtration index
 	 * barcodes into filtration value barcodes.
@@ -163,12 +355,94 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 	 * @param k
 	 *            the maximum dimension
 	 */
-	protected void incrementalExpansion(UndirectedWeightedListGraph G, int k) {
-		int n = G.getNumVertices();
+	protected void incrementalExpansion(AbstractWeightedUndirectedGraph G, int k) {
+		// the sorted lower neighborhoods of the compressed graph are shared by all expansion tasks
+		UndirectedWeightedCSRGraph graph = UndirectedWeightedCSRGraph.copyOf(G);
+		int n = graph.getNumVertices();
+
+		// in exact mode the simplices are kept with their values until all of them are known
+		List<FiltrationValueBuffer> valueBuffers = (this.exactFiltrationValues ? new ArrayList<FiltrationValueBuffer>() : null);
+
+		if (this.numThreads > 1) {
+			this.parallelIncrementalExpansion(graph, k, valueBuffers);
+		} else {
+			// inductively add all of the singletons as well as their cofaces
+			FiltrationValueBuffer valueBuffer = (valueBuffers != null ? new FiltrationValueBuffer() : null);
+			CofaceExpansion expansion = new CofaceExpansion(graph, k, null, valueBuffer);
+			for (int u = 0; u < n; u++) {
+				expansion.addCofaces(u);
+			}
+			if (valueBuffer != null) {
+				valueBuffers.add(valueBuffer);
+			}
+		}
+
+		if (valueBuffers != null) {
+			double[] filtrationValues = FiltrationValueBuffer.addTo(valueBuffers, this.storageStructure, this.numThreads);
+			if (filtrationValues.length > 0) {
+				this.converter = new ExternalConverter(filtrationValues);
+			}
+		}
+	}
+
+	/**
+	 * This function performs the incremental expansion of the complex using
+	 * numThreads threads. Each task expands a contiguous block of vertices into
+	 * its own buffer, and the buffers are added to the storage structure in
+	 * order, so that the result does not depend on the scheduling.
+	 * 
+	 * @param graph
+	 *            the neighborhood graph
+	 * @param k
+	 *            the maximum dimension
+	 * @param valueBuffers
+	 *            the list which receives the buffers of exact filtration
+	 *            values, or null if the filtration values are quantized
+	 */
+	private void parallelIncrementalExpansion(final UndirectedWeightedCSRGraph graph, final int k, final List<FiltrationValueBuffer> valueBuffers) {
+		int n = graph.getNumVertices();
+
+		// use several blocks per thread, since the vertices with large indices have more lower neighbors
+		int blockSize = Math.max(1, n / (8 * this.numThreads));
 
-		// inductively add all of the singletons as well as their cofaces
-		for (int u = 0; u < n; u++) {
-			this.addCofaces(G, k, new Simplex(new int[] { u }), G.getLowerNeighbors(u), this.converter.getInitialFiltrationValue());
+		ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+		try {
+			List<Future<CofaceExpansion>> blocks = new ArrayList<Future<CofaceExpansion>>();
+			for (int start = 0; start < n; start += blockSize) {
+				final int blockStart = start;
+				final int blockEnd = Math.min(n, start + blockSize);
+				blocks.add(executor.submit(new Callable<CofaceExpansion>() {
+					public CofaceExpansion call() {
+						CofaceExpansion expansion;
+						if (valueBuffers != null) {
+							expansion = new CofaceExpansion(graph, k, null, new FiltrationValueBuffer());
+						} else {
+							expansion = new CofaceExpansion(graph, k, new SimplexBuffer(), null);
+						}
+						for (int u = blockStart; u < blockEnd; u++) {
+							expansion.addCofaces(u);
+						}
+						return expansion;
+					}
+				}));
+			}
+
+			for (int i = 0; i < blocks.size(); i++) {
+				CofaceExpansion expansion = blocks.get(i).get();
+				if (valueBuffers != null) {
+					valueBuffers.add(expansion.valueBuffer);
+				} else {
+					expansion.buffer.addTo(this.storageStructure);
+				}
+				blocks.set(i, null);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
@@ -187,7 +461,11 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 	 *            the lower neighbors to investigate
 	 * @param filtrationValue
 	 *            the filtration value of the current simplex, tau
+	 * @deprecated the incremental expansion no longer calls this function, so
+	 *             overriding it has no effect. It is kept for subclasses which
+	 *             call it directly, and will be removed in a later release.
 	 */
+	@Deprecated
 	protected void addCofaces(UndirectedWeightedListGraph G, int k, Simplex tau, TIntHashSet N, double filtrationValue) {
 
 		Simplex newSimplex = null;
@@ -223,8 +501,7 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 
 			// compute the weight of the simplex sigma
 			// the weight is defined to be the maximum weight of all of the
-			// simplex's
-			// faces
+			// simplex's faces
 			if (sigma.getDimension() == 1) {
 				int i = sigma.getVertices()[0];
 				int j = sigma.getVertices()[1];
@@ -241,4 +518,249 @@ public abstract class FlagComplexStream extends PrimitiveStream<Simplex> {
 			this.addCofaces(G, k, sigma, M, weight);
 		}
 	}
+
+	/**
+	 * <p>
+	 * This class inductively adds all of the cofaces of a vertex to the
+	 * complex. For more information about this algorithm, consult the paper
+	 * "Fast Construction of the Vietoris-Rips Complex" by Afra Zomorodian.
+	 * </p>
+	 * 
+	 * <p>
+	 * The current clique is kept as a stack of vertices in decreasing order.
+	 * For each depth, the candidates which may extend the clique (the common
+	 * lower neighbors of its vertices) are stored in a sorted array along
+	 * with the induced weight of the edges joining them to the clique. These
+	 * arrays are computed by merging sorted neighbor lists into scratch
+	 * buffers that are allocated once, so that a Simplex object is only
+	 * created when a simplex is emitted.
+	 * </p>
+	 * 
+	 * <p>
+	 * An instance of this class is not thread-safe, but several instances may
+	 * share the same graph, which is only read.
+	 * </p>
+	 */
+	private class CofaceExpansion {
+		private final UndirectedWeightedCSRGraph graph;
+		private final int k;
+		private final SimplexBuffer buffer;
+		private final FiltrationValueBuffer valueBuffer;
+		private final ColumnarStorageStructure columnarStorage;
+
+		private final int[] clique;
+		private final int[][] candidates;
+		private final double[][] candidateWeights;
+		private final int[] candidateCounts;
+		private final int[][] vertexArrays;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param graph
+		 *            the neighborhood graph
+		 * @param k
+		 *            the maximum allowable dimension
+		 * @param buffer
+		 *            the buffer which receives the simplices, or null if they
+		 *            are to be added to the storage structure directly
+		 * @param valueBuffer
+		 *            the buffer which receives the simplices along with their
+		 *            exact filtration values, or null if the filtration values
+		 *            are quantized
+		 */
+		CofaceExpansion(UndirectedWeightedCSRGraph graph, int k, SimplexBuffer buffer, FiltrationValueBuffer valueBuffer) {
+			this.graph = graph;
+			this.buffer = buffer;
+			this.valueBuffer = valueBuffer;
+
+			// a columnar storage structure can store the vertices without creating a Simplex
+			if (buffer == null && valueBuffer == null && storageStructure instanceof ColumnarStorageStructure) {
+				this.columnarStorage = (ColumnarStorageStructure) storageStructure;
+			} else {
+				this.columnarStorage = null;
+			}
+
+			// a clique cannot contain more vertices than the largest lower neighborhood plus one
+			int maxLowerDegree = 0;
+			for (int v = 0; v < graph.getNumVertices(); v++) {
+				maxLowerDegree = Math.max(maxLowerDegree, graph.getLowerDegree(v));
+			}
+			this.k = Math.min(k, maxLowerDegree);
+
+			this.clique = new int[this.k + 1];
+			this.candidates = new int[this.k + 1][];
+			this.candidateWeights = new double[this.k + 1][];
+			this.candidateCounts = new int[this.k + 1];
+			this.vertexArrays = new int[this.k + 1][];
+			for (int depth = 0; depth <= this.k; depth++) {
+				this.vertexArrays[depth] = new int[depth + 1];
+				this.candidates[depth] = new int[maxLowerDegree];
+				this.candidateWeights[depth] = new double[maxLowerDegree];
+			}
+		}
+
+		/**
+		 * This function adds the vertex u along with all of its cofaces whose
+		 * other vertices are lower neighbors of u.
+		 * 
+		 * @param u
+		 *            the vertex to expand
+		 */
+		void addCofaces(int u) {
+			double filtrationValue = converter.getInitialFiltrationValue();
+			this.clique[0] = u;
+			this.emit(0, filtrationValue);
+
+			if (this.k == 0) {
+				return;
+			}
+
+			// the candidates of a vertex are its lower neighbors
+			int count = this.graph.getLowerDegree(u);
+			for (int p = 0; p < count; p++) {
+				this.candidates[0][p] = this.graph.getLowerNeighbor(u, p);
+				this.candidateWeights[0][p] = this.graph.getLowerWeight(u, p);
+			}
+			this.candidateCounts[0] = count;
+			this.expand(0, filtrationValue);
+		}
+
+		/**
+		 * This function adds all of the cofaces of the clique stored in
+		 * clique[0, ..., depth], using the candidates at the given depth.
+		 * 
+		 * @param depth
+		 *            the dimension of the current clique
+		 * @param filtrationValue
+		 *            the filtration value of the current clique
+		 */
+		private void expand(int depth, double filtrationValue) {
+			int[] currentCandidates = this.candidates[depth];
+			double[] currentWeights = this.candidateWeights[depth];
+			int count = this.candidateCounts[depth];
+
+			for (int p = 0; p < count; p++) {
+				int v = currentCandidates[p];
+
+				// the weight of a simplex is the maximum weight of all of its
+				// faces, and the weight of an edge is given by the graph
+				double weight = currentWeights[p];
+				if (depth > 0) {
+					weight = converter.computeInducedFiltrationValue(filtrationValue, weight);
+				}
+
+				this.clique[depth + 1] = v;
+				this.emit(depth + 1, weight);
+
+				// exit if the dimension is the maximum allowed, or if there
+				// are no candidates below v
+				if (depth + 1 >= this.k || p == 0) {
+					continue;
+				}
+
+				// the common lower neighbors of the new clique are the
+				// candidates smaller than v which are lower neighbors of v
+				if (this.intersect(depth, p, v) > 0) {
+					this.expand(depth + 1, weight);
+				}
+			}
+		}
+
+		/**
+		 * This function merges the first p candidates at the given depth with
+		 * the lower neighbors of v, and stores the result as the candidates
+		 * at the next depth.
+		 * 
+		 * @return the number of common neighbors
+		 */
+		private int intersect(int depth, int p, int v) {
+			int[] a = this.candidates[depth];
+			double[] aWeights = this.candidateWeights[depth];
+			int bLength = this.graph.getLowerDegree(v);
+			int[] result = this.candidates[depth + 1];
+			double[] resultWeights = this.candidateWeights[depth + 1];
+
+			int count = 0;
+			int i = 0;
+			int j = 0;
+			while (i < p && j < bLength) {
+				int b = this.graph.getLowerNeighbor(v, j);
+				if (a[i] < b) {
+					i++;
+				} else if (a[i] > b) {
+					j++;
+				} else {
+					result[count] = a[i];
+					resultWeights[count] = converter.computeInducedFiltrationValue(aWeights[i], this.graph.getLowerWeight(v, j));
+					count++;
+					i++;
+					j++;
+				}
+			}
+
+			this.candidateCounts[depth + 1] = count;
+			return count;
+		}
+
+		/**
+		 * This function creates the simplex spanned by clique[0, ..., depth]
+		 * and adds it to the buffers or storage structure.
+		 */
+		private void emit(int depth, double filtrationValue) {
+			int[] vertices = this.vertexArrays[depth];
+
+			// the clique is stored in decreasing order
+			for (int i = 0; i <= depth; i++) {
+				int vertex = this.clique[i];
+				vertices[depth - i] = (indices != null ? indices[vertex] : vertex);
+			}
+
+			if (this.valueBuffer != null) {
+				if (indices != null) {
+					Arrays.sort(vertices);
+				}
+				this.valueBuffer.add(vertices, filtrationValue);
+				return;
+			}
+
+			int filtrationIndex = converter.getFiltrationIndex(filtrationValue);
+			if (this.columnarStorage != null) {
+				if (indices != null) {
+					Arrays.sort(vertices);
+				}
+				this.columnarStorage.addSimplex(vertices, filtrationIndex);
+				return;
+			}
+
+			// the Simplex constructor copies the array
+			Simplex simplex = new Simplex(vertices);
+			if (this.buffer == null) {
+				storageStructure.addElement(simplex, filtrationIndex);
+			} else {
+				this.buffer.add(simplex, filtrationIndex);
+			}
+		}
+	}
+
+	/**
+	 * This class stores the simplices produced by a single expansion task,
+	 * along with their filtration indices, in the order in which they were
+	 * produced.
+	 */
+	private static class SimplexBuffer {
+		private final List<Simplex> simplices = new ArrayList<Simplex>();
+		private final TIntArrayList filtrationIndices = new TIntArrayList();
+
+		void add(Simplex simplex, int filtrationIndex) {
+			this.simplices.add(simplex);
+			this.filtrationIndices.add(filtrationIndex);
+		}
+
+		void addTo(StreamStorageStructure<Simplex> storageStructure) {
+			for (int i = 0; i < this.simplices.size(); i++) {
+				storageStructure.addElement(this.simplices.get(i), this.filtrationIndices.get(i));
+			}
+		}
+	}
 }
@@ -3,9 +3,15 @@
  */
 package edu.stanford.math.plex4.streams.impl;
 
+import edu.stanford.math.plex4.graph.UndirectedWeightedCSRGraph;
 import edu.stanford.math.plex4.graph.UndirectedWeightedListGraph;
+import edu.stanford.math.plex4.graph.WeightedEdgeList;
+import edu.stanford.math.plex4.graph.metric.ShortestPathMetricSpace;
 import edu.stanford.math.plex4.homology.chain_basis.Simplex;
 import edu.stanford.math.plex4.homology.filtration.FiltrationConverter;
+import edu.stanford.math.plex4.kd.KDEuclideanMetricSpace;
+import edu.stanford.math.plex4.kd.KDTree;
+import edu.stanford.math.plex4.metric.impl.EuclideanMetricSpace;
 import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
 import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure;
 import edu.stanford.math.plex4.utility.ExceptionUtility;
@@ -77,30 +83,87 @@ public class FlexibleVietorisRipsStream<T> extends FlagComplexStream {
 	}
 
 	@Override
-	protected UndirectedWeightedListGraph constructEdges() {
-		int n = this.metricSpace.size();
-		TIntHashSet neighborhood = null;
+	protected UndirectedWeightedCSRGraph constructEdges() {
+		return new UndirectedWeightedCSRGraph(this.metricSpace.size(), constructNeighborhoodEdges(this.metricSpace, this.maxDistance, this.numThreads));
+	}
+
+	/**
+	 * This function constructs the neighborhood graph of a metric space, which contains
+	 * an edge between each pair of points at distance at most maxDistance, weighted by
+	 * the distance. This is the 1-skeleton of the Vietoris-Rips complex.
+	 * 
+	 * @param <T> the base type of the metric space
+	 * @param metricSpace the metric space
+	 * @param maxDistance the maximum allowable distance
+	 * @return the neighborhood graph
+	 */
+	public static <T> UndirectedWeightedListGraph constructNeighborhoodGraph(AbstractSearchableMetricSpace<T> metricSpace, double maxDistance) {
+		return constructNeighborhoodGraph(metricSpace, maxDistance, 1);
+	}
+
+	/**
+	 * This function constructs the neighborhood graph of a metric space using several
+	 * threads where possible.
+	 * 
+	 * @param <T> the base type of the metric space
+	 * @param metricSpace the metric space
+	 * @param maxDistance the maximum allowable distance
+	 * @param numThreads the number of threads to use
+	 * @return the neighborhood graph
+	 */
+	public static <T> UndirectedWeightedListGraph constructNeighborhoodGraph(AbstractSearchableMetricSpace<T> metricSpace, double maxDistance, int numThreads) {
+		return constructNeighborhoodEdges(metricSpace, maxDistance, numThreads).toGraph(metricSpace.size());
+	}
+
+	/**
+	 * This function computes the edges of the neighborhood graph of a metric space, sorted
+	 * by increasing length. Each edge is reported once, with the smaller index first.
+	 * 
+	 * For Euclidean metric spaces, all pairs are found by a dual-tree join of a KD-tree
+	 * with itself, which is split into independent pairs of subtrees that are processed in
+	 * parallel. For shortest path metrics on graphs, a truncated search is run from each
+	 * vertex in parallel. For other metric spaces, the closed neighborhood of each point is
+	 * queried.
+	 * 
+	 * @param <T> the base type of the metric space
+	 * @param metricSpace the metric space
+	 * @param maxDistance the maximum allowable distance
+	 * @param numThreads the number of threads to use
+	 * @return the list of edges, sorted by weight
+	 */
+	public static <T> WeightedEdgeList constructNeighborhoodEdges(AbstractSearchableMetricSpace<T> metricSpace, double maxDistance, int numThreads) {
+		int n = metricSpace.size();
+
+		if (metricSpace instanceof KDEuclideanMetricSpace) {
+			return ((KDEuclideanMetricSpace) metricSpace).getKDTree().epsilonNeighborPairSearch(maxDistance, numThreads);
+		}
+		if (metricSpace instanceof EuclideanMetricSpace && n > 0) {
+			return new KDTree(((EuclideanMetricSpace) metricSpace).getPoints()).epsilonNeighborPairSearch(maxDistance, numThreads);
+		}
+		if (metricSpace instanceof ShortestPathMetricSpace) {
+			return ((ShortestPathMetricSpace) metricSpace).getNeighborhoodEdges(maxDistance, numThreads);
+		}
 
-		UndirectedWeightedListGraph graph = new UndirectedWeightedListGraph(n);
+		WeightedEdgeList edges = new WeightedEdgeList();
 
 		for (int i = 0; i < n; i++) {
 			// obtain the neighborhood of the i-th point
-			neighborhood = this.metricSpace.getClosedNeighborhood(metricSpace.getPoint(i), this.maxDistance);
+			TIntHashSet neighborhood = metricSpace.getClosedNeighborhood(metricSpace.getPoint(i), maxDistance);
 
 			// get the pairwise distances of the points and store them
 			TIntIterator iterator = neighborhood.iterator();
 			while (iterator.hasNext()) {
 				int j = iterator.next();
 
-				if (i == j) {
+				if (j <= i) {
 					continue;
 				}
 
-				double distance = this.metricSpace.distance(i, j);
-				graph.addEdge(i, j, distance);
+				edges.add(i, j, metricSpace.distance(i, j));
 			}
 		}
 
-		return graph;
+		edges.sortByWeight();
+		return edges;
 	}
 }
@@ -0,0 +1,428 @@
+package edu.stanford.math.plex4.streams.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
+import edu.stanford.math.primitivelib.utility.Infinity;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectIterator;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongIntHashMap;
+
+/**
+ * <p>This class computes the 1-skeleton of a lazy witness complex without storing the
+ * matrix of distances between the landmarks and the witnesses. The witnesses are
+ * processed in blocks, possibly by several threads, and for each witness only a single
+ * row of L distances is held in memory. Each thread keeps the minimum value of every
+ * edge in its own primitive table, and the tables are combined at the end.</p>
+ *
+ * <p>For a witness n, let m_n be the nu-th smallest distance from n to a landmark, and
+ * let v_l = max(0, d(l, n) - m_n). The witness n gives the edge [ab] the value
+ * max(v_a, v_b), and the value of an edge is the minimum over all witnesses. Thus a
+ * witness only contributes to the edges between the landmarks with v_l at most the
+ * maximum distance, and the cost of the construction is O(N * L) distance evaluations
+ * plus O(N * k^2), where k is the typical number of such landmarks. The values are
+ * computed in the same way as by LazyWitnessStream.getWitnessAndDistance, so that the
+ * edges, their values and their witnesses are identical.</p>
+ *
+ * @param <T> the type of the underlying metric space
+ */
+class LazyWitnessEngine<T> {
+	private static final int BLOCK_SIZE = 4096;
+
+	private final AbstractSearchableMetricSpace<T> metricSpace;
+	private final int[] landmarks;
+	private final int nu;
+	private final double maxDistance;
+	private final boolean[] excludedWitnesses;
+	private final int numThreads;
+	private final int N;
+	private final int L;
+
+	/**
+	 * The nu-th smallest landmark distance of each witness, which is computed by the first
+	 * pass over the witnesses.
+	 */
+	private final double[] nuDistances;
+
+	/**
+	 * The edges [first[k], second[k]] of the lazy witness complex, ordered by their first
+	 * and then their second vertex, with their values and the smallest witnesses which
+	 * attain them.
+	 */
+	private int[] first;
+	private int[] second;
+	private double[] values;
+	private int[] witnesses;
+	private TLongIntHashMap edgeIndices;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param metricSpace the metric space of the witnesses
+	 * @param landmarks the indices of the landmarks in the metric space
+	 * @param nu the nu parameter of the lazy witness complex
+	 * @param maxDistance the maximum value of an edge
+	 * @param excludeLandmarks true if the landmarks may not act as witnesses
+	 * @param numThreads the number of threads to use, where the metric space must be
+	 * thread-safe if this is more than one
+	 */
+	LazyWitnessEngine(AbstractSearchableMetricSpace<T> metricSpace, int[] landmarks, int nu, double maxDistance, boolean excludeLandmarks, int numThreads) {
+		this.metricSpace = metricSpace;
+		this.landmarks = landmarks;
+		this.nu = nu;
+		this.maxDistance = maxDistance;
+		this.numThreads = numThreads;
+		this.N = metricSpace.size();
+		this.L = landmarks.length;
+		this.nuDistances = new double[this.N];
+
+		if (excludeLandmarks) {
+			this.excludedWitnesses = new boolean[this.N];
+			for (int landmark: landmarks) {
+				this.excludedWitnesses[landmark] = true;
+			}
+		} else {
+			this.excludedWitnesses = null;
+		}
+	}
+
+	/**
+	 * This function returns the nu-th smallest landmark distance of each witness. It is
+	 * available after computeEdges has been called.
+	 *
+	 * @return the array of distances, indexed by the witnesses
+	 */
+	double[] getNuDistances() {
+		return this.nuDistances;
+	}
+
+	int getNumEdges() {
+		return this.first.length;
+	}
+
+	int getFirstVertex(int k) {
+		return this.first[k];
+	}
+
+	int getSecondVertex(int k) {
+		return this.second[k];
+	}
+
+	double getValue(int k) {
+		return this.values[k];
+	}
+
+	int getWitness(int k) {
+		return this.witnesses[k];
+	}
+
+	/**
+	 * This function returns the position of an edge in the lists of edges, or -1 if the
+	 * edge does not belong to the complex. It must be called after computeEdges.
+	 *
+	 * @param a the smaller landmark index
+	 * @param b the larger landmark index
+	 * @return the index of the edge [ab]
+	 */
+	int getEdgeIndex(int a, int b) {
+		long key = (long) a * this.L + b;
+		return this.edgeIndices.containsKey(key) ? this.edgeIndices.get(key) : -1;
+	}
+
+	/**
+	 * This function computes the edges of the complex with their values and witnesses.
+	 */
+	void computeEdges() {
+		List<EdgeAccumulator> partialResults = this.accumulateEdges();
+
+		// ties are resolved in favor of the smaller witness, so the order does not matter
+		EdgeAccumulator result = partialResults.get(0);
+		for (int i = 1; i < partialResults.size(); i++) {
+			EdgeAccumulator partialResult = partialResults.get(i);
+			for (int k = 0; k < partialResult.size(); k++) {
+				result.offer(partialResult.keys.get(k), partialResult.values.get(k), partialResult.witnesses.get(k));
+			}
+		}
+
+		long[] keys = result.keys.toNativeArray();
+		Arrays.sort(keys);
+
+		this.first = new int[keys.length];
+		this.second = new int[keys.length];
+		this.values = new double[keys.length];
+		this.witnesses = new int[keys.length];
+		this.edgeIndices = new TLongIntHashMap();
+		for (int k = 0; k < keys.length; k++) {
+			int slot = result.slots.get(keys[k]) - 1;
+			this.first[k] = (int) (keys[k] / this.L);
+			this.second[k] = (int) (keys[k] % this.L);
+			this.values[k] = result.values.get(slot);
+			this.witnesses[k] = result.witnesses.get(slot);
+			this.edgeIndices.put(keys[k], k);
+		}
+	}
+
+	/**
+	 * This function offers the edges of all witnesses to one edge table per thread. The
+	 * threads take the blocks of witnesses in turn, so that the number of tables does not
+	 * depend on the number of witnesses.
+	 *
+	 * @return the edge tables of the threads
+	 */
+	private List<EdgeAccumulator> accumulateEdges() {
+		List<EdgeAccumulator> results = new ArrayList<EdgeAccumulator>();
+		if (this.numThreads <= 1) {
+			EdgeAccumulator accumulator = new EdgeAccumulator();
+			Row row = new Row();
+			for (int start = 0; start < this.N; start += BLOCK_SIZE) {
+				this.computeBlockEdges(start, Math.min(this.N, start + BLOCK_SIZE), row, accumulator);
+			}
+			results.add(accumulator);
+			return results;
+		}
+
+		final AtomicInteger nextBlock = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+		try {
+			List<Future<EdgeAccumulator>> partialResults = new ArrayList<Future<EdgeAccumulator>>();
+			for (int t = 0; t < this.numThreads; t++) {
+				partialResults.add(executor.submit(new Callable<EdgeAccumulator>() {
+					public EdgeAccumulator call() {
+						EdgeAccumulator accumulator = new EdgeAccumulator();
+						Row row = new Row();
+						for (int start = nextBlock.getAndIncrement() * BLOCK_SIZE; start < N; start = nextBlock.getAndIncrement() * BLOCK_SIZE) {
+							computeBlockEdges(start, Math.min(N, start + BLOCK_SIZE), row, accumulator);
+						}
+						return accumulator;
+					}
+				}));
+			}
+
+			for (Future<EdgeAccumulator> partialResult: partialResults) {
+				results.add(partialResult.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return results;
+	}
+
+	/**
+	 * This function adds, for every witness, the edges for which its value is within
+	 * epsilon of the value of the edge to the list of simplices witnessed by it. The
+	 * edges of a witness are added in the order of their vertices. It must be called
+	 * after computeEdges.
+	 *
+	 * @param epsilon the tolerance
+	 * @param witnessSimplexMap the map from witnesses to lists of simplices
+	 */
+	void computeWitnessSimplices(final double epsilon, TIntObjectHashMap<List<Simplex>> witnessSimplexMap) {
+		List<TIntObjectHashMap<List<Simplex>>> blocks = this.processBlocks(new BlockTask<TIntObjectHashMap<List<Simplex>>>() {
+			public TIntObjectHashMap<List<Simplex>> process(int start, int end) {
+				return computeBlockWitnessSimplices(start, end, epsilon);
+			}
+		});
+
+		// the blocks contain distinct witnesses
+		for (TIntObjectHashMap<List<Simplex>> block: blocks) {
+			for (TIntObjectIterator<List<Simplex>> iterator = block.iterator(); iterator.hasNext(); ) {
+				iterator.advance();
+				if (witnessSimplexMap.containsKey(iterator.key())) {
+					witnessSimplexMap.get(iterator.key()).addAll(iterator.value());
+				} else {
+					witnessSimplexMap.put(iterator.key(), iterator.value());
+				}
+			}
+		}
+	}
+
+	private void computeBlockEdges(int start, int end, Row row, EdgeAccumulator accumulator) {
+		for (int n = start; n < end; n++) {
+			this.nuDistances[n] = row.compute(n, this.maxDistance);
+			if (this.excludedWitnesses != null && this.excludedWitnesses[n]) {
+				continue;
+			}
+			for (int p = 0; p < row.numCandidates; p++) {
+				int a = row.candidates[p];
+				for (int q = p + 1; q < row.numCandidates; q++) {
+					int b = row.candidates[q];
+					accumulator.offer((long) a * this.L + b, Math.max(row.values[a], row.values[b]), n);
+				}
+			}
+		}
+	}
+
+	private TIntObjectHashMap<List<Simplex>> computeBlockWitnessSimplices(int start, int end, double epsilon) {
+		Row row = new Row();
+		TIntObjectHashMap<List<Simplex>> result = new TIntObjectHashMap<List<Simplex>>();
+		for (int n = start; n < end; n++) {
+			if (this.excludedWitnesses != null && this.excludedWitnesses[n]) {
+				continue;
+			}
+
+			// a witness whose value is within epsilon of an edge value may exceed the maximum distance
+			row.compute(n, this.maxDistance + 2 * epsilon);
+			List<Simplex> simplices = null;
+			for (int p = 0; p < row.numCandidates; p++) {
+				int a = row.candidates[p];
+				for (int q = p + 1; q < row.numCandidates; q++) {
+					int b = row.candidates[q];
+					long key = (long) a * this.L + b;
+					if (!this.edgeIndices.containsKey(key)) {
+						continue;
+					}
+					double value = Math.max(row.values[a], row.values[b]);
+					if (Math.abs(value - this.values[this.edgeIndices.get(key)]) <= epsilon) {
+						if (simplices == null) {
+							simplices = new ArrayList<Simplex>();
+							result.put(n, simplices);
+						}
+						simplices.add(Simplex.makeSimplex(this.landmarks[a], this.landmarks[b]));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * This interface defines a computation over a contiguous block of witnesses.
+	 */
+	private interface BlockTask<R> {
+		R process(int start, int end);
+	}
+
+	/**
+	 * This function applies a task to the consecutive blocks of witnesses, using
+	 * numThreads threads, and returns the results in the order of the blocks.
+	 */
+	private <R> List<R> processBlocks(final BlockTask<R> task) {
+		List<R> results = new ArrayList<R>();
+		if (this.numThreads <= 1) {
+			for (int start = 0; start < this.N; start += BLOCK_SIZE) {
+				results.add(task.process(start, Math.min(this.N, start + BLOCK_SIZE)));
+			}
+			return results;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.numThreads);
+		try {
+			List<Future<R>> blocks = new ArrayList<Future<R>>();
+			for (int start = 0; start < this.N; start += BLOCK_SIZE) {
+				final int blockStart = start;
+				final int blockEnd = Math.min(this.N, start + BLOCK_SIZE);
+				blocks.add(executor.submit(new Callable<R>() {
+					public R call() {
+						return task.process(blockStart, blockEnd);
+					}
+				}));
+			}
+
+			for (Future<R> block: blocks) {
+				results.add(block.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return results;
+	}
+
+	/**
+	 * This class holds the landmark distances of a single witness. An instance is reused
+	 * for all witnesses of a block.
+	 */
+	private class Row {
+		private final double[] values = new double[L];
+		private final int[] candidates = new int[L];
+		private final double[] smallest = new double[nu];
+		private int numCandidates = 0;
+
+		/**
+		 * This function computes the values v_l of the landmarks for a witness, and
+		 * collects the landmarks whose values are at most the threshold in increasing
+		 * order.
+		 *
+		 * @return the nu-th smallest landmark distance of the witness
+		 */
+		double compute(int n, double threshold) {
+			// keep the nu smallest distances in increasing order
+			Arrays.fill(this.smallest, Infinity.Double.getPositiveInfinity());
+			for (int l = 0; l < L; l++) {
+				double distance = metricSpace.distance(landmarks[l], n);
+				this.values[l] = distance;
+				if (nu > 0 && distance < this.smallest[nu - 1]) {
+					int k = nu - 1;
+					while (k > 0 && this.smallest[k - 1] > distance) {
+						this.smallest[k] = this.smallest[k - 1];
+						k--;
+					}
+					this.smallest[k] = distance;
+				}
+			}
+			double m = (nu == 0) ? 0 : this.smallest[nu - 1];
+
+			this.numCandidates = 0;
+			for (int l = 0; l < L; l++) {
+				double value = (this.values[l] < m) ? 0.0 : this.values[l] - m;
+				this.values[l] = value;
+				if (value <= threshold) {
+					this.candidates[this.numCandidates++] = l;
+				}
+			}
+
+			return m;
+		}
+	}
+
+	/**
+	 * This class keeps the smallest value offered for each edge, along with the smallest
+	 * witness which offered it.
+	 */
+	private static class EdgeAccumulator {
+		private final TLongIntHashMap slots = new TLongIntHashMap();
+		private final TLongArrayList keys = new TLongArrayList();
+		private final TDoubleArrayList values = new TDoubleArrayList();
+		private final TIntArrayList witnesses = new TIntArrayList();
+
+		int size() {
+			return this.values.size();
+		}
+
+		void offer(long key, double value, int witness) {
+			int slot = this.slots.get(key) - 1;
+			if (slot < 0) {
+				this.slots.put(key, this.values.size() + 1);
+				this.keys.add(key);
+				this.values.add(value);
+				this.witnesses.add(witness);
+			} else if (value < this.values.get(slot) || (value == this.values.get(slot) && witness < this.witnesses.get(slot))) {
+				this.values.set(slot, value);
+				this.witnesses.set(slot, witness);
+			}
+		}
+	}
+}
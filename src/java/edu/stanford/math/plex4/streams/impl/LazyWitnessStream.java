@@ -1,10 +1,10 @@
 package edu.stanford.math.plex4.streams.impl;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
-import edu.stanford.math.plex4.graph.UndirectedWeightedListGraph;
+import edu.stanford.math.plex4.graph.UndirectedWeightedCSRGraph;
+import edu.stanford.math.plex4.graph.WeightedEdgeList;
 import edu.stanford.math.plex4.homology.chain_basis.Simplex;
 import edu.stanford.math.plex4.homology.filtration.ExternalConverter;
 import edu.stanford.math.plex4.homology.filtration.IncreasingLinearConverter;
@@ -13,7 +13,6 @@ import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
 import edu.stanford.math.plex4.metric.landmark.LandmarkSelector;
 import edu.stanford.math.plex4.utility.ExceptionUtility;
 import edu.stanford.math.primitivelib.autogen.array.DoubleArrayMath;
-import edu.stanford.math.primitivelib.autogen.array.DoubleArrayUtility;
 import edu.stanford.math.primitivelib.autogen.pair.IntDoublePair;
 import edu.stanford.math.primitivelib.utility.Infinity;
 import gnu.trove.TIntHashSet;
@@ -27,6 +26,10 @@ import gnu.trove.TIntObjectHashMap;
  * that a lazy witness complex is fully described by its 1-skeleton, therefore
  * we simply derive from the FlagComplexStream class.
  * 
+ * The number of threads set by setNumThreads is also used to compute the
+ * distances between the witnesses and the landmarks, in which case the metric
+ * space must be thread-safe.
+ * 
  * @author Andrew Tausz
  * 
  * @param <T>
@@ -65,6 +68,24 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 	 */
 	private final TIntObjectHashMap<List<Simplex>> witnessSimplexMap = new TIntObjectHashMap<List<Simplex>>();
 
+	/*
+	 * The witnesses of the simplices are only needed for witness bicomplexes,
+	 * and finding them requires a second pass over the witnesses. They are
+	 * computed by default.
+	 */
+	protected boolean saveAssociatedSimplices = true;
+
+	/**
+	 * The engine which computed the edges, which is kept to answer queries
+	 * about their witnesses.
+	 */
+	private LazyWitnessEngine<T> engine = null;
+
+	/**
+	 * This array indicates which points of the metric space are landmarks.
+	 */
+	private boolean[] isLandmark = null;
+
 	protected final int N;
 	protected final int L;
 
@@ -163,6 +184,18 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 		this.plex3Compatible = value;
 	}
 
+	/**
+	 * This function sets whether the witnesses of the simplices are computed,
+	 * which is necessary for the function getAssociatedSimplices. It must be
+	 * called before the stream is finalized.
+	 * 
+	 * @param value
+	 *            true to compute the witnesses of the simplices
+	 */
+	public void setSaveAssociatedSimplices(boolean value) {
+		this.saveAssociatedSimplices = value;
+	}
+
 	public static int getDefaultNuValue() {
 		return 2;
 	}
@@ -175,8 +208,12 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 	 * @param witness
 	 *            the witness point
 	 * @return a list of simplices with the given point as their witness
+	 * @throws IllegalStateException if the associated simplices were not saved
 	 */
 	public List<Simplex> getAssociatedSimplices(int witness) {
+		if (!this.saveAssociatedSimplices) {
+			throw new IllegalStateException("Associated simplices were not saved. Call setSaveAssociatedSimplices(true) before finalizeStream().");
+		}
 		List<Simplex> temp = this.witnessSimplexMap.get(witness);
 
 		if (temp == null) {
@@ -189,12 +226,10 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 	}
 
 	@Override
-	protected UndirectedWeightedListGraph constructEdges() {
+	protected UndirectedWeightedCSRGraph constructEdges() {
 
 		this.indices = this.landmarkSelector.getLandmarkPoints();
 
-		UndirectedWeightedListGraph graph = new UndirectedWeightedListGraph(L);
-
 		/*
 		 * Let N be the number of points in the metric space, and n the number
 		 * of landmark points. Let D be the L x N matrix of distances between
@@ -208,6 +243,10 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 		 * nu-th smallest entry in the i-th column of D. - The edge [ab] belongs
 		 * to W(D, R, nu) iff there exists as witness i in {1, ..., N} such that
 		 * max(D(a, i), D(b, i)) <= R + m_i
+		 * 
+		 * The matrix D is not stored. Instead, the witnesses are processed
+		 * one column at a time by a LazyWitnessEngine, and each witness
+		 * contributes the edges between the landmarks within R + m_i of it.
 		 */
 
 		/**
@@ -218,63 +257,29 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 		 * !not true anymore!
 		 */
 
-		D = null;
-		m = DoubleArrayUtility.createArray(N);
-
-		try {
-			D = DoubleArrayUtility.createMatrix(L, N);
-			for (int l = 0; l < L; l++) {
-				for (int n = 0; n < N; n++) {
-					// if (n == this.indices[l]) {
-					// D[l][n] = Infinity.Double.getPositiveInfinity();
-					// } else {
-					D[l][n] = this.metricSpace.distance(this.landmarkSelector.getLandmarkIndex(l), n);
-					// }
-				}
-			}
-		} catch (OutOfMemoryError error) {
-			D = null;
-		} finally {
+		this.isLandmark = new boolean[N];
+		for (int index: this.indices) {
+			this.isLandmark[index] = true;
 		}
 
-		double[] m_temp = new double[L + 1];
-		for (int n = 0; n < N; n++) {
-			for (int l = 0; l < L; l++) {
-				if (D == null) {
-					m_temp[l + 1] = this.metricSpace.distance(this.landmarkSelector.getLandmarkIndex(l), n);
-				} else {
-					m_temp[l + 1] = D[l][n];
-				}
-			}
-			Arrays.sort(m_temp);
-			assert (m_temp[0] == 0.0);
-			m[n] = m_temp[this.nu];
-			assert (m[n] > 0.0);
-		}
-
-		// int edge_count = 0;
-
-		{
-			double e_ij;
-			int n_star = 0;
+		LazyWitnessEngine<T> engine = new LazyWitnessEngine<T>(this.metricSpace, this.indices, this.nu, this.maxDistance, !this.plex3Compatible, this.numThreads);
+		engine.computeEdges();
+		this.engine = engine;
 
-			for (int i = 0; i < L; i++) {
-				for (int j = i + 1; j < L; j++) {
+		D = null;
+		m = engine.getNuDistances();
 
-					IntDoublePair witnessAndDistance = this.getWitnessAndDistance(i, j);
-					n_star = witnessAndDistance.getFirst();
-					e_ij = witnessAndDistance.getSecond();
+		WeightedEdgeList edges = new WeightedEdgeList(engine.getNumEdges());
+		for (int k = 0; k < engine.getNumEdges(); k++) {
+			edges.add(engine.getFirstVertex(k), engine.getSecondVertex(k), engine.getValue(k));
+		}
 
-					if (e_ij <= this.maxDistance) {
-						this.updateWitnessInformationInternalIndices(n_star, e_ij, i, j);
-						graph.addEdge(i, j, e_ij);
-						// edge_count++;
-					}
-				}
-			}
+		this.witnessSimplexMap.clear();
+		if (this.saveAssociatedSimplices) {
+			engine.computeWitnessSimplices(this.epsilon, this.witnessSimplexMap);
 		}
 
-		return graph;
+		return new UndirectedWeightedCSRGraph(L, edges);
 	}
 
 	protected IntDoublePair getWitnessAndDistance(int... landmarkIndices) {
@@ -292,8 +297,16 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 			return new IntDoublePair(n_star, e_ij);
 		}
 
+		// The edges of the complex have already been found by the engine.
+		if (l == 1 && this.engine != null) {
+			int k = this.engine.getEdgeIndex(Math.min(landmarkIndices[0], landmarkIndices[1]), Math.max(landmarkIndices[0], landmarkIndices[1]));
+			if (k >= 0) {
+				return new IntDoublePair(this.engine.getWitness(k), this.engine.getValue(k));
+			}
+		}
+
 		for (int n = 0; n < N; n++) {
-			if (contains(this.indices, n) && !this.plex3Compatible) {
+			if (this.isLandmark[n] && !this.plex3Compatible) {
 				continue;
 			}
 
@@ -376,7 +389,7 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 		// landmarkIndices = externalIndices;
 
 		for (int n = 0; n < N; n++) {
-			if (contains(this.indices, n) && !this.plex3Compatible) {
+			if (this.isLandmark[n] && !this.plex3Compatible) {
 				continue;
 			}
 
@@ -407,7 +420,7 @@ public class LazyWitnessStream<T> extends FlagComplexStream {
 			}
 		}
 
-		if (externalIndices.length == 1 && contains(this.indices, externalIndices[0])) {
+		if (externalIndices.length == 1 && this.isLandmark[externalIndices[0]]) {
 			witnesses.add(externalIndices[0]);
 		}
 
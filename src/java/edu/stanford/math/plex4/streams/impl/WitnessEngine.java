@@ -0,0 +1,359 @@
+package edu.stanford.math.plex4.streams.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.homology.filtration.FiltrationConverter;
+import edu.stanford.math.plex4.metric.impl.VantagePointTree;
+import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongIntHashMap;
+
+/**
+ * <p>This class computes a witness complex without storing the matrix of distances
+ * between the landmarks and the witnesses. For a witness n, let m_d(n) be the (d+1)-th
+ * smallest distance from n to a landmark. The witness n gives the d-simplex s the value
+ * max_{l in s} d(l, n) - m_d(n), and the value of s is the minimum over all witnesses.
+ * A d-simplex belongs to the complex if its value is at most the maximum distance and
+ * all of its faces belong to the complex.</p>
+ *
+ * <p>The complex is built one dimension at a time. In the pass for dimension d, the
+ * nearest landmarks of every witness are found with a vantage point tree over the
+ * landmarks, and only the landmarks l with d(l, n) - m_d(n) at most the maximum distance
+ * are kept. The candidate simplices are the subsets of these short lists whose faces
+ * have already been found, and their values are aggregated in a primitive hash.</p>
+ *
+ * <p>The d-simplices are numbered in the order of their keys. A d-simplex [l_0, ..., l_d]
+ * with l_0 < ... < l_d has the key id(l_1, ..., l_d) * L + l_0, where the id of a
+ * vertex is its landmark index. Thus the keys fit in a long in any dimension. The
+ * distances are computed by the metric space in the same way as before, so that the
+ * complex and its filtration are identical to the dense construction.</p>
+ *
+ * @param <T> the type of the underlying metric space
+ */
+class WitnessEngine<T> {
+	/**
+	 * The relative amount by which the search radius is enlarged, so that rounding in
+	 * the tree does not lose landmarks on the boundary. The landmarks found are then
+	 * filtered with the exact distances.
+	 */
+	private static final double SEARCH_SLACK = 1e-9;
+
+	private final AbstractSearchableMetricSpace<T> metricSpace;
+	private final int[] landmarks;
+	private final int maxLen;
+	private final double maxDistance;
+	private final FiltrationConverter converter;
+	private final int N;
+	private final int L;
+
+	/**
+	 * The search index over the landmark points.
+	 */
+	private final VantagePointTree<T> landmarkTree;
+
+	/**
+	 * The skeletons of dimension 1, 2, ... which have been computed so far.
+	 */
+	private final List<Skeleton> skeletons = new ArrayList<Skeleton>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param metricSpace the metric space of the witnesses
+	 * @param landmarks the indices of the landmarks in the metric space
+	 * @param maxLen the number of nearest landmarks of a witness which are used, which is
+	 * one more than the maximum dimension
+	 * @param maxDistance the maximum value of a simplex
+	 * @param converter the converter from filtration values to indices
+	 */
+	WitnessEngine(AbstractSearchableMetricSpace<T> metricSpace, int[] landmarks, int maxLen, double maxDistance, FiltrationConverter converter) {
+		this.metricSpace = metricSpace;
+		this.landmarks = landmarks;
+		this.maxLen = maxLen;
+		this.maxDistance = maxDistance;
+		this.converter = converter;
+		this.N = metricSpace.size();
+		this.L = landmarks.length;
+
+		// the tree only reads the array, so it need not have the runtime type of the points
+		@SuppressWarnings("unchecked")
+		T[] landmarkPoints = (T[]) new Object[this.L];
+		for (int l = 0; l < this.L; l++) {
+			landmarkPoints[l] = metricSpace.getPoint(landmarks[l]);
+		}
+		this.landmarkTree = new VantagePointTree<T>(landmarkPoints, metricSpace);
+	}
+
+	/**
+	 * This function returns the number of dimensions above 0 which have been computed.
+	 */
+	int getNumSkeletons() {
+		return this.skeletons.size();
+	}
+
+	int getNumSimplices(int dimension) {
+		return this.getSkeleton(dimension).size();
+	}
+
+	Simplex getSimplex(int dimension, int k) {
+		return this.getSkeleton(dimension).simplices.get(k);
+	}
+
+	int getFiltrationIndex(int dimension, int k) {
+		return this.getSkeleton(dimension).filtrationIndices.get(k);
+	}
+
+	private Skeleton getSkeleton(int dimension) {
+		return this.skeletons.get(dimension - 1);
+	}
+
+	/**
+	 * This function computes the simplices of the next dimension. It returns false if
+	 * there are none, or if the dimension would exceed maxLen - 1.
+	 *
+	 * @return true if simplices of a new dimension were found
+	 */
+	boolean computeNextSkeleton() {
+		final int dimension = this.skeletons.size() + 1;
+		if (dimension >= this.maxLen) {
+			return false;
+		}
+
+		// the minimum value offered for each candidate simplex
+		final TLongIntHashMap slots = new TLongIntHashMap();
+		final TLongArrayList keys = new TLongArrayList();
+		final TDoubleArrayList values = new TDoubleArrayList();
+		Witness witness = new Witness();
+		for (int n = 0; n < this.N; n++) {
+			witness.compute(n, dimension, this.maxDistance);
+			witness.enumerate(dimension, new SimplexVisitor() {
+				public void visit(long key, double value) {
+					int slot = slots.get(key) - 1;
+					if (slot < 0) {
+						slots.put(key, values.size() + 1);
+						keys.add(key);
+						values.add(value);
+					} else if (value < values.get(slot)) {
+						values.set(slot, value);
+					}
+				}
+			});
+		}
+
+		long[] sortedKeys = keys.toNativeArray();
+		Arrays.sort(sortedKeys);
+
+		Skeleton skeleton = new Skeleton();
+		int[] vertices = new int[dimension + 1];
+		for (long key: sortedKeys) {
+			this.getVertices(dimension, key, vertices);
+
+			int filtrationIndex = this.converter.getFiltrationIndex(values.get(slots.get(key) - 1));
+			if (dimension > 1) {
+				// the face without the first vertex is present by construction
+				Skeleton faces = this.getSkeleton(dimension - 1);
+				filtrationIndex = Math.max(filtrationIndex, faces.filtrationIndices.get((int) (key / this.L)));
+				boolean facesPresent = true;
+				for (int omitted = 1; omitted <= dimension; omitted++) {
+					int face = this.getId(vertices, omitted);
+					if (face < 0) {
+						facesPresent = false;
+						break;
+					}
+					filtrationIndex = Math.max(filtrationIndex, faces.filtrationIndices.get(face));
+				}
+				if (!facesPresent) {
+					continue;
+				}
+			}
+
+			int[] externalVertices = new int[dimension + 1];
+			for (int i = 0; i <= dimension; i++) {
+				externalVertices[i] = this.landmarks[vertices[i]];
+			}
+			skeleton.add(key, Simplex.makeSimplex(externalVertices), filtrationIndex);
+		}
+
+		if (skeleton.size() == 0) {
+			return false;
+		}
+		this.skeletons.add(skeleton);
+		return true;
+	}
+
+	/**
+	 * This function computes the simplices witnessed by each point, which are the
+	 * simplices s of dimension d with max_{l in s} d(l, n) <= m_d(n). The simplices of a
+	 * witness are listed by increasing dimension. It must be called after the skeletons
+	 * have been computed.
+	 *
+	 * @param associatedSimplices the list of simplices of each witness, to which the
+	 * results are appended
+	 */
+	void computeAssociatedSimplices(final List<List<Simplex>> associatedSimplices) {
+		Witness witness = new Witness();
+		for (int n = 0; n < this.N; n++) {
+			final List<Simplex> simplices = associatedSimplices.get(n);
+			witness.compute(n, 0, 0);
+			for (int j = 0; j < witness.numCandidates; j++) {
+				simplices.add(Simplex.makeSimplex(this.landmarks[witness.candidates[j]]));
+			}
+			for (int dimension = 1; dimension <= this.skeletons.size(); dimension++) {
+				final Skeleton skeleton = this.getSkeleton(dimension);
+				witness.compute(n, dimension, 0);
+				witness.enumerate(dimension, new SimplexVisitor() {
+					public void visit(long key, double value) {
+						int id = skeleton.ids.get(key) - 1;
+						if (id >= 0) {
+							simplices.add(skeleton.simplices.get(id));
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * This function writes the landmark indices of a simplex, in increasing order, into
+	 * the given array.
+	 */
+	private void getVertices(int dimension, long key, int[] vertices) {
+		for (int i = 0; i < dimension; i++) {
+			vertices[i] = (int) (key % this.L);
+			int id = (int) (key / this.L);
+			if (i == dimension - 1) {
+				vertices[dimension] = id;
+			} else {
+				key = this.getSkeleton(dimension - 1 - i).keys.get(id);
+			}
+		}
+	}
+
+	/**
+	 * This function returns the id of the face of a simplex without one of its vertices,
+	 * or -1 if the face has not been found.
+	 *
+	 * @param vertices the landmark indices of the simplex in increasing order
+	 * @param omitted the position of the vertex to omit
+	 * @return the id of the face
+	 */
+	private int getId(int[] vertices, int omitted) {
+		int last = (omitted == vertices.length - 1) ? vertices.length - 2 : vertices.length - 1;
+		int id = vertices[last];
+		int dimension = 0;
+		for (int i = last - 1; i >= 0; i--) {
+			if (i == omitted) {
+				continue;
+			}
+			dimension++;
+			id = this.getSkeleton(dimension).ids.get((long) id * this.L + vertices[i]) - 1;
+			if (id < 0) {
+				return -1;
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * This interface receives the candidate simplices of a witness.
+	 */
+	private interface SimplexVisitor {
+		void visit(long key, double value);
+	}
+
+	/**
+	 * This class holds the simplices of one dimension, numbered in the order of their keys.
+	 */
+	private static class Skeleton {
+		private final TLongIntHashMap ids = new TLongIntHashMap();
+		private final TLongArrayList keys = new TLongArrayList();
+		private final TIntArrayList filtrationIndices = new TIntArrayList();
+		private final List<Simplex> simplices = new ArrayList<Simplex>();
+
+		int size() {
+			return this.simplices.size();
+		}
+
+		void add(long key, Simplex simplex, int filtrationIndex) {
+			this.ids.put(key, this.simplices.size() + 1);
+			this.keys.add(key);
+			this.filtrationIndices.add(filtrationIndex);
+			this.simplices.add(simplex);
+		}
+	}
+
+	/**
+	 * This class holds the nearby landmarks of a single witness. An instance is reused
+	 * for all witnesses.
+	 */
+	private class Witness {
+		private final double[] smallest = new double[maxLen];
+		private final int[] candidates = new int[L];
+		private final double[] distances = new double[L];
+		private final double[] maxDistances = new double[maxLen];
+		private int numCandidates = 0;
+
+		/**
+		 * This function collects the landmarks l with d(l, n) - m_d(n) at most the
+		 * threshold in increasing order, along with their distances.
+		 */
+		void compute(int n, int dimension, double threshold) {
+			T point = metricSpace.getPoint(n);
+			int[] nearest = landmarkTree.nearestNeighborSearch(point, maxLen, false);
+			for (int i = 0; i < maxLen; i++) {
+				this.smallest[i] = metricSpace.distance(landmarks[nearest[i]], n);
+			}
+			Arrays.sort(this.smallest);
+			double m = this.smallest[dimension];
+
+			int[] nearby = landmarkTree.rangeSearch(point, (m + threshold) * (1 + SEARCH_SLACK), false).toArray();
+			Arrays.sort(nearby);
+			this.numCandidates = 0;
+			for (int l: nearby) {
+				double distance = metricSpace.distance(landmarks[l], n);
+				if (distance - m <= threshold) {
+					this.candidates[this.numCandidates] = l;
+					this.distances[this.numCandidates] = distance;
+					this.numCandidates++;
+				}
+			}
+		}
+
+		/**
+		 * This function offers the simplices of the given dimension spanned by the
+		 * candidates, all of whose faces without their first vertices have been found, to
+		 * the visitor.
+		 */
+		void enumerate(int dimension, SimplexVisitor visitor) {
+			for (int j = 0; j < this.numCandidates; j++) {
+				this.maxDistances[0] = this.distances[j];
+				this.extend(dimension, 1, this.candidates[j], j, visitor);
+			}
+		}
+
+		/**
+		 * This function prepends smaller candidates to a simplex with the given number of
+		 * vertices and id.
+		 */
+		private void extend(int dimension, int size, int id, int end, SimplexVisitor visitor) {
+			for (int j = 0; j < end; j++) {
+				long key = (long) id * L + this.candidates[j];
+				double maxDistance = Math.max(this.maxDistances[size - 1], this.distances[j]);
+				if (size == dimension) {
+					visitor.visit(key, maxDistance - this.smallest[dimension]);
+					continue;
+				}
+				int face = getSkeleton(size).ids.get(key) - 1;
+				if (face >= 0) {
+					this.maxDistances[size] = maxDistance;
+					this.extend(dimension, size + 1, face, j, visitor);
+				}
+			}
+		}
+	}
+}
@@ -1,9 +1,6 @@
 package edu.stanford.math.plex4.streams.impl;
 
 import java.util.ArrayList;
-import java.util.ArrayDeque;
-import java.util.Arrays;
-import java.util.Deque;
 import java.util.List;
 //import java.util.Collections;
 
@@ -22,7 +19,6 @@ import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
 import edu.stanford.math.plex4.metric.landmark.LandmarkSelector;
 import edu.stanford.math.plex4.streams.interfaces.PrimitiveStream;
 import edu.stanford.math.plex4.utility.ExceptionUtility;
-import edu.stanford.math.primitivelib.autogen.array.DoubleArrayUtility;
 //import edu.stanford.math.primitivelib.autogen.pair.IntDoublePair;
 //import edu.stanford.math.primitivelib.utility.Infinity;
 //import gnu.trove.TIntHashSet;
@@ -57,9 +53,6 @@ public class WitnessStream<T> extends PrimitiveStream<Simplex> {
 	 */
 	protected final double maxDistance;
 
-	protected double[][] D = null;
-	protected double[][] m = null;
-
 	protected final int N;
 	protected final int L;
 	protected final int maxLen;
@@ -167,128 +160,29 @@ public class WitnessStream<T> extends PrimitiveStream<Simplex> {
 																	// this
 																	// correct?
 
-		// Get all distances between landmark points and data points.
-		D = DoubleArrayUtility.createMatrix(L, N);
-		for (int ll = 0; ll < L; ll++) {
-			for (int nn = 0; nn < N; nn++) {
-				D[ll][nn] = this.metricSpace.distance(this.landmarkSelector.getLandmarkIndex(ll), nn);
-			}
-		}
-		// Find the max_len nearest landmarks for every data point.
-		double tmp[] = new double[L];
-		m = DoubleArrayUtility.createMatrix(maxLen, N);
-		for (int nn = 0; nn < N; ++nn) {
-			for (int ll = 0; ll < L; ++ll) {
-				tmp[ll] = D[ll][nn];
-			}
-			// Daniel: I want partial sort (the smallest maxLen elements in
-			// sorted order)
-			// but I don't know what function to use.
-			Arrays.sort(tmp);
-			for (int ll = 0; ll < maxLen; ++ll) {
-				m[ll][nn] = tmp[ll];
-			}
-		}
+		// Only the nearby landmarks of each witness are examined, so that no distance
+		// matrix is needed.
+		WitnessEngine<T> engine = new WitnessEngine<T>(this.metricSpace, this.indices, this.maxLen, this.maxDistance, this.converter);
 
-		if (this.saveAssociatedSimplices) {
-			this.associatedSimplices = new ArrayList<List<Simplex>>();
-			for (int ll = 0; ll < L; ++ll) {
-				this.associatedSimplices.add(new ArrayList<Simplex>());
-			}
-		}
-
-		Deque<Integer> lower_vertices = new ArrayDeque<Integer>();
-		// Recursively add vertices and all their cofaces.
+		int vertexFiltrationIndex = this.converter.getFiltrationIndex(0.0);
 		for (int ll = 0; ll < L; ++ll) {
-			if (this.addCofaces_(ll, new int[] {}, null, lower_vertices)) {
-				lower_vertices.add(ll);
-			}
+			this.storageStructure.addElement(new Simplex(new int[] { this.indices[ll] }), vertexFiltrationIndex);
 		}
-	}
-
-	/*
-	 * Add the simplex (index[i0], s1[0], ...) if all conditions are met.
-	 */
-	boolean addCofaces_(int i0, int[] s1, double[] Dm1, Deque<Integer> lower_vertices) {
-		int dim = s1.length;
-		int filtrationIndex;
-		double[] Dm = new double[N];
-		int[] snew;
 
-		switch (dim) {
-		case 0: {
-			for (int nn = 0; nn < N; ++nn) {
-				Dm[nn] = D[i0][nn];
+		while (engine.getNumSkeletons() < this.maxAllowableDimension && engine.computeNextSkeleton()) {
+			int dimension = engine.getNumSkeletons();
+			for (int k = 0; k < engine.getNumSimplices(dimension); k++) {
+				this.storageStructure.addElement(engine.getSimplex(dimension, k), engine.getFiltrationIndex(dimension, k));
 			}
-			filtrationIndex = this.converter.getFiltrationIndex(0.0);
-			snew = new int[] { this.indices[i0] };
-			break;
 		}
-		case 1: {
-			for (int nn = 0; nn < N; ++nn) {
-				Dm[nn] = Math.max(Dm1[nn], D[i0][nn]);
-			}
-			snew = new int[] { this.indices[i0], s1[0] };
 
-			double filtrationValue = Double.POSITIVE_INFINITY;
-			for (int nn = 0; nn < N; ++nn) {
-				filtrationValue = Math.min(filtrationValue, Dm[nn] - m[dim][nn]);
-			}
-			if (filtrationValue > this.maxDistance) {
-				return false;
-			}
-			filtrationIndex = this.converter.getFiltrationIndex(filtrationValue);
-			break;
-		}
-		default: {
-			snew = new int[dim + 1];
-			snew[0] = this.indices[i0];
-			System.arraycopy(s1, 0, snew, 1, dim);
-
-			filtrationIndex = 0;
-			for (Simplex face : new Simplex(snew).getBoundaryArray()) {
-				if (!this.containsElement(face)) {
-					return false;
-				}
-				filtrationIndex = Math.max(filtrationIndex, this.getFiltrationIndex(face));
-			}
-
-			for (int nn = 0; nn < N; ++nn) {
-				Dm[nn] = Math.max(Dm1[nn], D[i0][nn]);
-			}
-
-			double filtrationValue = Double.POSITIVE_INFINITY;
-			for (int nn = 0; nn < N; ++nn) {
-				filtrationValue = Math.min(filtrationValue, Dm[nn] - m[dim][nn]);
-			}
-			if (filtrationValue > this.maxDistance) {
-				return false;
-			}
-			filtrationIndex = Math.max(filtrationIndex, this.converter.getFiltrationIndex(filtrationValue));
-		}
-		}
-
-		// Add the simplex to the complex.
-		Simplex Snew = new Simplex(snew);
-		this.storageStructure.addElement(Snew, filtrationIndex);
 		if (this.saveAssociatedSimplices) {
+			this.associatedSimplices = new ArrayList<List<Simplex>>();
 			for (int nn = 0; nn < N; ++nn) {
-				if (Dm[nn] <= m[dim][nn]) {
-					this.associatedSimplices.get(nn).add(Snew);
-				}
-			}
-		}
-
-		// Recursively add cofaces.
-		if (dim < this.maxAllowableDimension) {
-			Deque<Integer> new_lower_vertices = new ArrayDeque<Integer>();
-			for (int ll : lower_vertices) {
-				if (this.addCofaces_(ll, snew, Dm, new_lower_vertices)) {
-					new_lower_vertices.add(ll);
-				}
+				this.associatedSimplices.add(new ArrayList<Simplex>());
 			}
+			engine.computeAssociatedSimplices(this.associatedSimplices);
 		}
-		return true;
 	}
 
 }
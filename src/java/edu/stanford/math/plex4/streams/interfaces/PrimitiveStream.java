@@ -85,6 +85,17 @@ public abstract class PrimitiveStream<T extends PrimitiveBasisElement> implement
 		return this.storageStructure.iterator();
 	}
 
+	/**
+	 * This function returns an iterator which provides the elements of the
+	 * stream in reverse order. The elements are read from the storage
+	 * structure without copying them. The stream must be finalized.
+	 * 
+	 * @return an iterator over the elements in decreasing order
+	 */
+	public final Iterator<T> reverseIterator() {
+		return this.storageStructure.reverseIterator();
+	}
+
 	/* (non-Javadoc)
 	 * @see edu.stanford.math.plex4.homology.streams.interfaces.AbstractFilteredStream#finalizeStream()
 	 */
@@ -0,0 +1,485 @@
+package edu.stanford.math.plex4.streams.storage_structures;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.homology.chain_basis.SimplexComparator;
+
+/**
+ * <p>This class implements a stream storage structure for simplices which stores
+ * the complex as a set of parallel primitive arrays rather than as a collection of
+ * objects. The vertices of all of the simplices are concatenated into a single int
+ * array, and for each simplex we store the offset of its vertices and its filtration
+ * index. The dimension of a simplex is given by the difference of consecutive offsets.
+ * The lookup of a simplex is performed with an open addressing hash table of
+ * integer ids which hashes the vertices directly.</p>
+ *
+ * <p>When the structure is finalized, the simplices are sorted by filtration index,
+ * dimension and then lexicographically (this is the ordering given by SimplexComparator),
+ * and the arrays are rearranged in this order. After finalization, the id of a simplex
+ * is its position in the stream, so that the functions getSimplex, getFiltrationIndex(int)
+ * and getDimension(int) provide constant time access by index. Simplex objects are only
+ * created when they are requested, for example by the iterator.</p>
+ *
+ * <p>The per-simplex overhead of this structure is about 16 bytes plus 4 bytes per
+ * vertex, as opposed to the several objects and map entries allocated for each element
+ * by the other storage structures.</p>
+ */
+public class ColumnarStorageStructure implements StreamStorageStructure<Simplex> {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * The concatenated vertices of the simplices.
+	 */
+	private int[] vertices = new int[DEFAULT_CAPACITY];
+
+	/**
+	 * The vertices of simplex i are vertices[offsets[i], ..., offsets[i + 1] - 1].
+	 */
+	private int[] offsets = new int[DEFAULT_CAPACITY + 1];
+
+	/**
+	 * The filtration indices of the simplices.
+	 */
+	private int[] filtrationIndices = new int[DEFAULT_CAPACITY];
+
+	/**
+	 * The number of ids that have been assigned, including removed ones.
+	 */
+	private int numIds = 0;
+
+	/**
+	 * The number of simplices currently in the structure.
+	 */
+	private int size = 0;
+
+	/**
+	 * The ids of the simplices which have been removed. These are discarded when the
+	 * structure is finalized.
+	 */
+	private final BitSet removedIds = new BitSet();
+
+	/**
+	 * Open addressing hash table containing (id + 1), or 0 for an empty slot.
+	 */
+	private int[] table = new int[2 * DEFAULT_CAPACITY];
+
+	/**
+	 * Indicates whether the storage structure is finalized or not.
+	 */
+	private boolean isFinalized = false;
+
+	/**
+	 * This constructor initializes an empty storage structure.
+	 */
+	public ColumnarStorageStructure() {}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#addElement(java.lang.Object, int)
+	 */
+	public void addElement(Simplex basisElement, int filtrationIndex) {
+		this.addSimplex(basisElement.getVertices(), filtrationIndex);
+	}
+
+	/**
+	 * This function adds the simplex with the given vertices without requiring a
+	 * Simplex object. The vertices must be sorted in increasing order.
+	 *
+	 * @param sortedVertices the vertices of the simplex in increasing order
+	 * @param filtrationIndex the filtration index of the simplex
+	 */
+	public void addSimplex(int[] sortedVertices, int filtrationIndex) {
+		if (this.isFinalized) {
+			throw new IllegalStateException("Cannot add objects to finalized storage structure.");
+		}
+
+		this.ensureCapacity(this.numIds + 1, this.offsets[this.numIds] + sortedVertices.length);
+
+		int id = this.numIds;
+		System.arraycopy(sortedVertices, 0, this.vertices, this.offsets[id], sortedVertices.length);
+		this.offsets[id + 1] = this.offsets[id] + sortedVertices.length;
+		this.filtrationIndices[id] = filtrationIndex;
+		this.numIds++;
+		this.size++;
+
+		this.insertIntoTable(id);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#removeElement(java.lang.Object)
+	 */
+	public void removeElement(Simplex basisElement) {
+		int id = this.getId(basisElement);
+		if (id < 0) {
+			throw new IllegalArgumentException("Element: " + basisElement + " is not present in the stream.");
+		}
+		this.removedIds.set(id);
+		this.size--;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#containsElement(java.lang.Object)
+	 */
+	public boolean containsElement(Simplex basisElement) {
+		return (this.getId(basisElement) >= 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getFiltrationIndex(java.lang.Object)
+	 */
+	public int getFiltrationIndex(Simplex basisElement) {
+		int id = this.getId(basisElement);
+		if (id < 0) {
+			return 0;
+		}
+		return this.filtrationIndices[id];
+	}
+
+	/**
+	 * This function returns the id of the given simplex, or -1 if it is not present.
+	 * After the structure is finalized, the id is the position of the simplex in the stream.
+	 *
+	 * @param simplex the simplex to query
+	 * @return the id of the simplex, or -1
+	 */
+	public int getId(Simplex simplex) {
+		int[] query = simplex.getVertices();
+		int mask = this.table.length - 1;
+		for (int slot = hash(query, 0, query.length) & mask; this.table[slot] != 0; slot = (slot + 1) & mask) {
+			int id = this.table[slot] - 1;
+			if (!this.removedIds.get(id) && this.verticesEqual(id, query)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * This function returns the simplex with the given id.
+	 *
+	 * @param id the id of the simplex
+	 * @return a new Simplex object
+	 */
+	public Simplex getSimplex(int id) {
+		return new Simplex(Arrays.copyOfRange(this.vertices, this.offsets[id], this.offsets[id + 1]));
+	}
+
+	/**
+	 * This function returns the filtration index of the simplex with the given id.
+	 *
+	 * @param id the id of the simplex
+	 * @return the filtration index of the simplex
+	 */
+	public int getFiltrationIndex(int id) {
+		return this.filtrationIndices[id];
+	}
+
+	/**
+	 * This function returns the i-th vertex of the simplex with the given id.
+	 */
+	int getVertex(int id, int i) {
+		return this.vertices[this.offsets[id] + i];
+	}
+
+	/**
+	 * This function returns the dimension of the simplex with the given id.
+	 *
+	 * @param id the id of the simplex
+	 * @return the dimension of the simplex
+	 */
+	public int getDimension(int id) {
+		return this.offsets[id + 1] - this.offsets[id] - 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#finalizeStructure()
+	 */
+	public void finalizeStructure() {
+		// collect the ids of the simplices which are still present
+		int[] order = new int[this.size];
+		int count = 0;
+		for (int id = 0; id < this.numIds; id++) {
+			if (!this.removedIds.get(id)) {
+				order[count++] = id;
+			}
+		}
+
+		this.sort(order, new int[order.length], 0, order.length);
+
+		// rearrange the columns in stream order
+		int[] newOffsets = new int[order.length + 1];
+		int[] newFiltrationIndices = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			int id = order[i];
+			newOffsets[i + 1] = newOffsets[i] + this.offsets[id + 1] - this.offsets[id];
+			newFiltrationIndices[i] = this.filtrationIndices[id];
+		}
+		int[] newVertices = new int[newOffsets[order.length]];
+		for (int i = 0; i < order.length; i++) {
+			int id = order[i];
+			System.arraycopy(this.vertices, this.offsets[id], newVertices, newOffsets[i], newOffsets[i + 1] - newOffsets[i]);
+		}
+
+		this.vertices = newVertices;
+		this.offsets = newOffsets;
+		this.filtrationIndices = newFiltrationIndices;
+		this.numIds = order.length;
+		this.removedIds.clear();
+
+		// rebuild the hash table for the new ids
+		this.table = new int[getTableCapacity(this.numIds)];
+		for (int id = 0; id < this.numIds; id++) {
+			this.insertIntoTable(id);
+		}
+
+		this.isFinalized = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#isFinalized()
+	 */
+	public boolean isFinalized() {
+		return this.isFinalized;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getBasisComparator()
+	 */
+	public Comparator<Simplex> getBasisComparator() {
+		return SimplexComparator.getInstance();
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getSize()
+	 */
+	public int getSize() {
+		return this.size;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getMaximumFiltrationIndex()
+	 */
+	public int getMaximumFiltrationIndex() {
+		int maxIndex = Integer.MIN_VALUE;
+		for (int id = 0; id < this.numIds; id++) {
+			if (!this.removedIds.get(id) && this.filtrationIndices[id] > maxIndex) {
+				maxIndex = this.filtrationIndices[id];
+			}
+		}
+		return maxIndex;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getMinimumFiltrationIndex()
+	 */
+	public int getMinimumFiltrationIndex() {
+		int minIndex = Integer.MAX_VALUE;
+		for (int id = 0; id < this.numIds; id++) {
+			if (!this.removedIds.get(id) && this.filtrationIndices[id] < minIndex) {
+				minIndex = this.filtrationIndices[id];
+			}
+		}
+		return minIndex;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Iterable#iterator()
+	 */
+	public Iterator<Simplex> iterator() {
+		return new Iterator<Simplex>() {
+			private int nextId = this.advance(0);
+
+			private int advance(int id) {
+				while (id < numIds && removedIds.get(id)) {
+					id++;
+				}
+				return id;
+			}
+
+			public boolean hasNext() {
+				return (this.nextId < numIds);
+			}
+
+			public Simplex next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Simplex simplex = getSimplex(this.nextId);
+				this.nextId = this.advance(this.nextId + 1);
+				return simplex;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#reverseIterator()
+	 */
+	public Iterator<Simplex> reverseIterator() {
+		return new Iterator<Simplex>() {
+			private int nextId = this.retreat(numIds - 1);
+
+			private int retreat(int id) {
+				while (id >= 0 && removedIds.get(id)) {
+					id--;
+				}
+				return id;
+			}
+
+			public boolean hasNext() {
+				return (this.nextId >= 0);
+			}
+
+			public Simplex next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Simplex simplex = getSimplex(this.nextId);
+				this.nextId = this.retreat(this.nextId - 1);
+				return simplex;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * This function grows the arrays so that they can hold the given number of
+	 * simplices and vertices.
+	 */
+	private void ensureCapacity(int numSimplices, int numVertices) {
+		if (numSimplices > this.filtrationIndices.length) {
+			int capacity = Math.max(numSimplices, 2 * this.filtrationIndices.length);
+			this.filtrationIndices = Arrays.copyOf(this.filtrationIndices, capacity);
+			this.offsets = Arrays.copyOf(this.offsets, capacity + 1);
+		}
+		if (numVertices > this.vertices.length) {
+			this.vertices = Arrays.copyOf(this.vertices, Math.max(numVertices, 2 * this.vertices.length));
+		}
+		if (2 * numSimplices > this.table.length) {
+			this.table = new int[getTableCapacity(numSimplices)];
+			for (int id = 0; id < this.numIds; id++) {
+				this.insertIntoTable(id);
+			}
+		}
+	}
+
+	/**
+	 * This function returns a power of two which is at least twice the number of ids.
+	 */
+	private static int getTableCapacity(int numIds) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < 2 * numIds) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private void insertIntoTable(int id) {
+		int mask = this.table.length - 1;
+		int slot = hash(this.vertices, this.offsets[id], this.offsets[id + 1]) & mask;
+		while (this.table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		this.table[slot] = id + 1;
+	}
+
+	private boolean verticesEqual(int id, int[] query) {
+		int start = this.offsets[id];
+		if (this.offsets[id + 1] - start != query.length) {
+			return false;
+		}
+		for (int i = 0; i < query.length; i++) {
+			if (this.vertices[start + i] != query[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This function computes the hash code of the vertices array[start, ..., end - 1].
+	 * It is also used by the on-disk index of MappedStorageStructure.
+	 */
+	static int hash(int[] array, int start, int end) {
+		int h = end - start;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + array[i];
+		}
+		// spread the bits, since the table uses the low order bits
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	/**
+	 * This function compares two simplices first by filtration index, then by dimension
+	 * and then lexicographically.
+	 */
+	private int compare(int id1, int id2) {
+		if (this.filtrationIndices[id1] != this.filtrationIndices[id2]) {
+			return (this.filtrationIndices[id1] < this.filtrationIndices[id2] ? -1 : 1);
+		}
+		int start1 = this.offsets[id1];
+		int start2 = this.offsets[id2];
+		int length1 = this.offsets[id1 + 1] - start1;
+		int length2 = this.offsets[id2 + 1] - start2;
+		if (length1 != length2) {
+			return (length1 < length2 ? -1 : 1);
+		}
+		for (int i = 0; i < length1; i++) {
+			int v1 = this.vertices[start1 + i];
+			int v2 = this.vertices[start2 + i];
+			if (v1 != v2) {
+				return (v1 < v2 ? -1 : 1);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * This function sorts ids[start, ..., end - 1] using merge sort.
+	 */
+	private void sort(int[] ids, int[] buffer, int start, int end) {
+		if (end - start <= 16) {
+			for (int i = start + 1; i < end; i++) {
+				int id = ids[i];
+				int j = i - 1;
+				while (j >= start && this.compare(ids[j], id) > 0) {
+					ids[j + 1] = ids[j];
+					j--;
+				}
+				ids[j + 1] = id;
+			}
+			return;
+		}
+
+		int middle = (start + end) >>> 1;
+		this.sort(ids, buffer, start, middle);
+		this.sort(ids, buffer, middle, end);
+		if (this.compare(ids[middle - 1], ids[middle]) <= 0) {
+			return;
+		}
+
+		System.arraycopy(ids, start, buffer, start, end - start);
+		int i = start;
+		int j = middle;
+		for (int k = start; k < end; k++) {
+			if (j >= end || (i < middle && this.compare(buffer[i], buffer[j]) <= 0)) {
+				ids[k] = buffer[i++];
+			} else {
+				ids[k] = buffer[j++];
+			}
+		}
+	}
+}
@@ -4,10 +4,13 @@
 package edu.stanford.math.plex4.streams.storage_structures;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
 import edu.stanford.math.plex4.homology.chain_basis.PrimitiveBasisElement;
 import gnu.trove.TIntObjectHashMap;
@@ -64,6 +67,51 @@ public class HashedStorageStructure<T extends PrimitiveBasisElement> implements
 		return new HashedStorageStructureIterator<T>(this.indexDimensionObjectMap);
 	}
 	
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#reverseIterator()
+	 */
+	public Iterator<T> reverseIterator() {
+		// collect the lists in stream order, and traverse them backwards
+		final List<List<T>> lists = new ArrayList<List<T>>();
+		int[] filtrationIndices = this.indexDimensionObjectMap.keys();
+		Arrays.sort(filtrationIndices);
+		for (int filtrationIndex: filtrationIndices) {
+			TIntObjectHashMap<List<T>> dimensionMap = this.indexDimensionObjectMap.get(filtrationIndex);
+			int[] dimensions = dimensionMap.keys();
+			Arrays.sort(dimensions);
+			for (int dimension: dimensions) {
+				lists.add(dimensionMap.get(dimension));
+			}
+		}
+		
+		return new Iterator<T>() {
+			private int listIndex = lists.size();
+			private ListIterator<T> listIterator = null;
+			
+			public boolean hasNext() {
+				while (this.listIterator == null || !this.listIterator.hasPrevious()) {
+					if (this.listIndex == 0) {
+						return false;
+					}
+					this.listIndex--;
+					this.listIterator = lists.get(this.listIndex).listIterator(lists.get(this.listIndex).size());
+				}
+				return true;
+			}
+
+			public T next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return this.listIterator.previous();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
 	/* (non-Javadoc)
 	 * @see edu.stanford.math.plex4.homology.streams.storage_structures.StreamStorageStructure#addElement(java.lang.Object, int)
 	 */
@@ -0,0 +1,617 @@
+package edu.stanford.math.plex4.streams.storage_structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.homology.chain_basis.SimplexComparator;
+import edu.stanford.math.plex4.utility.ExceptionUtility;
+
+/**
+ * <p>This class implements a stream storage structure for simplices which is backed by
+ * a memory-mapped file, so that the size of a complex is bounded by the available disk
+ * space rather than by the heap. It is written once: the simplices are added through
+ * the addElement function, and when the structure is finalized they are written to the
+ * file in stream order. After this the file is mapped into memory and read directly.
+ * A structure can also be opened from an existing file with the open function.</p>
+ *
+ * <p>While the simplices are being added, they are collected in a ColumnarStorageStructure
+ * of bounded size. When it is full it is sorted and written to a temporary file in the
+ * same directory as the target file. Finalizing merges these sorted runs into the target
+ * file. Note that the structure does not detect elements that are added more than once,
+ * and that elements cannot be removed.</p>
+ *
+ * <p>The file consists of a header, a table of fixed-size records sorted by filtration
+ * index, dimension and vertices, and an open addressing hash index on the vertices
+ * which is used to look up the filtration indices of the boundary elements. Each record
+ * contains the filtration index followed by maxDimension + 1 vertex slots, the unused
+ * slots being set to -1. All values are stored as big-endian ints.</p>
+ */
+public class MappedStorageStructure implements StreamStorageStructure<Simplex> {
+	private static final int MAGIC = 0x504C5834;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+	private static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+	/**
+	 * The maximum number of simplices in a structure. The hash index has at least twice
+	 * as many slots as there are simplices, and its capacity is stored as an int.
+	 */
+	public static final int MAX_SIZE = 1 << 29;
+
+	/**
+	 * The file is mapped in segments of 2^SEGMENT_BITS bytes, since a single buffer
+	 * cannot exceed 2GB. Since all values are aligned ints, none of them crosses the
+	 * boundary of a segment.
+	 */
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private final File file;
+	private final int maxDimension;
+	private final int recordInts;
+
+	/**
+	 * The maximum number of simplices held in memory before a run is written.
+	 */
+	private final int runSize;
+
+	private ColumnarStorageStructure currentRun = new ColumnarStorageStructure();
+	private final List<File> runFiles = new ArrayList<File>();
+
+	private MappedByteBuffer[] segments = null;
+	private int size = 0;
+	private int minFiltrationIndex = Integer.MAX_VALUE;
+	private int maxFiltrationIndex = Integer.MIN_VALUE;
+	private long indexOffset;
+	private int indexCapacity;
+	private boolean isFinalized = false;
+
+	/**
+	 * This constructor initializes a structure which will be written to the given file.
+	 *
+	 * @param file the file to write to, which is overwritten if it exists
+	 * @param maxDimension the maximum dimension of the simplices
+	 */
+	public MappedStorageStructure(File file, int maxDimension) {
+		this(file, maxDimension, DEFAULT_RUN_SIZE);
+	}
+
+	/**
+	 * This constructor initializes a structure which will be written to the given file.
+	 *
+	 * @param file the file to write to, which is overwritten if it exists
+	 * @param maxDimension the maximum dimension of the simplices
+	 * @param runSize the maximum number of simplices held in memory during construction
+	 */
+	public MappedStorageStructure(File file, int maxDimension, int runSize) {
+		ExceptionUtility.verifyNonNull(file);
+		ExceptionUtility.verifyNonNegative(maxDimension);
+		ExceptionUtility.verifyPositive(runSize);
+		this.file = file;
+		this.maxDimension = maxDimension;
+		this.recordInts = maxDimension + 2;
+		this.runSize = runSize;
+	}
+
+	/**
+	 * This function opens a file which was written by a MappedStorageStructure. The
+	 * returned structure is finalized.
+	 *
+	 * @param file the file to open
+	 * @return a finalized storage structure backed by the file
+	 * @throws IOException if the file cannot be read or has an invalid format
+	 */
+	public static MappedStorageStructure open(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		int maxDimension;
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("Not a simplex stream file: " + file);
+			}
+			maxDimension = input.readInt();
+		} finally {
+			input.close();
+		}
+
+		MappedStorageStructure structure = new MappedStorageStructure(file, maxDimension);
+		structure.map(FileChannel.MapMode.READ_ONLY);
+		structure.readHeader();
+		structure.currentRun = null;
+		structure.isFinalized = true;
+		return structure;
+	}
+
+	/**
+	 * This function returns the file backing the structure.
+	 *
+	 * @return the backing file
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#addElement(java.lang.Object, int)
+	 */
+	public void addElement(Simplex basisElement, int filtrationIndex) {
+		if (this.isFinalized) {
+			throw new IllegalStateException("Cannot add objects to finalized storage structure.");
+		}
+		if (basisElement.getDimension() > this.maxDimension) {
+			throw new IllegalArgumentException("Simplex " + basisElement + " exceeds the maximum dimension " + this.maxDimension);
+		}
+
+		if (this.size >= MAX_SIZE) {
+			throw new IllegalArgumentException("Storage structure cannot hold more than " + MAX_SIZE + " simplices.");
+		}
+
+		this.currentRun.addElement(basisElement, filtrationIndex);
+		this.size++;
+		this.minFiltrationIndex = Math.min(this.minFiltrationIndex, filtrationIndex);
+		this.maxFiltrationIndex = Math.max(this.maxFiltrationIndex, filtrationIndex);
+
+		if (this.currentRun.getSize() >= this.runSize) {
+			this.writeCurrentRun();
+		}
+	}
+
+	/**
+	 * This operation is not supported, since the structure is written once.
+	 */
+	public void removeElement(Simplex basisElement) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#containsElement(java.lang.Object)
+	 */
+	public boolean containsElement(Simplex basisElement) {
+		if (!this.isFinalized) {
+			// the elements which have been written to runs cannot be queried
+			return false;
+		}
+		return (this.getId(basisElement) >= 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getFiltrationIndex(java.lang.Object)
+	 */
+	public int getFiltrationIndex(Simplex basisElement) {
+		int id = this.getId(basisElement);
+		if (id < 0) {
+			return 0;
+		}
+		return this.getFiltrationIndex(id);
+	}
+
+	/**
+	 * This function returns the position of the given simplex in the stream, or -1 if it
+	 * is not present. The structure must be finalized.
+	 *
+	 * @param simplex the simplex to query
+	 * @return the position of the simplex, or -1
+	 */
+	public int getId(Simplex simplex) {
+		this.verifyFinalized();
+		int[] query = simplex.getVertices();
+		if (query.length > this.maxDimension + 1) {
+			return -1;
+		}
+
+		long mask = this.indexCapacity - 1;
+		for (long slot = ColumnarStorageStructure.hash(query, 0, query.length) & mask; ; slot = (slot + 1) & mask) {
+			int entry = this.getInt(this.indexOffset + 4 * slot);
+			if (entry == 0) {
+				return -1;
+			}
+			if (this.verticesEqual(entry - 1, query)) {
+				return entry - 1;
+			}
+		}
+	}
+
+	/**
+	 * This function returns the simplex at the given position in the stream.
+	 *
+	 * @param id the position of the simplex
+	 * @return a new Simplex object
+	 */
+	public Simplex getSimplex(int id) {
+		long position = this.getRecordOffset(id) + 4;
+		int numVertices = 0;
+		while (numVertices <= this.maxDimension && this.getInt(position + 4 * numVertices) >= 0) {
+			numVertices++;
+		}
+		int[] vertices = new int[numVertices];
+		for (int i = 0; i < numVertices; i++) {
+			vertices[i] = this.getInt(position + 4 * i);
+		}
+		return new Simplex(vertices);
+	}
+
+	/**
+	 * This function returns the filtration index of the simplex at the given position.
+	 *
+	 * @param id the position of the simplex
+	 * @return the filtration index of the simplex
+	 */
+	public int getFiltrationIndex(int id) {
+		return this.getInt(this.getRecordOffset(id));
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#finalizeStructure()
+	 */
+	public void finalizeStructure() {
+		if (this.isFinalized) {
+			return;
+		}
+
+		try {
+			this.writeCurrentRun();
+			this.currentRun = null;
+
+			this.indexCapacity = getIndexCapacity(this.size);
+			this.indexOffset = HEADER_BYTES + 4L * this.recordInts * this.size;
+
+			RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
+			try {
+				// truncate first, so that the index region is zero
+				randomAccessFile.setLength(0);
+				randomAccessFile.setLength(this.indexOffset + 4L * this.indexCapacity);
+			} finally {
+				randomAccessFile.close();
+			}
+
+			this.map(FileChannel.MapMode.READ_WRITE);
+			this.writeHeader();
+			this.mergeRuns();
+			this.buildIndex();
+			for (MappedByteBuffer segment : this.segments) {
+				segment.force();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			for (File runFile : this.runFiles) {
+				runFile.delete();
+			}
+			this.runFiles.clear();
+		}
+
+		this.isFinalized = true;
+	}
+
+	/**
+	 * This function returns the number of slots of the hash index for the given number
+	 * of simplices, which is the smallest power of two that is at least 16 and at least
+	 * twice the number of simplices.
+	 *
+	 * @param size the number of simplices
+	 * @return the capacity of the hash index
+	 */
+	public static int getIndexCapacity(int size) {
+		if (size < 0 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Size must be between 0 and " + MAX_SIZE + ": " + size);
+		}
+		long capacity = 16;
+		while (capacity < 2L * size) {
+			capacity <<= 1;
+		}
+		return (int) capacity;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#isFinalized()
+	 */
+	public boolean isFinalized() {
+		return this.isFinalized;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getBasisComparator()
+	 */
+	public Comparator<Simplex> getBasisComparator() {
+		return SimplexComparator.getInstance();
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getSize()
+	 */
+	public int getSize() {
+		return this.size;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getMaximumFiltrationIndex()
+	 */
+	public int getMaximumFiltrationIndex() {
+		return this.maxFiltrationIndex;
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#getMinimumFiltrationIndex()
+	 */
+	public int getMinimumFiltrationIndex() {
+		return this.minFiltrationIndex;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Iterable#iterator()
+	 */
+	public Iterator<Simplex> iterator() {
+		this.verifyFinalized();
+		return new Iterator<Simplex>() {
+			private int nextId = 0;
+
+			public boolean hasNext() {
+				return (this.nextId < size);
+			}
+
+			public Simplex next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return getSimplex(this.nextId++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#reverseIterator()
+	 */
+	public Iterator<Simplex> reverseIterator() {
+		this.verifyFinalized();
+		return new Iterator<Simplex>() {
+			private int nextId = size - 1;
+
+			public boolean hasNext() {
+				return (this.nextId >= 0);
+			}
+
+			public Simplex next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return getSimplex(this.nextId--);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private void verifyFinalized() {
+		if (!this.isFinalized) {
+			throw new IllegalStateException("The storage structure must be finalized before it can be read.");
+		}
+	}
+
+	/**
+	 * This function sorts the simplices held in memory and writes them to a temporary file.
+	 */
+	private void writeCurrentRun() {
+		if (this.currentRun.getSize() == 0) {
+			return;
+		}
+
+		ColumnarStorageStructure run = this.currentRun;
+		run.finalizeStructure();
+		try {
+			File runFile = File.createTempFile("run", ".tmp", this.file.getAbsoluteFile().getParentFile());
+			this.runFiles.add(runFile);
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+			try {
+				for (int id = 0; id < run.getSize(); id++) {
+					output.writeInt(run.getFiltrationIndex(id));
+					int numVertices = run.getDimension(id) + 1;
+					for (int i = 0; i <= this.maxDimension; i++) {
+						output.writeInt(i < numVertices ? run.getVertex(id, i) : -1);
+					}
+				}
+			} finally {
+				output.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		this.currentRun = new ColumnarStorageStructure();
+	}
+
+	/**
+	 * This function merges the sorted runs into the record table of the mapped file.
+	 */
+	private void mergeRuns() throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+		try {
+			for (File runFile : this.runFiles) {
+				RunReader reader = new RunReader(runFile, this.recordInts);
+				if (reader.advance()) {
+					queue.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+
+			long position = HEADER_BYTES;
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				for (int i = 0; i < this.recordInts; i++) {
+					this.putInt(position, reader.record[i]);
+					position += 4;
+				}
+				if (reader.advance()) {
+					queue.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+		} finally {
+			for (RunReader reader : queue) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * This function fills the hash index with the positions of the records.
+	 */
+	private void buildIndex() {
+		int[] vertices = new int[this.maxDimension + 1];
+		long mask = this.indexCapacity - 1;
+		for (int id = 0; id < this.size; id++) {
+			long position = this.getRecordOffset(id) + 4;
+			int numVertices = 0;
+			while (numVertices <= this.maxDimension && (vertices[numVertices] = this.getInt(position + 4 * numVertices)) >= 0) {
+				numVertices++;
+			}
+
+			long slot = ColumnarStorageStructure.hash(vertices, 0, numVertices) & mask;
+			while (this.getInt(this.indexOffset + 4 * slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			this.putInt(this.indexOffset + 4 * slot, id + 1);
+		}
+	}
+
+	private void writeHeader() {
+		this.putInt(0, MAGIC);
+		this.putInt(4, VERSION);
+		this.putInt(8, this.maxDimension);
+		this.putInt(12, this.size);
+		this.putInt(16, this.minFiltrationIndex);
+		this.putInt(20, this.maxFiltrationIndex);
+		this.putInt(24, this.indexCapacity);
+	}
+
+	private void readHeader() {
+		this.size = this.getInt(12);
+		this.minFiltrationIndex = this.getInt(16);
+		this.maxFiltrationIndex = this.getInt(20);
+		this.indexCapacity = this.getInt(24);
+		this.indexOffset = HEADER_BYTES + 4L * this.recordInts * this.size;
+	}
+
+	/**
+	 * This function maps the whole file into memory.
+	 */
+	private void map(FileChannel.MapMode mode) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, (mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw"));
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			long length = channel.size();
+			int numSegments = (int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS);
+			this.segments = new MappedByteBuffer[numSegments];
+			for (int i = 0; i < numSegments; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				this.segments[i] = channel.map(mode, start, Math.min(length - start, 1L << SEGMENT_BITS));
+			}
+		} finally {
+			// the mappings remain valid after the channel is closed
+			randomAccessFile.close();
+		}
+	}
+
+	private long getRecordOffset(int id) {
+		return HEADER_BYTES + 4L * this.recordInts * id;
+	}
+
+	private int getInt(long position) {
+		return this.segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+	}
+
+	private void putInt(long position, int value) {
+		this.segments[(int) (position >>> SEGMENT_BITS)].putInt((int) (position & SEGMENT_MASK), value);
+	}
+
+	private boolean verticesEqual(int id, int[] query) {
+		long position = this.getRecordOffset(id) + 4;
+		for (int i = 0; i < query.length; i++) {
+			if (this.getInt(position + 4 * i) != query[i]) {
+				return false;
+			}
+		}
+		return (query.length > this.maxDimension || this.getInt(position + 4 * query.length) < 0);
+	}
+
+	/**
+	 * This class reads the records of a sorted run sequentially.
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		private final DataInputStream input;
+		private final int[] record;
+
+		RunReader(File runFile, int recordInts) throws IOException {
+			this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+			this.record = new int[recordInts];
+		}
+
+		boolean advance() throws IOException {
+			try {
+				this.record[0] = this.input.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			for (int i = 1; i < this.record.length; i++) {
+				this.record[i] = this.input.readInt();
+			}
+			return true;
+		}
+
+		void close() throws IOException {
+			this.input.close();
+		}
+
+		/*
+		 * Records are compared by filtration index, then by dimension, and then
+		 * lexicographically, which is the order of the ColumnarStorageStructure.
+		 */
+		public int compareTo(RunReader other) {
+			if (this.record[0] != other.record[0]) {
+				return (this.record[0] < other.record[0] ? -1 : 1);
+			}
+			int length = getNumVertices(this.record);
+			int otherLength = getNumVertices(other.record);
+			if (length != otherLength) {
+				return (length < otherLength ? -1 : 1);
+			}
+			for (int i = 1; i <= length; i++) {
+				if (this.record[i] != other.record[i]) {
+					return (this.record[i] < other.record[i] ? -1 : 1);
+				}
+			}
+			return 0;
+		}
+
+		private static int getNumVertices(int[] record) {
+			int numVertices = 0;
+			while (numVertices + 1 < record.length && record[numVertices + 1] >= 0) {
+				numVertices++;
+			}
+			return numVertices;
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 
 import edu.stanford.math.primitivelib.autogen.pair.IntObjectPair;
 import edu.stanford.math.primitivelib.autogen.pair.IntObjectPairComparator;
@@ -126,6 +127,26 @@ public class SortedStorageStructure<T> implements StreamStorageStructure<T> {
 		return new IntOrderedIterator<T>(this.elementFiltrationPairs);
 	}
 
+	/* (non-Javadoc)
+	 * @see edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructure#reverseIterator()
+	 */
+	public Iterator<T> reverseIterator() {
+		final ListIterator<IntObjectPair<T>> listIterator = this.elementFiltrationPairs.listIterator(this.elementFiltrationPairs.size());
+		return new Iterator<T>() {
+			public boolean hasNext() {
+				return listIterator.hasPrevious();
+			}
+
+			public T next() {
+				return listIterator.previous().getSecond();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
 	/* (non-Javadoc)
 	 * @see edu.stanford.math.plex4.homology.streams.storage_structures.StreamStorageStructure#getFiltrationIndex(java.lang.Object)
 	 */
@@ -1,6 +1,7 @@
 package edu.stanford.math.plex4.streams.storage_structures;
 
 import java.util.Comparator;
+import java.util.Iterator;
 
 /**
  * This interface defines the functionality of a stream storage structure. Such
@@ -25,6 +26,16 @@ public interface StreamStorageStructure<T> extends Iterable<T> {
 	 */
 	void addElement(T basisElement, int filtrationIndex);
 	
+	/**
+	 * This function returns an iterator which provides the elements in the
+	 * reverse of the order given by iterator(). The elements are read from
+	 * the structure itself, without copying them. The structure must be
+	 * finalized.
+	 * 
+	 * @return an iterator over the elements in decreasing order
+	 */
+	Iterator<T> reverseIterator();
+	
 	/**
 	 * This function removes the specified element form the storage structure.
 	 * In the case that the element is not present in the stream, this function 
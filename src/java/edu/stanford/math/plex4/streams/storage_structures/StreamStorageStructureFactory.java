@@ -1,8 +1,10 @@
 package edu.stanford.math.plex4.streams.storage_structures;
 
+import java.io.File;
 import java.util.Comparator;
 
 import edu.stanford.math.plex4.homology.chain_basis.PrimitiveBasisElement;
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
 
 /**
  * This class contains various convenience functions for constructing stream storage structures. It also
@@ -45,4 +47,26 @@ public class StreamStorageStructureFactory {
 	public static <T extends PrimitiveBasisElement> StreamStorageStructure<T> getHashedStorageStructure(Comparator<T> comparator) {
 		return new HashedStorageStructure<T>(comparator);
 	}
+	
+	/**
+	 * This function creates a new columnar storage structure for simplices. This structure
+	 * stores the simplices in primitive arrays, and uses the ordering defined by SimplexComparator.
+	 * 
+	 * @return a new columnar stream storage structure
+	 */
+	public static StreamStorageStructure<Simplex> getColumnarStorageStructure() {
+		return new ColumnarStorageStructure();
+	}
+	
+	/**
+	 * This function creates a new storage structure for simplices which is backed by a
+	 * memory-mapped file. The file is written when the structure is finalized.
+	 * 
+	 * @param file the file to write to
+	 * @param maxDimension the maximum dimension of the simplices
+	 * @return a new file-backed stream storage structure
+	 */
+	public static StreamStorageStructure<Simplex> getMappedStorageStructure(File file, int maxDimension) {
+		return new MappedStorageStructure(file, maxDimension);
+	}
 }
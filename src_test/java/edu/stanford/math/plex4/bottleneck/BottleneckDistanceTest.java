@@ -1,5 +1,8 @@
 package edu.stanford.math.plex4.bottleneck;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.After;
@@ -13,6 +16,8 @@ import edu.stanford.math.plex4.homology.barcodes.Interval;
 import edu.stanford.math.plex4.homology.chain_basis.Simplex;
 import edu.stanford.math.plex4.homology.interfaces.AbstractPersistenceAlgorithm;
 import edu.stanford.math.plex4.streams.impl.VietorisRipsStream;
+import edu.stanford.math.plex4.utility.RandomUtility;
+import edu.stanford.math.primitivelib.utility.Infinity;
 
 public class BottleneckDistanceTest {
 
@@ -63,4 +68,92 @@ public class BottleneckDistanceTest {
 		
 		System.out.println(bottleneckDistance);
 	}
+	
+	/**
+	 * This test compares the matching engine against the perfect matching threshold of
+	 * the full bipartite graph, on small random diagrams with many ties.
+	 */
+	@Test
+	public void testAgainstBipartiteGraph() {
+		RandomUtility.initializeWithSeed(0);
+		
+		for (int trial = 0; trial < 200; trial++) {
+			List<Interval<Double>> A = createRandomDiagram(RandomUtility.nextUniformInt(0, 8), trial % 4 == 0);
+			List<Interval<Double>> B = createRandomDiagram(RandomUtility.nextUniformInt(0, 8), trial % 4 == 0);
+			
+			if (A.size() + B.size() == 0) {
+				continue;
+			}
+			
+			assertEquals(computeGraphBottleneckDistance(A, B), BottleneckDistance.computeBottleneckDistance(A, B), 0);
+			assertEquals(computeGraphBottleneckDistance(B, A), BottleneckDistance.computeBottleneckDistance(B, A), 0);
+		}
+	}
+	
+	/**
+	 * This test compares the parallel distance matrix with and without a cutoff against
+	 * the pairwise distances.
+	 */
+	@Test
+	public void testDistanceMatrix() {
+		RandomUtility.initializeWithSeed(0);
+		
+		List<BarcodeCollection<Double>> barcodes = new ArrayList<BarcodeCollection<Double>>();
+		for (int i = 0; i < 20; i++) {
+			BarcodeCollection<Double> collection = new BarcodeCollection<Double>();
+			for (Interval<Double> interval: createRandomDiagram(RandomUtility.nextUniformInt(0, 8), i % 4 == 0)) {
+				collection.addInterval(1, interval);
+			}
+			barcodes.add(collection);
+		}
+		
+		double cutoff = 2;
+		double[][] distances = BottleneckDistanceMatrix.computeDistanceMatrix(barcodes, 1);
+		double[][] cutoffDistances = BottleneckDistanceMatrix.computeDistanceMatrix(barcodes, 1, cutoff, 3);
+		
+		for (int i = 0; i < barcodes.size(); i++) {
+			assertEquals(0, distances[i][i], 0);
+			for (int j = 0; j < barcodes.size(); j++) {
+				double distance = BottleneckDistance.computeBottleneckDistance(barcodes.get(i).getIntervalsAtDimension(1), barcodes.get(j).getIntervalsAtDimension(1));
+				if (i != j) {
+					assertEquals(distance, distances[i][j], 0);
+				}
+				assertEquals(distance <= cutoff ? distance : Infinity.Double.getPositiveInfinity(), cutoffDistances[i][j], 0);
+			}
+		}
+	}
+	
+	private static List<Interval<Double>> createRandomDiagram(int size, boolean includeInfinite) {
+		List<Interval<Double>> intervals = new ArrayList<Interval<Double>>();
+		for (int i = 0; i < size; i++) {
+			double start = RandomUtility.nextUniformInt(0, 10);
+			if (includeInfinite && RandomUtility.nextUniformInt(0, 3) == 0) {
+				intervals.add(Interval.makeRightInfiniteRightOpenInterval(start));
+			} else {
+				intervals.add(Interval.makeFiniteRightOpenInterval(start, start + RandomUtility.nextUniformInt(0, 10) * 0.5));
+			}
+		}
+		return intervals;
+	}
+	
+	private static double computeGraphBottleneckDistance(List<Interval<Double>> A, List<Interval<Double>> B) {
+		int a = A.size();
+		int b = B.size();
+		
+		WeightedBipartiteGraph graph = new WeightedBipartiteGraph(a + b);
+		
+		for (int i = 0; i < a; i++) {
+			for (int j = 0; j < b; j++) {
+				graph.addEdge(i, j, BottleneckDistance.distance(A.get(i), B.get(j)));
+				graph.addEdge(a + j, b + i, 0);
+			}
+			graph.addEdge(i, b + i, BottleneckDistance.distanceToDiagonal(A.get(i)));
+		}
+		
+		for (int j = 0; j < b; j++) {
+			graph.addEdge(a + j, j, BottleneckDistance.distanceToDiagonal(B.get(j)));
+		}
+		
+		return graph.computePerfectMatchingThreshold();
+	}
 }
@@ -0,0 +1,108 @@
+package edu.stanford.math.plex4.bottleneck;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.math.plex4.homology.barcodes.Interval;
+import edu.stanford.math.plex4.utility.RandomUtility;
+import edu.stanford.math.primitivelib.utility.Infinity;
+
+public class WassersteinDistanceTest {
+
+	/**
+	 * This test compares the auction algorithm against an exhaustive search over all
+	 * matchings of small random diagrams.
+	 */
+	@Test
+	public void testAgainstExhaustiveSearch() {
+		RandomUtility.initializeWithSeed(0);
+		double relativeError = 1e-3;
+
+		for (int trial = 0; trial < 200; trial++) {
+			List<Interval<Double>> A = createRandomDiagram(RandomUtility.nextUniformInt(0, 5));
+			List<Interval<Double>> B = createRandomDiagram(RandomUtility.nextUniformInt(0, 5));
+
+			for (double p: new double[]{1, 2, 3.5}) {
+				double exact = computeExhaustiveDistance(A, B, p);
+				double distance = WassersteinDistance.computeWassersteinDistance(A, B, p, relativeError);
+				assertTrue(distance >= exact * (1 - 1e-9));
+				assertTrue(distance <= exact * (1 + relativeError) + 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testInfiniteIntervals() {
+		List<Interval<Double>> A = new ArrayList<Interval<Double>>();
+		List<Interval<Double>> B = new ArrayList<Interval<Double>>();
+		A.add(Interval.makeRightInfiniteRightOpenInterval(0.0));
+		A.add(Interval.makeRightInfiniteRightOpenInterval(3.0));
+		B.add(Interval.makeRightInfiniteRightOpenInterval(1.0));
+		B.add(Interval.makeRightInfiniteRightOpenInterval(5.0));
+
+		assertEquals(Math.sqrt(5), WassersteinDistance.computeWassersteinDistance(A, B, 2), 1e-12);
+
+		B.add(Interval.makeRightInfiniteRightOpenInterval(7.0));
+		assertEquals(Infinity.Double.getPositiveInfinity(), WassersteinDistance.computeWassersteinDistance(A, B, 2), 0);
+	}
+
+	private static List<Interval<Double>> createRandomDiagram(int size) {
+		List<Interval<Double>> intervals = new ArrayList<Interval<Double>>();
+		for (int i = 0; i < size; i++) {
+			double start = RandomUtility.nextUniformInt(0, 10);
+			intervals.add(Interval.makeFiniteRightOpenInterval(start, start + RandomUtility.nextUniformInt(0, 10) * 0.5));
+		}
+		return intervals;
+	}
+
+	/**
+	 * This function computes the exact distance by dynamic programming over the subsets of
+	 * matched points of B.
+	 */
+	private static double computeExhaustiveDistance(List<Interval<Double>> A, List<Interval<Double>> B, double p) {
+		int a = A.size();
+		int b = B.size();
+
+		double[] costs = new double[1 << b];
+		Arrays.fill(costs, Double.POSITIVE_INFINITY);
+		costs[0] = 0;
+
+		for (int i = 0; i < a; i++) {
+			double[] nextCosts = new double[1 << b];
+			Arrays.fill(nextCosts, Double.POSITIVE_INFINITY);
+			for (int subset = 0; subset < (1 << b); subset++) {
+				if (Double.isInfinite(costs[subset])) {
+					continue;
+				}
+				double diagonalCost = costs[subset] + Math.pow(BottleneckDistance.distanceToDiagonal(A.get(i)), p);
+				nextCosts[subset] = Math.min(nextCosts[subset], diagonalCost);
+				for (int j = 0; j < b; j++) {
+					if ((subset & (1 << j)) == 0) {
+						double cost = costs[subset] + Math.pow(BottleneckDistance.distance(A.get(i), B.get(j)), p);
+						nextCosts[subset | (1 << j)] = Math.min(nextCosts[subset | (1 << j)], cost);
+					}
+				}
+			}
+			costs = nextCosts;
+		}
+
+		double minimumCost = Double.POSITIVE_INFINITY;
+		for (int subset = 0; subset < (1 << b); subset++) {
+			double cost = costs[subset];
+			for (int j = 0; j < b; j++) {
+				if ((subset & (1 << j)) == 0) {
+					cost += Math.pow(BottleneckDistance.distanceToDiagonal(B.get(j)), p);
+				}
+			}
+			minimumCost = Math.min(minimumCost, cost);
+		}
+
+		return Math.pow(minimumCost, 1 / p);
+	}
+}
@@ -1,6 +1,10 @@
 package edu.stanford.math.plex4.example_tests;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -8,8 +12,20 @@ import org.junit.Test;
 
 import edu.stanford.math.plex4.examples.PointCloudExamples;
 import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.homology.chain_basis.SimplexComparator;
+import edu.stanford.math.plex4.homology.zigzag.IntervalTracker;
+import edu.stanford.math.plex4.homology.zigzag.SimpleHomologyBasisTracker;
+import edu.stanford.math.plex4.homology.zigzag.bootstrap.InducedHomologyMappingUtility;
 import edu.stanford.math.plex4.homology.zigzag.bootstrap.VietorisRipsBootstrapper;
+import edu.stanford.math.plex4.metric.impl.EuclideanMetricSpace;
+import edu.stanford.math.plex4.streams.impl.VietorisRipsStream;
+import edu.stanford.math.plex4.utility.ArrayUtility;
 import edu.stanford.math.plex4.utility.RandomUtility;
+import edu.stanford.math.primitivelib.algebraic.impl.ModularIntField;
+import edu.stanford.math.primitivelib.autogen.algebraic.IntAbstractField;
+import edu.stanford.math.primitivelib.autogen.formal_sum.IntAlgebraicFreeModule;
+import edu.stanford.math.primitivelib.autogen.formal_sum.IntSparseFormalSum;
 
 public class VietorisRipsBootstrapTest {
 	@Before
@@ -35,4 +51,78 @@ public class VietorisRipsBootstrapTest {
 		System.out.println("Zigzag barcodes");
 		System.out.println(barcodes);
 	}
+
+	@Test
+	public void testUnionComplexEquality() {
+		RandomUtility.initializeWithSeed(0);
+
+		List<double[][]> pointClouds = new ArrayList<double[][]>();
+		pointClouds.add(PointCloudExamples.getEquispacedCirclePoints(200));
+		pointClouds.add(PointCloudExamples.getRandomFigure8Points(200));
+		double maxDistance = 0.8;
+		int maxDimension = 1;
+		int numSelections = 6;
+		int selectionSize = 15;
+
+		for (double[][] points: pointClouds) {
+			List<int[]> selections = new ArrayList<int[]>();
+			for (int i = 0; i < numSelections; i++) {
+				selections.add(RandomUtility.randomSubset(selectionSize, points.length).toArray());
+			}
+
+			BarcodeCollection<Integer> barcodes = new VietorisRipsBootstrapper(points, maxDistance, maxDimension, selections).performBootstrap();
+			assertEquals(performThreeStreamBootstrap(points, maxDistance, maxDimension, selections), barcodes);
+		}
+	}
+
+	/**
+	 * This function performs the bootstrap by constructing separate Vietoris-Rips streams
+	 * for each subset and for the union of consecutive subsets, in the way
+	 * VietorisRipsBootstrapper did before it only constructed the union.
+	 */
+	private static BarcodeCollection<Integer> performThreeStreamBootstrap(double[][] points, double maxDistance, int maxDimension, List<int[]> selections) {
+		IntAbstractField intField = ModularIntField.getInstance(2);
+		IntAlgebraicFreeModule<Simplex> chainModule = new IntAlgebraicFreeModule<Simplex>(intField);
+
+		List<int[]> indexSelections = new ArrayList<int[]>();
+		for (int[] selection: selections) {
+			indexSelections.add(ArrayUtility.makeMonotone(selection));
+		}
+
+		int[] i_indices = indexSelections.get(0);
+		SimpleHomologyBasisTracker<Simplex> XTracker = getTracker(points, i_indices, maxDistance, maxDimension, intField);
+		IntervalTracker<Integer, Integer, IntSparseFormalSum<Simplex>> result = null;
+
+		for (int j = 1; j < indexSelections.size(); j++) {
+			int[] j_indices = indexSelections.get(j);
+			SimpleHomologyBasisTracker<Simplex> YTracker = getTracker(points, j_indices, maxDistance, maxDimension, intField);
+			SimpleHomologyBasisTracker<Simplex> ZTracker = getTracker(points, ArrayUtility.union(i_indices, j_indices), maxDistance, maxDimension, intField);
+
+			if (result == null) {
+				result = XTracker.getStateWithoutFiniteBarcodes(j - 1);
+				result.setUseLeftClosedIntervals(true);
+				result.setUseRightClosedIntervals(true);
+			}
+
+			result = InducedHomologyMappingUtility.include(XTracker, ZTracker, YTracker, result, chainModule, (j - 1), j);
+
+			XTracker = YTracker;
+			i_indices = j_indices;
+		}
+
+		result.endAllIntervals(indexSelections.size() - 1);
+
+		return BarcodeCollection.forgetGeneratorType(result.getAnnotatedBarcodes().filterByMaxDimension(maxDimension));
+	}
+
+	private static SimpleHomologyBasisTracker<Simplex> getTracker(double[][] points, int[] indices, double maxDistance, int maxDimension, IntAbstractField intField) {
+		VietorisRipsStream<double[]> stream = new VietorisRipsStream<double[]>(new EuclideanMetricSpace(ArrayUtility.getSubset(points, indices)), maxDistance, maxDimension + 1, indices);
+		stream.finalizeStream();
+
+		SimpleHomologyBasisTracker<Simplex> tracker = new SimpleHomologyBasisTracker<Simplex>(intField, SimplexComparator.getInstance(), 0, maxDimension);
+		for (Simplex simplex: stream) {
+			tracker.add(simplex, stream.getFiltrationIndex(simplex));
+		}
+		return tracker;
+	}
 }
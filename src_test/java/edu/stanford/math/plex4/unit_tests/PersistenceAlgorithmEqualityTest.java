@@ -1,5 +1,7 @@
 package edu.stanford.math.plex4.unit_tests;
 
+import static org.junit.Assert.assertEquals;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -9,18 +11,31 @@ import org.junit.Test;
 
 import edu.stanford.math.plex4.api.FilteredStreamInterface;
 import edu.stanford.math.plex4.api.PersistenceAlgorithmInterface;
+import edu.stanford.math.plex4.api.Plex4;
+import edu.stanford.math.plex4.autogen.homology.IntAbsoluteHomology;
 import edu.stanford.math.plex4.examples.CellStreamExamples;
 import edu.stanford.math.plex4.examples.PointCloudExamples;
 import edu.stanford.math.plex4.examples.SimplexStreamExamples;
 import edu.stanford.math.plex4.homology.PersistenceAlgorithmTester;
+import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
 import edu.stanford.math.plex4.homology.chain_basis.Cell;
+import edu.stanford.math.plex4.homology.chain_basis.PackedSimplex;
+import edu.stanford.math.plex4.homology.chain_basis.PackedSimplexComparator;
 import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.homology.chain_basis.SimplexComparator;
 import edu.stanford.math.plex4.homology.interfaces.AbstractPersistenceAlgorithm;
+import edu.stanford.math.plex4.homology.interfaces.AbstractPersistenceBasisAlgorithm;
+import edu.stanford.math.plex4.homology.nonautogen.IntArrayPersistentHomology;
+import edu.stanford.math.plex4.homology.nonautogen.IntPersistentCohomology;
 import edu.stanford.math.plex4.metric.impl.EuclideanMetricSpace;
 import edu.stanford.math.plex4.metric.landmark.LandmarkSelector;
 import edu.stanford.math.plex4.metric.landmark.RandomLandmarkSelector;
+import edu.stanford.math.plex4.streams.impl.ExplicitStream;
 import edu.stanford.math.plex4.streams.interfaces.AbstractFilteredStream;
+import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructureFactory;
 import edu.stanford.math.plex4.utility.RandomUtility;
+import edu.stanford.math.primitivelib.algebraic.impl.ModularIntField;
+import edu.stanford.math.primitivelib.autogen.formal_sum.IntSparseFormalSum;
 
 /**
  * This class contains test for verifying that the different persistence algorithms produce the
@@ -62,6 +77,29 @@ public class PersistenceAlgorithmEqualityTest {
 		PersistenceAlgorithmTester.verifyEquality(algorithms, streams);
 	}
 	
+	/**
+	 * This function verifies that the array-based and map-based implementations of pHcol
+	 * produce identical generators as well as identical intervals, with and without clearing.
+	 */
+	@Test
+	public void testArrayHomologyGenerators() {
+		int maxDimension = 4;
+		
+		List<AbstractFilteredStream<Simplex>> streams = new ArrayList<AbstractFilteredStream<Simplex>>();
+		
+		streams.add(SimplexStreamExamples.getZomorodianCarlssonExample());
+		streams.add(SimplexStreamExamples.getTorus());
+		streams.add(SimplexStreamExamples.getIcosahedron());
+		streams.add(SimplexStreamExamples.getAnnulus(4, 10));
+		streams.add(FilteredStreamInterface.createPlex4VietorisRipsStream(PointCloudExamples.getRandomFigure8Points(60), maxDimension, 0.5, 10));
+		
+		List<AbstractPersistenceBasisAlgorithm<Simplex, IntSparseFormalSum<Simplex>>> algorithms = new ArrayList<AbstractPersistenceBasisAlgorithm<Simplex, IntSparseFormalSum<Simplex>>>();
+		algorithms.add(PersistenceAlgorithmInterface.getIntSimplicialAbsoluteHomology(maxDimension - 1));
+		algorithms.add(PersistenceAlgorithmInterface.getIntSimplicialArrayAbsoluteHomology(maxDimension - 1));
+		algorithms.add(PersistenceAlgorithmInterface.getIntSimplicialTwistAbsoluteHomology(maxDimension - 1));
+		PersistenceAlgorithmTester.verifyEqualityWithGenerators(algorithms, streams);
+	}
+	
 	/**
 	 * This function tests various small examples of filtered cell complexes. Note that we only test
 	 * the orientable examples, due to differing results due to torsion.
@@ -107,6 +145,72 @@ public class PersistenceAlgorithmEqualityTest {
 		PersistenceAlgorithmTester.verifyEquality(algorithms, streams);
 	}
 	
+	/**
+	 * This function tests that the implicit Vietoris-Rips computation produces the same barcodes
+	 * as the algorithms on the constructed complex.
+	 */
+	@Test
+	public void testImplicitVietorisRips() {
+		final int n = 120;
+		final double maxFiltrationValue = 0.5;
+		final int numDivisions = 10;
+		
+		List<double[][]> pointClouds = new ArrayList<double[][]>();
+		pointClouds.add(PointCloudExamples.getEquispacedCirclePoints(n));
+		pointClouds.add(PointCloudExamples.getGaussianPoints(n, 3));
+		pointClouds.add(PointCloudExamples.getRandomFigure8Points(n));
+		pointClouds.add(PointCloudExamples.getRandomSpherePoints(3 * n, 2));
+		
+		for (double[][] pointCloud: pointClouds) {
+			for (int maxDimension = 1; maxDimension <= 4; maxDimension++) {
+				AbstractFilteredStream<Simplex> stream = FilteredStreamInterface.createPlex4VietorisRipsStream(pointCloud, maxDimension, maxFiltrationValue, numDivisions);
+				assertEquals(Plex4.getDefaultSimplicialAlgorithm(maxDimension).computeIntervals(stream), Plex4.computeVietorisRipsBarcodes(pointCloud, maxDimension, maxFiltrationValue, numDivisions));
+			}
+		}
+	}
+	
+	/**
+	 * This function verifies that the persistence algorithms produce the same barcodes
+	 * when the simplices are represented by PackedSimplex objects, using both the
+	 * sorted and the hashed storage structures.
+	 */
+	@Test
+	public void testPackedSimplices() {
+		final int n = 100;
+		final int maxDimension = 3;
+		final double maxFiltrationValue = 0.5;
+		final int numDivisions = 10;
+		
+		List<double[][]> pointClouds = new ArrayList<double[][]>();
+		pointClouds.add(PointCloudExamples.getRandomFigure8Points(n));
+		pointClouds.add(PointCloudExamples.getRandomSpherePoints(2 * n, 2));
+		
+		List<AbstractPersistenceAlgorithm<PackedSimplex>> algorithms = new ArrayList<AbstractPersistenceAlgorithm<PackedSimplex>>();
+		algorithms.add(new IntAbsoluteHomology<PackedSimplex>(ModularIntField.getInstance(2), PackedSimplexComparator.getInstance(), 0, maxDimension));
+		algorithms.add(new IntArrayPersistentHomology<PackedSimplex>(ModularIntField.getInstance(2), PackedSimplexComparator.getInstance(), 0, maxDimension, true));
+		algorithms.add(new IntPersistentCohomology<PackedSimplex>(ModularIntField.getInstance(2), 0, maxDimension));
+		
+		for (double[][] pointCloud: pointClouds) {
+			AbstractFilteredStream<Simplex> stream = FilteredStreamInterface.createPlex4VietorisRipsStream(pointCloud, maxDimension + 1, maxFiltrationValue, numDivisions);
+			BarcodeCollection<Integer> expected = Plex4.getDefaultSimplicialAlgorithm(maxDimension).computeIndexIntervals(stream);
+			
+			ExplicitStream<PackedSimplex> sortedStream = new ExplicitStream<PackedSimplex>(PackedSimplexComparator.getInstance());
+			ExplicitStream<PackedSimplex> hashedStream = new ExplicitStream<PackedSimplex>(StreamStorageStructureFactory.getHashedStorageStructure(PackedSimplexComparator.getInstance()));
+			for (Simplex simplex: stream) {
+				PackedSimplex packedSimplex = new PackedSimplex(simplex.getVertices());
+				sortedStream.addElement(packedSimplex, stream.getFiltrationIndex(simplex));
+				hashedStream.addElement(packedSimplex, stream.getFiltrationIndex(simplex));
+			}
+			sortedStream.finalizeStream();
+			hashedStream.finalizeStream();
+			
+			for (AbstractPersistenceAlgorithm<PackedSimplex> algorithm: algorithms) {
+				assertEquals(expected, algorithm.computeIndexIntervals(sortedStream));
+				assertEquals(expected, algorithm.computeIndexIntervals(hashedStream));
+			}
+		}
+	}
+	
 	/**
 	 * This function tests the algorithms on Lazy-Witness complexes generated from point clouds.
 	 */
@@ -135,6 +239,28 @@ public class PersistenceAlgorithmEqualityTest {
 		PersistenceAlgorithmTester.verifyEquality(algorithms, streams);
 	}
 	
+	/**
+	 * This function verifies that the cohomology algorithm agrees with the homology algorithm
+	 * when the minimum dimension is positive, so that the elements below the minimum dimension
+	 * must still be processed in order to identify the negative elements.
+	 */
+	@Test
+	public void testPositiveMinimumDimension() {
+		final int maxDimension = 3;
+		
+		List<AbstractFilteredStream<Simplex>> streams = new ArrayList<AbstractFilteredStream<Simplex>>();
+		streams.add(SimplexStreamExamples.getTorus());
+		streams.add(FilteredStreamInterface.createPlex4VietorisRipsStream(PointCloudExamples.getRandomFigure8Points(100), maxDimension + 1, 0.5, 10));
+		streams.add(FilteredStreamInterface.createPlex4VietorisRipsStream(PointCloudExamples.getRandomSpherePoints(100, 2), maxDimension + 1, 0.7, 10));
+		
+		for (int minDimension = 1; minDimension <= 2; minDimension++) {
+			List<AbstractPersistenceAlgorithm<Simplex>> algorithms = new ArrayList<AbstractPersistenceAlgorithm<Simplex>>();
+			algorithms.add(new IntAbsoluteHomology<Simplex>(ModularIntField.getInstance(2), SimplexComparator.getInstance(), minDimension, maxDimension));
+			algorithms.add(new IntPersistentCohomology<Simplex>(ModularIntField.getInstance(2), minDimension, maxDimension));
+			PersistenceAlgorithmTester.verifyEquality(algorithms, streams);
+		}
+	}
+	
 	/**
 	 * This function tests a complex that contains approximately 500,000 simplices. It compares the
 	 * efficiency of the different algorithms on a large complex.
@@ -1,5 +1,10 @@
 package edu.stanford.math.plex4.unit_tests;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gnu.trove.TLongHashSet;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -8,12 +13,26 @@ import org.junit.Before;
 import org.junit.Test;
 
 import edu.stanford.math.plex4.examples.PointCloudExamples;
+import edu.stanford.math.plex4.graph.AbstractUndirectedGraph;
+import edu.stanford.math.plex4.graph.UndirectedWeightedListGraph;
+import edu.stanford.math.plex4.graph.WeightedEdgeList;
+import edu.stanford.math.plex4.graph.metric.ShortestPathMetric;
+import edu.stanford.math.plex4.graph.metric.ShortestPathMetricSpace;
+import edu.stanford.math.plex4.graph.random.ErdosRenyiGraph;
+import edu.stanford.math.plex4.graph.utility.GraphUtility;
 import edu.stanford.math.plex4.kd.KDEuclideanMetricSpace;
+import edu.stanford.math.plex4.kd.KDTree;
 import edu.stanford.math.plex4.metric.SearchableMetricSpaceTester;
 import edu.stanford.math.plex4.metric.impl.EuclideanMetricSpace;
+import edu.stanford.math.plex4.metric.impl.ObjectSearchableFiniteMetricSpace;
+import edu.stanford.math.plex4.metric.interfaces.AbstractIntMetricSpace;
 import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
+import edu.stanford.math.plex4.metric.landmark.MaxMinLandmarkSelector;
 import edu.stanford.math.plex4.metric.utility.MetricUtility;
 import edu.stanford.math.plex4.test_utility.Timing;
+import edu.stanford.math.plex4.utility.RandomUtility;
+import edu.stanford.math.primitivelib.autogen.array.DoubleArrayMath;
+import edu.stanford.math.primitivelib.utility.Infinity;
 
 /**
  * This class contains tests for verifying the functionality of the
@@ -76,4 +95,172 @@ public class SearchableMetricSpaceTest {
 		}
 		Timing.stopAndDisplay("KD");
 	}
+	
+	@Test
+	public void testNonEuclideanMetricSpace() {
+		Timing.restart();
+		for (double[][] pointCloud: this.pointCloudExamples) {
+			AbstractSearchableMetricSpace<double[]> metricSpace = new ObjectSearchableFiniteMetricSpace<double[]>(pointCloud) {
+				@Override
+				public double distance(double[] a, double[] b) {
+					double distance = 0;
+					for (int i = 0; i < a.length; i++) {
+						distance += Math.abs(a[i] - b[i]);
+					}
+					return distance;
+				}
+			};
+			
+			double epsilon = MetricUtility.estimateDiameter(metricSpace) / 5.0;
+			
+			SearchableMetricSpaceTester.verifyNearestPoints(metricSpace, queryPointSet);
+			SearchableMetricSpaceTester.verifyKNearestPoints(metricSpace, queryPointSet);
+			SearchableMetricSpaceTester.verifyNeighborhoods(metricSpace, epsilon);
+		}
+		Timing.stopAndDisplay("Manhattan");
+	}
+	
+	@Test
+	public void testKDNeighborPairs() {
+		double[][] points = PointCloudExamples.getGaussianPoints(2000, d);
+		double epsilon = 0.5;
+		
+		WeightedEdgeList edges = new WeightedEdgeList();
+		new KDTree(points).epsilonNeighborPairSearch(epsilon, edges);
+		
+		TLongHashSet pairs = new TLongHashSet();
+		for (int k = 0; k < edges.size(); k++) {
+			int i = Math.min(edges.getFirstVertex(k), edges.getSecondVertex(k));
+			int j = Math.max(edges.getFirstVertex(k), edges.getSecondVertex(k));
+			assertTrue("Pair reported twice.", pairs.add(((long) i << 32) | j));
+			assertEquals(DoubleArrayMath.distance(points[i], points[j]), edges.getWeight(k), 0);
+		}
+		
+		int numPairs = 0;
+		for (int i = 0; i < points.length; i++) {
+			for (int j = i + 1; j < points.length; j++) {
+				if (DoubleArrayMath.distance(points[i], points[j]) <= epsilon) {
+					numPairs++;
+				}
+			}
+		}
+		assertEquals(numPairs, edges.size());
+	}
+	
+	@Test
+	public void testParallelKDNeighborPairs() {
+		double[][] points = PointCloudExamples.getGaussianPoints(2000, d);
+		double epsilon = 0.5;
+		KDTree tree = new KDTree(points);
+		
+		WeightedEdgeList serialEdges = new WeightedEdgeList();
+		tree.epsilonNeighborPairSearch(epsilon, serialEdges);
+		serialEdges.sortByWeight();
+		
+		for (int numThreads = 1; numThreads <= 4; numThreads += 3) {
+			WeightedEdgeList edges = tree.epsilonNeighborPairSearch(epsilon, numThreads);
+			assertEquals(serialEdges.size(), edges.size());
+			for (int k = 0; k < edges.size(); k++) {
+				assertTrue(edges.getFirstVertex(k) < edges.getSecondVertex(k));
+				assertEquals(serialEdges.getFirstVertex(k), edges.getFirstVertex(k));
+				assertEquals(serialEdges.getSecondVertex(k), edges.getSecondVertex(k));
+				assertEquals(serialEdges.getWeight(k), edges.getWeight(k), 0);
+				if (k > 0) {
+					assertTrue("Edges not sorted.", edges.getWeight(k - 1) <= edges.getWeight(k));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testShortestPathMetric() {
+		int n = 300;
+		RandomUtility.initializeWithSeed(7);
+		AbstractUndirectedGraph graph = new ErdosRenyiGraph(n, 0.005).generate();
+		double[][] expected = GraphUtility.computeShortestPaths(graph);
+		
+		// a small cache forces rows to be recomputed
+		ShortestPathMetricSpace metricSpace = new ShortestPathMetricSpace(graph, false, Infinity.Double.getPositiveInfinity(), 8);
+		ShortestPathMetricSpace truncatedSpace = new ShortestPathMetricSpace(graph, false, 3, 8);
+		int numPairs = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				assertEquals(expected[i][j], metricSpace.distance(i, j), 0);
+				double truncated = (expected[i][j] <= 3) ? expected[i][j] : Infinity.Double.getPositiveInfinity();
+				assertEquals(truncated, truncatedSpace.distance(i, j), 0);
+				if (i < j && expected[i][j] <= 2) {
+					numPairs++;
+				}
+			}
+		}
+		
+		WeightedEdgeList edges = truncatedSpace.getNeighborhoodEdges(2, 4);
+		assertEquals(numPairs, edges.size());
+		for (int k = 0; k < edges.size(); k++) {
+			assertEquals(expected[edges.getFirstVertex(k)][edges.getSecondVertex(k)], edges.getWeight(k), 0);
+		}
+		
+		// compare the weighted distances with the Floyd-Warshall algorithm
+		UndirectedWeightedListGraph weightedGraph = new UndirectedWeightedListGraph(n);
+		double[][] weighted = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				weighted[i][j] = (i == j) ? 0 : Double.POSITIVE_INFINITY;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < i; j++) {
+				if (graph.containsEdge(i, j)) {
+					double weight = 1 + RandomUtility.nextUniform();
+					weightedGraph.addEdge(i, j, weight);
+					weighted[i][j] = weighted[j][i] = weight;
+				}
+			}
+		}
+		for (int k = 0; k < n; k++) {
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					weighted[i][j] = Math.min(weighted[i][j], weighted[i][k] + weighted[k][j]);
+				}
+			}
+		}
+		
+		AbstractIntMetricSpace weightedSpace = ShortestPathMetric.getWeightedInstance().createMetricSpace(weightedGraph);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				double distance = (weighted[i][j] == Double.POSITIVE_INFINITY) ? Infinity.Double.getPositiveInfinity() : weighted[i][j];
+				assertEquals(distance, weightedSpace.distance(i, j), 1e-12);
+			}
+		}
+	}
+	
+	@Test
+	public void testMaxMinLandmarks() {
+		double[][] points = PointCloudExamples.getGaussianPoints(3000, d);
+		int numLandmarks = 200;
+		int firstPoint = 17;
+		EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(points);
+		
+		// the straightforward definition: l_i maximizes the distance to the previous landmarks
+		int[] expected = new int[numLandmarks];
+		expected[0] = firstPoint;
+		for (int i = 1; i < numLandmarks; i++) {
+			double maximum = Double.NEGATIVE_INFINITY;
+			for (int z = 0; z < points.length; z++) {
+				double minDistance = Double.POSITIVE_INFINITY;
+				for (int k = 0; k < i; k++) {
+					minDistance = Math.min(minDistance, metricSpace.distance(z, expected[k]));
+				}
+				if (minDistance > maximum) {
+					maximum = minDistance;
+					expected[i] = z;
+				}
+			}
+		}
+		
+		assertArrayEquals(expected, new MaxMinLandmarkSelector<double[]>(metricSpace, numLandmarks, firstPoint).getLandmarkPoints());
+		assertArrayEquals(expected, new MaxMinLandmarkSelector<double[]>(metricSpace, numLandmarks, firstPoint, 4, false).getLandmarkPoints());
+		assertArrayEquals(expected, new MaxMinLandmarkSelector<double[]>(metricSpace, numLandmarks, firstPoint, 1, true).getLandmarkPoints());
+		assertArrayEquals(expected, new MaxMinLandmarkSelector<double[]>(new KDEuclideanMetricSpace(points), numLandmarks, firstPoint, 1, true).getLandmarkPoints());
+	}
 }
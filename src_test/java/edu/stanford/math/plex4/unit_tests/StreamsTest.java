@@ -1,18 +1,61 @@
 package edu.stanford.math.plex4.unit_tests;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import edu.stanford.math.plex4.api.Plex4;
 import edu.stanford.math.plex4.examples.PointCloudExamples;
+import edu.stanford.math.plex4.examples.SimplexStreamExamples;
+import edu.stanford.math.plex4.graph.AbstractWeightedUndirectedGraph;
+import edu.stanford.math.plex4.graph.UndirectedWeightedCSRGraph;
+import edu.stanford.math.plex4.graph.UndirectedWeightedListGraph;
+import edu.stanford.math.plex4.graph.WeightedEdgeList;
 import edu.stanford.math.plex4.homology.StreamTester;
+import edu.stanford.math.plex4.homology.barcodes.BarcodeCollection;
+import edu.stanford.math.plex4.homology.chain_basis.Simplex;
+import edu.stanford.math.plex4.homology.chain_basis.SimplexComparator;
+import edu.stanford.math.plex4.homology.filtration.FiltrationConverter;
+import edu.stanford.math.plex4.homology.filtration.IncreasingLinearConverter;
+import edu.stanford.math.plex4.io.BarcodeBinaryReaderWriter;
+import edu.stanford.math.plex4.io.SimplexStreamBinaryReader;
+import edu.stanford.math.plex4.io.SimplexStreamBinaryReaderWriter;
 import edu.stanford.math.plex4.metric.impl.EuclideanMetricSpace;
+import edu.stanford.math.plex4.metric.interfaces.AbstractSearchableMetricSpace;
 import edu.stanford.math.plex4.metric.landmark.LandmarkSelector;
 import edu.stanford.math.plex4.metric.landmark.RandomLandmarkSelector;
+import edu.stanford.math.plex4.streams.derived.DualStream;
+import edu.stanford.math.plex4.streams.impl.ExplicitSimplexStream;
+import edu.stanford.math.plex4.streams.impl.FlagComplexStream;
+import edu.stanford.math.plex4.streams.impl.FlexibleVietorisRipsStream;
+import edu.stanford.math.plex4.streams.impl.LazyWitnessStream;
+import edu.stanford.math.plex4.streams.impl.VietorisRipsStream;
+import edu.stanford.math.plex4.streams.impl.WitnessStream;
+import edu.stanford.math.plex4.streams.interfaces.AbstractFilteredStream;
+import edu.stanford.math.plex4.streams.storage_structures.MappedStorageStructure;
+import edu.stanford.math.plex4.streams.storage_structures.StreamStorageStructureFactory;
 import edu.stanford.math.plex4.utility.RandomUtility;
+import edu.stanford.math.primitivelib.autogen.pair.IntIntPair;
+import gnu.trove.TDoubleHashSet;
 
 /**
  * This class tests the equality of streams produced by plex 3 and plex 4.
@@ -64,4 +107,423 @@ public class StreamsTest {
 			StreamTester.compareWitnessStreams(landmarkSet, maxDimension, maxFiltrationValue, numDivisions);
 		}
 	}
+	
+	@Test
+	public void testWitnessEngine() {
+		for (double[][] pointCloud: pointClouds) {
+			EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(pointCloud);
+			LandmarkSelector<double[]> landmarkSet = new RandomLandmarkSelector<double[]>(metricSpace, l);
+			compareStreams(getDenseWitnessStream(metricSpace, landmarkSet, maxDimension, maxFiltrationValue, numDivisions), 
+					new WitnessStream<double[]>(metricSpace, landmarkSet, maxDimension, maxFiltrationValue, numDivisions));
+			
+			// the witnesses may themselves be a landmark subset, which does not support getPoints
+			LandmarkSelector<double[]> witnessSet = new RandomLandmarkSelector<double[]>(metricSpace, l);
+			landmarkSet = new RandomLandmarkSelector<double[]>(witnessSet, l / 2);
+			compareStreams(getDenseWitnessStream(witnessSet, landmarkSet, maxDimension, maxFiltrationValue, numDivisions), 
+					new WitnessStream<double[]>(witnessSet, landmarkSet, maxDimension, maxFiltrationValue, numDivisions));
+		}
+	}
+	
+	@Test
+	public void testParallelExpansion() {
+		for (double[][] pointCloud: pointClouds) {
+			EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(pointCloud);
+			FlagComplexStream parallelStream = new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions);
+			parallelStream.setNumThreads(4);
+			compareStreams(new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions), parallelStream);
+			
+			LandmarkSelector<double[]> landmarkSet = new RandomLandmarkSelector<double[]>(metricSpace, l);
+			parallelStream = new LazyWitnessStream<double[]>(metricSpace, landmarkSet, maxDimension, maxFiltrationValue, numDivisions);
+			parallelStream.setNumThreads(4);
+			compareStreams(new LazyWitnessStream<double[]>(metricSpace, landmarkSet, maxDimension, maxFiltrationValue, numDivisions), parallelStream);
+		}
+	}
+
+	@Test
+	public void testMergeIntersectionExpansion() {
+		for (double[][] pointCloud: pointClouds) {
+			EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(pointCloud);
+			// the larger distance gives lower neighborhoods which overlap in many vertices
+			for (double maxDistance: new double[] { maxFiltrationValue, 2 * maxFiltrationValue }) {
+				FlagComplexStream stream = new VietorisRipsStream<double[]>(metricSpace, maxDistance, maxDimension, numDivisions);
+				FlagComplexStream parallelStream = new VietorisRipsStream<double[]>(metricSpace, maxDistance, maxDimension, numDivisions);
+				parallelStream.setNumThreads(4);
+				compareStreams(new HashSetFlagComplexStream(metricSpace, maxDistance, maxDimension, numDivisions), stream);
+				compareStreams(stream, parallelStream);
+			}
+		}
+	}
+
+	@Test
+	public void testLazyWitnessBlocks() {
+		// enough witnesses to be split into several blocks
+		int numPoints = 10000;
+		EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(PointCloudExamples.getRandomSpherePoints(numPoints, 2));
+		LandmarkSelector<double[]> landmarkSet = new RandomLandmarkSelector<double[]>(metricSpace, 50);
+
+		for (int nu = 0; nu <= 2; nu++) {
+			LazyWitnessStream<double[]> stream = new LazyWitnessStream<double[]>(metricSpace, landmarkSet, 2, 2 * maxFiltrationValue, nu, numDivisions);
+			LazyWitnessStream<double[]> parallelStream = new LazyWitnessStream<double[]>(metricSpace, landmarkSet, 2, 2 * maxFiltrationValue, nu, numDivisions);
+			parallelStream.setNumThreads(3);
+			stream.finalizeStream();
+			parallelStream.finalizeStream();
+
+			AbstractWeightedUndirectedGraph graph = stream.getNeighborhoodGraph();
+			AbstractWeightedUndirectedGraph parallelGraph = parallelStream.getNeighborhoodGraph();
+			assertEquals(graph.getNumEdges(), parallelGraph.getNumEdges());
+			for (IntIntPair edge: graph) {
+				assertEquals(graph.getWeight(edge.getFirst(), edge.getSecond()), parallelGraph.getWeight(edge.getFirst(), edge.getSecond()), 0);
+			}
+			for (int x = 0; x < numPoints; x++) {
+				assertEquals(stream.getAssociatedSimplices(x), parallelStream.getAssociatedSimplices(x));
+			}
+
+			// the witnesses of the simplices are optional
+			LazyWitnessStream<double[]> untrackedStream = new LazyWitnessStream<double[]>(metricSpace, landmarkSet, 2, 2 * maxFiltrationValue, nu, numDivisions);
+			untrackedStream.setNumThreads(2);
+			untrackedStream.setSaveAssociatedSimplices(false);
+			compareStreams(stream, untrackedStream);
+		}
+	}
+	
+	@Test
+	public void testExactFiltrationValues() {
+		for (double[][] pointCloud: pointClouds) {
+			EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(pointCloud);
+			
+			// the exact filtration values are the vertex value and the distinct lengths of the edges
+			TDoubleHashSet lengths = new TDoubleHashSet();
+			lengths.add(0);
+			for (int i = 0; i < n; i++) {
+				for (int j = i + 1; j < n; j++) {
+					if (metricSpace.distance(i, j) <= maxFiltrationValue) {
+						lengths.add(metricSpace.distance(i, j));
+					}
+				}
+			}
+			double[] filtrationValues = lengths.toArray();
+			
+			FlagComplexStream stream = new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions);
+			stream.setExactFiltrationValues(true);
+			compareStreams(new VietorisRipsStream<double[]>(metricSpace, filtrationValues, maxDimension), stream);
+			for (Simplex simplex: stream) {
+				int[] vertices = simplex.getVertices();
+				double value = 0;
+				for (int i = 0; i < vertices.length; i++) {
+					for (int j = i + 1; j < vertices.length; j++) {
+						value = Math.max(value, metricSpace.distance(vertices[i], vertices[j]));
+					}
+				}
+				assertEquals(value, stream.getFiltrationValue(simplex), 0);
+			}
+			
+			FlagComplexStream parallelStream = new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions);
+			parallelStream.setExactFiltrationValues(true);
+			parallelStream.setNumThreads(4);
+			compareStreams(stream, parallelStream);
+			
+			FlagComplexStream columnarStream = new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions, StreamStorageStructureFactory.getColumnarStorageStructure());
+			columnarStream.setExactFiltrationValues(true);
+			compareStreams(stream, columnarStream);
+		}
+	}
+	
+	@Test
+	public void testCompressedGraph() {
+		for (double[][] pointCloud: pointClouds) {
+			UndirectedWeightedListGraph listGraph = FlexibleVietorisRipsStream.constructNeighborhoodGraph(new EuclideanMetricSpace(pointCloud), maxFiltrationValue);
+			UndirectedWeightedCSRGraph graph = UndirectedWeightedCSRGraph.copyOf(listGraph);
+			
+			assertEquals(n, graph.getNumVertices());
+			for (int v = 0; v < n; v++) {
+				assertEquals(listGraph.getLowerNeighbors(v), graph.getLowerNeighbors(v));
+				assertEquals(graph.getLowerNeighbors(v).size(), graph.getLowerDegree(v));
+				for (int k = 0; k < graph.getLowerDegree(v); k++) {
+					int u = graph.getLowerNeighbor(v, k);
+					assertEquals(listGraph.getWeight(u, v), graph.getLowerWeight(v, k), 0);
+					assertEquals(listGraph.getWeight(u, v), graph.getWeight(v, u), 0);
+				}
+			}
+		}
+		
+		// loops are ignored, and a repeated edge keeps its last weight
+		WeightedEdgeList edges = new WeightedEdgeList();
+		edges.add(2, 0, 0.5);
+		edges.add(1, 1, 0.25);
+		edges.add(0, 2, 0.75);
+		edges.add(1, 2, 0.125);
+		UndirectedWeightedCSRGraph graph = new UndirectedWeightedCSRGraph(3, edges);
+		assertEquals(2, graph.getNumEdges());
+		assertEquals(0.75, graph.getWeight(2, 0), 0);
+		assertFalse(graph.containsEdge(1, 1));
+		assertFalse(graph.containsEdge(0, 1));
+		assertEquals(2, graph.getLowerDegree(2));
+		assertEquals(0, graph.getLowerNeighbor(2, 0));
+		assertEquals(1, graph.getLowerNeighbor(2, 1));
+	}
+	
+	@Test
+	public void testLazyDualStream() {
+		for (double[][] pointCloud: pointClouds) {
+			EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(pointCloud);
+			compareDualStreams(new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions));
+			compareDualStreams(new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions, StreamStorageStructureFactory.getColumnarStorageStructure()));
+			compareDualStreams(new LazyWitnessStream<double[]>(metricSpace, new RandomLandmarkSelector<double[]>(metricSpace, l), maxDimension, maxFiltrationValue, numDivisions));
+		}
+		compareDualStreams(SimplexStreamExamples.getTorus());
+	}
+	
+	@Test
+	public void testColumnarStorage() {
+		for (double[][] pointCloud: pointClouds) {
+			EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(pointCloud);
+			compareStreams(new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions), 
+					new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions, StreamStorageStructureFactory.getColumnarStorageStructure()));
+		}
+		
+		// elements which are added twice must be replaced
+		AbstractFilteredStream<Simplex> torus = SimplexStreamExamples.getTorus();
+		torus.finalizeStream();
+		ExplicitSimplexStream stream = new ExplicitSimplexStream(StreamStorageStructureFactory.getColumnarStorageStructure());
+		for (Simplex simplex: torus) {
+			stream.addElement(simplex, 1);
+			stream.addElement(simplex, torus.getFiltrationIndex(simplex));
+		}
+		compareStreams(torus, stream);
+	}
+	
+	@Test
+	public void testMappedStorage() throws IOException {
+		File file = File.createTempFile("stream", ".bin");
+		file.deleteOnExit();
+		
+		for (double[][] pointCloud: pointClouds) {
+			// use a small run size, so that the simplices are merged from several runs
+			EuclideanMetricSpace metricSpace = new EuclideanMetricSpace(pointCloud);
+			compareStreams(new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions), 
+					new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions, new MappedStorageStructure(file, maxDimension, 1000)));
+			
+			ExplicitSimplexStream stream = new ExplicitSimplexStream(MappedStorageStructure.open(file));
+			compareStreams(new VietorisRipsStream<double[]>(metricSpace, maxFiltrationValue, maxDimension, numDivisions), stream);
+			assertFalse(stream.containsElement(Simplex.makeSimplex(0, pointCloud.length)));
+		}
+	}
+	
+	@Test
+	public void testMappedStorageIndexCapacity() {
+		assertEquals(16, MappedStorageStructure.getIndexCapacity(0));
+		assertEquals(32, MappedStorageStructure.getIndexCapacity(9));
+		assertEquals(1 << 30, MappedStorageStructure.getIndexCapacity(MappedStorageStructure.MAX_SIZE));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testMappedStorageMaximumSize() {
+		MappedStorageStructure.getIndexCapacity(MappedStorageStructure.MAX_SIZE + 1);
+	}
+	
+	@Test
+	public void testBinaryFormat() throws IOException {
+		File file = File.createTempFile("stream", ".p4s");
+		file.deleteOnExit();
+		
+		for (double[][] pointCloud: pointClouds) {
+			VietorisRipsStream<double[]> stream = new VietorisRipsStream<double[]>(new EuclideanMetricSpace(pointCloud), maxFiltrationValue, maxDimension, numDivisions);
+			stream.finalizeStream();
+			SimplexStreamBinaryReaderWriter.getInstance().writeToFile(stream, file.getPath());
+			compareStreams(stream, SimplexStreamBinaryReaderWriter.getInstance().importFromFile(file.getPath()));
+			compareStreams(stream, SimplexStreamBinaryReaderWriter.getInstance().importFromFile(file.getPath(), StreamStorageStructureFactory.getDefaultStorageStructure(SimplexComparator.getInstance())));
+			
+			BarcodeCollection<Integer> indexBarcodes = Plex4.getDefaultSimplicialAlgorithm(maxDimension).computeIndexIntervals(stream);
+			BarcodeBinaryReaderWriter.getInstance().writeIndexBarcodesToFile(indexBarcodes, file.getPath());
+			assertEquals(indexBarcodes, BarcodeBinaryReaderWriter.getInstance().importIndexBarcodesFromFile(file.getPath()));
+			
+			BarcodeCollection<Double> barcodes = Plex4.getDefaultSimplicialAlgorithm(maxDimension).computeIntervals(stream);
+			BarcodeBinaryReaderWriter.getInstance().writeToFile(barcodes, file.getPath());
+			assertEquals(barcodes, BarcodeBinaryReaderWriter.getInstance().importFromFile(file.getPath()));
+		}
+	}
+	
+	@Test
+	public void testCorruptBinaryFormat() throws IOException {
+		// a single record with a filtration index of 0, a number of vertices and the vertex 0
+		byte[][] numVerticesEncodings = new byte[][] {
+				{ 0 },
+				{ 2 },
+				{ (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F }
+		};
+		for (byte[] numVertices: numVerticesEncodings) {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			payload.write(0);
+			payload.write(numVertices);
+			payload.write(0);
+			CRC32 crc = new CRC32();
+			crc.update(payload.toByteArray());
+			
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeInt(0x504C5842);
+			output.writeInt(2);
+			output.writeInt(1);
+			output.writeLong(1);
+			output.writeInt(payload.size());
+			output.writeInt((int) crc.getValue());
+			output.write(payload.toByteArray());
+			output.writeInt(0);
+			
+			SimplexStreamBinaryReader reader = new SimplexStreamBinaryReader(new ByteArrayInputStream(bytes.toByteArray()));
+			try {
+				reader.next();
+				fail();
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("offset 29"));
+			}
+		}
+	}
+	
+	/**
+	 * This function checks that the two streams contain the same simplices, in the same order 
+	 * and with the same filtration indices.
+	 */
+	private static void compareDualStreams(AbstractFilteredStream<Simplex> stream) {
+		stream.finalizeStream();
+		DualStream<Simplex> expectedStream = new DualStream<Simplex>(stream);
+		DualStream<Simplex> lazyStream = new DualStream<Simplex>(stream, true);
+		
+		Iterator<Simplex> iterator = lazyStream.iterator();
+		for (Simplex simplex: expectedStream) {
+			assertEquals(simplex, iterator.next());
+			assertArrayEquals(expectedStream.getBoundary(simplex), lazyStream.getBoundary(simplex));
+			assertArrayEquals(expectedStream.getBoundaryCoefficients(simplex), lazyStream.getBoundaryCoefficients(simplex));
+		}
+		assertFalse(iterator.hasNext());
+	}
+	
+	/**
+	 * This class expands a Vietoris-Rips complex with the intersection of lower neighbor
+	 * hash sets, as FlagComplexStream did before it merged sorted neighbor arrays.
+	 */
+	private static class HashSetFlagComplexStream extends FlagComplexStream {
+		private final EuclideanMetricSpace metricSpace;
+		private final double maxDistance;
+		
+		HashSetFlagComplexStream(EuclideanMetricSpace metricSpace, double maxDistance, int maxDimension, int numDivisions) {
+			super(maxDimension, new IncreasingLinearConverter(numDivisions, maxDistance));
+			this.metricSpace = metricSpace;
+			this.maxDistance = maxDistance;
+		}
+		
+		@Override
+		protected AbstractWeightedUndirectedGraph constructEdges() {
+			return FlexibleVietorisRipsStream.constructNeighborhoodGraph(this.metricSpace, this.maxDistance);
+		}
+		
+		@SuppressWarnings("deprecation")
+		@Override
+		protected void incrementalExpansion(AbstractWeightedUndirectedGraph G, int k) {
+			UndirectedWeightedListGraph graph = (UndirectedWeightedListGraph) G;
+			for (int u = 0; u < graph.getNumVertices(); u++) {
+				this.addCofaces(graph, k, new Simplex(new int[] { u }), graph.getLowerNeighbors(u), this.converter.getInitialFiltrationValue());
+			}
+		}
+	}
+	
+	/**
+	 * This function builds a witness complex from the full matrix of distances between
+	 * the landmarks and the witnesses, in the way WitnessStream did before it used
+	 * short landmark lists.
+	 */
+	private static <T> ExplicitSimplexStream getDenseWitnessStream(AbstractSearchableMetricSpace<T> metricSpace, LandmarkSelector<T> landmarkSet, int maxDimension, double maxDistance, int numDivisions) {
+		FiltrationConverter converter = new IncreasingLinearConverter(numDivisions, maxDistance);
+		int N = metricSpace.size();
+		int L = landmarkSet.size();
+		int maxLen = (maxDimension < 0 || maxDimension >= L) ? L : maxDimension + 1;
+		
+		double[][] D = new double[L][N];
+		for (int ll = 0; ll < L; ll++) {
+			for (int nn = 0; nn < N; nn++) {
+				D[ll][nn] = metricSpace.distance(landmarkSet.getLandmarkIndex(ll), nn);
+			}
+		}
+		double[][] m = new double[maxLen][N];
+		double[] column = new double[L];
+		for (int nn = 0; nn < N; nn++) {
+			for (int ll = 0; ll < L; ll++) {
+				column[ll] = D[ll][nn];
+			}
+			Arrays.sort(column);
+			for (int ll = 0; ll < maxLen; ll++) {
+				m[ll][nn] = column[ll];
+			}
+		}
+		
+		Map<Simplex, Integer> filtrationIndices = new HashMap<Simplex, Integer>();
+		List<Integer> lowerVertices = new ArrayList<Integer>();
+		for (int ll = 0; ll < L; ll++) {
+			if (addDenseWitnessCofaces(ll, new int[] {}, null, lowerVertices, landmarkSet.getLandmarkPoints(), D, m, maxDimension, maxDistance, converter, filtrationIndices)) {
+				lowerVertices.add(ll);
+			}
+		}
+		
+		ExplicitSimplexStream stream = new ExplicitSimplexStream();
+		for (Map.Entry<Simplex, Integer> entry: filtrationIndices.entrySet()) {
+			stream.addElement(entry.getKey(), entry.getValue());
+		}
+		return stream;
+	}
+	
+	private static boolean addDenseWitnessCofaces(int i0, int[] s1, double[] Dm1, List<Integer> lowerVertices, int[] indices, double[][] D, double[][] m, 
+			int maxDimension, double maxDistance, FiltrationConverter converter, Map<Simplex, Integer> filtrationIndices) {
+		int dim = s1.length;
+		int N = D[i0].length;
+		double[] Dm = new double[N];
+		int[] vertices = new int[dim + 1];
+		vertices[0] = indices[i0];
+		System.arraycopy(s1, 0, vertices, 1, dim);
+		
+		int filtrationIndex = converter.getFiltrationIndex(0.0);
+		if (dim == 0) {
+			System.arraycopy(D[i0], 0, Dm, 0, N);
+		} else {
+			for (Simplex face: new Simplex(vertices).getBoundaryArray()) {
+				if (!filtrationIndices.containsKey(face)) {
+					return false;
+				}
+				filtrationIndex = Math.max(filtrationIndex, filtrationIndices.get(face));
+			}
+			double filtrationValue = Double.POSITIVE_INFINITY;
+			for (int nn = 0; nn < N; nn++) {
+				Dm[nn] = Math.max(Dm1[nn], D[i0][nn]);
+				filtrationValue = Math.min(filtrationValue, Dm[nn] - m[dim][nn]);
+			}
+			if (filtrationValue > maxDistance) {
+				return false;
+			}
+			filtrationIndex = Math.max(filtrationIndex, converter.getFiltrationIndex(filtrationValue));
+		}
+		filtrationIndices.put(new Simplex(vertices), filtrationIndex);
+		
+		if (dim < maxDimension) {
+			List<Integer> newLowerVertices = new ArrayList<Integer>();
+			for (int ll: lowerVertices) {
+				if (addDenseWitnessCofaces(ll, vertices, Dm, newLowerVertices, indices, D, m, maxDimension, maxDistance, converter, filtrationIndices)) {
+					newLowerVertices.add(ll);
+				}
+			}
+		}
+		return true;
+	}
+	
+	private static void compareStreams(AbstractFilteredStream<Simplex> expectedStream, AbstractFilteredStream<Simplex> stream) {
+		expectedStream.finalizeStream();
+		stream.finalizeStream();
+		
+		assertEquals(expectedStream.getSize(), stream.getSize());
+		Iterator<Simplex> iterator = stream.iterator();
+		for (Simplex simplex: expectedStream) {
+			Simplex other = iterator.next();
+			assertEquals(simplex, other);
+			assertEquals(expectedStream.getFiltrationIndex(simplex), stream.getFiltrationIndex(other));
+		}
+		assertFalse(iterator.hasNext());
+	}
 }